@@ -0,0 +1,100 @@
+/**
+ * A DelayCallback for when there's no user interface to put a ProgressDialog on: it writes a line
+ * to a PrintStream (usually System.err) whenever another ten percent of the job is done, and
+ * reports any warnings once the job ends. Since there's nobody to press 'Cancel', it never aborts
+ * anything.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+ * TaxonDNA
+ * Copyright (C) 2005 Gaurav Vaidya
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package com.ggvaidya.TaxonDNA.Common;
+
+import java.io.*;
+import java.util.*;
+
+public class ConsoleDelayCallback implements DelayCallback {
+    private PrintStream out;
+    private String title;
+
+    private volatile int last_step = -1; // the last ten percent we reported
+    private long started = 0;
+    private ProgressCounter counter = new ProgressCounter();
+    private Vector<String> warnings = new Vector<String>();
+
+    /** Creates a ConsoleDelayCallback which reports on 'title' to 'out'. */
+    public ConsoleDelayCallback(PrintStream out, String title) {
+        this.out = out;
+        this.title = title;
+    }
+
+    /** Creates a ConsoleDelayCallback which reports on 'title' to System.err. */
+    public ConsoleDelayCallback(String title) {
+        this(System.err, title);
+    }
+
+    public synchronized void begin() {
+        last_step = -1;
+        started = System.currentTimeMillis();
+        counter.reset();
+        warnings.clear();
+
+        out.println(title + " ...");
+    }
+
+    public synchronized void end() {
+        out.println(
+                title + ": done (" + (System.currentTimeMillis() - started) / 1000.0 + " seconds)");
+
+        Iterator<String> i = warnings.iterator();
+        while (i.hasNext()) out.println(title + ": warning: " + i.next());
+        warnings.clear();
+    }
+
+    /**
+     * Notes how far along we are. This is called very often (possibly from several threads at
+     * once), so we only lock anything when there's another ten percent to report.
+     */
+    public void delay(int done, int total) throws DelayAbortedException {
+        if (total <= 0) return;
+
+        int step = (int) ((long) done * 10 / total);
+        if (step <= last_step) return;
+
+        synchronized (this) {
+            if (step <= last_step) return;
+            last_step = step;
+
+            counter.set(done, total);
+            String left = "";
+            double seconds = counter.getSecondsLeft();
+            if (seconds >= 0 && step < 10)
+                left = " (about " + ProgressCounter.describeSeconds(seconds) + " left)";
+
+            out.println(title + ": " + (step * 10) + "%" + left);
+        }
+    }
+
+    public synchronized void addWarning(String warning) {
+        warnings.add(warning);
+    }
+}
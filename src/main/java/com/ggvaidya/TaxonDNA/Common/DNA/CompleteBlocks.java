@@ -0,0 +1,461 @@
+/**
+ * CompleteBlocks looks at every block ("window") of a particular width in a SequenceList, and
+ * counts up the sequences which are complete (have no external gaps, and reach all the way to the
+ * end of the block) in each of them, along with the number of species and non-singleton species
+ * these sequences belong to. Optionally, sequences with too many ambiguous bases in a block can be
+ * left out of it altogether.
+ *
+ * <p>Rather than look at every base of every sequence in every block (which would take the length
+ * of the alignment times the width of the block times the number of sequences), we make a running
+ * count of external gaps and ambiguous bases along each sequence. The number of gaps (or ambiguous
+ * bases) in any block is then the difference between the counts at its two ends, so checking a
+ * sequence against a block takes constant time, and the whole thing takes the length of the
+ * alignment times the number of sequences.
+ *
+ * <p>The work is shared out between one worker per processor, species by species: a worker counts
+ * up every sequence of a species (so it knows how many of them are in each block, and therefore
+ * whether the species counts as a singleton there) before moving on to the next one. Sequences
+ * without a species name are counted, but don't belong to any species.
+ *
+ * <p>Along the way, we also find the largest complete block of all (the longest stretch in which
+ * every sequence has data) and the block with the most complete sequences.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class CompleteBlocks implements Testable {
+    private int width;
+    private int ambiguous_allowed;
+    private boolean defined_only;
+
+    private int max_length = 0;
+    private int count_sequences = 0;
+
+    // for each block (by its starting position) ...
+    private int[] sequences; // ... the number of complete sequences
+    private int[] sequences_defined; // ... the number of those with few enough ambiguous bases
+    private int[] species; // ... the number of species they belong to
+    private int[] non_singletons; // ... the number of those with more than one sequence
+
+    // for each position, the number of sequences with data there
+    private int[] coverage;
+
+    // the work units: each is either all the sequences of one species,
+    // or a single sequence without a species name
+    private Vector<Vector<Sequence>> units = new Vector<Vector<Sequence>>();
+
+    /** Only used to run test(); there won't be any blocks in here. */
+    public CompleteBlocks() {}
+
+    /**
+     * Counts up the complete sequences in every block of 'width' bases in 'list'. A sequence with
+     * more than 'ambiguous_allowed' ambiguous bases in a block isn't "defined" in that block; if
+     * 'defined_only' is set, it isn't counted there at all.
+     *
+     * @throws DelayAbortedException if the user aborted the count
+     */
+    public CompleteBlocks(
+            SequenceList list,
+            int width,
+            int ambiguous_allowed,
+            boolean defined_only,
+            DelayCallback delay)
+            throws DelayAbortedException {
+        this.width = width;
+        this.ambiguous_allowed = ambiguous_allowed;
+        this.defined_only = defined_only;
+
+        list.lock();
+
+        try {
+            max_length = list.getMaxLength();
+            count_sequences = list.count();
+
+            // sort the sequences into species
+            Hashtable<String, Vector<Sequence>> by_species =
+                    new Hashtable<String, Vector<Sequence>>();
+            Iterator i = list.iterator();
+            while (i.hasNext()) {
+                Sequence seq = (Sequence) i.next();
+
+                Vector<Sequence> unit = null;
+                if (seq.getSpeciesName() != null) unit = by_species.get(seq.getSpeciesName());
+
+                if (unit == null) {
+                    unit = new Vector<Sequence>();
+                    units.add(unit);
+
+                    if (seq.getSpeciesName() != null) by_species.put(seq.getSpeciesName(), unit);
+                }
+                unit.add(seq);
+            }
+
+            if (delay != null) delay.begin();
+
+            run(delay);
+        } finally {
+            list.unlock();
+        }
+
+        if (delay != null) delay.end();
+    }
+
+    /** Runs the workers, and puts their counts together once they're done. */
+    private void run(DelayCallback delay) throws DelayAbortedException {
+        BlockWorker[] workers = new BlockWorker[ParallelLoop.countWorkers(units.size())];
+        for (int x = 0; x < workers.length; x++) workers[x] = new BlockWorker();
+
+        try {
+            ParallelLoop.run(units.size(), workers, delay);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(
+                    "Error while looking for complete blocks: " + e.getCause(), e.getCause());
+        }
+
+        // put the counts together
+        sequences = new int[count()];
+        sequences_defined = new int[count()];
+        species = new int[count()];
+        non_singletons = new int[count()];
+        coverage = new int[max_length];
+
+        for (int x = 0; x < workers.length; x++) {
+            BlockWorker worker = workers[x];
+
+            for (int y = 0; y < count(); y++) {
+                sequences[y] += worker.sequences[y];
+                sequences_defined[y] += worker.sequences_defined[y];
+                species[y] += worker.species[y];
+                non_singletons[y] += worker.non_singletons[y];
+            }
+
+            for (int y = 0; y < max_length; y++) coverage[y] += worker.coverage[y];
+        }
+    }
+
+    /** A BlockWorker counts up one species at a time, into counts of its own. */
+    private class BlockWorker implements ParallelLoop.Body {
+        private int[] sequences = new int[count()];
+        private int[] sequences_defined = new int[count()];
+        private int[] species = new int[count()];
+        private int[] non_singletons = new int[count()];
+        private int[] coverage = new int[max_length];
+
+        // running counts of external gaps and ambiguous bases before each position,
+        // for the sequences of the species we're working on
+        private int[][] gaps = new int[0][];
+        private int[][] ambiguous = new int[0][];
+        private int[] lengths = new int[0];
+
+        // the number of sequences of this species in each block
+        private int[] here = new int[count()];
+
+        /** Counts up unit number 'index'. */
+        public void process(int index) {
+            process(units.get(index));
+        }
+
+        /** Counts up the sequences in 'unit', all of which are of the same species (or unnamed). */
+        private void process(Vector<Sequence> unit) {
+            int n = unit.size();
+            if (gaps.length < n) {
+                gaps = new int[n][max_length + 1];
+                ambiguous = new int[n][max_length + 1];
+                lengths = new int[n];
+            }
+
+            for (int x = 0; x < n; x++) {
+                Sequence seq = unit.get(x);
+                String str = seq.getSequenceWithExternalGaps();
+
+                int length = Math.min(str.length(), max_length);
+                int[] gaps_before = gaps[x];
+                int[] ambiguous_before = ambiguous[x];
+                for (int y = 0; y < length; y++) {
+                    char ch = str.charAt(y);
+
+                    gaps_before[y + 1] = gaps_before[y];
+                    ambiguous_before[y + 1] = ambiguous_before[y];
+
+                    if (ch == '_') gaps_before[y + 1]++;
+                    else coverage[y]++;
+
+                    if (Sequence.isAmbiguous(ch)) ambiguous_before[y + 1]++;
+                }
+                lengths[x] = length;
+            }
+
+            // named species are counted once per block, no matter how many sequences
+            // they have there; unnamed sequences aren't species at all.
+            boolean named = (unit.get(0).getSpeciesName() != null);
+
+            for (int from = 0; from < here.length; from++) {
+                int to = from + width;
+
+                for (int x = 0; x < n; x++) {
+                    // does it reach all the way, without any external gaps?
+                    if (lengths[x] < to || gaps[x][to] != gaps[x][from]) continue;
+
+                    boolean defined = (ambiguous[x][to] - ambiguous[x][from] <= ambiguous_allowed);
+                    if (defined_only && !defined) continue;
+
+                    sequences[from]++;
+                    if (defined) sequences_defined[from]++;
+                    here[from]++;
+                }
+
+                if (named && here[from] > 0) species[from]++;
+                if (named && here[from] > 1) non_singletons[from]++;
+                here[from] = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of blocks, i.e. the number of positions a block of this width can start
+     * at.
+     */
+    public int count() {
+        return Math.max(0, max_length - width + 1);
+    }
+
+    /** Returns the width of the blocks. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the number of complete sequences in the block starting at 'from' (from zero). */
+    public int getSequences(int from) {
+        return sequences[from];
+    }
+
+    /**
+     * Returns the number of complete sequences in the block starting at 'from' with no more than
+     * the allowed number of ambiguous bases.
+     */
+    public int getSequencesDefined(int from) {
+        return sequences_defined[from];
+    }
+
+    /** Returns the number of species with complete sequences in the block starting at 'from'. */
+    public int getSpecies(int from) {
+        return species[from];
+    }
+
+    /**
+     * Returns the number of species with more than one complete sequence in the block starting at
+     * 'from'.
+     */
+    public int getNonSingletons(int from) {
+        return non_singletons[from];
+    }
+
+    /**
+     * Returns the start of the block with the most complete sequences (and, of those, the one with
+     * the most species; and of those, the first one), or -1 if there are no blocks at all.
+     */
+    public int getBestBlock() {
+        int best = -1;
+
+        for (int x = 0; x < count(); x++) {
+            if (best == -1
+                    || sequences[x] > sequences[best]
+                    || (sequences[x] == sequences[best] && species[x] > species[best])) best = x;
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the largest complete block of all, in which every sequence has data (whether or not
+     * it's ambiguous). The block is returned as an array of {from, to}, counting from zero and not
+     * including 'to' itself; if there's no such block at all, both are zero.
+     */
+    public int[] getLargestCompleteBlock() {
+        int[] largest = new int[2];
+
+        int start = 0;
+        for (int x = 0; x <= max_length; x++) {
+            if (x < max_length && count_sequences > 0 && coverage[x] == count_sequences) continue;
+
+            // the run from 'start' to 'x' has just ended
+            if (x - start > largest[1] - largest[0]) {
+                largest[0] = start;
+                largest[1] = x;
+            }
+            start = x + 1;
+        }
+
+        return largest;
+    }
+
+    /**
+     * Tests CompleteBlocks against the plain old way of counting: for every block, look at every
+     * base of every sequence in it.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.CompleteBlocks");
+
+        // sequences of different lengths, with external gaps, internal gaps and ambiguous
+        // bases scattered about; a few species have several sequences, and a few have none.
+        SequenceList list = new SequenceList();
+        Random random = new Random(2005);
+        String bases = "ACGTACGTACGTACGTNRY-";
+        try {
+            for (int x = 0; x < 40; x++) {
+                char[] seq = new char[60 + random.nextInt(20)];
+                for (int y = 0; y < seq.length; y++)
+                    seq[y] = bases.charAt(random.nextInt(bases.length()));
+
+                // external gaps at either end
+                int start = random.nextInt(4) == 0 ? random.nextInt(15) : 0;
+                int end = random.nextInt(4) == 0 ? seq.length - random.nextInt(15) : seq.length;
+                for (int y = 0; y < start; y++) seq[y] = '-';
+                for (int y = end; y < seq.length; y++) seq[y] = '-';
+
+                String name = "Testus species" + (char) ('a' + random.nextInt(15)) + " " + x;
+                if (random.nextInt(8) == 0) name = "unnamed_" + x;
+
+                list.add(new Sequence(name, new String(seq)));
+            }
+        } catch (SequenceException e) {
+            testMaster.failed("Could not create the test sequences: " + e);
+            testMaster.done();
+            return;
+        }
+
+        int[] widths = new int[] {1, 5, 20, 80};
+        for (int w = 0; w < widths.length; w++) {
+            for (int defined_only = 0; defined_only < 2; defined_only++) {
+                int width = widths[w];
+                int ambiguous_allowed = width / 10;
+
+                testMaster.beginTest(
+                        "Count blocks of "
+                                + width
+                                + " bases"
+                                + ((defined_only == 1) ? " (defined only)" : "")
+                                + ", the same as the old way");
+
+                CompleteBlocks blocks =
+                        new CompleteBlocks(
+                                list, width, ambiguous_allowed, defined_only == 1, delay);
+
+                String error = null;
+                int count = Math.max(0, list.getMaxLength() - width + 1);
+                if (blocks.count() != count)
+                    error = "There are " + blocks.count() + " blocks instead of " + count;
+
+                for (int from = 0; from < count && error == null; from++) {
+                    int[] expected =
+                            countTheOldWay(
+                                    list, from, from + width, ambiguous_allowed, defined_only == 1);
+                    int[] actual =
+                            new int[] {
+                                blocks.getSequences(from),
+                                blocks.getSpecies(from),
+                                blocks.getNonSingletons(from),
+                                blocks.getSequencesDefined(from)
+                            };
+
+                    if (!Arrays.equals(expected, actual))
+                        error =
+                                "The block starting at "
+                                        + from
+                                        + " has "
+                                        + Arrays.toString(actual)
+                                        + " instead of "
+                                        + Arrays.toString(expected);
+                }
+
+                if (error == null) testMaster.succeeded();
+                else testMaster.failed(error);
+            }
+        }
+
+        testMaster.beginTest("Find the largest complete block, the same as the old way");
+        CompleteBlocks blocks = new CompleteBlocks(list, 1, 0, false, delay);
+        int[] largest = new int[2];
+        for (int from = 0; from < list.getMaxLength(); from++) {
+            for (int to = from + 1; to <= list.getMaxLength(); to++) {
+                if (countTheOldWay(list, from, to, to - from, false)[0] < list.count()) break;
+                if (to - from > largest[1] - largest[0]) largest = new int[] {from, to};
+            }
+        }
+        if (Arrays.equals(largest, blocks.getLargestCompleteBlock())) testMaster.succeeded();
+        else
+            testMaster.failed(
+                    "The largest complete block is "
+                            + Arrays.toString(blocks.getLargestCompleteBlock())
+                            + " instead of "
+                            + Arrays.toString(largest));
+
+        testMaster.done();
+    }
+
+    /**
+     * Counts up {sequences, species, non-singleton species, defined sequences} in the block from
+     * 'from' to 'to' by looking at every base of every sequence in it.
+     */
+    private static int[] countTheOldWay(
+            SequenceList list, int from, int to, int ambiguous_allowed, boolean defined_only) {
+        int[] results = new int[4];
+        Hashtable<String, Integer> counts = new Hashtable<String, Integer>();
+
+        Iterator i = list.iterator();
+        while (i.hasNext()) {
+            Sequence seq = (Sequence) i.next();
+            String str = seq.getSequenceWithExternalGaps();
+            if (str.length() < to) continue;
+
+            boolean complete = true;
+            int count_ambiguous = 0;
+            for (int x = from; x < to; x++) {
+                if (str.charAt(x) == '_') complete = false;
+                if (Sequence.isAmbiguous(str.charAt(x))) count_ambiguous++;
+            }
+            if (!complete) continue;
+            if (defined_only && count_ambiguous > ambiguous_allowed) continue;
+
+            results[0]++;
+            if (count_ambiguous <= ambiguous_allowed) results[3]++;
+
+            String name = seq.getSpeciesName();
+            if (name == null) continue;
+
+            Integer count = counts.get(name);
+            counts.put(name, Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+        }
+
+        Iterator<Integer> j = counts.values().iterator();
+        while (j.hasNext()) {
+            results[1]++;
+            if (j.next().intValue() > 1) results[2]++;
+        }
+
+        return results;
+    }
+}
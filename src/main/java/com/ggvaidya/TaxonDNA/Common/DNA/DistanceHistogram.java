@@ -0,0 +1,237 @@
+/**
+ * A DistanceHistogram is a fixed-resolution histogram of pairwise distances. It's what
+ * PairwiseDistribution uses in its 'sketch' mode, when there are far too many distances to keep
+ * every one of them in memory.
+ *
+ * <p>Every distance is dropped into a bucket Settings.getAccurateTo() wide (i.e. distances are
+ * rounded *down* to the accuracy we report to anyway), so memory use depends only on the range of
+ * the distances and not on how many of them there are: 100,001 longs cover the entire range from 0
+ * to 1 at the default accuracy of 0.00001. Anything we have no bucket for (infinite or NaN
+ * distances, or distances above MAXIMUM_DISTANCE) is counted in an 'overflow' bucket which sits
+ * above all the others.
+ *
+ * <p>Error bounds: the count, minimum and maximum are exact. Every other answer is exactly what you
+ * would get if every distance had been rounded down to a multiple of Settings.getAccurateTo()
+ * before it was added. So a count over a range can only be wrong for distances lying within
+ * getAccurateTo() of either end of that range, and a distance read back out (by getDistanceAt())
+ * is never more than getAccurateTo() smaller than the real one.
+ *
+ * <p>Histograms built with the same accuracy can be merged (by adding their buckets together), so
+ * you can build several of them side by side and then combine them.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+public class DistanceHistogram {
+    /**
+     * The largest distance we keep a bucket for. K2P distances can go above 1.0, so we leave
+     * ourselves some room; anything larger than this goes into the overflow bucket.
+     */
+    public static final double MAXIMUM_DISTANCE = 10.0;
+
+    // the number of buckets per unit distance (i.e. 1/accuracy)
+    private long scale;
+
+    // buckets[x] counts the distances in [x/scale, (x+1)/scale)
+    private long[] buckets;
+    private long overflow = 0;
+
+    private long count = 0;
+    private float minimum = Float.POSITIVE_INFINITY;
+    private float maximum = Float.NEGATIVE_INFINITY;
+
+    // cumulative[x] is the number of distances in buckets[0] to buckets[x - 1];
+    // this is worked out by finish(), and thrown away by add() or merge().
+    private long[] cumulative = null;
+
+    /** Creates an empty histogram, at the accuracy currently set in Settings. */
+    public DistanceHistogram() {
+        scale = Math.round(1 / Settings.getAccurateTo());
+        buckets = new long[(int) scale + 1]; // enough for [0, 1]
+    }
+
+    /** Returns the width of each bucket (i.e. the accuracy of this histogram). */
+    public double getResolution() {
+        return 1 / (double) scale;
+    }
+
+    /** Returns the bucket 'distance' would go into, or -1 for the overflow bucket. */
+    private int getBucket(float distance) {
+        if (Float.isNaN(distance) || distance > MAXIMUM_DISTANCE) return -1;
+
+        return (int) (distance * scale);
+    }
+
+    /** Adds a single distance. Negative distances (i.e. invalid comparisons) are ignored. */
+    public void add(float distance) {
+        if (distance < 0) return;
+
+        int bucket = getBucket(distance);
+        if (bucket < 0) {
+            overflow++;
+        } else {
+            if (bucket >= buckets.length) {
+                long[] temp = new long[bucket + 1];
+                System.arraycopy(buckets, 0, temp, 0, buckets.length);
+                buckets = temp;
+            }
+
+            buckets[bucket]++;
+        }
+
+        count++;
+        if (distance < minimum) minimum = distance;
+        if (distance > maximum) maximum = distance;
+
+        cumulative = null;
+    }
+
+    /**
+     * Adds all the distances in another histogram to this one.
+     *
+     * @throws IllegalArgumentException if the two histograms were built at different accuracies.
+     */
+    public void merge(DistanceHistogram hist) {
+        if (hist.scale != scale)
+            throw new IllegalArgumentException(
+                    "Can't merge histograms of different accuracies ("
+                            + getResolution()
+                            + " and "
+                            + hist.getResolution()
+                            + ")");
+
+        if (hist.buckets.length > buckets.length) {
+            long[] temp = new long[hist.buckets.length];
+            System.arraycopy(buckets, 0, temp, 0, buckets.length);
+            buckets = temp;
+        }
+
+        for (int x = 0; x < hist.buckets.length; x++) buckets[x] += hist.buckets[x];
+        overflow += hist.overflow;
+
+        count += hist.count;
+        if (hist.minimum < minimum) minimum = hist.minimum;
+        if (hist.maximum > maximum) maximum = hist.maximum;
+
+        cumulative = null;
+    }
+
+    /**
+     * Works out the cumulative counts, which every query below needs. You don't have to call this
+     * yourself, but it's a good idea to do so once you're done adding distances and before you
+     * start sharing this histogram between threads.
+     */
+    public synchronized void finish() {
+        if (cumulative != null) return;
+
+        long[] cumul = new long[buckets.length + 1];
+        for (int x = 0; x < buckets.length; x++) cumul[x + 1] = cumul[x] + buckets[x];
+
+        cumulative = cumul;
+    }
+
+    /** Returns the number of distances in this histogram. */
+    public long count() {
+        return count;
+    }
+
+    /** Returns the smallest distance in this histogram, or 0 if it's empty. */
+    public float getMinimum() {
+        if (count == 0) return 0;
+        return minimum;
+    }
+
+    /** Returns the largest distance in this histogram, or 0 if it's empty. */
+    public float getMaximum() {
+        if (count == 0) return 0;
+        return maximum;
+    }
+
+    /** Returns the number of distances which were rounded down to zero. */
+    public long getZero() {
+        return buckets[0];
+    }
+
+    /** Returns the number of distances which were rounded down to one. */
+    public long getOne() {
+        return buckets[(int) scale];
+    }
+
+    /**
+     * Returns the number of distances between 'from' and 'to', inclusive at both ends, once every
+     * distance has been rounded down to the accuracy of this histogram.
+     */
+    public long getBetweenIncl(double from, double to) {
+        finish();
+
+        // the smallest bucket at or above 'from', and the largest bucket at or below 'to';
+        // the 0.000001 keeps us from being tripped up by multiplications like 0.005 * 100000
+        // turning out to be 500.00000000000006
+        double first = Math.ceil(from * scale - 0.000001);
+        double last = Math.floor(to * scale + 0.000001);
+
+        if (first < 0) first = 0;
+        if (last < first) return 0;
+
+        long total = 0;
+        if (first < buckets.length) {
+            int x_last = (int) Math.min(last, buckets.length - 1);
+            total = cumulative[x_last + 1] - cumulative[(int) first];
+        }
+
+        // the overflow bucket only turns up if you ask for everything
+        if (last > MAXIMUM_DISTANCE * scale) total += overflow;
+
+        return total;
+    }
+
+    /**
+     * Returns the distance at (zero-based) position 'rank', if all the distances in this histogram
+     * were sorted from smallest to largest. Since we don't know where in its bucket a distance was,
+     * this is the bottom edge of its bucket; distances in the overflow bucket come back as the
+     * maximum.
+     */
+    public float getDistanceAt(long rank) {
+        if (rank < 0 || rank >= count)
+            throw new IndexOutOfBoundsException(
+                    "There is no distance at rank " + rank + " in a histogram of " + count);
+
+        finish();
+
+        if (rank >= cumulative[buckets.length]) return maximum;
+
+        // find the bucket x for which cumulative[x] <= rank < cumulative[x + 1]
+        int low = 0;
+        int high = buckets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (cumulative[mid] <= rank) low = mid;
+            else high = mid - 1;
+        }
+
+        // the minimum is exact, and it's not going to be any smaller than the bucket edge
+        float distance = (float) (low / (double) scale);
+        if (distance < minimum) distance = minimum;
+        return distance;
+    }
+}
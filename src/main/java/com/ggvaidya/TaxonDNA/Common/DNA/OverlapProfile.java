@@ -0,0 +1,191 @@
+/**
+ * An OverlapProfile remembers which positions of a Sequence count towards its overlap with other
+ * sequences, so that the overlap between two sequences can be worked out without walking both of
+ * them base by base (which is what Sequence.getSharedLength() does every single time).
+ *
+ * <p>In an aligned barcode dataset, the positions which count are usually a single stretch from the
+ * first to the last real character, with perhaps a few holes of missing data. So we store them as a
+ * short list of runs ([start, end) pairs), and the overlap between two sequences is the total
+ * length of the intersection of their runs, which takes time proportional to the number of runs. A
+ * sequence with lots of little runs is stored as a bitset instead, and we count the bits they have
+ * in common.
+ *
+ * <p>This only works because, for uncorrected and K2P distances, a position counts towards the
+ * overlap if and only if it counts on both sequences. That isn't true for transversion-only
+ * distances (an internal gap counts against any base, but two bases only count if they're both
+ * unambiguously purines or pyrimidines), so in that mode we just ask Sequence.getSharedLength().
+ * The answer is always exactly what Sequence.getSharedLength() would have told you.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+public class OverlapProfile {
+    // if a sequence breaks up into more runs than this, we use a bitset instead
+    private static final int MAX_RUNS = 16;
+
+    private Sequence seq;
+    private int method; // the pairwise distance method we were made under
+
+    private int[] runs = null; // start and end (not inclusive) of each run, one after the other
+    private long[] bits = null; // ... or a bit for each position which counts
+
+    /**
+     * Creates an OverlapProfile for 'seq', under the current pairwise distance method. If the
+     * method changes later on, getOverlap() notices and falls back to Sequence.getSharedLength().
+     */
+    public OverlapProfile(Sequence seq) {
+        this.seq = seq;
+        this.method = Sequence.getPairwiseDistanceMethod();
+
+        if (method == Sequence.PDM_TRANS_ONLY) return; // nothing to remember
+
+        String str = seq.getSequenceWithExternalGaps();
+        int length = str.length();
+
+        // first, the runs
+        int[] found = new int[2 * MAX_RUNS];
+        int count_runs = 0;
+        boolean too_many = false;
+
+        int x = 0;
+        while (x < length) {
+            if (!counts(str.charAt(x))) {
+                x++;
+                continue;
+            }
+
+            int start = x;
+            while (x < length && counts(str.charAt(x))) x++;
+
+            if (count_runs == MAX_RUNS) {
+                too_many = true;
+                break;
+            }
+            found[2 * count_runs] = start;
+            found[2 * count_runs + 1] = x;
+            count_runs++;
+        }
+
+        if (!too_many) {
+            runs = new int[2 * count_runs];
+            System.arraycopy(found, 0, runs, 0, runs.length);
+            return;
+        }
+
+        // too many runs: we'll need the bitset
+        bits = new long[(length + 63) / 64];
+        for (x = 0; x < length; x++) {
+            if (counts(str.charAt(x))) bits[x >> 6] |= 1L << x;
+        }
+    }
+
+    /**
+     * Does a position with character 'ch' count towards the overlap (so long as the same position
+     * also counts on the other sequence)? See Sequence.getSharedLength() for the rules.
+     */
+    private boolean counts(char ch) {
+        if (ch == '?' || ch == '_') return false;
+
+        if (Sequence.isInternalGap(ch)) {
+            // internal gaps are informative, except in K2P mode
+            return (method != Sequence.PDM_K2P);
+        }
+
+        if (method == Sequence.PDM_K2P) {
+            // something which is both a purine and a pyrimidine is as good as missing
+            return !(Sequence.isPurine(ch) && Sequence.isPyrimidine(ch));
+        }
+
+        return true;
+    }
+
+    /** Returns the Sequence this is a profile of. */
+    public Sequence getSequence() {
+        return seq;
+    }
+
+    /**
+     * Returns the overlap between this sequence and the one in 'profile'; this is always the same
+     * as getSequence().getSharedLength(profile.getSequence()).
+     */
+    public int getOverlap(OverlapProfile profile) {
+        int current_method = Sequence.getPairwiseDistanceMethod();
+        if (method != current_method
+                || profile.method != current_method
+                || method == Sequence.PDM_TRANS_ONLY) return seq.getSharedLength(profile.seq);
+
+        if (runs != null && profile.runs != null) return intersectRuns(runs, profile.runs);
+        if (runs != null) return countBits(profile.bits, runs);
+        if (profile.runs != null) return countBits(bits, profile.runs);
+
+        // two bitsets
+        int count = 0;
+        int words = Math.min(bits.length, profile.bits.length);
+        for (int x = 0; x < words; x++) count += Long.bitCount(bits[x] & profile.bits[x]);
+
+        return count;
+    }
+
+    /** Returns the total length of the intersection of two (sorted) lists of runs. */
+    private static int intersectRuns(int[] runs1, int[] runs2) {
+        int count = 0;
+
+        int x = 0;
+        int y = 0;
+        while (x < runs1.length && y < runs2.length) {
+            int start = Math.max(runs1[x], runs2[y]);
+            int end = Math.min(runs1[x + 1], runs2[y + 1]);
+            if (end > start) count += end - start;
+
+            // move on from whichever run ends first
+            if (runs1[x + 1] < runs2[y + 1]) x += 2;
+            else y += 2;
+        }
+
+        return count;
+    }
+
+    /** Returns the number of bits in 'bits' which fall within 'runs'. */
+    private static int countBits(long[] bits, int[] runs) {
+        int count = 0;
+        int length = bits.length * 64;
+
+        for (int x = 0; x < runs.length; x += 2) {
+            int start = runs[x];
+            int end = Math.min(runs[x + 1], length);
+            if (start >= end) continue;
+
+            int first_word = start >> 6;
+            int last_word = (end - 1) >> 6;
+            for (int w = first_word; w <= last_word; w++) {
+                long word = bits[w];
+
+                if (w == first_word) word &= -1L << (start & 63);
+                if (w == last_word && (end & 63) != 0) word &= -1L >>> (64 - (end & 63));
+
+                count += Long.bitCount(word);
+            }
+        }
+
+        return count;
+    }
+}
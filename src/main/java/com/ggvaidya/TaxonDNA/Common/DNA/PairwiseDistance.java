@@ -1,8 +1,7 @@
 /**
  * PairwiseDistance is a single instance of a 'pairwise distance', comprising the distance itself,
  * as well as the two sequences which are that far apart. You should check out PairwiseDistances
- * (which is really just a sorted Vector of PairwiseDistance objects) to figure out what's really
- * going on.
+ * (which hands these out from its sorted list of distances) to figure out what's really going on.
  */
 /*
     TaxonDNA
@@ -51,6 +50,17 @@ public class PairwiseDistance implements Comparable {
         distance = seqA.getPairwise(seqB);
     }
 
+    /**
+     * Creates a PairwiseDistance for a distance which has already been calculated (for instance, by
+     * PairwiseDistances).
+     */
+    PairwiseDistance(Sequence a, Sequence b, double distance) {
+        seqA = a;
+        seqB = b;
+
+        this.distance = distance;
+    }
+
     public boolean isMentioned(Sequence seq) {
         return (seq.equals(seqA) || seq.equals(seqB));
     }
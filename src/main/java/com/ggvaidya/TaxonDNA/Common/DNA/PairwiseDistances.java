@@ -14,6 +14,13 @@
  * spent. There's no real way around this, but now we'll be smart about it, using a Vector to hide
  * our array and using floats directly.
  *
+ * <p>Since nobody ever looks at more than a handful of PairwiseDistance objects at a time, we don't
+ * store them at all: each comparison is three parallel primitive entries (the distance as a float,
+ * plus the indices of the two sequences in a snapshot of the list), which is 12 bytes a comparison
+ * instead of the 40-odd bytes a PairwiseDistance costs us. The arrays are sorted once by distance,
+ * so range queries are a pair of binary searches; PairwiseDistance objects are only created when
+ * you ask for them via getDistancesBetween().
+ *
  * <p>We use floats, since in Java we are guaranteed 6-7 digits of accuracy. This also much
  * simplifies code.
  *
@@ -53,18 +60,64 @@ public class PairwiseDistances {
     public static final char CUMUL_FORWARD = 'F';
     public static final char CUMUL_BACKWARD = 'B';
 
-    // distance, and other vars needed to handle it
-    private Vector distances = new Vector();
+    // how many new entries should we add to the distance arrays
+    // every time we run out of memory in them?
+    private static final int INCREASE_SIZE = 500;
+
+    // the sequences we were built from; the 'index' arrays below
+    // point into this array.
+    private Sequence[] sequences = new Sequence[0];
+
+    // distance, and other vars needed to handle it: three
+    // parallel arrays, sorted by distance once the constructor
+    // has finished.
+    private float[] distances = new float[0];
+    private int[] index_a = new int[0];
+    private int[] index_b = new int[0];
+    private int size = 0;
 
     // statistics we might need to report to the user
     private int count_sequences = 0;
-    private Hashtable ht_averages =
-            new Hashtable(); // String(speciesName) => Double(average distance)
 
-    private void distances_push(Sequence seqA, Sequence seqB) {
-        if (seqA.getPairwise(seqB) < 0) return;
+    // the average distances, as two parallel arrays sorted by
+    // sequence name (so we can binary search them). While we're
+    // still calculating, avg_names holds the names in the order
+    // they were added.
+    private String[] avg_names = new String[0];
+    private double[] avg_values = new double[0];
+    private int avg_size = 0;
+
+    private void distances_push(int a, int b) {
+        double d = sequences[a].getPairwise(sequences[b]);
+        if (d < 0) return;
+
+        if (size == distances.length) {
+            // allocate new memory first
+            int memory = size + (size / 2) + INCREASE_SIZE;
+
+            distances = Arrays.copyOf(distances, memory);
+            index_a = Arrays.copyOf(index_a, memory);
+            index_b = Arrays.copyOf(index_b, memory);
+        }
+
+        // '+ 0.0f' turns any '-0.0' into '0.0', which keeps the sort key below sane.
+        distances[size] = (float) d + 0.0f;
+        index_a[size] = a;
+        index_b[size] = b;
+        size++;
+    }
+
+    private void averages_push(String name, double average) {
+        if (avg_size == avg_names.length) {
+            int memory = avg_size + (avg_size / 2) + INCREASE_SIZE;
 
-        distances.add(new PairwiseDistance(seqA, seqB));
+            avg_names = Arrays.copyOf(avg_names, memory);
+            avg_values = Arrays.copyOf(avg_values, memory);
+        }
+
+        avg_names[avg_size] = name;
+        avg_values[avg_size] = average;
+        avg_size++;
     }
 
     /**
@@ -77,27 +130,31 @@ public class PairwiseDistances {
 
         if (delay != null) delay.begin();
 
-        // Since _addIntra actually uses the conspecific iterator to speed things up, we need to
-        // resort
-        // at this point. Don't worry - we'll sort it back before we unlock it.
+        // Since _addIntra actually relies on conspecific sequences being next to each other, we
+        // need to resort at this point. Don't worry - we'll sort it back before we unlock it.
         int oldSort = -1;
         if (type == PD_INTRA) oldSort = list.resort(SequenceList.SORT_BYNAME);
 
+        sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+
+        // For intra, figure out where each species begins and ends (the same way
+        // SequenceList.conspecificIterator() would), so we don't have to walk the
+        // (linked) list for every query.
+        Hashtable<String, int[]> ht_species = null;
+        if (type == PD_INTRA) ht_species = findSpeciesBlocks(sequences);
+
         // go thru the list, calculating all the distances in this category.
         // we use private "helper" functions to help (and make the code less painful)
-        Iterator i = list.iterator();
-        while (i.hasNext()) {
-            Sequence query = (Sequence) i.next();
-
-            if (type == PD_INTRA) _addIntra(list, query);
-            else if (type == PD_INTER) _addInter(list, query);
+        for (int x = 0; x < sequences.length; x++) {
+            if (type == PD_INTRA) _addIntra(ht_species, x);
+            else if (type == PD_INTER) _addInter(x);
             else
                 throw new RuntimeException(
                         "Programmer Error in PairwiseDistances: Please inform the programmer!");
 
             if (delay != null) {
                 try {
-                    delay.delay(count_sequences, list.count());
+                    delay.delay(count_sequences, sequences.length);
                 } catch (DelayAbortedException e) {
                     if (type == PD_INTRA) list.resort(oldSort);
                     list.unlock();
@@ -109,7 +166,8 @@ public class PairwiseDistances {
         }
 
         // Sort it up, before we ship it out
-        if (distances.size() > 0) Collections.sort(distances);
+        sortDistances();
+        sortAverages();
 
         if (type == PD_INTRA) list.resort(oldSort);
 
@@ -118,60 +176,148 @@ public class PairwiseDistances {
         list.unlock();
     }
 
+    /**
+     * Sorts the three distance arrays by distance. Distances are never negative, so the raw bits of
+     * a float sort in the same order as the float itself; we stick the distance and its current
+     * position into a single long, sort that, and then rebuild the arrays in the new order. Ties
+     * stay in the order in which they were added.
+     */
+    private void sortDistances() {
+        long[] keys = new long[size];
+        for (int x = 0; x < size; x++) {
+            keys[x] = ((long) Float.floatToIntBits(distances[x]) << 32) | x;
+        }
+        Arrays.sort(keys);
+
+        float[] new_distances = new float[size];
+        int[] new_a = new int[size];
+        int[] new_b = new int[size];
+        for (int x = 0; x < size; x++) {
+            int from = (int) (keys[x] & 0xFFFFFFFFL);
+
+            new_distances[x] = distances[from];
+            new_a[x] = index_a[from];
+            new_b[x] = index_b[from];
+        }
+
+        distances = new_distances;
+        index_a = new_a;
+        index_b = new_b;
+    }
+
+    /**
+     * Sorts the averages by name, so we can binary search them. If a name turns up more than once,
+     * the last value added wins (which is what the old Hashtable did).
+     */
+    private void sortAverages() {
+        Integer[] order = new Integer[avg_size];
+        for (int x = 0; x < avg_size; x++) order[x] = Integer.valueOf(x);
+
+        // Arrays.sort() is stable on Objects, so duplicates stay in the order they were added.
+        final String[] names = avg_names;
+        Arrays.sort(
+                order,
+                new Comparator<Integer>() {
+                    public int compare(Integer o1, Integer o2) {
+                        return names[o1.intValue()].compareTo(names[o2.intValue()]);
+                    }
+                });
+
+        String[] new_names = new String[avg_size];
+        double[] new_values = new double[avg_size];
+        int count = 0;
+        for (int x = 0; x < avg_size; x++) {
+            int from = order[x].intValue();
+
+            if (count > 0 && new_names[count - 1].equals(avg_names[from])) count--;
+
+            new_names[count] = avg_names[from];
+            new_values[count] = avg_values[from];
+            count++;
+        }
+
+        avg_names = Arrays.copyOf(new_names, count);
+        avg_values = Arrays.copyOf(new_values, count);
+        avg_size = count;
+    }
+
+    /**
+     * Returns a Hashtable of species name => int[] { first index, last index + 1 } for an array
+     * sorted by SequenceList.SORT_BYNAME. Just like SequenceList.conspecificIterator(), we only
+     * look at the first block of each species name.
+     */
+    private static Hashtable<String, int[]> findSpeciesBlocks(Sequence[] sorted) {
+        Hashtable<String, int[]> ht = new Hashtable<String, int[]>();
+
+        int x = 0;
+        while (x < sorted.length) {
+            String name = sorted[x].getSpeciesName();
+            int from = x;
+
+            x++;
+            if (name == null) continue;
+
+            while (x < sorted.length && name.equals(sorted[x].getSpeciesName())) x++;
+
+            if (!ht.containsKey(name)) ht.put(name, new int[] {from, x});
+        }
+
+        return ht;
+    }
+
     /*
      * These private "helper functions" will help out with generating the pairwise distribution
      */
     /**
-     * Calculate all intraspecific pairwise distances for 'query' in SequenceList 'list', and add it
-     * to this pairwise distrib.
+     * Calculate all intraspecific pairwise distances for sequence 'query' (an index into
+     * 'sequences'), and add it to this pairwise distrib.
      */
-    private void _addIntra(SequenceList list, Sequence query) {
-        if (query.getSpeciesName() == null) return;
+    private void _addIntra(Hashtable<String, int[]> ht_species, int query) {
+        Sequence seq_query = sequences[query];
+        if (seq_query.getSpeciesName() == null) return;
 
-        Iterator i = list.conspecificIterator(query.getSpeciesName());
+        int[] block = ht_species.get(seq_query.getSpeciesName());
         double total = 0.0;
         int count = 0;
 
-        while (i.hasNext()) {
-            Sequence seq = (Sequence) i.next();
+        for (int x = block[0]; x < block[1]; x++) {
+            if (sequences[x].equals(seq_query)) continue;
 
-            if (seq.equals(query)) continue;
-
-            distances_push(query, seq);
-            double d = query.getPairwise(seq);
+            distances_push(query, x);
+            double d = seq_query.getPairwise(sequences[x]);
             if (d > -1) {
                 total += d;
                 count++;
             }
         }
 
-        ht_averages.put(query.getFullName(), new Double(total / count));
+        averages_push(seq_query.getFullName(), total / count);
     }
 
     /**
-     * Calculate all interspecific pairwise distances for 'query' in SequenceList 'list', and add it
-     * to this pairwise distrib.
+     * Calculate all interspecific pairwise distances for sequence 'query' (an index into
+     * 'sequences'), and add it to this pairwise distrib.
      */
-    private void _addInter(SequenceList list, Sequence query) {
-        Iterator i = list.iterator();
+    private void _addInter(int query) {
+        Sequence seq_query = sequences[query];
         double total = 0.0;
         int count = 0;
 
-        while (i.hasNext()) {
-            Sequence seq = (Sequence) i.next();
+        for (int x = 0; x < sequences.length; x++) {
+            Sequence seq = sequences[x];
 
-            if (seq.equals(query)) continue;
+            if (seq.equals(seq_query)) continue;
 
-            if (query.getGenusName().equals(seq.getGenusName())) {
+            if (seq_query.getGenusName().equals(seq.getGenusName())) {
                 // identical genera
-                if (!query.getSpeciesNameOnly().equals(seq.getSpeciesNameOnly())) {
+                if (!seq_query.getSpeciesNameOnly().equals(seq.getSpeciesNameOnly())) {
                     // but non identical species
                     //
                     // however, only do it one way (half-table only)
                     //					if(query.getSpeciesNameOnly().compareTo(seq.getSpeciesNameOnly()) < 0) {
-                    distances_push(query, seq);
+                    distances_push(query, x);
 
-                    double d = query.getPairwise(seq);
+                    double d = seq_query.getPairwise(seq);
                     if (d > -1) {
                         total += d;
                         count++;
@@ -181,7 +327,25 @@ public class PairwiseDistances {
             }
         }
 
-        ht_averages.put(query.getFullName(), new Double(total / count));
+        averages_push(seq_query.getFullName(), total / count);
+    }
+
+    /**
+     * Returns the index of the first distance which is &gt;= 'from' (or &gt; 'from', if
+     * 'exclusive' is set). Returns size if there isn't one.
+     */
+    private int search(float from, boolean exclusive) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (distances[mid] < from || (exclusive && distances[mid] == from)) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
     }
 
     /** Number of sequences in this pairwise distribution. */
@@ -191,14 +355,14 @@ public class PairwiseDistances {
 
     /** Number of valid comparisons (i.e. non-negative comparisons) */
     public int countValidComparisons() {
-        return distances.size();
+        return size;
     }
 
     /** Number of comparisons which return a distance of exactly zero */
     public int getZero() {
         int count = 0;
-        for (int x = 0; x < countValidComparisons(); x++) {
-            if (identical(((PairwiseDistance) distances.get(x)).getDistance(), 0.0)) count++;
+        for (int x = 0; x < size; x++) {
+            if (identical(distances[x], 0.0)) count++;
             else
                 // non-zero! let's get out!
                 break;
@@ -209,8 +373,8 @@ public class PairwiseDistances {
     /** Number of comparisons which return a distance of exactly one */
     public int getOne() {
         int count = 0;
-        for (int x = countValidComparisons() - 1; x >= 0; x--) {
-            if (identical(((PairwiseDistance) distances.get(x)).getDistance(), 1.0)) count++;
+        for (int x = size - 1; x >= 0; x--) {
+            if (identical(distances[x], 1.0)) count++;
             else
                 // non-one! let's get out!
                 break;
@@ -230,7 +394,7 @@ public class PairwiseDistances {
      * those with distance = 0, an important value in taxonomy.
      */
     public int getBetween(double from, double to) {
-        return getDistancesBetween(from, to - 0.000001).size();
+        return getBetweenIncl(from, to - 0.000001);
     }
 
     /**
@@ -241,20 +405,24 @@ public class PairwiseDistances {
      * Abraham Lincoln
      */
     public int getBetweenIncl(double from, double to) {
-        return getDistancesBetween(from, to).size();
+        int x_from = search((float) from, false);
+        int x_to = search((float) to, true);
+
+        if (x_to < x_from) return 0;
+        return x_to - x_from;
     }
 
     /** Return the largest distance in this pairwise distribution */
     public double getMaximumDistance() {
-        if (distances.size() > 0) {
-            return ((PairwiseDistance) distances.get(distances.size() - 1)).getDistance();
+        if (size > 0) {
+            return distances[size - 1];
         }
         return 0;
     }
 
     /** Return the smallest distance in this pairwise distribution. */
     public double getMinimumDistance() {
-        if (distances.size() > 0) return ((PairwiseDistance) distances.get(0)).getDistance();
+        if (size > 0) return distances[0];
         return 0;
     }
 
@@ -265,16 +433,14 @@ public class PairwiseDistances {
      * @return a vector of PairwiseDistance objects
      */
     public Vector getDistancesBetween(double d_from, double d_to) {
-        Vector vec = new Vector();
-        boolean count = false;
-
-        for (int x = 0; x < distances.size(); x++) {
-            PairwiseDistance d = (PairwiseDistance) distances.get(x);
-
-            if (d.getDistance() >= d_from) count = true;
-            if (d.getDistance() > d_to) break;
-
-            if (count) vec.add(d);
+        int x_from = search((float) d_from, false);
+        int x_to = search((float) d_to, true);
+
+        Vector<PairwiseDistance> vec = new Vector<PairwiseDistance>();
+        for (int x = x_from; x < x_to; x++) {
+            vec.add(
+                    new PairwiseDistance(
+                            sequences[index_a[x]], sequences[index_b[x]], distances[x]));
         }
         return vec;
     }
@@ -291,13 +457,13 @@ public class PairwiseDistances {
 
     /** Get the average pairwise distance for sequence 'X' */
     public double getAverageDistance(String seqName) {
-        Double d = (Double) ht_averages.get(seqName);
-        if (d == null) return -1.0;
-        return d.doubleValue();
+        int x = Arrays.binarySearch(avg_names, 0, avg_size, seqName);
+        if (x < 0) return -1.0;
+        return avg_values[x];
     }
 
     /** Get the list of names we have average PDs for */
     public Set getAveragedSequences() {
-        return ht_averages.keySet();
+        return new HashSet<String>(Arrays.asList(avg_names).subList(0, avg_size));
     }
 }
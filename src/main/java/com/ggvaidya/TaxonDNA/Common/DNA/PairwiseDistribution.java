@@ -9,6 +9,16 @@
  * <p>We use floats, since in Java we are guaranteed 6-7 digits of accuracy. This also much
  * simplifies code.
  *
+ * <p>If even the floats won't fit (100,000 sequences have billions of interspecific distances),
+ * you can ask for PD_SKETCH instead of PD_EXACT. We then throw away the distances themselves and
+ * only count them in a DistanceHistogram, whose size depends only on Settings.getAccurateTo().
+ * Every method here works in either mode (but think twice before asking getDistancesBetween() for
+ * billions of distances). In sketch mode every answer is the one you would get if every distance
+ * had been rounded down to a multiple of Settings.getAccurateTo(): counts are only wrong for
+ * distances within getAccurateTo() of the ends of a range, and distances are never more than
+ * getAccurateTo() too small. The count, minimum and maximum are always exact. See
+ * DistanceHistogram for the details.
+ *
  * <p>NOTE: This class is very, very thread-unsafe during creation (i.e. all functions will return
  * weird values if you run them before the constructor has finished running). If you need to access
  * it from more than one thread, it's up to you to make the magic happen.
@@ -37,6 +47,7 @@ package com.ggvaidya.TaxonDNA.Common.DNA;
 
 import com.ggvaidya.TaxonDNA.Common.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class PairwiseDistribution {
     public static final int PD_INTRA = 0;
@@ -45,177 +56,308 @@ public class PairwiseDistribution {
     public static final char CUMUL_FORWARD = 'F';
     public static final char CUMUL_BACKWARD = 'B';
 
-    // how many new 'floats' should we add to distances array
+    /** Store every distance, so all answers are exact. */
+    public static final int PD_EXACT = 0;
+
+    /** Only store a histogram of distances (see DistanceHistogram), so memory use is bounded. */
+    public static final int PD_SKETCH = 1;
+
+    // how many new 'floats' should we add to a buffer
     // every time we run out of memory in it?
     private static final int INCREASE_SIZE = 500;
 
     // distance, and other vars needed to handle it
-    private float[] distances;
+    private float[] distances = new float[0];
     private int size = 0;
-    private int memory = 0;
+
+    // in sketch mode, we use this instead of 'distances'
+    private DistanceHistogram histogram = null;
 
     // statistics we might need to report to the user
     private int count_sequences = 0;
 
-    /*
-     * The following functions handle 'this.distances'.
-     * Basically, it's a one-way stack: no pop, only push.
-     * On a push, we must check to see if there is space
-     * for the new number; otherwise, we just push the
-     * number at the end.
+    // the sequences we're working on, and (depending on the type)
+    // the blocks of conspecific sequences or the congeneric
+    // sequences for each of them. These are only needed while
+    // the constructor is running.
+    private Sequence[] sequences = null;
+    private int[][] related = null;
+
+    /**
+     * Constructor. Give it a list and what kind of distribution you want it to be, and watch it go
+     * to work!
      */
-    private int distances_size() {
-        return size;
+    public PairwiseDistribution(SequenceList list, int type, DelayCallback delay)
+            throws DelayAbortedException {
+        this(list, type, PD_EXACT, delay);
     }
 
-    /*	Don't really need this, do we?
-    private int distances_memory() {
-    	return memory;
-    }
-    */
+    /**
+     * Constructor. Give it a list, what kind of distribution you want it to be, and whether it
+     * should be PD_EXACT or PD_SKETCH, and watch it go to work!
+     *
+     * <p>The queries are shared out between one worker per processor (see ParallelLoop), each of
+     * which keeps its own buffer of distances; once they're all done, we put the buffers together
+     * and sort them.
+     */
+    public PairwiseDistribution(SequenceList list, int type, int mode, DelayCallback delay)
+            throws DelayAbortedException {
+        if (mode == PD_SKETCH) histogram = new DistanceHistogram();
+        else if (mode != PD_EXACT)
+            throw new RuntimeException(
+                    "Programmer Error in PairwiseDistribution: Please inform the programmer!");
 
-    private void distances_push(float new_distance) throws OutOfMemoryError {
-        // We're not stupid, '-1' distances are USELESS!
-        if (new_distance == -1) return;
+        if (type != PD_INTRA && type != PD_INTER)
+            throw new RuntimeException(
+                    "Programmer Error in PairwiseDistribution: Please inform the programmer!");
+
+        list.lock();
 
-        if (size > memory) {
-            // wtf?
+        if (delay != null) delay.begin();
+
+        // Conspecific sequences need to be next to each other for _addIntra, so we resort at this
+        // point. Don't worry - we'll sort it back before we unlock it.
+        int oldSort = list.resort(SequenceList.SORT_BYNAME);
+
+        sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+        if (type == PD_INTRA) related = findSpeciesBlocks(sequences);
+        else related = findGenera(sequences);
+
+        // go thru the list, calculating all the distances in this category.
+        // the workers use private "helper" functions to help (and make the code less painful)
+        DistanceWorker[] workers = new DistanceWorker[ParallelLoop.countWorkers(sequences.length)];
+        for (int x = 0; x < workers.length; x++) workers[x] = new DistanceWorker(type);
+        count_sequences = sequences.length;
+
+        try {
+            ParallelLoop.run(sequences.length, workers, delay);
+        } catch (DelayAbortedException e) {
+            list.resort(oldSort);
+            list.unlock();
+            throw e; // get outta here
+        } catch (ExecutionException e) {
+            list.resort(oldSort);
+            list.unlock();
             throw new RuntimeException(
-                    "Programming error in PairwiseDistribution.class: Please inform the"
-                            + " developer!");
-        } else if (size == memory) {
-            // allocate new memory first
-            //
-            float temp[] = new float[size + INCREASE_SIZE];
-
-            if (size != 0) System.arraycopy(distances, 0, temp, 0, size);
-            distances = temp;
-
-            memory += INCREASE_SIZE;
-            //			System.err.println("Debug: PairwiseDistribution expanded to " + memory + "
-            // floats");
+                    "Error while calculating pairwise distances: " + e.getCause(), e.getCause());
+        } finally {
+            sequences = null;
+            related = null;
+        }
+
+        // Put the buffers together, and sort it up before we ship it out
+        if (histogram != null) {
+            for (int x = 0; x < workers.length; x++) histogram.merge(workers[x].histogram);
+            histogram.finish();
+        } else {
+            for (int x = 0; x < workers.length; x++) size += workers[x].size;
+
+            distances = new float[size];
+            int offset = 0;
+            for (int x = 0; x < workers.length; x++) {
+                System.arraycopy(workers[x].distances, 0, distances, offset, workers[x].size);
+                offset += workers[x].size;
+                workers[x].distances = null;
+            }
+
+            if (size > 0) Arrays.parallelSort(distances, 0, size);
         }
 
-        // so now we have memory
-        distances[size] = new_distance;
-        //		System.err.println("ADD: " + distances[size]);
-        size++;
+        list.resort(oldSort);
+
+        if (delay != null) delay.end();
+
+        list.unlock();
     }
 
     /**
-     * Constructor. Give it a list and what kind of distribution you want it to be, and watch it go
-     * to work!
+     * A DistanceWorker adds all the distances for one query at a time into its own buffer (or
+     * histogram, in sketch mode).
      */
-    public PairwiseDistribution(SequenceList list, int type, DelayCallback delay)
-            throws DelayAbortedException {
-        list.lock();
+    private class DistanceWorker implements ParallelLoop.Body {
+        private int type;
 
-        if (delay != null) delay.begin();
+        private float[] distances = new float[0];
+        private int size = 0;
+        private DistanceHistogram histogram = null;
 
-        int interval = list.count() / 100;
-        if (interval == 0) interval = 1;
+        public DistanceWorker(int type) {
+            this.type = type;
 
-        // go thru the list, calculating all the distances in this category.
-        // we use private "helper" functions to help (and make the code less painful)
-        Iterator i = list.iterator();
-        while (i.hasNext()) {
-            Sequence query = (Sequence) i.next();
+            if (PairwiseDistribution.this.histogram != null) histogram = new DistanceHistogram();
+        }
 
-            if (type == PD_INTRA) _addIntra(list, query);
-            else if (type == PD_INTER) _addInter(list, query);
-            else
-                throw new RuntimeException(
-                        "Programmer Error in PairwiseDistribution: Please inform the programmer!");
-
-            if (delay != null && count_sequences % interval == 0) {
-                try {
-                    delay.delay(count_sequences, list.count());
-                } catch (DelayAbortedException e) {
-                    list.unlock();
-                    throw e; // get outta here
-                }
+        public void process(int query) {
+            if (type == PD_INTRA) _addIntra(this, query);
+            else _addInter(this, query);
+        }
+
+        /*
+         * This buffer is a one-way stack: no pop, only push.
+         * On a push, we must check to see if there is space
+         * for the new number; otherwise, we just push the
+         * number at the end.
+         */
+        private void push(float new_distance) {
+            // We're not stupid, '-1' distances are USELESS!
+            if (new_distance == -1) return;
+
+            if (histogram != null) {
+                histogram.add(new_distance);
+                return;
             }
 
-            count_sequences++;
+            if (size == distances.length) {
+                // allocate new memory first
+                distances = Arrays.copyOf(distances, size + (size / 2) + INCREASE_SIZE);
+            }
+
+            distances[size] = new_distance;
+            size++;
         }
+    }
 
-        //		for(int x = 0; x < size; x++) {
-        //			System.err.println("ADD: " + distances[x]);
-        //		}
+    /**
+     * For an array sorted by SequenceList.SORT_BYNAME, returns the indices of the conspecific
+     * sequences for each sequence (or null if it has no species name). Just like
+     * SequenceList.conspecificIterator(), we only look at the first block of each species name.
+     * Since conspecific sequences all share the same array, this doesn't take up much memory.
+     */
+    private static int[][] findSpeciesBlocks(Sequence[] sorted) {
+        int[][] blocks = new int[sorted.length][];
+        Hashtable<String, int[]> ht = new Hashtable<String, int[]>(); // name => indices
 
-        // Sort it up, before we ship it out
-        if (size > 0) Arrays.sort(distances, 0, size);
+        int x = 0;
+        while (x < sorted.length) {
+            String name = sorted[x].getSpeciesName();
+            int from = x;
 
-        if (delay != null) delay.end();
+            x++;
+            if (name == null) continue;
 
-        list.unlock();
+            while (x < sorted.length && name.equals(sorted[x].getSpeciesName())) x++;
+
+            if (!ht.containsKey(name)) {
+                int[] block = new int[x - from];
+                for (int y = 0; y < block.length; y++) block[y] = from + y;
+                ht.put(name, block);
+            }
+        }
+
+        for (x = 0; x < sorted.length; x++) {
+            String name = sorted[x].getSpeciesName();
+            if (name != null) blocks[x] = ht.get(name);
+        }
+
+        return blocks;
+    }
+
+    /** Returns the indices of the congeneric sequences for each sequence in an array. */
+    private static int[][] findGenera(Sequence[] seqs) {
+        // genus name => int[] { count, indices ... }
+        Hashtable<String, int[]> ht = new Hashtable<String, int[]>();
+
+        for (int x = 0; x < seqs.length; x++) {
+            int[] genus = ht.get(seqs[x].getGenusName());
+
+            if (genus == null) genus = new int[] {0, 0, 0, 0};
+            else if (genus[0] + 1 == genus.length) genus = Arrays.copyOf(genus, genus.length * 2);
+
+            genus[0]++;
+            genus[genus[0]] = x;
+            ht.put(seqs[x].getGenusName(), genus);
+        }
+
+        // trim them all down to size
+        Iterator<String> i = ht.keySet().iterator();
+        while (i.hasNext()) {
+            String key = i.next();
+            int[] genus = ht.get(key);
+
+            ht.put(key, Arrays.copyOfRange(genus, 1, genus[0] + 1));
+        }
+
+        int[][] genera = new int[seqs.length][];
+        for (int x = 0; x < seqs.length; x++) genera[x] = ht.get(seqs[x].getGenusName());
+
+        return genera;
     }
 
     /*
      * These private "helper functions" will help out with generating the pairwise distribution
      */
     /**
-     * Calculate all intraspecific pairwise distances for 'query' in SequenceList 'list', and add it
-     * to this pairwise distrib.
+     * Calculate all intraspecific pairwise distances for sequence number 'query', and add it to
+     * the worker's buffer.
      */
-    private void _addIntra(SequenceList list, Sequence query) {
-        if (query.getSpeciesName() == null) return;
+    private void _addIntra(DistanceWorker worker, int query) {
+        Sequence seq_query = sequences[query];
+        int[] block = related[query];
 
-        Iterator i = list.conspecificIterator(query.getSpeciesName());
+        if (block == null) return;
 
-        while (i.hasNext()) {
-            Sequence seq = (Sequence) i.next();
+        for (int x = 0; x < block.length; x++) {
+            Sequence seq = sequences[block[x]];
 
-            if (seq.equals(query)) continue;
+            if (seq.equals(seq_query)) continue;
 
             // only half table
-            if (seq.getFullName().compareTo(query.getFullName()) < 0) continue;
+            if (seq.getFullName().compareTo(seq_query.getFullName()) < 0) continue;
 
-            distances_push((float) query.getPairwise(seq));
-            //			System.err.println("DEBUG - Intra: " + query + " with " + seq);
+            worker.push((float) seq_query.getPairwiseNoBuffer(seq));
         }
     }
 
     /**
-     * Calculate all interspecific pairwise distances for 'query' in SequenceList 'list', and add it
-     * to this pairwise distrib.
+     * Calculate all interspecific pairwise distances for sequence number 'query', and add it to the
+     * worker's buffer.
      */
-    private void _addInter(SequenceList list, Sequence query) {
-        Iterator i = list.iterator();
-
-        while (i.hasNext()) {
-            Sequence seq = (Sequence) i.next();
-
-            if (seq.equals(query)) continue;
-
-            if (query.getGenusName().equals(seq.getGenusName())) {
-                // identical genera
-                if (!query.getSpeciesNameOnly().equals(seq.getSpeciesNameOnly())) {
-                    // but non identical species
-                    //
-                    // however, only do it one way (half-table only)
-                    if (query.getSpeciesNameOnly().compareTo(seq.getSpeciesNameOnly()) < 0)
-                        distances_push((float) query.getPairwise(seq));
-                    //					System.err.println("DEBUG - Inter: " + query + " with " + seq);
-                }
+    private void _addInter(DistanceWorker worker, int query) {
+        Sequence seq_query = sequences[query];
+        int[] genus = related[query];
+
+        for (int x = 0; x < genus.length; x++) {
+            Sequence seq = sequences[genus[x]];
+
+            if (seq.equals(seq_query)) continue;
+
+            // identical genera
+            if (!seq_query.getSpeciesNameOnly().equals(seq.getSpeciesNameOnly())) {
+                // but non identical species
+                //
+                // however, only do it one way (half-table only)
+                if (seq_query.getSpeciesNameOnly().compareTo(seq.getSpeciesNameOnly()) < 0)
+                    worker.push((float) seq_query.getPairwiseNoBuffer(seq));
             }
         }
     }
 
+    private long distances_size() {
+        if (histogram != null) return histogram.count();
+        return size;
+    }
+
     /** Number of sequences in this pairwise distribution. */
     public int countSequences() {
         return count_sequences;
     }
 
+    /** Is this an approximate (PD_SKETCH) distribution? */
+    public boolean isSketch() {
+        return (histogram != null);
+    }
+
     /** Number of valid comparisons (i.e. non-negative comparisons) */
-    public int countValidComparisons() {
+    public long countValidComparisons() {
         return distances_size();
     }
 
     /** Number of comparisons which return a distance of exactly zero */
-    public int getZero() {
+    public long getZero() {
+        if (histogram != null) return histogram.getZero();
+
         int count = 0;
-        for (int x = 0; x < countValidComparisons(); x++) {
+        for (int x = 0; x < size; x++) {
             if (identical(distances[x], 0.0f)) count++;
             else
                 // non-zero! let's get out!
@@ -225,9 +367,11 @@ public class PairwiseDistribution {
     }
 
     /** Number of comparisons which return a distance of exactly one */
-    public int getOne() {
+    public long getOne() {
+        if (histogram != null) return histogram.getOne();
+
         int count = 0;
-        for (int x = countValidComparisons() - 1; x >= 0; x--) {
+        for (int x = size - 1; x >= 0; x--) {
             if (identical(distances[x], 1.0f)) count++;
             else
                 // non-one! let's get out!
@@ -255,8 +399,8 @@ public class PairwiseDistribution {
         appendTableEntry(str, "Distances", "Freq.", "Perc.", "Cumulative");
 
         // Do the 'less than d_from' distance
-        int count = distances_size();
-        int f_from = getBetweenIncl(0, (float) d_from);
+        long count = distances_size();
+        long f_from = getBetweenIncl(0, (float) d_from);
         float cumul = ((float) f_from / count);
         if (!cumul_forward) cumul = 1.0f - cumul;
         appendTableEntry(
@@ -298,7 +442,7 @@ public class PairwiseDistribution {
 
     /** Helper function, writes out a line in the 'table' */
     private void appendTableEntry(
-            StringBuffer buff, String label, int freq, double perc, double cumul) {
+            StringBuffer buff, String label, long freq, double perc, double cumul) {
         appendTableEntry(
                 buff, label, String.valueOf(freq), String.valueOf(perc), String.valueOf(cumul));
     }
@@ -343,8 +487,9 @@ public class PairwiseDistribution {
      * up. This allows the ranges to fit into each other for printing, and the first range is then
      * those with distance = 0, an important value in taxonomy.
      */
-    public int getBetween(double from, double to) {
-        return getDistancesBetween(from, to - 0.000001).size();
+    public long getBetween(double from, double to) {
+        if (histogram != null) return histogram.getBetweenIncl(from, to - 0.000001);
+        return countBetween(from, to - 0.000001);
     }
 
     /**
@@ -354,12 +499,58 @@ public class PairwiseDistribution {
      * <p>"People who like this sort of thing, will find this the sort of thing they like." --
      * Abraham Lincoln
      */
-    public int getBetweenIncl(float from, float to) {
-        return getDistancesBetween(from, to).size();
+    public long getBetweenIncl(float from, float to) {
+        if (histogram != null) return histogram.getBetweenIncl(from, to);
+        return countBetween(from, to);
+    }
+
+    /**
+     * Counts the distances for which from &lt;= distance &lt;= to. Since 'distances' is sorted,
+     * this is just two binary searches.
+     */
+    private int countBetween(double from, double to) {
+        int x_from = search(from, false);
+        int x_to = search(to, true);
+
+        if (x_to < x_from) return 0;
+        return x_to - x_from;
+    }
+
+    /**
+     * Returns the index of the first distance which is &gt;= 'value' (or &gt; 'value', if
+     * 'exclusive' is set). Returns size if there isn't one.
+     */
+    private int search(double value, boolean exclusive) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (distances[mid] < value || (exclusive && distances[mid] == value)) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns the distance at (zero-based) position 'rank' in this distribution, smallest distance
+     * first. In sketch mode, this is rounded down to the accuracy of the histogram.
+     */
+    public float getDistanceAt(long rank) {
+        if (histogram != null) return histogram.getDistanceAt(rank);
+
+        if (rank < 0 || rank >= size)
+            throw new IndexOutOfBoundsException(
+                    "There is no distance at rank " + rank + " in a distribution of " + size);
+        return distances[(int) rank];
     }
 
     /** Return the largest distance in this pairwise distribution */
     public float getMaximumDistance() {
+        if (histogram != null) return histogram.getMaximum();
+
         if (size > 0) {
             return distances[size - 1];
         }
@@ -368,6 +559,8 @@ public class PairwiseDistribution {
 
     /** Return the smallest distance in this pairwise distribution. */
     public float getMinimumDistance() {
+        if (histogram != null) return histogram.getMinimum();
+
         if (size > 0) return distances[0];
         return 0;
     }
@@ -375,28 +568,42 @@ public class PairwiseDistribution {
     /**
      * Returns a Vector, containing all the distances between d_from and d_to. Since we assume you
      * must want ALL the distances, it is inclusive both ends.
+     *
+     * <p>In sketch mode, we didn't keep the distances, so you get each of them rounded down to the
+     * accuracy of the histogram (see getDistanceAt()).
      */
     public Vector getDistancesBetween(double d_from, double d_to) {
-        Vector vec = new Vector();
+        Vector<Float> vec = new Vector<Float>();
+
+        if (histogram != null) {
+            // the distances we want are ranked just after every distance smaller than d_from
+            long from = histogram.count() - histogram.getBetweenIncl(d_from, Double.MAX_VALUE);
+            long to = from + histogram.getBetweenIncl(d_from, d_to);
+
+            for (long rank = from; rank < to; rank++)
+                vec.add(Float.valueOf(histogram.getDistanceAt(rank)));
+            return vec;
+        }
+
         boolean count = false;
 
         for (int x = 0; x < size; x++) {
             if (distances[x] >= d_from) count = true;
             if (distances[x] > d_to) count = false;
 
-            if (count) vec.add(new Float(distances[x]));
+            if (count) vec.add(Float.valueOf(distances[x]));
         }
         return vec;
     }
 
     /** Compares two floats for 'identicality'. */
     private boolean identical(float x, float y) {
-        if ((y - x) < 0.0000001) return true;
+        if (Math.abs(y - x) < 0.0000001) return true;
         return false;
     }
 
     /** Quickie: returns a percentage */
-    private double percentage(int x, int y) {
+    private double percentage(long x, long y) {
         return percentage((double) x, (double) y);
     }
 }
@@ -0,0 +1,385 @@
+/**
+ * RandomSubsets draws random subsets of specimens (sequences) or species out of a SequenceList,
+ * and writes each of them out as a FASTA file. This is what you need for rarefaction: many
+ * "replicates", each with the same number of specimens or species, drawn independently.
+ *
+ * <p>Every replicate gets a random number generator of its own, whose seed depends only on the seed
+ * you give us and the number of the replicate. So the same seed always gives you the same
+ * replicates (on the same data), no matter how many of them you ask for, or in which order they
+ * get written out.
+ *
+ * <p>We draw with a partial Fisher-Yates shuffle over an array of indices: to draw k of n things,
+ * we only need to shuffle the first k places, which takes O(n) to set up and O(k) to draw. The
+ * replicates are shared out between one worker per processor, each of which writes its replicates
+ * straight into their files.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.formats.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RandomSubsets implements Testable {
+    private Sequence[] sequences; // in the order of the list
+    private int[][] species; // the indices of the sequences of each species
+    private long seed;
+
+    /** Only used to run test(); there's nothing to draw from in here. */
+    public RandomSubsets() {
+        sequences = new Sequence[0];
+        species = new int[0][];
+    }
+
+    /**
+     * Sets up to draw random subsets of 'list'. We take a copy of the list, so you can unlock it
+     * once we're done here.
+     *
+     * @param seed the seed from which the seed of every replicate is worked out.
+     */
+    public RandomSubsets(SequenceList list, long seed) {
+        this.seed = seed;
+
+        list.lock();
+        try {
+            sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+        } finally {
+            list.unlock();
+        }
+
+        // sort the sequences into species, in the order we first see each of them
+        Hashtable<String, Integer> numbers = new Hashtable<String, Integer>();
+        Vector<Vector<Integer>> members = new Vector<Vector<Integer>>();
+        for (int x = 0; x < sequences.length; x++) {
+            String name = sequences[x].getSpeciesName();
+            if (name == null) continue;
+
+            Integer number = numbers.get(name);
+            if (number == null) {
+                number = Integer.valueOf(members.size());
+                numbers.put(name, number);
+                members.add(new Vector<Integer>());
+            }
+            members.get(number.intValue()).add(Integer.valueOf(x));
+        }
+
+        species = new int[members.size()][];
+        for (int x = 0; x < species.length; x++) {
+            Vector<Integer> v = members.get(x);
+
+            species[x] = new int[v.size()];
+            for (int y = 0; y < species[x].length; y++) species[x][y] = v.get(y).intValue();
+        }
+    }
+
+    /** Returns the number of specimens we can draw from. */
+    public int countSpecimens() {
+        return sequences.length;
+    }
+
+    /** Returns the number of species (with a species name) we can draw from. */
+    public int countSpecies() {
+        return species.length;
+    }
+
+    /** Returns the seed all the replicates are worked out from. */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the random number generator for replicate number 'replicate'. The seed is run through
+     * the SplitMix64 mixing function, so that neighbouring replicates get very different seeds.
+     */
+    private Random getRandom(int replicate) {
+        long z = seed + replicate * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    /**
+     * Draws 'k' of the numbers from 0 to n-1 at random, without replacement, by shuffling the first
+     * 'k' places of 'indices' (which must be at least 'n' long, and is overwritten).
+     */
+    private static void draw(Random r, int[] indices, int n, int k) {
+        for (int x = 0; x < n; x++) indices[x] = x;
+
+        for (int x = 0; x < k; x++) {
+            int y = x + r.nextInt(n - x);
+
+            int temp = indices[x];
+            indices[x] = indices[y];
+            indices[y] = temp;
+        }
+    }
+
+    /**
+     * Returns the sequences in replicate 'replicate' of 'count' specimens, in the order in which
+     * they were drawn.
+     */
+    public Sequence[] drawSpecimens(int replicate, int count) {
+        checkCount(count, sequences.length, "specimens");
+
+        int[] indices = new int[sequences.length];
+        draw(getRandom(replicate), indices, sequences.length, count);
+
+        Sequence[] results = new Sequence[count];
+        for (int x = 0; x < count; x++) results[x] = sequences[indices[x]];
+
+        return results;
+    }
+
+    /**
+     * Returns the sequences in replicate 'replicate' of 'count' species: every sequence of each
+     * species, species by species in the order in which they were drawn.
+     */
+    public Sequence[] drawSpecies(int replicate, int count) {
+        checkCount(count, species.length, "species");
+
+        int[] indices = new int[species.length];
+        draw(getRandom(replicate), indices, species.length, count);
+
+        int total = 0;
+        for (int x = 0; x < count; x++) total += species[indices[x]].length;
+
+        Sequence[] results = new Sequence[total];
+        int y = 0;
+        for (int x = 0; x < count; x++) {
+            int[] members = species[indices[x]];
+            for (int z = 0; z < members.length; z++) results[y++] = sequences[members[z]];
+        }
+
+        return results;
+    }
+
+    private static void checkCount(int count, int max, String what) {
+        if (count < 0 || count > max)
+            throw new IllegalArgumentException(
+                    "Can't draw " + count + " " + what + " out of " + max + "!");
+    }
+
+    /**
+     * Writes 'rands' replicates of 'count' specimens each into 'dir', as
+     * '[count]_specimens_randomization_[replicate].txt' (replicates are numbered from 1).
+     *
+     * @throws IOException if any of the files couldn't be written
+     * @throws DelayAbortedException if the user aborted the export
+     */
+    public void exportSpecimens(File dir, int count, int rands, DelayCallback delay)
+            throws IOException, DelayAbortedException {
+        checkCount(count, sequences.length, "specimens");
+        export(dir, count + "_specimens_randomization_", false, count, rands, delay);
+    }
+
+    /**
+     * Writes 'rands' replicates of 'count' species each into 'dir', as
+     * '[count]_species_randomization_[replicate].txt' (replicates are numbered from 1).
+     *
+     * @throws IOException if any of the files couldn't be written
+     * @throws DelayAbortedException if the user aborted the export
+     */
+    public void exportSpecies(File dir, int count, int rands, DelayCallback delay)
+            throws IOException, DelayAbortedException {
+        checkCount(count, species.length, "species");
+        export(dir, count + "_species_randomization_", true, count, rands, delay);
+    }
+
+    /** Runs the workers which write out the replicates, and waits for them to finish. */
+    private void export(
+            File dir, String prefix, boolean by_species, int count, int rands, DelayCallback delay)
+            throws IOException, DelayAbortedException {
+        if (delay != null) delay.begin();
+
+        ExportWorker[] workers = new ExportWorker[ParallelLoop.countWorkers(rands)];
+        for (int x = 0; x < workers.length; x++)
+            workers[x] = new ExportWorker(dir, prefix, by_species, count);
+
+        try {
+            ParallelLoop.run(rands, workers, delay);
+        } catch (ExecutionException e) {
+            Throwable failure = e.getCause();
+
+            if (delay != null) delay.end();
+            if (failure instanceof IOException) throw (IOException) failure;
+            throw new RuntimeException("Error while exporting random subsets: " + failure, failure);
+        }
+
+        if (delay != null) delay.end();
+    }
+
+    /**
+     * Tests RandomSubsets: the replicates must be proper subsets, must only depend on the seed, and
+     * the files written out in parallel must be the same as drawing and writing each replicate in
+     * turn.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.RandomSubsets");
+
+        SequenceList list = new SequenceList();
+        Random random = new Random(2005);
+        try {
+            for (int x = 0; x < 60; x++) {
+                String name = "Testus species" + (char) ('a' + random.nextInt(15)) + " " + x;
+                if (random.nextInt(10) == 0) name = "unnamed_" + x;
+
+                list.add(new Sequence(name, "ACGTACGTAC" + (x % 2 == 0 ? "GT" : "CA")));
+            }
+        } catch (SequenceException e) {
+            testMaster.failed("Could not create the test sequences: " + e);
+            testMaster.done();
+            return;
+        }
+
+        RandomSubsets subsets = new RandomSubsets(list, 42);
+
+        testMaster.beginTest("Draw specimens without replacement");
+        String error = null;
+        for (int replicate = 1; replicate <= 20 && error == null; replicate++) {
+            Sequence[] drawn = subsets.drawSpecimens(replicate, 25);
+
+            if (drawn.length != 25) error = "Replicate " + replicate + " has " + drawn.length;
+            else if (new HashSet<Sequence>(Arrays.asList(drawn)).size() != 25)
+                error = "Replicate " + replicate + " has the same specimen twice";
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Draw every sequence of each species drawn");
+        error = null;
+        for (int replicate = 1; replicate <= 20 && error == null; replicate++) {
+            Sequence[] drawn = subsets.drawSpecies(replicate, 5);
+
+            HashSet<String> names = new HashSet<String>();
+            for (int x = 0; x < drawn.length; x++) names.add(drawn[x].getSpeciesName());
+
+            int expected = 0;
+            for (int x = 0; x < list.count(); x++) {
+                if (names.contains(((Sequence) list.get(x)).getSpeciesName())) expected++;
+            }
+
+            if (names.size() != 5 || names.contains(null))
+                error = "Replicate " + replicate + " has the species " + names;
+            else if (drawn.length != expected)
+                error =
+                        "Replicate "
+                                + replicate
+                                + " has "
+                                + drawn.length
+                                + " sequences of its species instead of "
+                                + expected;
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Draw the same replicates from the same seed");
+        RandomSubsets again = new RandomSubsets(list, 42);
+        RandomSubsets other = new RandomSubsets(list, 43);
+        if (!Arrays.equals(subsets.drawSpecimens(7, 25), again.drawSpecimens(7, 25)))
+            testMaster.failed("The same seed gave different replicates");
+        else if (Arrays.equals(subsets.drawSpecimens(7, 25), other.drawSpecimens(7, 25)))
+            testMaster.failed("Different seeds gave the same replicate");
+        else testMaster.succeeded();
+
+        for (int by_species = 0; by_species < 2; by_species++) {
+            String what = (by_species == 1) ? "species" : "specimens";
+            testMaster.beginTest(
+                    "Export replicates of " + what + ", the same as writing them one at a time");
+
+            File dir = testMaster.tempfile();
+            dir.delete();
+            dir.mkdir();
+
+            error = null;
+            try {
+                if (by_species == 1) subsets.exportSpecies(dir, 5, 12, delay);
+                else subsets.exportSpecimens(dir, 25, 12, delay);
+
+                for (int replicate = 1; replicate <= 12 && error == null; replicate++) {
+                    Sequence[] drawn;
+                    if (by_species == 1) drawn = subsets.drawSpecies(replicate, 5);
+                    else drawn = subsets.drawSpecimens(replicate, 25);
+
+                    File expected = testMaster.tempfile();
+                    PrintWriter writer = new PrintWriter(new FileWriter(expected));
+                    for (int x = 0; x < drawn.length; x++)
+                        FastaFile.writeSequence(writer, drawn[x]);
+                    writer.close();
+
+                    String name =
+                            ((by_species == 1) ? 5 : 25)
+                                    + "_"
+                                    + what
+                                    + "_randomization_"
+                                    + replicate
+                                    + ".txt";
+                    if (!testMaster.isIdentical(expected, new File(dir, name)))
+                        error = name + " isn't the same as replicate " + replicate;
+                }
+            } catch (IOException e) {
+                error = "There was an IOException exporting replicates: " + e;
+            }
+
+            if (error == null) testMaster.succeeded();
+            else testMaster.failed(error);
+        }
+
+        testMaster.done();
+    }
+
+    /** An ExportWorker draws replicates one at a time, and writes each into its own file. */
+    private class ExportWorker implements ParallelLoop.Body {
+        private File dir;
+        private String prefix;
+        private boolean by_species;
+        private int count;
+
+        public ExportWorker(File dir, String prefix, boolean by_species, int count) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.by_species = by_species;
+            this.count = count;
+        }
+
+        /** Draws and writes out replicate number 'index' + 1. */
+        public void process(int index) throws IOException {
+            int replicate = index + 1;
+
+            Sequence[] subset;
+            if (by_species) subset = drawSpecies(replicate, count);
+            else subset = drawSpecimens(replicate, count);
+
+            write(new File(dir, prefix + replicate + ".txt"), subset);
+        }
+
+        private void write(File file, Sequence[] subset) throws IOException {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+
+            for (int x = 0; x < subset.length; x++) FastaFile.writeSequence(writer, subset[x]);
+
+            writer.close();
+            if (writer.checkError()) throw new IOException("Could not write to '" + file + "'");
+        }
+    }
+}
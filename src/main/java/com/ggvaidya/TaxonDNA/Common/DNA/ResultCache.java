@@ -0,0 +1,141 @@
+/**
+ * A ResultCache remembers the results of analyses, so that asking for the same analysis of the same
+ * data again doesn't mean working it all out again. A result is filed under a key made up of the
+ * name of the analysis, the version of the SequenceList it was worked out from (see
+ * SequenceList.getVersion()), the settings every distance depends on (the pairwise distance method,
+ * the minimum overlap and Settings.getAccurateTo(), which decides which distances are identical and
+ * how finely they're counted) and whatever parameters the analysis itself takes. If any of these
+ * change, so does the key, and the old result is simply never asked for again.
+ *
+ * <p>Results can be big, so the cache has a memory budget: you tell us roughly how much memory each
+ * result takes up when you put() it in, and once we're over budget, we forget the results which
+ * were used least recently until we're under it again.
+ *
+ * <p>Most of the time, you'll want the shared cache (see getShared()), whose budget is a sixteenth
+ * of the memory Java is allowed to use.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+import java.util.*;
+
+public class ResultCache {
+    private static ResultCache shared = null;
+
+    private long budget; // in bytes (more or less)
+    private long used = 0;
+
+    // key -> Entry, in the order in which they were last used (least recently first)
+    private LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private static class Entry {
+        private Object value;
+        private long cost;
+
+        public Entry(Object value, long cost) {
+            this.value = value;
+            this.cost = cost;
+        }
+    }
+
+    /** Creates a ResultCache which holds on to no more than (about) 'budget' bytes of results. */
+    public ResultCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Returns the cache shared by the whole program. */
+    public static synchronized ResultCache getShared() {
+        if (shared == null) shared = new ResultCache(Runtime.getRuntime().maxMemory() / 16);
+        return shared;
+    }
+
+    /**
+     * Returns the key to file the results of analysis 'analysis' of 'list' under. 'parameters'
+     * should describe every other setting the results depend on (or be "" if there aren't any).
+     */
+    public static String getKey(String analysis, SequenceList list, String parameters) {
+        return analysis
+                + "\t"
+                + list.getVersion()
+                + "\t"
+                + Sequence.getPairwiseDistanceMethod()
+                + "\t"
+                + Sequence.getMinOverlap()
+                + "\t"
+                + Settings.getAccurateTo()
+                + "\t"
+                + parameters;
+    }
+
+    /** Returns the result filed under 'key', or null if we don't have one. */
+    public synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+
+        return entry.value;
+    }
+
+    /**
+     * Files 'value' under 'key'. 'cost' is roughly how many bytes of memory it takes up; if it's
+     * more than our entire budget, we don't bother.
+     */
+    public synchronized void put(String key, Object value, long cost) {
+        Entry old = entries.remove(key);
+        if (old != null) used -= old.cost;
+
+        if (cost > budget) return;
+
+        entries.put(key, new Entry(value, cost));
+        used += cost;
+
+        // forget the least recently used results until we're within budget
+        Iterator<Entry> i = entries.values().iterator();
+        while (used > budget && i.hasNext()) {
+            Entry entry = i.next();
+
+            used -= entry.cost;
+            i.remove();
+        }
+    }
+
+    /** Forgets every result we have. */
+    public synchronized void clear() {
+        entries.clear();
+        used = 0;
+    }
+
+    /** Returns the number of results we have. */
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    /** Returns (roughly) how many bytes of memory our results take up. */
+    public synchronized long getMemoryUsed() {
+        return used;
+    }
+
+    /** Returns (roughly) how many bytes of memory 'str' takes up. */
+    public static long getCost(String str) {
+        return 40 + 2L * str.length();
+    }
+}
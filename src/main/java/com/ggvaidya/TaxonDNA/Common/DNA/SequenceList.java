@@ -37,7 +37,9 @@ package com.ggvaidya.TaxonDNA.Common.DNA;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.formats.*;
 import java.io.*; // Input/output
+import java.nio.*; // ByteBuffers, for sniffing file formats
 import java.util.*; // Hashtables
+import java.util.concurrent.atomic.*;
 
 public class SequenceList implements List, Testable {
     // variables essential to this class
@@ -48,6 +50,10 @@ public class SequenceList implements List, Testable {
     private FormatHandler formatHandler = null; // the formathandler used to extract this file
     private int sortedBy = 0; // the order in which we are (currently) sorted
     private boolean modified = false; // has this sequencelist been modified?
+    private long version = newVersion(); // changes every time we do (see getVersion())
+
+    // the last version handed out to any SequenceList
+    private static AtomicLong last_version = new AtomicLong(0);
 
     // Hashtable to store species name -> Integer(index)
     //
@@ -78,7 +84,7 @@ public class SequenceList implements List, Testable {
     // 		of this class. initFormatHandlers() must be called to set up the
     // 		handlers.
     //
-    private static Vector formatHandlers = new Vector();
+    private static Vector<FormatHandler> formatHandlers = new Vector<FormatHandler>();
     private static String formatsHandled = "";
 
     /** Returns a vector containing all format handlers known to us right now. */
@@ -95,9 +101,9 @@ public class SequenceList implements List, Testable {
             formatHandlers.add(new com.ggvaidya.TaxonDNA.Common.DNA.formats.NexusFile());
             formatHandlers.add(new com.ggvaidya.TaxonDNA.Common.DNA.formats.TNTFile());
             //			formatHandlers.add(new com.ggvaidya.TaxonDNA.Common.DNA.formats.SequencesFile());
-            //			formatHandlers.add(new com.ggvaidya.TaxonDNA.Common.DNA.formats.PhylipFile());
+            formatHandlers.add(new com.ggvaidya.TaxonDNA.Common.DNA.formats.PhylipFile());
 
-            formatsHandled = "Fasta, Mega, Nexus, TNT and Sequences";
+            formatsHandled = "Fasta, Mega, Nexus, TNT, Phylip and Sequences";
         }
     }
 
@@ -122,12 +128,22 @@ public class SequenceList implements List, Testable {
      */
     public SequenceList(File file, FormatHandler handler, DelayCallback delay)
             throws SequenceListException, DelayAbortedException {
+        this(file, handler, false, delay);
+    }
+
+    /**
+     * Creates a SequenceList from the specified file using the specified formatHandler. If
+     * 'checked' is true, we already know the file might be in the handler's format (readFile()
+     * has just worked that out), so we don't read the file to check it all over again.
+     */
+    private SequenceList(File file, FormatHandler handler, boolean checked, DelayCallback delay)
+            throws SequenceListException, DelayAbortedException {
         initFormatHandlers(); // set up the formatHandlers
 
         String fullPath = file.getAbsolutePath();
 
         try {
-            if (handler.mightBe(file)) handler.appendFromFile(this, file, delay);
+            if (checked || mightBe(handler, file)) handler.appendFromFile(this, file, delay);
             else
                 throw new SequenceListException(
                         "The specified file '"
@@ -173,6 +189,17 @@ public class SequenceList implements List, Testable {
         modified = false; // we are being backed by a valid file, and Everything is Okay.
     }
 
+    /**
+     * Asks 'handler' if 'file' might be in its format. We only read the head of the file, unless
+     * the handler can't tell from that alone.
+     */
+    private static boolean mightBe(FormatHandler handler, File file) throws IOException {
+        int confidence = handler.mightBe(BaseFormatHandler.readHead(file));
+
+        if (confidence == FormatHandler.UNSURE) return handler.mightBe(file);
+        return (confidence != FormatHandler.DEFINITELY_NOT);
+    }
+
     /**
      * Creates a SequenceList from a Collection of Sequences. Any collection will do (we just feed
      * it into the addAll anyway). Note that this will leave the file as 'null', so you'll have to
@@ -371,10 +398,21 @@ public class SequenceList implements List, Testable {
                     break;
             }
 
+            Object[] before = sequences.toArray();
+
             Collections.sort(sequences, c); // sort 'em!
             c = null; // try and trigger the gc
 
             sortedBy = sortMethod;
+
+            // if the order changed, so did we
+            Iterator i = sequences.iterator();
+            for (int x = 0; x < before.length; x++) {
+                if (i.next() != before[x]) {
+                    version = newVersion();
+                    break;
+                }
+            }
         }
 
         unlock();
@@ -523,23 +561,55 @@ public class SequenceList implements List, Testable {
             throws SequenceListException, DelayAbortedException {
         initFormatHandlers();
 
-        // First we figure out which formatHandler to use.
-        Iterator i = formatHandlers.iterator();
+        // First we figure out which formatHandler to use. We read the head of the file once,
+        // and ask every handler how sure it is that the file is in its format: the surest
+        // handler wins (if two are just as sure, the one registered first does).
         String fullPath = file.getAbsolutePath();
         StringBuffer validFormats = new StringBuffer();
 
-        while (i.hasNext()) {
-            FormatHandler handler = (FormatHandler) i.next();
+        ByteBuffer head;
+        try {
+            head = BaseFormatHandler.readHead(file);
+        } catch (IOException e) {
+            throw new SequenceListException(
+                    "A system error occured while trying to read '"
+                            + fullPath
+                            + "'. Are you sure that the file exists, "
+                            + "and you have the correct permissions to read it?\n"
+                            + "Technical explanation: "
+                            + e,
+                    e);
+        }
+
+        FormatHandler best = null;
+        int best_confidence = FormatHandler.UNSURE;
+        int[] confidences = new int[formatHandlers.size()];
 
-            if (handler.mightBe(file)) {
-                if (listener != null) handler.addFormatListener(listener);
-                return new SequenceList(file, handler, delay);
+        for (int x = 0; x < formatHandlers.size(); x++) {
+            FormatHandler handler = (FormatHandler) formatHandlers.get(x);
+
+            confidences[x] = handler.mightBe(head.duplicate());
+            if (confidences[x] > best_confidence) {
+                best = handler;
+                best_confidence = confidences[x];
             }
 
-            if (i.hasNext()) validFormats.append(handler.getShortName() + ", ");
+            if (x < formatHandlers.size() - 1) validFormats.append(handler.getShortName() + ", ");
             else validFormats.append("or " + handler.getShortName());
         }
 
+        // if nobody could tell from the head, the unsure handlers get to look at the whole file
+        for (int x = 0; best == null && x < formatHandlers.size(); x++) {
+            FormatHandler handler = (FormatHandler) formatHandlers.get(x);
+
+            if (confidences[x] == FormatHandler.UNSURE && handler.mightBe(file)) best = handler;
+        }
+
+        if (best != null) {
+            if (listener != null) best.addFormatListener(listener);
+            return new SequenceList(file, best, true, delay);
+        }
+
         // if we're here, we couldn't find a working handler
         throw new SequenceListException(
                 "I could not understand the input file '"
@@ -561,6 +631,22 @@ public class SequenceList implements List, Testable {
         return modified;
     }
 
+    /**
+     * Returns the version of this SequenceList. Every time the list is changed (sequences are
+     * added, removed, edited or resorted), it gets a new version, larger than any version any
+     * SequenceList has ever had before. So two lists with the same version are the very same list,
+     * in the very same state, and you can use the version to tell whether something you worked out
+     * from this list is still up to date.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /** Returns a version no SequenceList has had before. */
+    private static long newVersion() {
+        return last_version.incrementAndGet();
+    }
+
     /** Returns the number of Sequences in this sequence set. */
     public int count() {
         return sequences.size();
@@ -781,6 +867,7 @@ public class SequenceList implements List, Testable {
      */
     public void modified() {
         modified = true;
+        version = newVersion();
         sortedBy = SORT_UNSORTED;
         details = null;
         ht_species = new Hashtable();
@@ -903,6 +990,7 @@ public class SequenceList implements List, Testable {
     /** Removes all the elements in this set */
     public void clear() {
         sequences.clear();
+        modified();
     }
 
     /** Sets a particular element in our List, by (zero-based) index */
@@ -910,6 +998,7 @@ public class SequenceList implements List, Testable {
         Sequence seq = (Sequence) o;
         Sequence last = (Sequence) sequences.set(x, seq);
         sortedBy = SORT_UNSORTED;
+        modified();
         return last;
     }
 
@@ -976,8 +1065,64 @@ public class SequenceList implements List, Testable {
                             + sl.count()
                             + "!");
 
+        testMaster.beginTest("Recognize a Nexus file with a '>' at the start of a line");
+        checkFormat(
+                testMaster,
+                "#NEXUS\n[\n>this is a comment, not a FASTA name\n]\nBEGIN DATA;\n"
+                        + "DIMENSIONS NTAX=2 NCHAR=10;\nFORMAT DATATYPE=DNA MISSING=? GAP=-;\n"
+                        + "MATRIX\nTestus_speciesa ACGTACGTAC\nTestus_speciesb ACGTACGTAA\n"
+                        + ";\nEND;\n",
+                "NEXUS",
+                2);
+
+        testMaster.beginTest("Recognize a FASTA file whose first '>' is past the head of the file");
+        StringBuffer late = new StringBuffer();
+        while (late.length() <= BaseFormatHandler.HEAD_SIZE)
+            late.append("# a very long comment, before any of the sequences\n");
+        late.append(">Testus speciesa\nACGTACGTAC\n>Testus speciesb\nACGTACGTAA\n");
+        checkFormat(testMaster, late.toString(), "FASTA", 2);
+
+        testMaster.beginTest("Recognize a Phylip file from its header");
+        checkFormat(
+                testMaster,
+                "3 10\nTestus_a ACGTACGTAC\nTestus_b ACGTACGTAA\nTestus_c ACGTACGTTT\n",
+                "Phylip",
+                3);
+
         testMaster.done();
     }
+
+    /**
+     * Writes 'content' into a file, reads it with readFile(), and checks that the handler called
+     * 'format' read 'count' sequences out of it.
+     */
+    private static void checkFormat(
+            TestController testMaster, String content, String format, int count) {
+        File file = testMaster.tempfile();
+        try {
+            Writer writer = new FileWriter(file);
+            writer.write(content);
+            writer.close();
+
+            SequenceList list = readFile(file, null);
+            String found = list.getFormatHandler().getShortName();
+
+            if (found.equals(format) && list.count() == count) testMaster.succeeded();
+            else
+                testMaster.failed(
+                        "I read "
+                                + list.count()
+                                + " sequences as a "
+                                + found
+                                + " file, instead of "
+                                + count
+                                + " as a "
+                                + format
+                                + " file");
+        } catch (Exception e) {
+            testMaster.failed("I couldn't read a " + format + " file: " + e);
+        }
+    }
 }
 
 class ConspecificIterator implements Iterator {
@@ -0,0 +1,697 @@
+/**
+ * SingleLinkage clusters a SequenceList by single linkage: two sequences end up in the same cluster
+ * if there is a chain of sequences between them, each no more than a threshold distance away from
+ * the next. Put another way, we draw an edge between every pair of sequences which are within the
+ * threshold (and have a valid distance), and the clusters are the connected components of that
+ * graph.
+ *
+ * <p>We find the components with a union-find ("disjoint set") forest. The pairwise distances are
+ * shared out between one worker per processor, each of which unites the pairs it finds within the
+ * threshold in a forest of its own; since a worker doesn't bother working out the distance between
+ * two sequences it has already connected, the larger the clusters get, the less work there is left
+ * to do. The workers' forests are then united into one.
+ *
+ * <p>If you want the clusters at several thresholds, sweep() will give you all of them for the
+ * price of a single pass through the distances and a sort.
+ *
+ * <p>Clusters are numbered in the order of their first sequence in the list, and the sequences in
+ * each cluster are in the order they appear in the list, so the same list at the same threshold
+ * always gives you the same clusters in the same order.
+ *
+ * <p>Once the clusters are built, we can also tell you how they compare to the species names
+ * (CLUSTER_PERFECT, CLUSTER_SPLIT, etc.). Sequences without a species name count as a species of
+ * their own, which (since we can't tell where the rest of it might be) is never complete.
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SingleLinkage implements Testable {
+    /** A cluster containing every sequence of a single species, and nothing else. */
+    public static final int CLUSTER_PERFECT = 0;
+
+    /** A cluster containing only one species, some of whose sequences are in other clusters. */
+    public static final int CLUSTER_SPLIT = 1;
+
+    /** A cluster containing several species, all of whose sequences are in this cluster. */
+    public static final int CLUSTER_LUMPED = 2;
+
+    /** A cluster containing several species, some of whose sequences are in other clusters. */
+    public static final int CLUSTER_LUMPED_SPLIT = 3;
+
+    private double threshold;
+
+    private Sequence[] sequences; // in the order of the list
+    private int[] cluster_of; // the cluster each sequence is in
+    private int count_clusters = 0;
+
+    // how many new edges should we make room for every time
+    // an edge buffer runs out of space?
+    private static final int INCREASE_SIZE = 500;
+
+    /**
+     * Clusters every sequence in 'list' at 'threshold' (as a fraction, i.e. 0.03 for 3%): any two
+     * sequences with a valid distance of no more than 'threshold' end up in the same cluster.
+     *
+     * @throws DelayAbortedException if the user aborted the clustering
+     */
+    public SingleLinkage(SequenceList list, double threshold, DelayCallback delay)
+            throws DelayAbortedException {
+        this.threshold = threshold;
+
+        list.lock();
+        sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+
+        if (delay != null) delay.begin();
+
+        Worker[] workers = new Worker[countWorkers()];
+        for (int x = 0; x < workers.length; x++) workers[x] = new LinkageWorker();
+
+        try {
+            runWorkers(workers, delay);
+        } finally {
+            list.unlock();
+        }
+
+        // put the forests together
+        UnionFind forest = ((LinkageWorker) workers[0]).forest;
+        for (int x = 1; x < workers.length; x++) forest.unite(((LinkageWorker) workers[x]).forest);
+
+        number(forest);
+
+        if (delay != null) delay.end();
+    }
+
+    /** Only used to run test(); there won't be any clusters in here. */
+    public SingleLinkage() {
+        sequences = new Sequence[0];
+        cluster_of = new int[0];
+    }
+
+    /** Used by sweep() to set up the clusters at a single threshold. */
+    private SingleLinkage(Sequence[] sequences, double threshold) {
+        this.sequences = sequences;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Clusters every sequence in 'list' at every one of 'thresholds' (as fractions), in about the
+     * time it would take to cluster them at the largest of them. Returns the clusters at each
+     * threshold, in the same order as 'thresholds'.
+     *
+     * <p>We work out (in parallel) every valid distance no larger than the largest threshold, sort
+     * them, and then add them to a single union-find forest from the smallest up (as in Kruskal's
+     * algorithm): every time we go past one of the thresholds, the components of the forest at that
+     * point are the clusters at that threshold.
+     *
+     * @throws DelayAbortedException if the user aborted the clustering
+     */
+    public static SingleLinkage[] sweep(SequenceList list, double[] thresholds, DelayCallback delay)
+            throws DelayAbortedException {
+        // put the thresholds in order, remembering where they came from
+        Integer[] order = new Integer[thresholds.length];
+        for (int x = 0; x < order.length; x++) order[x] = Integer.valueOf(x);
+        Arrays.sort(
+                order,
+                new Comparator<Integer>() {
+                    public int compare(Integer o1, Integer o2) {
+                        return Double.compare(thresholds[o1.intValue()], thresholds[o2.intValue()]);
+                    }
+                });
+
+        double max_threshold = 0;
+        for (int x = 0; x < thresholds.length; x++)
+            max_threshold = Math.max(max_threshold, thresholds[x]);
+
+        list.lock();
+        Sequence[] sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+
+        if (delay != null) delay.begin();
+
+        // find all the edges we might need
+        SingleLinkage edges = new SingleLinkage(sequences, max_threshold);
+        Worker[] workers = new Worker[edges.countWorkers()];
+        for (int x = 0; x < workers.length; x++) workers[x] = edges.new EdgeWorker();
+
+        try {
+            edges.runWorkers(workers, delay);
+        } finally {
+            list.unlock();
+        }
+
+        // put them all together, and sort them by distance. A valid distance is never negative,
+        // so we can sort by the bits of its float as an integer; the bottom half of the key tells
+        // us which edge it was.
+        long count_edges = 0;
+        for (int x = 0; x < workers.length; x++) count_edges += ((EdgeWorker) workers[x]).size;
+        if (count_edges > Integer.MAX_VALUE - 8)
+            throw new RuntimeException(
+                    "There are too many pairwise distances ("
+                            + count_edges
+                            + ") within "
+                            + max_threshold
+                            + " to sweep all of them at once. Please try a lower threshold.");
+
+        long[] keys = new long[(int) count_edges];
+        double[] distances = new double[keys.length];
+        int[] from = new int[keys.length];
+        int[] to = new int[keys.length];
+        int offset = 0;
+        for (int x = 0; x < workers.length; x++) {
+            EdgeWorker worker = (EdgeWorker) workers[x];
+
+            for (int y = 0; y < worker.size; y++) {
+                // '+ 0.0f' turns a -0.0 into a 0.0, which matters when we sort by bits
+                float distance = (float) worker.distances[y] + 0.0f;
+
+                keys[offset] = ((long) Float.floatToIntBits(distance) << 32) | offset;
+                distances[offset] = worker.distances[y];
+                from[offset] = worker.from[y];
+                to[offset] = worker.to[y];
+                offset++;
+            }
+
+            workers[x] = null; // we're done with its buffers
+        }
+
+        Arrays.parallelSort(keys);
+
+        // and now, Kruskal: add the edges from the smallest up, and number the components every
+        // time we pass a threshold. Rounding to float never changes the order of two distances,
+        // so only the edges whose float is the same as the threshold's need a closer look.
+        SingleLinkage[] results = new SingleLinkage[thresholds.length];
+        UnionFind forest = new UnionFind(sequences.length);
+
+        int edge = 0;
+        for (int x = 0; x < order.length; x++) {
+            int index = order[x].intValue();
+            float threshold = (float) thresholds[index];
+
+            while (edge < keys.length && getDistance(keys[edge]) < threshold) {
+                int which = (int) keys[edge];
+                forest.union(from[which], to[which]);
+                edge++;
+            }
+
+            // we'll look at these again at the next threshold
+            for (int e = edge; e < keys.length && getDistance(keys[e]) == threshold; e++) {
+                int which = (int) keys[e];
+                if (distances[which] <= thresholds[index]) forest.union(from[which], to[which]);
+            }
+
+            results[index] = new SingleLinkage(sequences, thresholds[index]);
+            results[index].number(forest);
+        }
+
+        if (delay != null) delay.end();
+
+        return results;
+    }
+
+    /** Returns the (float) distance from a sort key made by sweep(). */
+    private static float getDistance(long key) {
+        return Float.intBitsToFloat((int) (key >>> 32));
+    }
+
+    /** How many workers should we start? One per processor, but not more than there are queries. */
+    private int countWorkers() {
+        return ParallelLoop.countWorkers(sequences.length);
+    }
+
+    /**
+     * Runs 'workers' until every query is done (see ParallelLoop).
+     *
+     * @throws DelayAbortedException if the user aborted the clustering
+     */
+    private void runWorkers(Worker[] workers, DelayCallback delay) throws DelayAbortedException {
+        try {
+            ParallelLoop.run(sequences.length, workers, delay);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(
+                    "Error while clustering sequences: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /** A Worker compares one query at a time with every later sequence. */
+    private abstract class Worker implements ParallelLoop.Body {
+        /** Compares 'query' with every later sequence. */
+        public abstract void process(int query);
+    }
+
+    /** A LinkageWorker unites each query with every later sequence within the threshold. */
+    private class LinkageWorker extends Worker {
+        private UnionFind forest = new UnionFind(sequences.length);
+
+        public void process(int query) {
+            Sequence seq = sequences[query];
+
+            for (int x = query + 1; x < sequences.length; x++) {
+                // if they're already connected, this edge can't change anything
+                if (forest.find(query) == forest.find(x)) continue;
+
+                double distance = seq.getPairwiseNoBuffer(sequences[x]);
+                if (distance >= 0 && distance <= threshold) forest.union(query, x);
+            }
+        }
+    }
+
+    /**
+     * An EdgeWorker writes down every edge (pair of sequences within the threshold) in its own
+     * buffer.
+     */
+    private class EdgeWorker extends Worker {
+        private double[] distances = new double[0];
+        private int[] from = new int[0];
+        private int[] to = new int[0];
+        private int size = 0;
+
+        public void process(int query) {
+            Sequence seq = sequences[query];
+
+            for (int x = query + 1; x < sequences.length; x++) {
+                double distance = seq.getPairwiseNoBuffer(sequences[x]);
+                if (distance < 0 || distance > threshold) continue;
+
+                if (size == distances.length) {
+                    int new_size = size + (size / 2) + INCREASE_SIZE;
+
+                    distances = Arrays.copyOf(distances, new_size);
+                    from = Arrays.copyOf(from, new_size);
+                    to = Arrays.copyOf(to, new_size);
+                }
+
+                distances[size] = distance;
+                from[size] = query;
+                to[size] = x;
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Numbers the components of 'forest' in the order of their first sequence, and works out which
+     * cluster every sequence is in.
+     */
+    private void number(UnionFind forest) {
+        int[] number_of_root = new int[sequences.length];
+        Arrays.fill(number_of_root, -1);
+
+        cluster_of = new int[sequences.length];
+        count_clusters = 0;
+        for (int x = 0; x < sequences.length; x++) {
+            int root = forest.find(x);
+
+            if (number_of_root[root] == -1) number_of_root[root] = count_clusters++;
+            cluster_of[x] = number_of_root[root];
+        }
+    }
+
+    /** Returns the threshold these clusters were made at. */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /** Returns the number of clusters. */
+    public int count() {
+        return count_clusters;
+    }
+
+    /** Returns the number of different species names among the clustered sequences. */
+    public int countSpecies() {
+        HashSet<String> species = new HashSet<String>();
+        for (int x = 0; x < sequences.length; x++) {
+            if (sequences[x].getSpeciesName() != null) species.add(sequences[x].getSpeciesName());
+        }
+
+        return species.size();
+    }
+
+    /** Returns the number of clusters with only one sequence in them. */
+    public int countSingletons() {
+        int[] sizes = new int[count_clusters];
+        for (int x = 0; x < sequences.length; x++) sizes[cluster_of[x]]++;
+
+        int singletons = 0;
+        for (int x = 0; x < count_clusters; x++) if (sizes[x] == 1) singletons++;
+
+        return singletons;
+    }
+
+    /**
+     * Returns the clusters, as a Vector of clusters, each of which is a Vector of Sequences. This
+     * is a new Vector each time, so feel free to mess around with it.
+     */
+    public Vector<Vector<Sequence>> getClusters() {
+        Vector<Vector<Sequence>> clusters = new Vector<Vector<Sequence>>(count_clusters);
+        for (int x = 0; x < count_clusters; x++) clusters.add(new Vector<Sequence>());
+
+        for (int x = 0; x < sequences.length; x++) clusters.get(cluster_of[x]).add(sequences[x]);
+
+        return clusters;
+    }
+
+    /**
+     * Returns the type of each cluster (CLUSTER_PERFECT, CLUSTER_SPLIT, CLUSTER_LUMPED or
+     * CLUSTER_LUMPED_SPLIT), by cluster number.
+     */
+    public int[] getClusterTypes() {
+        return classify(sequences, cluster_of, count_clusters);
+    }
+
+    /** Returns the number of clusters of each type, indexed by type. */
+    public int[] countClusterTypes() {
+        int[] counts = new int[4];
+
+        int[] types = getClusterTypes();
+        for (int x = 0; x < types.length; x++) counts[types[x]]++;
+
+        return counts;
+    }
+
+    /** Returns a short description of a cluster type (CLUSTER_PERFECT, etc.). */
+    public static String getClusterTypeName(int type) {
+        switch (type) {
+            case CLUSTER_PERFECT:
+                return "perfect";
+            case CLUSTER_SPLIT:
+                return "split";
+            case CLUSTER_LUMPED:
+                return "lumped";
+            case CLUSTER_LUMPED_SPLIT:
+                return "lumped/split";
+            default:
+                throw new IllegalArgumentException("Unknown cluster type: " + type);
+        }
+    }
+
+    /**
+     * Works out the type of every cluster, given the cluster each sequence is in. This is O(n): we
+     * give every species a number, count up the sequences of each species (in total and in each
+     * cluster), and then check each cluster against those counts.
+     */
+    static int[] classify(Sequence[] sequences, int[] cluster_of, int count_clusters) {
+        int n = sequences.length;
+
+        // number the species; sequences without a species name get a number of their own
+        int[] species_of = new int[n];
+        HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+        int count_species = 0;
+        for (int x = 0; x < n; x++) {
+            String name = sequences[x].getSpeciesName();
+            if (name == null) continue;
+
+            Integer number = numbers.get(name);
+            if (number == null) {
+                number = Integer.valueOf(count_species++);
+                numbers.put(name, number);
+            }
+            species_of[x] = number.intValue();
+        }
+        int first_unnamed = count_species;
+        for (int x = 0; x < n; x++) {
+            if (sequences[x].getSpeciesName() == null) species_of[x] = count_species++;
+        }
+
+        int[] species_total = new int[count_species];
+        for (int x = 0; x < n; x++) species_total[species_of[x]]++;
+
+        // sort the sequences by cluster, so we can look at one cluster at a time
+        int[] cluster_start = new int[count_clusters + 1];
+        for (int x = 0; x < n; x++) cluster_start[cluster_of[x] + 1]++;
+        for (int x = 0; x < count_clusters; x++) cluster_start[x + 1] += cluster_start[x];
+
+        int[] by_cluster = new int[n];
+        int[] next = Arrays.copyOf(cluster_start, count_clusters);
+        for (int x = 0; x < n; x++) by_cluster[next[cluster_of[x]]++] = x;
+
+        // and then count up the species in each of them
+        int[] types = new int[count_clusters];
+        int[] species_here = new int[count_species];
+        int[] touched = new int[n];
+        for (int c = 0; c < count_clusters; c++) {
+            int count_touched = 0;
+            for (int y = cluster_start[c]; y < cluster_start[c + 1]; y++) {
+                int species = species_of[by_cluster[y]];
+                if (species_here[species] == 0) touched[count_touched++] = species;
+                species_here[species]++;
+            }
+
+            boolean complete = true; // are all the sequences of every species in here?
+            for (int y = 0; y < count_touched; y++) {
+                int species = touched[y];
+
+                // we can't tell whether an unnamed sequence is complete or not; so
+                // a cluster of one is split, and otherwise we leave it out of it.
+                if (species >= first_unnamed) {
+                    if (count_touched == 1) complete = false;
+                } else if (species_here[species] != species_total[species]) {
+                    complete = false;
+                }
+
+                species_here[species] = 0;
+            }
+
+            if (count_touched == 1) types[c] = complete ? CLUSTER_PERFECT : CLUSTER_SPLIT;
+            else types[c] = complete ? CLUSTER_LUMPED : CLUSTER_LUMPED_SPLIT;
+        }
+
+        return types;
+    }
+
+    /**
+     * Tests SingleLinkage against the plain old way of clustering: starting from each sequence
+     * nobody has clustered yet, keep pulling in every sequence within the threshold of anything
+     * already in the cluster until there's nothing left to pull in.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.SingleLinkage");
+
+        // a few 'species', each of which is a handful of mutants of an ancestor; some of them
+        // are close enough to each other to get lumped at the larger thresholds.
+        SequenceList list = new SequenceList();
+        Random random = new Random(2005);
+        String bases = "ACGT";
+        try {
+            char[] ancestor = new char[400];
+            for (int x = 0; x < ancestor.length; x++) ancestor[x] = bases.charAt(random.nextInt(4));
+
+            for (int species = 0; species < 12; species++) {
+                // every species drifts a little further from the last one
+                for (int x = 0; x < 6; x++)
+                    ancestor[random.nextInt(ancestor.length)] = bases.charAt(random.nextInt(4));
+
+                int count = 1 + random.nextInt(8);
+                for (int y = 0; y < count; y++) {
+                    char[] seq = (char[]) ancestor.clone();
+                    int mutations = random.nextInt(8);
+                    for (int x = 0; x < mutations; x++)
+                        seq[random.nextInt(seq.length)] = bases.charAt(random.nextInt(4));
+
+                    // every now and again, one too short to compare with anybody
+                    if (random.nextInt(12) == 0) Arrays.fill(seq, 0, 250, '-');
+
+                    // and one without a species name
+                    String name =
+                            "Testus species"
+                                    + (char) ('a' + species / 2)
+                                    + " "
+                                    + species
+                                    + "_"
+                                    + y;
+                    if (random.nextInt(10) == 0) name = "unnamed_" + species + "_" + y;
+
+                    list.add(new Sequence(name, new String(seq)));
+                }
+            }
+        } catch (SequenceException e) {
+            testMaster.failed("Could not create the test sequences: " + e);
+            testMaster.done();
+            return;
+        }
+
+        Sequence[] sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+        double[] thresholds = new double[] {0.02, 0.0, 0.005, 0.05, 0.01, 0.5};
+
+        testMaster.beginTest("Cluster at a single threshold, the same as the old way");
+        String error = null;
+        for (int t = 0; t < thresholds.length && error == null; t++) {
+            int[] expected = clusterTheOldWay(sequences, thresholds[t]);
+            SingleLinkage clusters = new SingleLinkage(list, thresholds[t], delay);
+
+            if (!Arrays.equals(expected, clusters.cluster_of))
+                error = "The clusters at " + thresholds[t] + " aren't the same as the old way's";
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Sweep several thresholds at once, the same as the old way");
+        error = null;
+        SingleLinkage[] swept = sweep(list, thresholds, delay);
+        for (int t = 0; t < thresholds.length && error == null; t++) {
+            int[] expected = clusterTheOldWay(sequences, thresholds[t]);
+
+            if (swept[t].getThreshold() != thresholds[t])
+                error = "Sweep result " + t + " is at the wrong threshold";
+            else if (!Arrays.equals(expected, swept[t].cluster_of))
+                error = "The clusters swept at " + thresholds[t] + " aren't the old way's";
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Classify clusters the same as comparing species one by one");
+        error = null;
+        for (int t = 0; t < thresholds.length && error == null; t++) {
+            int[] types = swept[t].getClusterTypes();
+            Vector<Vector<Sequence>> clusters = swept[t].getClusters();
+
+            for (int c = 0; c < clusters.size() && error == null; c++) {
+                int expected = classifyTheOldWay(sequences, clusters.get(c));
+                if (types[c] != expected)
+                    error =
+                            "Cluster "
+                                    + c
+                                    + " at "
+                                    + thresholds[t]
+                                    + " is "
+                                    + getClusterTypeName(types[c])
+                                    + ", not "
+                                    + getClusterTypeName(expected);
+            }
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.done();
+    }
+
+    /** The cluster every sequence ends up in, worked out one cluster at a time. */
+    private static int[] clusterTheOldWay(Sequence[] sequences, double threshold) {
+        int[] cluster_of = new int[sequences.length];
+        Arrays.fill(cluster_of, -1);
+
+        int count_clusters = 0;
+        for (int x = 0; x < sequences.length; x++) {
+            if (cluster_of[x] != -1) continue;
+
+            Vector<Integer> cluster = new Vector<Integer>();
+            cluster_of[x] = count_clusters;
+            cluster.add(Integer.valueOf(x));
+            for (int y = 0; y < cluster.size(); y++) {
+                Sequence seq = sequences[cluster.get(y).intValue()];
+
+                for (int z = 0; z < sequences.length; z++) {
+                    if (cluster_of[z] != -1) continue;
+
+                    double distance = seq.getPairwiseNoBuffer(sequences[z]);
+                    if (distance >= 0 && distance <= threshold) {
+                        cluster_of[z] = count_clusters;
+                        cluster.add(Integer.valueOf(z));
+                    }
+                }
+            }
+            count_clusters++;
+        }
+
+        return cluster_of;
+    }
+
+    /** The type of 'cluster', worked out by looking for each of its species in every cluster. */
+    private static int classifyTheOldWay(Sequence[] sequences, Vector<Sequence> cluster) {
+        HashSet<Object> species = new HashSet<Object>();
+        boolean complete = true;
+        for (int x = 0; x < cluster.size(); x++) {
+            Sequence seq = cluster.get(x);
+            String name = seq.getSpeciesName();
+
+            if (name == null) {
+                species.add(seq);
+                continue;
+            }
+            species.add(name);
+
+            for (int y = 0; y < sequences.length; y++) {
+                if (name.equals(sequences[y].getSpeciesName()) && !cluster.contains(sequences[y]))
+                    complete = false;
+            }
+        }
+
+        // a cluster of one unnamed sequence might be missing the rest of its species
+        if (species.size() == 1 && cluster.get(0).getSpeciesName() == null)
+            complete = false;
+
+        if (species.size() == 1) return complete ? CLUSTER_PERFECT : CLUSTER_SPLIT;
+        else return complete ? CLUSTER_LUMPED : CLUSTER_LUMPED_SPLIT;
+    }
+
+    /**
+     * A union-find ("disjoint set") forest over the numbers 0 to n-1, with union by size and path
+     * halving, so any sequence of operations takes very nearly linear time.
+     */
+    static class UnionFind {
+        private int[] parent;
+        private int[] size;
+
+        public UnionFind(int n) {
+            parent = new int[n];
+            size = new int[n];
+
+            for (int x = 0; x < n; x++) {
+                parent[x] = x;
+                size[x] = 1;
+            }
+        }
+
+        /** Returns the root of the tree 'x' is in. */
+        public int find(int x) {
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        /** Puts 'a' and 'b' into the same tree. Returns false if they already were. */
+        public boolean union(int a, int b) {
+            a = find(a);
+            b = find(b);
+            if (a == b) return false;
+
+            if (size[a] < size[b]) {
+                int temp = a;
+                a = b;
+                b = temp;
+            }
+
+            parent[b] = a;
+            size[a] += size[b];
+            return true;
+        }
+
+        /** Puts everything which is together in 'forest' together in this forest as well. */
+        public void unite(UnionFind forest) {
+            for (int x = 0; x < parent.length; x++) union(x, forest.find(x));
+        }
+    }
+}
@@ -27,9 +27,14 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
 public class BaseFormatHandler implements FormatHandler {
+    /** How much of a file readHead() reads. */
+    public static final int HEAD_SIZE = 16 * 1024;
+
     protected Vector formatListeners = new Vector();
 
     public String getShortName() {
@@ -59,6 +64,62 @@ public class BaseFormatHandler implements FormatHandler {
         return false;
     }
 
+    /** We can't tell from the head; override this if your format can. */
+    public int mightBe(ByteBuffer head) {
+        return UNSURE;
+    }
+
+    /**
+     * Reads the first HEAD_SIZE bytes of 'file' (or all of it, if it's shorter than that) into a
+     * ByteBuffer, ready for mightBe(ByteBuffer).
+     */
+    public static ByteBuffer readHead(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer head = ByteBuffer.allocate(HEAD_SIZE);
+
+            while (head.hasRemaining()) {
+                if (channel.read(head) == -1) break;
+            }
+
+            head.flip();
+            return head;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Does 'head' (from readHead()) contain the whole file? If it doesn't, whatever you're looking
+     * for might still be further along.
+     */
+    public static boolean isWholeFile(ByteBuffer head) {
+        return head.limit() < head.capacity();
+    }
+
+    /**
+     * Returns the first line in 'head' which isn't blank, trimmed; "" if there isn't one; or null
+     * if that line runs past the end of the head, so we can't read all of it.
+     */
+    public static String firstLine(ByteBuffer head) {
+        int limit = head.limit();
+
+        int from = 0;
+        while (from < limit && head.get(from) <= ' ') from++;
+
+        int to = from;
+        while (to < limit && head.get(to) != '\n' && head.get(to) != '\r') to++;
+        if (to == limit && !isWholeFile(head)) return null;
+
+        // it's a signature or a header, so there's no point worrying about the charset
+        StringBuffer line = new StringBuffer(to - from);
+        for (int x = from; x < to; x++) line.append((char) (head.get(x) & 0xFF));
+
+        return line.toString().trim();
+    }
+
     public void addFormatListener(FormatListener listener) {
         if (!formatListeners.contains(listener)) formatListeners.add(listener);
     }
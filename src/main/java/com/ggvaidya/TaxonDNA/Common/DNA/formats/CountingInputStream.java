@@ -0,0 +1,102 @@
+/**
+ * A CountingInputStream keeps count of how many bytes have been read through it. Format handlers
+ * read their files through one of these, so they can tell the DelayCallback how far through the
+ * file they are without having to read the whole thing once beforehand just to count its lines.
+ *
+ * <p>Since readers read ahead, the count is a little ahead of whatever the parser is actually
+ * looking at; but that's close enough for a progress bar.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005 Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA.formats;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import java.io.*;
+
+public class CountingInputStream extends FilterInputStream {
+    private long count = 0;
+    private long total = 0;
+
+    /**
+     * Counts the bytes read from 'in', which has 'total' bytes in all (usually File.length() of
+     * the file it's reading).
+     */
+    public CountingInputStream(InputStream in, long total) {
+        super(in);
+        this.total = total;
+    }
+
+    /** Counts the bytes read from 'file'. */
+    public CountingInputStream(File file) throws IOException {
+        this(new FileInputStream(file), file.length());
+    }
+
+    /** Returns the number of bytes read so far. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Returns the total number of bytes we expect to read. */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Tells 'delay' how far along we are. We count in kilobytes, so that files larger than 2 GB
+     * still fit into delay()'s ints.
+     */
+    public void reportProgress(DelayCallback delay) throws DelayAbortedException {
+        if (delay == null) return;
+
+        delay.delay((int) (count / 1024), (int) (total / 1024));
+    }
+
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) count++;
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) count += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        if (skipped > 0) count += skipped;
+        return skipped;
+    }
+
+    // we can't un-count bytes, so we don't do marks
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readlimit) {}
+
+    public void reset() throws IOException {
+        throw new IOException("CountingInputStream does not support mark() or reset()");
+    }
+}
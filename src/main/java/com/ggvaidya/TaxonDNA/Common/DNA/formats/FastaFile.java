@@ -40,11 +40,21 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
 
 public class FastaFile extends BaseFormatHandler implements Testable {
-    private int count_sequences = 0;
+    /** How much of a file we read at a time (in bytes). */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Files at least this big (in bytes) are parsed in parallel, if we have the processors. */
+    private static final long PARALLEL_THRESHOLD = 32L * 1024 * 1024;
+
+    /** How big (roughly, in bytes) each chunk of a file parsed in parallel is. */
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
 
     /** Creates a FastaFile reader/writer. */
     public FastaFile() {}
@@ -65,68 +75,68 @@ public class FastaFile extends BaseFormatHandler implements Testable {
     }
 
     /**
-     * Returns true if it seems likely (heck, possible) the file is a FASTA file. To be strict,
-     * we'll parse the entire file, counting as we go. This also saves us a count later on, and it
-     * seems unlikely that we'll ever run readFile() without calling this first.
-     *
-     * <p>Note: in the interests of saving time, we will NOT test past the 2nd '&gt;'. We'll just
-     * count the number of '&gt;' we get after this point. This should be "good enough".
+     * Returns true if it seems likely (heck, possible) the file is a FASTA file, i.e. if any line
+     * in it starts with a '&gt;' (once you ignore whitespace). A real FASTA file will have one on
+     * its very first line, so we can usually stop reading almost immediately.
      */
     public boolean mightBe(File file) {
-        BufferedReader reader = null;
-
-        count_sequences = 0; // mightBe() counts the number of sequences as it goes
+        FileInputStream input = null;
 
         try {
-            reader = new BufferedReader(new FileReader(file));
-
-            // Pattern 	pSequence =	Pattern.compile("^[A-Za-z\\-\\?\\[\\]\\(\\) ]*$");
-            Pattern pSequence = Pattern.compile("^.*$");
-            Pattern pBlank = Pattern.compile("^\\s*$");
-            Pattern pComment = Pattern.compile("^\\s*#.*$");
-            Pattern pName = Pattern.compile("^>\\s*(.*)\\s*$");
-            Pattern pNameNotEmpty = Pattern.compile("^>\\s*(.+)\\s*$");
-
-            boolean dontTest = false;
-
-            while (reader.ready()) {
-                String line = reader.readLine().trim();
-
-                if (dontTest) {
-                    // don't test the full para - just count '>'s
-                    if (line.length() > 0 && line.charAt(0) == '>') count_sequences++;
-                    continue;
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+            ByteBuffer buff = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            boolean line_start = true;
+            while (channel.read(buff) != -1) {
+                buff.flip();
+
+                int limit = buff.limit();
+                for (int x = 0; x < limit; x++) {
+                    byte b = buff.get(x);
+
+                    if (b == '\n' || b == '\r') line_start = true;
+                    else if (line_start) {
+                        if (b == '>') return true;
+                        if (!isWhitespace(b)) line_start = false;
+                    }
                 }
 
-                if (pNameNotEmpty.matcher(line).matches()) {
-                    // it matches a name "^>.......$", so let's say it *might* be
-                    if (count_sequences > 2) dontTest = true; // turn off reg ex testing
-                    count_sequences++;
-                } else if (pName.matcher(line).matches()) {
-                    count_sequences++;
-                } else if (pName.matcher(line).matches()) {
-                    return false;
-                } else if (pSequence.matcher(line).matches()) {
-                    // it's a sequence bit
-                } else if (pComment.matcher(line).matches()) {
-                    // comments we'll let pass
-                } else if (pBlank.matcher(line).matches()) {
-                    // blank lines we'll let pass
-                } else {
-                    // if it's not one of the above, something is wrong
-                    return false;
-                }
+                buff.clear();
             }
 
-            reader.close();
-
-            if (count_sequences == 0) return false;
-
-            return true;
+            return false;
 
         } catch (IOException e) {
             return false;
+        } finally {
+            try {
+                if (input != null) input.close();
+            } catch (IOException e) {
+                // nothing we can do about it now
+            }
+        }
+    }
+
+    /**
+     * Looks for a line starting with a '&gt;' in the head of a file. If we can't find one, it
+     * might still be further along, in which case mightBe(File) will have to look for it.
+     */
+    public int mightBe(ByteBuffer head) {
+        boolean line_start = true;
+
+        int limit = head.limit();
+        for (int x = 0; x < limit; x++) {
+            byte b = head.get(x);
+
+            if (b == '\n' || b == '\r') line_start = true;
+            else if (line_start) {
+                if (b == '>') return PROBABLY;
+                if (!isWhitespace(b)) line_start = false;
+            }
         }
+
+        return isWholeFile(head) ? DEFINITELY_NOT : UNSURE;
     }
 
     /** Reads the contents of a FASTA file into a new SequenceList. */
@@ -138,134 +148,433 @@ public class FastaFile extends BaseFormatHandler implements Testable {
     }
 
     /**
-     * Appends the contents of a FASTA file to the specified SequenceList. We run mightBe()
-     * internally, since it gives us the count anyways.
+     * Appends the contents of a FASTA file to the specified SequenceList. We read the file exactly
+     * once, a buffer at a time, picking out names and bases as bytes (see Parser); progress is
+     * reported in kilobytes read, so we never need to count the sequences beforehand.
+     *
+     * <p>Big files (see PARALLEL_THRESHOLD) are split up and parsed on every processor we have;
+     * see appendFromFileInParallel().
      */
     public void appendFromFile(SequenceList list, File file, DelayCallback delay)
             throws IOException, SequenceException, FormatException, DelayAbortedException {
-        Pattern pBlank = Pattern.compile("^\\s*$");
-        Pattern pComment = Pattern.compile("^\\s*#.*$");
-        Pattern pNameNotEmpty = Pattern.compile("^>\\s*(.+)\\s*$");
-        Pattern pName = Pattern.compile("^>\\s*(.*)\\s*$");
-        // Pattern		pSequence =	Pattern.compile("^\\s*(.*)\\s*$");
-        Pattern pSequence = Pattern.compile("^\\s*(.*)\\s*$");
-
-        String name = "";
-        String seq = "";
-        int lineno = 0;
-        Matcher m;
+        if (file.length() >= PARALLEL_THRESHOLD
+                && Runtime.getRuntime().availableProcessors() > 1) {
+            appendFromFileInParallel(list, file, delay);
+            return;
+        }
+
+        FileInputStream input = new FileInputStream(file);
 
         list.lock();
 
-        if (count_sequences == 0)
-            if (!mightBe(file)) return; // we do nothing to show disrespect for this file
+        if (delay != null) delay.begin();
+
+        // the DelayCallback is ended on every way out except an abort
+        // (whoever aborted it has already done that)
+        boolean aborted = false;
+        try {
+            FileChannel channel = input.getChannel();
+            int total = (int) (channel.size() / 1024);
 
-        if (count_sequences
-                == 0) // if there are no sequences in this file, it's presumbably not valid
-        return;
+            Parser parser = new Parser(list, delay);
+            ByteBuffer buff = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long done = 0;
 
-        BufferedReader reader = new BufferedReader(new FileReader(file));
+            int read;
+            while ((read = channel.read(buff)) != -1) {
+                buff.flip();
+                parser.feed(buff, 0, buff.limit());
+                buff.clear();
+
+                done += read;
+                if (delay != null) delay.delay((int) (done / 1024), total);
+            }
+
+            parser.finish();
+
+            if (parser.count() > 0) {
+                list.setFile(file);
+                list.setFormatHandler(this);
+            }
+        } catch (DelayAbortedException e) {
+            aborted = true;
+            throw e;
+        } finally {
+            if (delay != null && !aborted) delay.end();
+            list.unlock();
+            input.close();
+        }
+    }
+
+    /**
+     * Appends the contents of a FASTA file to the specified SequenceList, parsing it on every
+     * processor we have. The file is split into chunks of about CHUNK_SIZE bytes, each of which
+     * ends just before a '&gt;' at the start of a line, so every chunk is a whole number of
+     * records. Each worker memory-maps a chunk at a time and parses it (which includes building
+     * and checking each Sequence, the slow part) into a list of its own. Once they're all done,
+     * the chunks are added to 'list' in the order in which they appear in the file, and any
+     * warnings (about uracil, say) are passed on to 'delay' in the same order.
+     */
+    public void appendFromFileInParallel(SequenceList list, File file, DelayCallback delay)
+            throws IOException, SequenceException, FormatException, DelayAbortedException {
+        appendFromFileInChunks(list, file, CHUNK_SIZE, delay);
+    }
+
+    /**
+     * Does the work of appendFromFileInParallel(), with chunks of about 'chunk_size' bytes (so the
+     * tests can split small files up, too).
+     */
+    private void appendFromFileInChunks(
+            SequenceList list, File file, long chunk_size, DelayCallback delay)
+            throws IOException, SequenceException, FormatException, DelayAbortedException {
+        FileInputStream input = new FileInputStream(file);
+
+        list.lock();
 
         if (delay != null) delay.begin();
 
-        // the hard work
-        int sequences = 0;
-        while (reader.ready()) {
-            lineno++;
-            String line = reader.readLine();
-
-            if (pBlank.matcher(line).matches()) {
-                // Ignore blank lines
-            } else if (pComment.matcher(line).matches()) {
-                // Ignore comment lines
-            } else if ((m = pNameNotEmpty.matcher(line)).matches()) {
-                // add the previous entry
-                if (!name.isEmpty()) {
-                    try {
-                        Sequence x = makeSequence(delay, name, seq);
-                        list.add(x);
-                    } catch (SequenceException e) {
-                        if (delay != null) delay.end();
-                        throw e;
-                    }
-                    sequences++;
-                }
-                // start new seq
-                name = m.group(1);
-                seq = "";
+        // the DelayCallback is ended on every way out except an abort
+        // (whoever aborted it has already done that)
+        boolean aborted = false;
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            long[] starts = findChunks(channel, size, chunk_size);
+
+            // progress is measured in kilobytes
+            int[] weights = new int[starts.length];
+            for (int x = 0; x < starts.length; x++) {
+                long end = (x + 1 < starts.length) ? starts[x + 1] : size;
+                weights[x] = (int) ((end - starts[x]) / 1024);
+            }
 
-                try {
-                    if (delay != null) {
-                        delay.delay(sequences, count_sequences);
-                    }
-                } catch (DelayAbortedException e) {
-                    if (delay != null) delay.end();
-                    list.unlock();
-                    throw e;
-                }
-            } else if ((m = pName.matcher(line)).matches()) {
-                // add the previous entry
-                if (!name.isEmpty()) {
-                    try {
-                        Sequence x = makeSequence(delay, name, seq);
-                        list.add(x);
-                    } catch (SequenceException e) {
-                        if (delay != null) delay.end();
-                        throw e;
-                    }
-                    sequences++;
-                }
-                // if we're here, we don't *have* a next
-                // so we'll start a new sequence called 'no name specified in file'
-                name = "No name specified in file";
-                seq = "";
-
-                try {
-                    if (delay != null) {
-                        delay.delay(sequences, count_sequences);
-                    }
-                } catch (DelayAbortedException e) {
-                    if (delay != null) delay.end();
-                    list.unlock();
-                    throw e;
+            SequenceList[] sequences = new SequenceList[starts.length]; // what each chunk holds
+            Vector[] warnings = new Vector[starts.length]; // the warnings from each chunk
+
+            ChunkParser[] workers = new ChunkParser[ParallelLoop.countWorkers(starts.length)];
+            for (int x = 0; x < workers.length; x++)
+                workers[x] = new ChunkParser(channel, starts, size, sequences, warnings);
+
+            try {
+                ParallelLoop.run(starts.length, weights, workers, delay);
+            } catch (ExecutionException e) {
+                Throwable failure = e.getCause();
+
+                if (failure instanceof SequenceException) throw (SequenceException) failure;
+                if (failure instanceof IOException) throw (IOException) failure;
+                throw new RuntimeException(
+                        "Error while reading '" + file + "': " + failure, failure);
+            }
+
+            // put the chunks back together again, in order
+            int count = 0;
+            for (int x = 0; x < starts.length; x++) {
+                list.addAll(sequences[x]);
+                count += sequences[x].size();
+
+                if (delay != null) {
+                    Iterator i = warnings[x].iterator();
+                    while (i.hasNext()) delay.addWarning((String) i.next());
                 }
+            }
 
-            } else if ((m = pSequence.matcher(line)).matches()) {
-                // append the sequence part
-                seq += m.group(1);
-            } else {
-                delay.end();
-                throw new FormatException("Unable to interpret line " + lineno + ": " + line);
+            if (count > 0) {
+                list.setFile(file);
+                list.setFormatHandler(this);
             }
+        } catch (DelayAbortedException e) {
+            aborted = true;
+            throw e;
+        } finally {
+            if (delay != null && !aborted) delay.end();
+            list.unlock();
+            input.close();
         }
+    }
 
-        // done!
-        if (delay != null) delay.end();
+    /**
+     * Works out where each chunk of a file 'size' bytes long should start: at 0, and then at the
+     * first '&gt;' at the start of a line after every 'chunk_size' bytes or so. Only a few bytes
+     * around each of these points are actually read.
+     */
+    private static long[] findChunks(FileChannel channel, long size, long chunk_size)
+            throws IOException {
+        Vector<Long> starts = new Vector<Long>();
+        starts.add(Long.valueOf(0));
+
+        ByteBuffer buff = ByteBuffer.allocate(BUFFER_SIZE);
+        long from = chunk_size;
+        while (from < size) {
+            long start = findRecordStart(channel, buff, from, size);
+            if (start >= size) break;
+
+            starts.add(Long.valueOf(start));
+            from = start + chunk_size;
+        }
 
-        reader.close();
+        long[] result = new long[starts.size()];
+        for (int x = 0; x < result.length; x++) result[x] = starts.get(x).longValue();
+        return result;
+    }
 
-        // is there anything in the buffers?
-        if (!name.isEmpty()) {
-            try {
-                Sequence x = makeSequence(delay, name, seq);
-                list.add(x);
-            } catch (SequenceException e) {
-                if (delay != null) delay.end();
+    /**
+     * Returns the position of the first '&gt;' at the start of a line at or after 'from', or
+     * 'size' if there aren't any.
+     */
+    private static long findRecordStart(FileChannel channel, ByteBuffer buff, long from, long size)
+            throws IOException {
+        long pos = from - 1; // we need to see the character before 'from', too
+        byte last = 0;
+        boolean first = true;
+
+        while (pos < size) {
+            buff.clear();
+            int read = channel.read(buff, pos);
+            if (read <= 0) break;
+
+            for (int x = 0; x < read; x++) {
+                byte b = buff.get(x);
+
+                if (!first && b == '>' && (last == '\n' || last == '\r')) return pos + x;
+
+                last = b;
+                first = false;
+            }
+
+            pos += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * A ChunkParser parses the chunks of a file (as worked out by findChunks()) one at a time,
+     * putting the Sequences and warnings from each chunk into the arrays it shares with the other
+     * ChunkParsers.
+     */
+    private static class ChunkParser implements ParallelLoop.Body {
+        private FileChannel channel;
+        private long[] starts;
+        private long size;
+
+        private SequenceList[] sequences;
+        private Vector[] warnings;
+
+        public ChunkParser(
+                FileChannel channel,
+                long[] starts,
+                long size,
+                SequenceList[] sequences,
+                Vector[] warnings) {
+            this.channel = channel;
+            this.starts = starts;
+            this.size = size;
+            this.sequences = sequences;
+            this.warnings = warnings;
+        }
+
+        /** Parses chunk number 'index'. */
+        public void process(int index) throws IOException, SequenceException {
+            long start = starts[index];
+            long end = (index + 1 < starts.length) ? starts[index + 1] : size;
+
+            SequenceList found = new SequenceList();
+            Vector<String> warned = new Vector<String>();
+
+            // each chunk is small enough to map in one go (unless it's one enormous record!)
+            long pos = start;
+            Parser parser = new Parser(found, new WarningCollector(warned));
+            while (pos < end) {
+                int length = (int) Math.min(end - pos, Integer.MAX_VALUE);
+                MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+
+                parser.feed(buff, 0, length);
+                pos += length;
             }
+            parser.finish();
+
+            sequences[index] = found;
+            warnings[index] = warned;
+        }
+    }
+
+    /**
+     * A DelayCallback which does nothing but note down warnings, so that a chunk being parsed on
+     * its own can hang on to them until it's time to pass them on.
+     */
+    private static class WarningCollector implements DelayCallback {
+        private Vector<String> warnings;
+
+        public WarningCollector(Vector<String> warnings) {
+            this.warnings = warnings;
         }
 
-        list.setFile(file);
-        list.setFormatHandler(this);
-        list.unlock();
+        public void begin() {}
+
+        public void end() {}
+
+        public void delay(int done, int total) {}
+
+        public void addWarning(String warning) {
+            warnings.add(warning);
+        }
+    }
+
+    /**
+     * Picks FASTA records out of raw bytes, a buffer at a time. A record may be split across
+     * buffers any way it likes: we remember what we were in the middle of (a name, a comment, some
+     * bases) from one buffer to the next.
+     *
+     * <p>The rules are the same as they've always been: a line starting with '&gt;' names a new
+     * sequence (an empty name becomes "No name specified in file"), blank lines and lines starting
+     * with '#' are ignored, and every other line is bases, with all whitespace removed. Anything
+     * before the first name is ignored. Bases are collected into a single growable byte array,
+     * so each Sequence is built exactly once, no matter how long it is or how it's wrapped.
+     */
+    static class Parser {
+        private static final int LINE_START = 0; // at the start of a line
+        private static final int LEADING = 1; // in the whitespace at the start of a line
+        private static final int NAME = 2; // in a '>' line
+        private static final int COMMENT = 3; // in a '#' line
+        private static final int BASES = 4; // in a line of bases
+
+        private SequenceList target;
+        private DelayCallback delay;
+
+        private int state = LINE_START;
+        private boolean in_record = false; // have we seen a '>' yet?
+        private byte[] name = new byte[256];
+        private int name_length = 0;
+        private byte[] bases = new byte[4096];
+        private int bases_length = 0;
+        private int count = 0;
+
+        /** Adds the sequences we find to 'target', warning 'delay' about anything odd. */
+        public Parser(SequenceList target, DelayCallback delay) {
+            this.target = target;
+            this.delay = delay;
+        }
+
+        /** Parses the bytes in 'buff' from index 'from' up to (but not including) 'to'. */
+        public void feed(ByteBuffer buff, int from, int to) throws SequenceException {
+            int state = this.state;
+
+            for (int x = from; x < to; x++) {
+                byte b = buff.get(x);
+
+                if (b == '\n' || b == '\r') {
+                    state = LINE_START;
+                    continue;
+                }
+
+                switch (state) {
+                    case BASES:
+                        if (in_record && !isWhitespace(b)) addBase(b);
+                        break;
+
+                    case NAME:
+                        if (name_length == name.length) name = grow(name);
+                        name[name_length++] = b;
+                        break;
+
+                    case COMMENT:
+                        break;
+
+                    case LINE_START:
+                        if (b == '>') {
+                            finish();
+
+                            in_record = true;
+                            state = NAME;
+                            break;
+                        }
+                        // otherwise, it's just like any other leading character
+
+                    case LEADING:
+                        if (isWhitespace(b)) state = LEADING;
+                        else if (b == '#') state = COMMENT;
+                        else {
+                            state = BASES;
+                            if (in_record) addBase(b);
+                        }
+                        break;
+                }
+            }
+
+            this.state = state;
+        }
+
+        private void addBase(byte b) {
+            if (bases_length == bases.length) bases = grow(bases);
+            bases[bases_length++] = b;
+        }
+
+        /** Adds the record we're in the middle of (if any) to the target. */
+        public void finish() throws SequenceException {
+            if (!in_record) return;
+
+            String str_name = new String(name, 0, name_length).trim();
+            String str_bases = new String(bases, 0, bases_length, StandardCharsets.ISO_8859_1);
+
+            target.add(makeSequence(delay, getName(str_name), str_bases));
+            count++;
+
+            in_record = false;
+            name_length = 0;
+            bases_length = 0;
+        }
+
+        /** Returns the number of sequences we've added to the target. */
+        public int count() {
+            return count;
+        }
+
+        private static byte[] grow(byte[] array) {
+            byte[] grown = new byte[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+
+    /** Is 'b' whitespace, as far as String.trim() is concerned? */
+    static boolean isWhitespace(byte b) {
+        return (b >= 0 && b <= ' ');
+    }
+
+    /**
+     * Reads FASTA-formatted sequences straight out of 'input' (which might not be a file at all:
+     * it could be somebody's request, for instance), appending them to 'list'. The bytes go
+     * through the same Parser as appendFromFile(), so the rules are exactly the same: blank lines
+     * and '#' comments are ignored, and so is any text before the first '&gt;'.
+     *
+     * @return the number of sequences read.
+     */
+    public static int appendFromStream(SequenceList list, InputStream input)
+            throws IOException, SequenceException {
+        Parser parser = new Parser(list, null);
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buff = ByteBuffer.wrap(bytes);
+
+        int read;
+        while ((read = input.read(bytes)) != -1) parser.feed(buff, 0, read);
+
+        parser.finish();
+        return parser.count();
+    }
+
+    private static String getName(String name) {
+        if (name == null || name.length() == 0) return "No name specified in file";
+        return name;
     }
 
     /**
      * Returns a new Sequence() object. Automatically converts 'U's into 'T's, warning the user
-     * through the DelayCallback (if there is one).
+     * through the DelayCallback (if there is one). 'seq' should already have had its whitespace
+     * removed.
      *
      * <p>This method is a hack entirely placed here to make working with Dambe easier.
      */
-    private Sequence makeSequence(DelayCallback delay, String name, String seq)
+    private static Sequence makeSequence(DelayCallback delay, String name, String seq)
             throws SequenceException {
         // I know I'm going to regret this
         name = name.replace('_', ' ');
@@ -284,11 +593,7 @@ public class FastaFile extends BaseFormatHandler implements Testable {
             seq = seq.replace('U', 'T').replace('u', 't');
         }
 
-        return BaseSequence.createSequence(
-                name,
-                seq.replaceAll(
-                        "\\s+",
-                        "")); // delete whitespace characters from the sequence before adding.
+        return BaseSequence.createSequence(name, seq);
     }
 
     /**
@@ -309,8 +614,7 @@ public class FastaFile extends BaseFormatHandler implements Testable {
         while (i.hasNext()) {
             Sequence seq = (Sequence) i.next();
 
-            writer.println(">" + seq.getFullName().trim().replace(' ', '_'));
-            writer.println(seq.getSequenceWrapped(70));
+            writeSequence(writer, seq);
 
             try {
                 if (delay != null) delay.delay(x, count);
@@ -328,6 +632,15 @@ public class FastaFile extends BaseFormatHandler implements Testable {
         writer.close();
     }
 
+    /**
+     * Writes a single sequence to 'writer', exactly as writeFile() would. This lets you stream
+     * sequences into a file without having to put them into a SequenceList first.
+     */
+    public static void writeSequence(PrintWriter writer, Sequence seq) {
+        writer.println(">" + seq.getFullName().trim().replace(' ', '_'));
+        writer.println(seq.getSequenceWrapped(70));
+    }
+
     /** Tests the FastaFile class extensively so that bugs don't creep in. */
     public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
         testMaster.begin("DNA.formats.FastaFile");
@@ -418,6 +731,90 @@ public class FastaFile extends BaseFormatHandler implements Testable {
                             + e);
         }
 
+        testMaster.beginTest("Read a FASTA file in chunks, exactly as we would in one go");
+        File chunky = testMaster.tempfile();
+        try {
+            writeTestFile(chunky, new Random(2005));
+
+            Vector<String> warnings = new Vector<String>();
+            SequenceList whole = new SequenceList();
+            ff.appendFromFile(whole, chunky, new WarningCollector(warnings));
+
+            Vector<String> chunk_warnings = new Vector<String>();
+            SequenceList chunks = new SequenceList();
+            ff.appendFromFileInChunks(chunks, chunky, 997, new WarningCollector(chunk_warnings));
+
+            String problem = null;
+            if (whole.count() != 300 || chunks.count() != whole.count())
+                problem =
+                        "I read "
+                                + chunks.count()
+                                + " sequences in chunks, and "
+                                + whole.count()
+                                + " in one go (there should be 300)";
+            else if (!warnings.equals(chunk_warnings) || warnings.size() == 0)
+                problem =
+                        "The warnings were "
+                                + chunk_warnings
+                                + " in chunks, but "
+                                + warnings
+                                + " in one go";
+
+            for (int x = 0; problem == null && x < whole.count(); x++) {
+                Sequence a = (Sequence) whole.get(x);
+                Sequence b = (Sequence) chunks.get(x);
+
+                if (!a.getFullName().equals(b.getFullName())
+                        || !a.getSequence().equals(b.getSequence()))
+                    problem =
+                            "Sequence #"
+                                    + x
+                                    + " was '"
+                                    + b.getFullName()
+                                    + "' in chunks, but '"
+                                    + a.getFullName()
+                                    + "' in one go";
+            }
+
+            if (problem == null) testMaster.succeeded();
+            else testMaster.failed(problem);
+        } catch (Exception e) {
+            testMaster.failed("I couldn't read " + chunky + " in chunks: " + e);
+        }
+
         testMaster.done();
     }
+
+    /**
+     * Writes out 300 random FASTA records to 'file', wrapped every which way, with blank lines,
+     * comments, DOS line endings and the odd uracil thrown in.
+     */
+    private static void writeTestFile(File file, Random random) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        String bases = "ACGTN-";
+
+        writer.print("# a comment before the first record\n");
+        for (int x = 0; x < 300; x++) {
+            String eol = (random.nextInt(4) == 0) ? "\r\n" : "\n";
+
+            writer.print(">Testus species" + (char) ('a' + x % 26) + " #" + x + eol);
+
+            int length = 50 + random.nextInt(400);
+            int wrap = 10 + random.nextInt(80);
+            boolean uracil = (random.nextInt(20) == 0);
+            for (int y = 0; y < length; y++) {
+                char base = bases.charAt(random.nextInt(bases.length()));
+                if (uracil && base == 'T') base = 'U';
+
+                writer.print(base);
+                if (y % wrap == wrap - 1) writer.print(eol);
+            }
+            writer.print(eol);
+
+            if (random.nextInt(10) == 0) writer.print(eol);
+            if (random.nextInt(10) == 0) writer.print("# a comment" + eol);
+        }
+
+        writer.close();
+    }
 }
@@ -0,0 +1,702 @@
+/**
+ * A FastaIndex lets you get at individual sequences in a (possibly enormous) FASTA file without
+ * reading the whole thing into memory. It remembers, for every record in the file, its name, where
+ * it starts and ends, how many bases it has and how its lines are wrapped, much like the '.fai'
+ * files samtools makes. Building an index takes a single pass through the file; we then save it
+ * next to the file (as 'name.fasta.taxondna.fai'), so the next time you open the same file, we
+ * don't even need that.
+ *
+ * <p>Sequences are only read from the file when you ask for them (getSequence(), or get() on the
+ * list returned by asList()), using positional reads, so several threads can do this at once. The
+ * species name and GI number of each record are worked out from its name alone, so looking
+ * sequences up by species or GI never touches the rest of the file.
+ *
+ * <p>Index format: a header line ("#TaxonDNA FASTA index", the size of the FASTA file and when it
+ * was last modified, separated by tabs) followed by one line per record: name, number of bases,
+ * offset of the first base, bases per line, bytes per line (the five '.fai' columns), then the
+ * offset of the '&gt;' starting the record and the offset just past its end.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA.formats;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+public class FastaIndex implements Testable {
+    private static final String HEADER = "#TaxonDNA FASTA index";
+
+    /** How much of the file we read at a time (in bytes) while building the index. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private File file;
+    private long file_size;
+    private long file_modified;
+    private RandomAccessFile input = null; // opened the first time we need to read a sequence
+
+    // one entry per record, in file order
+    private int count = 0;
+    private String[] names = new String[1024];
+    private long[] starts = new long[1024]; // offset of the '>'
+    private long[] ends = new long[1024]; // offset just past the end of the record
+    private long[] bases_from = new long[1024]; // offset of the first base
+    private int[] lengths = new int[1024]; // number of bases
+    private int[] line_bases = new int[1024]; // bases in the first line of bases
+    private int[] line_bytes = new int[1024]; // bytes in the first line of bases (with newline)
+
+    // lower case species name -> indexes, and the same for GIs; worked out the first time
+    // anybody asks
+    private Hashtable<String, Vector<Integer>> by_species = null;
+    private Hashtable<String, Vector<Integer>> by_gi = null;
+
+    /** Only used to run test(); use open() or build() to get an index of a file. */
+    public FastaIndex() {}
+
+    private FastaIndex(File file) {
+        this.file = file;
+        file_size = file.length();
+        file_modified = file.lastModified();
+    }
+
+    /**
+     * Returns an index for 'file'. If there's an up-to-date index next to it, we use that;
+     * otherwise, we build a new one (keeping 'delay' informed), and try to save it for next time.
+     */
+    public static FastaIndex open(File file, DelayCallback delay)
+            throws IOException, DelayAbortedException {
+        File index_file = getIndexFile(file);
+
+        if (index_file.canRead()) {
+            FastaIndex index = read(file, index_file);
+            if (index != null) return index;
+        }
+
+        FastaIndex index = build(file, delay);
+        try {
+            index.write(index_file);
+        } catch (IOException e) {
+            // we can't save it (read-only directory?), so we'll just build it again next time
+        }
+
+        return index;
+    }
+
+    /** Returns the file we keep the index for 'file' in. */
+    public static File getIndexFile(File file) {
+        return new File(file.getPath() + ".taxondna.fai");
+    }
+
+    /**
+     * Builds an index for 'file' in a single pass through it. We follow exactly the same rules as
+     * FastaFile does when it reads a file (see FastaFile.Parser), so the index has one entry for
+     * every sequence FastaFile would have found.
+     */
+    public static FastaIndex build(File file, DelayCallback delay)
+            throws IOException, DelayAbortedException {
+        FastaIndex index = new FastaIndex(file);
+
+        FileInputStream input = new FileInputStream(file);
+        FileChannel channel = input.getChannel();
+        int total = (int) (index.file_size / 1024);
+
+        if (delay != null) delay.begin();
+
+        // the DelayCallback is ended on every way out except an abort
+        // (whoever aborted it has already done that)
+        boolean aborted = false;
+
+        ByteBuffer buff = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteArrayOutputStream name = new ByteArrayOutputStream();
+        long pos = 0;
+
+        // the same states as FastaFile.Parser
+        final int LINE_START = 0, LEADING = 1, NAME = 2, COMMENT = 3, BASES = 4;
+        int state = LINE_START;
+        int current = -1; // the record we're in, if any
+        long line_start = 0; // where the line we're in started
+        boolean first_line = false; // is this the first line of bases in this record?
+        boolean after_cr = false; // did the first line of bases just end with a '\r'?
+
+        try {
+            int read;
+            while ((read = channel.read(buff)) != -1) {
+                buff.flip();
+
+                for (int x = 0; x < read; x++, pos++) {
+                    byte b = buff.get(x);
+
+                    if (b == '\n' || b == '\r') {
+                        if (state == NAME) {
+                            index.names[current] = getName(name);
+                            index.bases_from[current] = pos + 1;
+                        } else if (current >= 0 && index.bases_from[current] == pos) {
+                            index.bases_from[current] = pos + 1; // the name ended with "\r\n"
+                        }
+                        if (first_line) {
+                            index.line_bytes[current] = (int) (pos + 1 - line_start);
+                            first_line = false;
+                            after_cr = (b == '\r');
+                        } else if (after_cr) {
+                            if (b == '\n') index.line_bytes[current]++; // it was a "\r\n"
+                            after_cr = false;
+                        }
+                        state = LINE_START;
+                        line_start = pos + 1;
+                        continue;
+                    }
+                    after_cr = false;
+
+                    switch (state) {
+                        case BASES:
+                            if (current >= 0 && !FastaFile.isWhitespace(b)) {
+                                index.lengths[current]++;
+                                if (first_line) index.line_bases[current]++;
+                            }
+                            break;
+
+                        case NAME:
+                            name.write(b);
+                            break;
+
+                        case COMMENT:
+                            break;
+
+                        case LINE_START:
+                            if (b == '>') {
+                                if (current >= 0) index.ends[current] = pos;
+
+                                current = index.add(pos);
+                                name.reset();
+                                first_line = false;
+                                state = NAME;
+                                break;
+                            }
+                            // otherwise, it's just like any other leading character
+
+                        case LEADING:
+                            if (FastaFile.isWhitespace(b)) state = LEADING;
+                            else if (b == '#') state = COMMENT;
+                            else {
+                                state = BASES;
+                                if (current >= 0) {
+                                    if (index.lengths[current] == 0) first_line = true;
+                                    if (first_line) index.line_bases[current]++;
+                                    index.lengths[current]++;
+                                }
+                            }
+                            break;
+                    }
+                }
+
+                buff.clear();
+
+                if (delay != null) delay.delay((int) (pos / 1024), total);
+            }
+
+            // finish off the last record
+            if (current >= 0) {
+                if (state == NAME) {
+                    index.names[current] = getName(name);
+                    index.bases_from[current] = pos;
+                }
+                if (first_line) index.line_bytes[current] = (int) (pos - line_start);
+                index.ends[current] = pos;
+            }
+
+        } catch (DelayAbortedException e) {
+            aborted = true;
+            throw e;
+        } finally {
+            if (delay != null && !aborted) delay.end();
+            input.close();
+        }
+
+        return index;
+    }
+
+    private static String getName(ByteArrayOutputStream name) {
+        String str = name.toString().trim();
+
+        if (str.length() == 0) return "No name specified in file";
+        return str;
+    }
+
+    /** Adds a record starting at 'start', and returns its index. */
+    private int add(long start) {
+        if (count == names.length) {
+            int size = count * 2;
+
+            names = (String[]) grow(names, new String[size]);
+            starts = (long[]) grow(starts, new long[size]);
+            ends = (long[]) grow(ends, new long[size]);
+            bases_from = (long[]) grow(bases_from, new long[size]);
+            lengths = (int[]) grow(lengths, new int[size]);
+            line_bases = (int[]) grow(line_bases, new int[size]);
+            line_bytes = (int[]) grow(line_bytes, new int[size]);
+        }
+
+        starts[count] = start;
+        names[count] = "";
+        return count++;
+    }
+
+    private static Object grow(Object from, Object to) {
+        System.arraycopy(from, 0, to, 0, java.lang.reflect.Array.getLength(from));
+        return to;
+    }
+
+    /**
+     * Reads the index for 'file' out of 'index_file'. Returns null if it isn't one of our indexes,
+     * or if 'file' has changed since it was written.
+     */
+    private static FastaIndex read(File file, File index_file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(index_file));
+        FastaIndex index = new FastaIndex(file);
+
+        try {
+            String line = reader.readLine();
+            if (line == null) return null;
+
+            String[] header = line.split("\t");
+            if (header.length != 3
+                    || !header[0].equals(HEADER)
+                    || Long.parseLong(header[1]) != index.file_size
+                    || Long.parseLong(header[2]) != index.file_modified) return null;
+
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split("\t");
+                if (cols.length != 7) return null;
+
+                int x = index.add(Long.parseLong(cols[5]));
+                index.names[x] = cols[0];
+                index.lengths[x] = Integer.parseInt(cols[1]);
+                index.bases_from[x] = Long.parseLong(cols[2]);
+                index.line_bases[x] = Integer.parseInt(cols[3]);
+                index.line_bytes[x] = Integer.parseInt(cols[4]);
+                index.ends[x] = Long.parseLong(cols[6]);
+            }
+
+            return index;
+
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Writes this index into 'index_file'. */
+    public void write(File index_file) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(index_file)));
+
+        writer.println(HEADER + "\t" + file_size + "\t" + file_modified);
+        for (int x = 0; x < count; x++) {
+            writer.println(
+                    names[x].replace('\t', ' ')
+                            + "\t"
+                            + lengths[x]
+                            + "\t"
+                            + bases_from[x]
+                            + "\t"
+                            + line_bases[x]
+                            + "\t"
+                            + line_bytes[x]
+                            + "\t"
+                            + starts[x]
+                            + "\t"
+                            + ends[x]);
+        }
+
+        writer.close();
+        if (writer.checkError())
+            throw new IOException("Error while writing index file '" + index_file + "'");
+    }
+
+    /** Returns the FASTA file we're an index of. */
+    public File getFile() {
+        return file;
+    }
+
+    /** Returns the number of sequences in the file. */
+    public int count() {
+        return count;
+    }
+
+    /** Returns the name of sequence 'x', exactly as it appears in the file. */
+    public String getName(int x) {
+        return names[x];
+    }
+
+    /** Returns the number of bases in sequence 'x'. */
+    public int getLength(int x) {
+        return lengths[x];
+    }
+
+    /**
+     * Reads sequence 'x' out of the file. You get exactly the Sequence FastaFile would have given
+     * you; any warnings (about uracil, say) go to 'delay', which may be null.
+     */
+    public Sequence getSequence(int x, DelayCallback delay) throws IOException, SequenceException {
+        long length = ends[x] - starts[x];
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Sequence '" + names[x] + "' is too big to read in one go!");
+
+        ByteBuffer buff = ByteBuffer.allocate((int) length);
+        FileChannel channel = getChannel();
+        while (buff.hasRemaining()) {
+            if (channel.read(buff, starts[x] + buff.position()) == -1)
+                throw new IOException(
+                        "File '" + file + "' is shorter than its index says; has it changed?");
+        }
+
+        SequenceList found = new SequenceList();
+        FastaFile.Parser parser = new FastaFile.Parser(found, delay);
+        parser.feed(buff, 0, buff.limit());
+        parser.finish();
+
+        if (found.size() != 1)
+            throw new IOException(
+                    "Sequence '"
+                            + names[x]
+                            + "' isn't where the index says it is; has the file changed?");
+
+        return (Sequence) found.get(0);
+    }
+
+    /** Reads sequence 'x' out of the file. */
+    public Sequence getSequence(int x) throws IOException, SequenceException {
+        return getSequence(x, null);
+    }
+
+    /** Reads the sequences 'indexes' out of the file, and returns them as a SequenceList. */
+    public SequenceList getSequences(int[] indexes, DelayCallback delay)
+            throws IOException, SequenceException {
+        SequenceList list = new SequenceList();
+
+        for (int x = 0; x < indexes.length; x++) list.add(getSequence(indexes[x], delay));
+
+        return list;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (input == null) input = new RandomAccessFile(file, "r");
+
+        return input.getChannel();
+    }
+
+    /** Closes the file, if we opened it. */
+    public synchronized void close() throws IOException {
+        if (input != null) input.close();
+        input = null;
+    }
+
+    /**
+     * Returns every sequence in the file as a (read-only) List. Nothing is read until you get()
+     * a sequence; if something goes wrong then, we throw a RuntimeException.
+     *
+     * <p>This isn't a SequenceList, and can't usefully be one: a SequenceList keeps its Sequences
+     * in a list of its own, and everything which takes one (sorting, SpeciesDetails, every
+     * analysis) starts by going through all of them, so a 'lazy' SequenceList would read in the
+     * whole file the first time anybody used it. If you need a SequenceList, pick out the
+     * sequences you want (with findBySpeciesName() or findByGI(), say) and use getSequences().
+     */
+    public List<Sequence> asList() {
+        return new AbstractList<Sequence>() {
+            public Sequence get(int x) {
+                if (x < 0 || x >= count) throw new IndexOutOfBoundsException("Index: " + x);
+
+                try {
+                    return getSequence(x);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error while reading '" + file + "': " + e, e);
+                } catch (SequenceException e) {
+                    throw new RuntimeException("Error while reading '" + file + "': " + e, e);
+                }
+            }
+
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Returns the indexes of every sequence with the species name 'name' (ignoring case), in the
+     * order in which they appear in the file.
+     */
+    public int[] findBySpeciesName(String name) {
+        buildLookups();
+
+        return toArray(by_species.get(name.trim().toLowerCase()));
+    }
+
+    /** Returns the indexes of every sequence with the GI number 'gi'. */
+    public int[] findByGI(String gi) {
+        buildLookups();
+
+        return toArray(by_gi.get(gi.trim()));
+    }
+
+    /** Works out the species name and GI of every sequence, from its name. */
+    private synchronized void buildLookups() {
+        if (by_species != null) return;
+
+        Hashtable<String, Vector<Integer>> species = new Hashtable<String, Vector<Integer>>();
+        Hashtable<String, Vector<Integer>> gis = new Hashtable<String, Vector<Integer>>();
+
+        // Sequence knows how to work these out from a name, so we'll let it
+        Sequence scratch = new Sequence();
+        for (int x = 0; x < count; x++) {
+            scratch.changeName(names[x].replace('_', ' ')); // just as FastaFile does
+
+            if (scratch.getSpeciesName() != null)
+                addLookup(species, scratch.getSpeciesName().toLowerCase(), x);
+            if (scratch.getGI() != null) addLookup(gis, scratch.getGI(), x);
+        }
+
+        by_gi = gis;
+        by_species = species;
+    }
+
+    private static void addLookup(Hashtable<String, Vector<Integer>> lookup, String key, int x) {
+        Vector<Integer> v = lookup.get(key);
+        if (v == null) {
+            v = new Vector<Integer>();
+            lookup.put(key, v);
+        }
+
+        v.add(Integer.valueOf(x));
+    }
+
+    private static int[] toArray(Vector<Integer> v) {
+        if (v == null) return new int[0];
+
+        int[] result = new int[v.size()];
+        for (int x = 0; x < result.length; x++) result[x] = v.get(x).intValue();
+        return result;
+    }
+
+    /**
+     * Tests that an index gives us exactly what FastaFile would have read, that we can find
+     * sequences in it by species name and GI, and that a saved index is used until the file
+     * changes.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.formats.FastaIndex");
+
+        File file = testMaster.tempfile();
+        File index_file = getIndexFile(file);
+        SequenceList list;
+        try {
+            writeTestFile(file, new Random(2005), 0, 200);
+            list = new FastaFile().readFile(file, null);
+        } catch (Exception e) {
+            testMaster.failed("Could not create the test file: " + e);
+            testMaster.done();
+            return;
+        }
+
+        testMaster.beginTest("Index a FASTA file, and read every sequence just as FastaFile does");
+        FastaIndex index = null;
+        try {
+            index = build(file, delay);
+            String error = compare(index, list);
+
+            if (error == null) testMaster.succeeded();
+            else testMaster.failed(error);
+        } catch (Exception e) {
+            testMaster.failed("Could not index " + file + ": " + e);
+        }
+
+        testMaster.beginTest("Find sequences by species name and GI, the same as a search would");
+        if (index != null) {
+            String error = null;
+            for (int x = 0; x < list.count() && error == null; x++) {
+                Sequence seq = (Sequence) list.get(x);
+
+                if (seq.getSpeciesName() != null) {
+                    int[] expected = search(list, seq.getSpeciesName(), true);
+                    int[] found = index.findBySpeciesName(seq.getSpeciesName().toUpperCase());
+                    if (!Arrays.equals(expected, found))
+                        error =
+                                "I found "
+                                        + Arrays.toString(found)
+                                        + " for species '"
+                                        + seq.getSpeciesName()
+                                        + "' instead of "
+                                        + Arrays.toString(expected);
+                }
+
+                if (seq.getGI() != null && error == null) {
+                    int[] expected = search(list, seq.getGI(), false);
+                    int[] found = index.findByGI(seq.getGI());
+                    if (!Arrays.equals(expected, found))
+                        error =
+                                "I found "
+                                        + Arrays.toString(found)
+                                        + " for GI "
+                                        + seq.getGI()
+                                        + " instead of "
+                                        + Arrays.toString(expected);
+                }
+            }
+            if (error == null && index.findBySpeciesName("Nonexistus species").length != 0)
+                error = "I found sequences for a species which isn't in the file";
+
+            if (error == null) testMaster.succeeded();
+            else testMaster.failed(error);
+        }
+
+        testMaster.beginTest("Save an index, and use it until the file changes");
+        try {
+            if (index != null) index.close();
+            index_file.delete();
+
+            FastaIndex saved = open(file, delay); // builds it and saves it
+            String error = null;
+            if (!index_file.canRead()) error = "The index wasn't saved to " + index_file;
+
+            if (error == null) {
+                saved.close();
+                saved = open(file, delay); // reads it back in
+                error = compare(saved, list);
+            }
+            saved.close();
+
+            if (error == null) {
+                // add some more sequences, and make sure the file looks different
+                long modified = file.lastModified();
+                writeTestFile(file, new Random(2006), 200, 20);
+                file.setLastModified(modified + 2000);
+                list = new FastaFile().readFile(file, null);
+
+                saved = open(file, delay);
+                if (saved.count() != 220)
+                    error = "The old index was used for a file which has changed";
+                else error = compare(saved, list);
+                saved.close();
+            }
+
+            if (error == null) testMaster.succeeded();
+            else testMaster.failed(error);
+        } catch (Exception e) {
+            testMaster.failed("Could not save and reopen the index for " + file + ": " + e);
+        } finally {
+            index_file.delete();
+        }
+
+        testMaster.done();
+    }
+
+    /**
+     * Checks that 'index' has exactly the sequences in 'list', through getSequence() as well as
+     * asList(). Returns what's wrong, or null if nothing is.
+     */
+    private static String compare(FastaIndex index, SequenceList list)
+            throws IOException, SequenceException {
+        if (index.count() != list.count())
+            return "The index has " + index.count() + " sequences instead of " + list.count();
+
+        List<Sequence> view = index.asList();
+        for (int x = 0; x < list.count(); x++) {
+            Sequence expected = (Sequence) list.get(x);
+            Sequence[] found = new Sequence[] {index.getSequence(x), view.get(x)};
+
+            for (int y = 0; y < found.length; y++) {
+                if (!expected.getFullName().equals(found[y].getFullName())
+                        || !expected.getSequence().equals(found[y].getSequence())
+                        || index.getLength(x) != expected.getLength())
+                    return "Sequence #"
+                            + x
+                            + " was read as '"
+                            + found[y].getFullName()
+                            + "' ("
+                            + index.getLength(x)
+                            + " bp) instead of '"
+                            + expected.getFullName()
+                            + "' ("
+                            + expected.getLength()
+                            + " bp)";
+            }
+        }
+
+        return null;
+    }
+
+    /** Finds every sequence in 'list' with the species name (or GI) 'key', the slow way. */
+    private static int[] search(SequenceList list, String key, boolean by_species) {
+        Vector<Integer> found = new Vector<Integer>();
+
+        for (int x = 0; x < list.count(); x++) {
+            Sequence seq = (Sequence) list.get(x);
+            String value = by_species ? seq.getSpeciesName() : seq.getGI();
+
+            if (value != null && value.equalsIgnoreCase(key)) found.add(Integer.valueOf(x));
+        }
+
+        return toArray(found);
+    }
+
+    /**
+     * Writes out 'count' random FASTA records (numbered from 'from') to 'file', or adds them to
+     * the end if 'from' isn't zero. The records are wrapped every which way, with blank lines,
+     * comments, DOS line endings, underscores, GIs and the odd uracil or missing name thrown in.
+     */
+    private static void writeTestFile(File file, Random random, int from, int count)
+            throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file, from != 0)));
+        String bases = "ACGTN-";
+
+        if (from == 0) writer.print("some text before the first record\n");
+        for (int x = from; x < from + count; x++) {
+            String eol = (random.nextInt(4) == 0) ? "\r\n" : "\n";
+
+            String name = "Testus species" + (char) ('a' + random.nextInt(20));
+            if (random.nextInt(3) == 0) name = name.replace(' ', '_');
+            if (random.nextInt(2) == 0) name += " gi|" + (1000 + random.nextInt(150)) + "|";
+            if (random.nextInt(40) == 0) name = "";
+            writer.print(">" + name + eol);
+
+            int length = 20 + random.nextInt(300);
+            int wrap = 10 + random.nextInt(80);
+            boolean uracil = (random.nextInt(20) == 0);
+            for (int y = 0; y < length; y++) {
+                char base = bases.charAt(random.nextInt(bases.length()));
+                if (uracil && base == 'T') base = 'U';
+
+                writer.print(base);
+                if (y % wrap == wrap - 1) writer.print(eol);
+            }
+            writer.print(eol);
+
+            if (random.nextInt(10) == 0) writer.print(eol);
+            if (random.nextInt(10) == 0) writer.print("# a comment" + eol);
+        }
+
+        writer.close();
+    }
+}
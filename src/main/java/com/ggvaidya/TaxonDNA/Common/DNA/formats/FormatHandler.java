@@ -38,8 +38,21 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
 
 public interface FormatHandler {
+    /** mightBe(ByteBuffer): this file is certainly not in this format. */
+    int DEFINITELY_NOT = 0;
+
+    /** mightBe(ByteBuffer): we can't tell from the head; ask mightBe(File) instead. */
+    int UNSURE = 1;
+
+    /** mightBe(ByteBuffer): this file looks like it's in this format, but it has no signature. */
+    int PROBABLY = 2;
+
+    /** mightBe(ByteBuffer): this file starts with this format's signature (say, '#NEXUS'). */
+    int DEFINITELY = 3;
+
     /**
      * Returns the short name of this file format. E.g. "NEXUS", "MEGA", or "FASTA". Think about
      * whether you could put it into a sentence as "This is the ___ file format."
@@ -98,6 +111,16 @@ public interface FormatHandler {
      */
     boolean mightBe(File file);
 
+    /**
+     * Checks to see if a file *might* be of this format by looking at its first few kilobytes
+     * (see BaseFormatHandler.readHead()), which are in 'head' from position 0 up to its limit.
+     * This way, SequenceList only has to read a file once to ask every FormatHandler about it.
+     *
+     * @return DEFINITELY_NOT, UNSURE, PROBABLY or DEFINITELY. If you can't tell from the head
+     *     alone, return UNSURE, and we'll call mightBe(File) if nobody else is any surer.
+     */
+    int mightBe(ByteBuffer head);
+
     /**
      * Add a new FormatListener to this FormatHandler. We'll keep the Listener notified during a
      * parse, so that he can chug up any other information which we can't stuff into the file.
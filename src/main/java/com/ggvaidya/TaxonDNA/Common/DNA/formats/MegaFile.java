@@ -39,6 +39,7 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 import java.util.regex.*;
 
@@ -189,6 +190,14 @@ public class MegaFile extends BaseFormatHandler implements Testable {
         return false;
     }
 
+    /** Mega files start with '#mega', so the head is all we need. */
+    public int mightBe(ByteBuffer head) {
+        String line = firstLine(head);
+
+        if (line == null) return UNSURE;
+        return line.equalsIgnoreCase("#mega") ? DEFINITELY : DEFINITELY_NOT;
+    }
+
     /**
      * Read a Mega file (from 'file') and return a SequenceList containing all the entries.
      *
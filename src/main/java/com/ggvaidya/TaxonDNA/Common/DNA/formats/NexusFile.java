@@ -35,6 +35,7 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 public class NexusFile extends BaseFormatHandler {
@@ -138,25 +139,13 @@ public class NexusFile extends BaseFormatHandler {
         // Reset the codonposset-already-defined flag.
         codonposset_already_defined = false;
 
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileFrom));
-
-            // count lines
-            int count_lines = 0;
-            int count_data = 0;
-            long file_length = fileFrom.length();
-            while (reader.ready()) {
-                if (delay != null)
-                    delay.delay((int) ((float) count_data / file_length * 100), 1000);
-                // note that we're really going from 0% to 10%. This will
-                // make the user less confused when we jump from 10% to 0% and
-                // start over.
-                count_data += reader.readLine().length();
-                count_lines++;
-            }
+        // we read the file just once, and tell the user how far
+        // along we are by counting the bytes we've read
+        CountingInputStream in = null;
 
-            // let's go!
-            reader = new BufferedReader(new FileReader(fileFrom));
+        try {
+            in = new CountingInputStream(fileFrom);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
             NexusTokenizer tok = new NexusTokenizer(reader);
             // let's pre-read the #NEXUS line
             if (tok.nextToken() != '#')
@@ -182,7 +171,7 @@ public class NexusFile extends BaseFormatHandler {
             // 		command (including the ';')
             while (true) {
                 /* Before anything else, do the delay */
-                if (delay != null) delay.delay(tok.lineno(), count_lines);
+                if (delay != null) in.reportProgress(delay);
 
                 /* Now ... to business! */
                 int type = tok.nextToken();
@@ -237,15 +226,15 @@ public class NexusFile extends BaseFormatHandler {
 
                             if (beginWhat.equalsIgnoreCase("DATA")
                                     || beginWhat.equalsIgnoreCase("CHARACTERS"))
-                                blockData(appendTo, tok, evt, delay, count_lines);
+                                blockData(appendTo, tok, evt, delay, in);
                             // the reference says they *are* identical
                             // (except that NEWTAXA is implicit in DATA)
                             // TODO: we might want to care about this.
                             // you know. to be anal, and all that.
                             else if (beginWhat.equalsIgnoreCase("SETS"))
-                                blockSets(appendTo, tok, evt, delay, count_lines);
+                                blockSets(appendTo, tok, evt, delay, in);
                             else if (beginWhat.equalsIgnoreCase("CODONS"))
-                                blockCodons(appendTo, tok, evt, delay, count_lines);
+                                blockCodons(appendTo, tok, evt, delay, in);
                             else {
                                 inStrangeBlock = true;
                                 // warn the user!
@@ -273,6 +262,7 @@ public class NexusFile extends BaseFormatHandler {
         } finally {
             if (delay != null) delay.end();
             appendTo.unlock();
+            if (in != null) in.close();
         }
 
         appendTo.setFile(fileFrom);
@@ -294,7 +284,7 @@ public class NexusFile extends BaseFormatHandler {
             NexusTokenizer tok,
             FormatHandlerEvent evt,
             DelayCallback delay,
-            int count_lines)
+            CountingInputStream in)
             throws FormatException, DelayAbortedException, IOException {
         boolean isDatasetInterleaved = false;
         boolean inFormatCommand = false;
@@ -320,7 +310,7 @@ public class NexusFile extends BaseFormatHandler {
             int type = tok.nextToken();
             String str = tok.sval;
 
-            if (delay != null) delay.delay(tok.lineno(), count_lines);
+            if (delay != null) in.reportProgress(delay);
 
             if (type == NexusTokenizer.TT_EOF) {
                 // wtf?!
@@ -664,7 +654,7 @@ public class NexusFile extends BaseFormatHandler {
             NexusTokenizer tok,
             FormatHandlerEvent evt,
             DelayCallback delay,
-            int count_lines)
+            CountingInputStream in)
             throws FormatException, DelayAbortedException, IOException {
         int commentLevel = 0;
         boolean newCommand = true;
@@ -675,7 +665,7 @@ public class NexusFile extends BaseFormatHandler {
             int type = tok.nextToken();
             String str = tok.sval;
 
-            if (delay != null) delay.delay(tok.lineno(), count_lines);
+            if (delay != null) in.reportProgress(delay);
 
             if (type == NexusTokenizer.TT_EOF) {
                 // wtf?!
@@ -967,7 +957,7 @@ public class NexusFile extends BaseFormatHandler {
             NexusTokenizer tok,
             FormatHandlerEvent evt,
             DelayCallback delay,
-            int count_lines)
+            CountingInputStream in)
             throws FormatException, DelayAbortedException, IOException {
         int commentLevel = 0;
         boolean newCommand = true;
@@ -978,7 +968,7 @@ public class NexusFile extends BaseFormatHandler {
             int type = tok.nextToken();
             String str = tok.sval;
 
-            if (delay != null) delay.delay(tok.lineno(), count_lines);
+            if (delay != null) in.reportProgress(delay);
 
             if (type == NexusTokenizer.TT_EOF) {
                 // wtf?!
@@ -1549,6 +1539,14 @@ public class NexusFile extends BaseFormatHandler {
         }
     }
 
+    /** Nexus files start with '#NEXUS', so the head is all we need. */
+    public int mightBe(ByteBuffer head) {
+        String line = firstLine(head);
+
+        if (line == null) return UNSURE;
+        return line.equalsIgnoreCase("#nexus") ? DEFINITELY : DEFINITELY_NOT;
+    }
+
     /**
      * Export an entire SequenceGrid in one shot. We can do this, because we are the coolest. One
      * problem: how do we let user decide what constants to use?
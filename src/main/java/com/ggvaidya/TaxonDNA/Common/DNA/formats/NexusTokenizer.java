@@ -7,6 +7,9 @@
  * <p>We still need to come up with a smart solution for Nexus sequence blocks with wholes in them,
  * but whatever.
  *
+ * <p>Since Nexus files can be pretty big, we read them a block at a time, look up what each ASCII
+ * character means in a table, and only create a String when we've got a whole word to hand out.
+ *
  * @author Gaurav Vaidya gaurav@ggvaidya.com
  */
 
@@ -46,117 +49,47 @@ public class NexusTokenizer {
     private int lineno = 1;
     private Reader r = null;
 
-    private Results reportChar(StringBuffer s, char x) {
-        // System.err.println("Reporting string " + s + ", character " + x + " (also known as " +
-        // (int)x
-        // + ")");
-        Results r = reportWord(s, (int) x);
-        // System.err.println("Resulting in: " + r);
-        return r;
-    }
-
-    private Results reportWord(StringBuffer x) {
-        return reportWord(x, TT_WORD);
-    }
-
-    private Results reportWord(StringBuffer x, int val) {
-        try {
-            if (x == null || x.length() == 0) {
-                if (val == TT_WORD) return null;
-                return new Results(this, val);
-            }
-            return new Results(this, x.toString(), val);
-        } finally {
-            if (x != null) x.delete(0, x.length());
+    // we read the file a block at a time, rather than a character at a time
+    private static final int BUFFER_SIZE = 8192;
+    private char[] buff = new char[BUFFER_SIZE];
+    private int buff_pos = 0;
+    private int buff_length = 0;
+
+    // character classes; every character is put into one of these
+    private static final byte C_WORD = 0; // letters, digits and isValidCharacter()s
+    private static final byte C_PUNCTUATION = 1; // ends a word, and gets returned by itself
+    private static final byte C_WHITESPACE = 2;
+    private static final byte C_NEWLINE = 3;
+    private static final byte C_OPEN_COMMENT = 4;
+    private static final byte C_CLOSE_COMMENT = 5;
+    private static final byte C_QUOTE = 6;
+
+    // the classes of the ASCII characters, before any gap or missing characters are set
+    private static final byte[] ascii_classes = new byte[128];
+
+    static {
+        for (char ch = 0; ch < 128; ch++) {
+            byte cls;
+
+            if (ch == 0x000A || ch == 0x000D) cls = C_NEWLINE;
+            else if (ch == '[') cls = C_OPEN_COMMENT;
+            else if (ch == ']') cls = C_CLOSE_COMMENT;
+            else if (ch == '\'' || ch == '"') cls = C_QUOTE;
+            else if (Character.isWhitespace(ch)) cls = C_WHITESPACE;
+            else if (Character.isLetterOrDigit(ch) || ch == '_' || ch == '.' || ch == '|')
+                cls = C_WORD;
+            else cls = C_PUNCTUATION;
+
+            ascii_classes[ch] = cls;
         }
     }
 
-    private class Results {
-        private NexusTokenizer tok = null;
-        public int status = 0;
-        public String sval = null;
-
-        public Results(Results r) {
-            tok = r.tok;
-            status = r.status;
-            sval = r.sval;
-        }
-
-        public Results(NexusTokenizer nt, String x) {
-            status = TT_WORD;
-            sval = x;
-            tok = nt;
-        }
-
-        public Results(NexusTokenizer nt, int x) {
-            status = x;
-            sval = null;
-            tok = nt;
-        }
-
-        public Results(NexusTokenizer nt, String x, int status) {
-            sval = x;
-            this.status = status;
-            tok = nt;
-        }
-
-        // we can only be deleted IFF:
-        // 1.	the status is TT_WORD and sval == null
-        // 2.	the status is TT_NULL
-        public boolean canDelete() {
-            return ((status == TT_NULL) || (status == TT_WORD && sval == null));
-        }
-
-        public int go() {
-            if (status == TT_WORD) {
-                tok.sval = sval;
-                tok.current_status = status;
-                sval = null;
-                status = TT_NULL; // the TT_WORD has been consumed.
-            } else {
-                if (sval != null) {
-                    // generate the TT_WORD *first*
-                    tok.sval = sval;
-                    tok.current_status = TT_WORD;
-                    sval = null;
-                    // but 'status' still has the alternate status message
-                } else {
-                    // sval == null
-                    // NOW we consume the final status
-                    tok.current_status = status;
-                    status = TT_NULL;
-                }
-            }
-
-            return tok.current_status;
-        }
-
-        public String toString() {
-            StringBuffer str = new StringBuffer();
-            boolean hasString = false;
-
-            if (sval != null) {
-                if (sval.length() > 20)
-                    str.append("status = TT_WORD, word = '" + sval.substring(0, 20) + " ...'");
-                else str.append("status = TT_WORD, word = '" + sval + "'");
-                hasString = true;
-            }
-
-            if (status == TT_WORD) {
-                // nothing else to report
-            } else {
-                if (hasString) str.append(" | also hiding: ");
-
-                if (status > 0) str.append("status = '" + (char) status + "'");
-                else str.append("status = " + status);
-            }
-
-            return str.toString();
-        }
-    }
+    // the classes of the ASCII characters, as far as *we* are concerned
+    private byte[] classes = new byte[128];
 
     public NexusTokenizer(Reader r) {
         this.r = r;
+        updateClasses();
     }
 
     public int lineno() {
@@ -173,12 +106,14 @@ public class NexusTokenizer {
 
     public void setGapChar(char ch) {
         gapChar = ch;
+        updateClasses();
     }
 
     private char missingChar = 0;
 
     public void setMissingChar(char ch) {
         missingChar = ch;
+        updateClasses();
     }
 
     public boolean isValidCharacter(char ch) {
@@ -200,48 +135,109 @@ public class NexusTokenizer {
         return false;
     }
 
+    // the gap and missing characters are part of words, unless they already mean something else
+    private void updateClasses() {
+        System.arraycopy(ascii_classes, 0, classes, 0, 128);
+
+        if (gapChar < 128 && classes[gapChar] == C_PUNCTUATION) classes[gapChar] = C_WORD;
+        if (missingChar < 128 && classes[missingChar] == C_PUNCTUATION)
+            classes[missingChar] = C_WORD;
+    }
+
+    // the class of a character outside ASCII
+    private byte classify(char ch) {
+        int type = Character.getType(ch);
+
+        if ((type == Character.PARAGRAPH_SEPARATOR) || (type == Character.LINE_SEPARATOR))
+            return C_NEWLINE;
+        if (Character.isWhitespace(ch)) return C_WHITESPACE;
+        if (Character.isLetterOrDigit(ch) || isValidCharacter(ch)) return C_WORD;
+        return C_PUNCTUATION;
+    }
+
+    private boolean isWhitespace(char ch) {
+        if (ch < 128) {
+            byte cls = ascii_classes[ch];
+            return (cls == C_WHITESPACE || cls == C_NEWLINE);
+        }
+        return Character.isWhitespace(ch);
+    }
+
     // 'static' variables for eatNextToken();
     private int commentingLevel = 0;
-    private StringBuffer token = new StringBuffer();
+    private char[] token = new char[256];
+    private int token_length = 0;
     private boolean inSingleQuotes = false;
     private int noOfConseqNewlines = 0;
 
-    private char lastChar = '@';
-    private char ch = '@';
+    // the result eatNextToken() came up with, and which nextToken() hasn't finished handing out:
+    // a word (or null), followed by a status (or TT_NULL, if there isn't one)
+    private boolean hasResult = false;
+    private String result_sval = null;
+    private int result_status = TT_NULL;
+
+    private void appendToken(char ch) {
+        if (token_length == token.length) token = Arrays.copyOf(token, token.length * 2);
+        token[token_length++] = ch;
+    }
 
     /**
-     * @return TT_NULL, TT_EOF, TT_WORD or (if reportNewlines is on) TT_EOL
+     * Reports whatever word we've got so far, followed by 'val'. If there's no word, and 'val' is
+     * TT_WORD, there's nothing to report, and we return false.
+     */
+    private boolean reportWord(int val) {
+        String word = null;
+        if (token_length > 0) word = new String(token, 0, token_length);
+        token_length = 0;
+
+        if (word == null && val == TT_WORD) return false;
+
+        hasResult = true;
+        result_sval = word;
+        result_status = val;
+        return true;
+    }
+
+    /**
+     * Reads the next token, and leaves it in the 'result' fields for nextToken() to hand out.
+     *
      * @throws IOException if something went wrong while reading the file (note that EOFException
      *     will NEVER be thrown)
      */
-    public Results eatNextToken() throws IOException, FormatException {
+    private void eatNextToken() throws IOException, FormatException {
         char ch = '@';
+        char lastChar;
         while (true) {
             lastChar = ch;
-            int c = -1;
-            try {
-                c = r.read(); // next character
-                if (c == -1) throw new EOFException();
-            } catch (EOFException e) {
-                // if there's any words left, we need
-                // to send that first!
-                return reportWord(token, TT_EOF);
+
+            if (buff_pos == buff_length) {
+                buff_pos = 0;
+                buff_length = r.read(buff, 0, BUFFER_SIZE);
+                while (buff_length == 0) buff_length = r.read(buff, 0, BUFFER_SIZE);
+
+                if (buff_length == -1) {
+                    buff_length = 0;
+
+                    // if there's any words left, we need
+                    // to send that first!
+                    reportWord(TT_EOF);
+                    return;
+                }
             }
 
-            ch = (char) c;
-            int type = Character.getType(ch);
+            ch = buff[buff_pos++];
+            byte cls = (ch < 128) ? classes[ch] : classify(ch);
+
             // newlines
-            if ((type == Character.PARAGRAPH_SEPARATOR)
-                    || (type == Character.LINE_SEPARATOR)
-                    || (ch == 0x000A || ch == 0x000D)) {
+            if (cls == C_NEWLINE) {
                 noOfConseqNewlines++;
                 if (noOfConseqNewlines % 2 == 1) { // skip alternate contiguous newlines
                     lineno++;
-                    if (reportNewlines) {
-                        return reportWord(token, TT_EOL); // yes, report BOTH
-                    } else {
-                        return reportWord(token);
-                    }
+                    if (reportWord(reportNewlines ? TT_EOL : TT_WORD)) // yes, report BOTH
+                    return;
+
+                    // nothing to report: carry on, as if we'd just been called
+                    ch = '@';
                 }
 
                 continue;
@@ -249,12 +245,12 @@ public class NexusTokenizer {
             noOfConseqNewlines = 0;
 
             // comments
-            if (ch == '[') {
+            if (cls == C_OPEN_COMMENT) {
                 commentingLevel++;
                 continue;
             }
 
-            if (ch == ']') {
+            if (cls == C_CLOSE_COMMENT) {
                 commentingLevel--;
                 continue;
             }
@@ -266,28 +262,23 @@ public class NexusTokenizer {
 
             // words (but NOT sequences)
             // 1. look for 's; they're special.
-            if (ch == '\'' || ch == '"') {
+            if (cls == C_QUOTE) {
                 if (lastChar == ch) {
                     // two 's; actually insert one into the buffer (as a normal character)
-                    token.append(ch);
+                    appendToken(ch);
                 }
                 // one, probably single, 's.
                 //
                 // are we in a word? if not, a word just ended!
                 if (inSingleQuotes) {
                     inSingleQuotes = false;
-                    return reportWord(token);
+                    if (reportWord(TT_WORD)) return;
+                    ch = '@';
                 } else inSingleQuotes = true;
 
                 continue;
             }
 
-            // System.err.println("character = '" + ch + "', isWhitespace: " +
-            // Character.isWhitespace(ch)
-            // + ", lastChar.isWhitespace: " + Character.isWhitespace(lastChar) + ",
-            // isLetterOrDigit: " +
-            // Character.isLetterOrDigit(ch) + ", heck; token = '" + token + "'");
-
             // 2. Now that we'll know if the user *really* means
             // to put a space in somewhere, let's squeeze up
             // whitespace!
@@ -295,75 +286,108 @@ public class NexusTokenizer {
             // Also: whitespace separates 'words'. If we see
             // whitespace, and we're not inSingleQuotes, we need to
             // pass it back to the user.
-            if (Character.isWhitespace(ch)) {
-                if (Character.isWhitespace(lastChar)) {
-                    if (inSingleQuotes) token.append(ch);
+            if (cls == C_WHITESPACE) {
+                if (isWhitespace(lastChar)) {
+                    if (inSingleQuotes) appendToken(ch);
                     // skip it!
                     continue;
                 } else {
                     if (inSingleQuotes) {
                         // whitespace significant, get on with life.
-                        token.append(ch);
+                        appendToken(ch);
                         continue;
                     }
 
                     // not inSingleQuotes! End of word!
-                    return reportWord(token);
+                    if (reportWord(TT_WORD)) return;
+                    ch = '@';
+                    continue;
                 }
             }
 
             // 3. BUT - punctuation also ends words! (unless we're inSingleQuotes)
-            if (!inSingleQuotes
-                    && !Character.isLetterOrDigit(ch)
-                    && !isValidCharacter(ch)) { // TODO are hyphens always okay?
-                return reportChar(token, ch);
+            if (cls == C_PUNCTUATION && !inSingleQuotes) { // TODO are hyphens always okay?
+                reportWord((int) ch);
+                return;
+            }
+
+            // it's a letter or digit: and so, most likely, are the next few thousand (if
+            // this is a sequence), so we copy them in one go.
+            int from = buff_pos - 1;
+            while (buff_pos < buff_length) {
+                char next = buff[buff_pos];
+                if (next >= 128 || classes[next] != C_WORD) break;
+                buff_pos++;
             }
 
-            // it's a letter or digit
-            token.append(ch);
+            int count = buff_pos - from;
+            if (token_length + count > token.length)
+                token = Arrays.copyOf(token, Math.max(token.length * 2, token_length + count));
+            System.arraycopy(buff, from, token, token_length, count);
+            token_length += count;
+
+            ch = buff[buff_pos - 1];
         }
     }
 
-    private Stack previousResults = new Stack(); // Stack of Results
-    private Results lastResult = null;
-    int v = 0;
+    // the last few tokens we returned, so we can pushBack() them: NexusFile never
+    // pushes back more than one, so we only keep a few
+    private static final int HISTORY_SIZE = 16;
+    private int[] history_status = new int[HISTORY_SIZE];
+    private String[] history_sval = new String[HISTORY_SIZE];
+    private int history_last = 0;
+    private int history_count = 0;
+
+    private void remember(String sval, int status) {
+        history_last = (history_last + 1) % HISTORY_SIZE;
+        history_sval[history_last] = sval;
+        history_status[history_last] = status;
+        if (history_count < HISTORY_SIZE) history_count++;
+    }
 
     public int nextToken() throws IOException, FormatException {
-        while (lastResult == null) {
-            lastResult = eatNextToken();
+        while (!hasResult) {
+            eatNextToken();
         }
 
-        // System.err.println(lastResult);
-
-        // now we have a 'lastResult'.
-        // There are three kinds of lastResults
-        //
-        // luckily, there *is* one this OOP is good at
-        int retVal = lastResult.go();
+        // now we have a result. It's either a word, a word followed
+        // by a status (in which case we return the word first, and
+        // the status next time), or just a status.
+        int retVal;
+        if (result_sval != null) {
+            sval = result_sval;
+            result_sval = null;
+            retVal = TT_WORD;
+
+            if (result_status == TT_WORD) result_status = TT_NULL; // the TT_WORD has been consumed.
+        } else {
+            // NOW we consume the final status
+            retVal = result_status;
+            result_status = TT_NULL;
+        }
+        current_status = retVal;
 
-        // now, we CREATE a Results FROM what we're about to RETURN
-        // and we KEEP a copy in the STACK
-        //
+        // we KEEP a copy of what we're about to RETURN
         // so we can POP it if we HAVE to
-        if (retVal == TT_WORD) {
-            if (lastResult.status != TT_WORD) {
-                previousResults.push(new Results(this, sval, lastResult.status));
-                //				previousResults.push(new Results(this, null, lastResult.status));
-                //				previousResults.push(new Results(this, sval, TT_WORD));
-            } else previousResults.push(new Results(this, sval, retVal));
-        } else previousResults.push(new Results(this, null, retVal));
-
-        // Okay, NOW we can delete the current 'lastResult'
-        if (lastResult.canDelete()) {
-            lastResult = null;
-        }
+        if (retVal == TT_WORD) remember(sval, result_status);
+        else remember(null, retVal);
+
+        // Okay, NOW we're done with the current result
+        if (result_status == TT_NULL) hasResult = false;
 
         return retVal;
     }
 
     public void pushBack() {
-        lastResult = (Results) previousResults.pop();
-        // System.err.println("Popping: " + lastResult);
+        if (history_count == 0) throw new EmptyStackException();
+
+        hasResult = true;
+        result_sval = history_sval[history_last];
+        result_status = history_status[history_last];
+
+        history_sval[history_last] = null;
+        history_last = (history_last + HISTORY_SIZE - 1) % HISTORY_SIZE;
+        history_count--;
     }
 
     // Functions which need to work/we need to have:
@@ -1,4 +1,16 @@
-/** PhylipFile allows you to write Phylip files. */
+/**
+ * PhylipFile allows you to read and write Phylip files.
+ *
+ * <p>We can read both sequential files (each sequence in full, possibly over several lines) and
+ * interleaved ones (a block of lines with a name and the start of every sequence, followed by
+ * blocks with the next few bases of each sequence), with either 'strict' names (exactly ten
+ * characters, spaces and all) or 'relaxed' ones (everything up to the first space), which is what
+ * RAxML and IQ-TREE write. Since a file doesn't tell us which sort of names it has (and often not
+ * how it's laid out, either), we read it the most likely way first, and try the others if that
+ * doesn't give us the sequences the header promised. We read the file a line at a time, putting
+ * the bases straight into one buffer per sequence, so all we need to keep in memory is the
+ * sequences themselves.
+ */
 
 /*
     TaxonDNA
@@ -24,9 +36,12 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
-public class PhylipFile extends BaseFormatHandler {
+public class PhylipFile extends BaseFormatHandler implements Testable {
+    /** The length of a 'strict' Phylip name. */
+    public static final int STRICT_NAME_LENGTH = 10;
 
     /** Returns the extension. We'll go with '.fas' as our semi-official DOS-compat extension */
     public String getExtension() {
@@ -58,13 +73,23 @@ public class PhylipFile extends BaseFormatHandler {
      */
     public SequenceList readFile(File file, DelayCallback delay)
             throws IOException, SequenceException, FormatException, DelayAbortedException {
-        throw new RuntimeException("Phylip files cannot currently be read by this program");
+        SequenceList sl = new SequenceList();
+        sl.lock(); // retarded.
+        appendFromFile(sl, file, delay);
+        sl.unlock();
+        return sl;
     }
 
     /**
      * Append this file to the specified SequenceList. This will read in all the sequences from the
      * file and append them directly onto the end of this SequenceList.
      *
+     * <p>Phylip files don't say whether their names are strict or relaxed, and only some of them
+     * say whether they're interleaved or sequential, so we work out which layouts are worth
+     * trying (see getLayouts()) and read the file each of those ways in turn, until one of them
+     * gives us exactly the sequences the header promised. Nothing is added to 'appendTo' until
+     * then. If none of them work, you get the error from the most likely one.
+     *
      * @throws IOException if there was an error doing I/O
      * @throws SequenceException if a Sequence is malformed - incorrect bases, etc.
      * @throws FormatException if there was an error in the format of the file.
@@ -72,21 +97,425 @@ public class PhylipFile extends BaseFormatHandler {
      */
     public void appendFromFile(SequenceList appendTo, File fileFrom, DelayCallback delay)
             throws IOException, SequenceException, FormatException, DelayAbortedException {
-        throw new RuntimeException("Phylip files cannot currently be read by this program");
+        // set up the delay
+        if (delay != null) delay.begin();
+
+        appendTo.lock();
+
+        // the DelayCallback is ended on every way out except an abort
+        // (whoever aborted it has already done that)
+        boolean aborted = false;
+        try {
+            Vector<boolean[]> layouts = getLayouts(fileFrom);
+
+            Exception failure = null;
+            Sequence[] sequences = null;
+            for (int x = 0; x < layouts.size() && sequences == null; x++) {
+                boolean[] layout = layouts.get(x);
+
+                try {
+                    sequences = readSequences(fileFrom, layout[0], layout[1], delay);
+                } catch (FormatException e) {
+                    if (failure == null) failure = e;
+                } catch (SequenceException e) {
+                    if (failure == null) failure = e;
+                }
+            }
+
+            if (sequences == null) {
+                if (failure instanceof SequenceException) throw (SequenceException) failure;
+                throw (FormatException) failure;
+            }
+
+            for (int x = 0; x < sequences.length; x++) appendTo.add(sequences[x]);
+
+            appendTo.setFile(fileFrom);
+            appendTo.setFormatHandler(this);
+        } catch (DelayAbortedException e) {
+            aborted = true;
+            throw e;
+        } finally {
+            if (delay != null && !aborted) delay.end();
+            appendTo.unlock();
+        }
+    }
+
+    /** What the header line of a Phylip file tells us. */
+    private static class Header {
+        private int count_seqs;
+        private int count_chars;
+        private boolean interleaved = false; // the 'I' option
+        private boolean sequential = false; // the 'S' option
+    }
+
+    /**
+     * Reads the header: the number of sequences, the number of characters, and (in older files)
+     * some options, of which we only care about 'I' (interleaved) and 'S' (sequential).
+     */
+    private Header readHeader(LineNumberReader reader) throws IOException, FormatException {
+        String line = nextLine(reader);
+        if (line == null) throw formatException(reader, "This file is empty!");
+
+        StringTokenizer tokens = new StringTokenizer(line);
+        if (tokens.countTokens() < 2)
+            throw formatException(
+                    reader,
+                    "The first line should contain the number of sequences and the number of"
+                            + " characters, but it reads '"
+                            + line
+                            + "' instead.");
+
+        Header header = new Header();
+        header.count_seqs = atoi(tokens.nextToken(), reader);
+        header.count_chars = atoi(tokens.nextToken(), reader);
+        if (header.count_seqs < 1 || header.count_chars < 0)
+            throw formatException(
+                    reader,
+                    "This file claims to have "
+                            + header.count_seqs
+                            + " sequences of "
+                            + header.count_chars
+                            + " characters each. That can't be right!");
+
+        while (tokens.hasMoreTokens()) {
+            String option = tokens.nextToken();
+
+            if (option.equalsIgnoreCase("I")) header.interleaved = true;
+            else if (option.equalsIgnoreCase("S")) header.sequential = true;
+        }
+
+        return header;
+    }
+
+    /**
+     * Works out which ways of reading 'file' are worth trying, as {strict, interleaved} pairs, most
+     * likely first. The first line of the first sequence tells us which sort of names are more
+     * likely (see isStrict()); for each sort of name, the line after it tells us whether the file
+     * is more likely to be interleaved or sequential, unless the header has already told us. We
+     * then try the other sort of name, and finally (if the header didn't tell us) the other
+     * layout.
+     */
+    private Vector<boolean[]> getLayouts(File file) throws IOException, FormatException {
+        LineNumberReader reader =
+                new LineNumberReader(new InputStreamReader(new FileInputStream(file)));
+
+        try {
+            Header header = readHeader(reader);
+
+            String first = nextLine(reader);
+            if (first == null)
+                throw formatException(reader, "There are no sequences in this file!");
+            String second = nextLine(reader);
+
+            boolean strict = isStrict(first, header.count_chars);
+            boolean[] names = new boolean[] {strict, !strict};
+
+            Vector<boolean[]> layouts = new Vector<boolean[]>();
+            for (int x = 0; x < names.length; x++)
+                layouts.add(
+                        new boolean[] {names[x], isInterleaved(header, first, second, names[x])});
+
+            if (!header.interleaved && !header.sequential) {
+                for (int x = 0; x < names.length; x++)
+                    layouts.add(
+                            new boolean[] {
+                                names[x], !isInterleaved(header, first, second, names[x])
+                            });
+            }
+
+            return layouts;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Is this file more likely to be interleaved than sequential, going by the first two lines of
+     * sequences? If the header doesn't say, the second line does: in an interleaved file, it's
+     * the start of the next sequence, which is as long as the start of this one was. In a
+     * sequential file, it's more of this sequence.
+     */
+    private boolean isInterleaved(Header header, String first, String second, boolean strict) {
+        if (header.interleaved) return true;
+        if (header.sequential) return false;
+
+        int width = countResidues(first, residuesFrom(first, strict));
+        if (width >= header.count_chars || header.count_seqs == 1 || second == null)
+            return true; // every sequence fits on a line, so it doesn't matter
+
+        return (width > 0 && countResidues(second, residuesFrom(second, strict)) == width);
+    }
+
+    /**
+     * Reads every sequence out of 'file', assuming it has 'strict' names and is 'interleaved' (or
+     * not). We read the file a line at a time, putting the bases straight into one buffer per
+     * sequence.
+     *
+     * @throws FormatException if the file doesn't make sense read this way.
+     * @throws SequenceException if a sequence read this way isn't a valid sequence.
+     */
+    private Sequence[] readSequences(
+            File file, boolean strict, boolean interleaved, DelayCallback delay)
+            throws IOException, SequenceException, FormatException, DelayAbortedException {
+        // we tell the user how far along we are by counting the bytes we've read
+        CountingInputStream in = new CountingInputStream(file);
+
+        try {
+            LineNumberReader reader = new LineNumberReader(new InputStreamReader(in));
+
+            Header header = readHeader(reader);
+            int count_seqs = header.count_seqs;
+            int count_chars = header.count_chars;
+
+            String[] names = new String[count_seqs];
+            StringBuffer[] bases = new StringBuffer[count_seqs];
+
+            String line = nextLine(reader);
+            if (line == null)
+                throw formatException(reader, "There are no sequences in this file!");
+
+            names[0] = getName(line, strict);
+            bases[0] = new StringBuffer(Math.min(count_chars, 1 << 20));
+            appendResidues(bases[0], line, residuesFrom(line, strict));
+            if (bases[0].length() > count_chars) throw tooLong(reader, names[0], count_chars);
+
+            line = nextLine(reader);
+
+            if (interleaved) {
+                // lines go round the sequences, one at a time; only the first block has names
+                int x = 1;
+                while (true) {
+                    if (x == count_seqs) {
+                        x = 0;
+
+                        if (isComplete(bases, count_chars)) break;
+                    }
+
+                    if (delay != null) in.reportProgress(delay);
+
+                    if (line == null) {
+                        if (bases[x] == null)
+                            throw formatException(
+                                    reader,
+                                    "This file should have "
+                                            + count_seqs
+                                            + " sequences, but I could only find "
+                                            + x
+                                            + ".");
+
+                        throw formatException(
+                                reader,
+                                "The file ended before sequence '"
+                                        + names[x]
+                                        + "' was complete: it should have "
+                                        + count_chars
+                                        + " characters, but I could only find "
+                                        + bases[x].length()
+                                        + ".");
+                    }
+
+                    if (bases[x] == null) {
+                        names[x] = getName(line, strict);
+                        bases[x] = new StringBuffer(Math.min(count_chars, 1 << 20));
+                        appendResidues(bases[x], line, residuesFrom(line, strict));
+                    } else {
+                        // some programs repeat the names in every block
+                        int from = 0;
+                        if (getName(line, strict).equals(names[x]))
+                            from = residuesFrom(line, strict);
+
+                        appendResidues(bases[x], line, from);
+                    }
+
+                    if (bases[x].length() > count_chars)
+                        throw tooLong(reader, names[x], count_chars);
+
+                    x++;
+                    line = nextLine(reader);
+                }
+            } else {
+                // each sequence in full, then the next one
+                int x = 0;
+                while (true) {
+                    while (bases[x].length() < count_chars) {
+                        if (delay != null) in.reportProgress(delay);
+
+                        if (line == null)
+                            throw formatException(
+                                    reader,
+                                    "The file ended before sequence '"
+                                            + names[x]
+                                            + "' was complete: it should have "
+                                            + count_chars
+                                            + " characters, but I could only find "
+                                            + bases[x].length()
+                                            + ".");
+
+                        appendResidues(bases[x], line, 0);
+                        line = nextLine(reader);
+                    }
+
+                    if (bases[x].length() > count_chars)
+                        throw tooLong(reader, names[x], count_chars);
+
+                    x++;
+                    if (x == count_seqs) break;
+
+                    if (line == null)
+                        throw formatException(
+                                reader,
+                                "This file should have "
+                                        + count_seqs
+                                        + " sequences, but I could only find "
+                                        + x
+                                        + ".");
+
+                    names[x] = getName(line, strict);
+                    bases[x] = new StringBuffer(Math.min(count_chars, 1 << 20));
+                    appendResidues(bases[x], line, residuesFrom(line, strict));
+                    line = nextLine(reader);
+                }
+            }
+
+            // all done! Anything after the last sequence (trees, say) is none of our business.
+            Sequence[] sequences = new Sequence[count_seqs];
+            for (int x = 0; x < count_seqs; x++) {
+                String name = names[x].replace('_', ' ');
+
+                sequences[x] = BaseSequence.createSequence(name, bases[x].toString());
+                bases[x] = null; // we're done with these
+            }
+
+            return sequences;
+        } finally {
+            in.close();
+        }
+    }
+
+    public FormatException formatException(LineNumberReader reader, String message) {
+        return new FormatException("Error on line " + reader.getLineNumber() + ": " + message);
     }
 
-    public FormatException formatException(StreamTokenizer tok, String message) {
-        return new FormatException("Error on line " + tok.lineno() + ": " + message);
+    private FormatException tooLong(LineNumberReader reader, String name, int count_chars) {
+        return formatException(
+                reader,
+                "Sequence '"
+                        + name
+                        + "' is longer than the "
+                        + count_chars
+                        + " characters this file says every sequence has.");
     }
 
-    private int atoi(String word, StreamTokenizer tok) throws FormatException {
+    private int atoi(String word, LineNumberReader reader) throws FormatException {
         try {
             return Integer.parseInt(word);
         } catch (NumberFormatException e) {
-            throw formatException(tok, "Could not convert word '" + word + "' to a number: " + e);
+            throw formatException(
+                    reader, "Could not convert word '" + word + "' to a number: " + e);
         }
     }
 
+    /** Returns the next line which isn't blank, or null if we've run out of file. */
+    private String nextLine(LineNumberReader reader) throws IOException {
+        while (true) {
+            String line = reader.readLine();
+
+            if (line == null) return null;
+            if (line.trim().length() > 0) return line;
+        }
+    }
+
+    /** Have all the sequences got all their characters yet? */
+    private boolean isComplete(StringBuffer[] bases, int count_chars) {
+        for (int x = 0; x < bases.length; x++) {
+            if (bases[x] == null || bases[x].length() < count_chars) return false;
+        }
+        return true;
+    }
+
+    /** Returns the name at the start of a line. */
+    private String getName(String line, boolean strict) {
+        if (strict) return line.substring(0, Math.min(line.length(), STRICT_NAME_LENGTH)).trim();
+
+        int from = 0;
+        while (from < line.length() && Character.isWhitespace(line.charAt(from))) from++;
+
+        return line.substring(from, residuesFrom(line, false));
+    }
+
+    /** Returns the index at which the bases start on a line which begins with a name. */
+    private int residuesFrom(String line, boolean strict) {
+        if (strict) return Math.min(line.length(), STRICT_NAME_LENGTH);
+
+        int x = 0;
+        while (x < line.length() && Character.isWhitespace(line.charAt(x))) x++;
+        while (x < line.length() && !Character.isWhitespace(line.charAt(x))) x++;
+        return x;
+    }
+
+    /** Counts the bases on a line, starting at 'from'. Phylip lets you put spaces anywhere. */
+    private int countResidues(String line, int from) {
+        int count = 0;
+        for (int x = from; x < line.length(); x++) {
+            if (!Character.isWhitespace(line.charAt(x))) count++;
+        }
+        return count;
+    }
+
+    /** Appends the bases on a line, starting at 'from', to 'buff'. */
+    private void appendResidues(StringBuffer buff, String line, int from) {
+        for (int x = from; x < line.length(); x++) {
+            char ch = line.charAt(x);
+
+            if (!Character.isWhitespace(ch)) buff.append(ch);
+        }
+    }
+
+    /** Is everything on this line, starting at 'from', a base (or a gap)? */
+    private boolean isDNA(String line, int from) {
+        for (int x = from; x < line.length(); x++) {
+            char ch = Character.toUpperCase(line.charAt(x));
+
+            if (Character.isWhitespace(ch) || ch == '.') continue;
+            if (!Sequence.isValid(ch)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Works out whether the first line of the first sequence has a strict name (ten characters,
+     * possibly including spaces, possibly running straight into the bases) or a relaxed one. If
+     * only one of them gives us the right number of characters (or only one of them leaves us with
+     * DNA), that's the one; otherwise, we go with relaxed names, unless what follows the name
+     * doesn't look like a sequence at all.
+     */
+    private boolean isStrict(String line, int count_chars) {
+        if (line.length() <= STRICT_NAME_LENGTH) return false;
+
+        int relaxed = countResidues(line, residuesFrom(line, false));
+        int strict = countResidues(line, STRICT_NAME_LENGTH);
+
+        if (relaxed == count_chars && strict != count_chars) return false;
+        if (strict == count_chars && relaxed != count_chars) return true;
+
+        if (relaxed == 0) return true;
+
+        // if only one of them looks like DNA, that's the one
+        boolean relaxed_dna = isDNA(line, residuesFrom(line, false));
+        boolean strict_dna = isDNA(line, STRICT_NAME_LENGTH);
+        if (relaxed_dna != strict_dna) return strict_dna;
+
+        for (int x = residuesFrom(line, false); x < line.length(); x++) {
+            char ch = line.charAt(x);
+
+            if (Character.isWhitespace(ch) || Character.isLetter(ch)) continue;
+            if (ch == '-' || ch == '?' || ch == '.' || ch == '*' || ch == '~') continue;
+
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Writes the content of this sequence list into a file. The file is overwritten. The order of
      * the sequences written into the file is guaranteed to be the same as in the list.
@@ -226,7 +655,38 @@ public class PhylipFile extends BaseFormatHandler {
      * not very likely to be of this format, is it?
      */
     public boolean mightBe(File file) {
-        return false;
+        try {
+            return (mightBe(readHead(file)) != DEFINITELY_NOT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * We only look at the header line: two numbers (the number of sequences and the number of
+     * characters), maybe followed by a few options. Phylip files have no signature, so that's as
+     * sure as we can be.
+     */
+    public int mightBe(ByteBuffer head) {
+        String line = firstLine(head);
+        if (line == null) return DEFINITELY_NOT; // that's no header
+
+        StringTokenizer header = new StringTokenizer(line);
+        if (header.countTokens() < 2 || header.countTokens() > 4) return DEFINITELY_NOT;
+
+        for (int x = 0; x < 2; x++) {
+            String number = header.nextToken();
+
+            for (int y = 0; y < number.length(); y++) {
+                if (number.charAt(y) < '0' || number.charAt(y) > '9') return DEFINITELY_NOT;
+            }
+        }
+
+        while (header.hasMoreTokens()) {
+            if (header.nextToken().length() > 1) return DEFINITELY_NOT;
+        }
+
+        return PROBABLY;
     }
 
     private String fixColumnName(String columnName) {
@@ -239,4 +699,164 @@ public class PhylipFile extends BaseFormatHandler {
         columnName = columnName.replace('/', '_');
         return columnName;
     }
+
+    /**
+     * Tests that we can read the sample files from the Phylip documentation (with strict names,
+     * some of which have spaces in them or run straight into the bases), as well as files with
+     * relaxed names, files whose header says how they're laid out, and broken files.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.formats.PhylipFile");
+
+        String[] names = new String[] {"Turkey", "Salmo gair", "H. Sapiens", "Chimp", "Gorilla"};
+        String[] first = SAMPLE_FIRST_HALVES;
+        String[] second = SAMPLE_SECOND_HALVES;
+        String[] sequences = new String[names.length];
+        for (int x = 0; x < names.length; x++)
+            sequences[x] = (first[x] + second[x]).replaceAll(" ", "");
+
+        StringBuffer sequential = new StringBuffer("    5    42\n");
+        for (int x = 0; x < names.length; x++)
+            sequential.append(pad(names[x]) + first[x] + "\n" + second[x] + "\n");
+
+        StringBuffer interleaved = new StringBuffer("    5    42\n");
+        for (int x = 0; x < names.length; x++) interleaved.append(pad(names[x]) + first[x] + "\n");
+        interleaved.append("\n");
+        for (int x = 0; x < names.length; x++) interleaved.append(second[x] + "\n");
+
+        testMaster.beginTest("Read the sequential sample file from the Phylip documentation");
+        check(testMaster, sequential.toString(), names, sequences);
+
+        testMaster.beginTest("Read the interleaved sample file from the Phylip documentation");
+        check(testMaster, interleaved.toString(), names, sequences);
+
+        testMaster.beginTest("Read relaxed names, sequential and interleaved");
+        String[] relaxed = new String[] {"Meleagris gallopavo", "Salmo gairdneri", "H sapiens"};
+        String[] relaxed_names = new String[relaxed.length];
+        StringBuffer relaxed_sequential = new StringBuffer("3 42\n");
+        StringBuffer relaxed_interleaved = new StringBuffer("3 42\n");
+        for (int x = 0; x < relaxed.length; x++) {
+            relaxed_names[x] = relaxed[x];
+            String name = relaxed[x].replace(' ', '_');
+
+            relaxed_sequential.append(name + "  " + first[x] + "\n" + second[x] + "\n");
+            relaxed_interleaved.append(name + " " + first[x] + "\n");
+        }
+        for (int x = 0; x < relaxed.length; x++)
+            relaxed_interleaved.append("\n" + second[x]); // blank lines everywhere
+        String[] relaxed_sequences = new String[relaxed.length];
+        System.arraycopy(sequences, 0, relaxed_sequences, 0, relaxed.length);
+        if (check(null, relaxed_sequential.toString(), relaxed_names, relaxed_sequences))
+            check(testMaster, relaxed_interleaved.toString(), relaxed_names, relaxed_sequences);
+        else testMaster.failed("I couldn't read a sequential file with relaxed names");
+
+        // this file makes sense either way; without options, it looks interleaved
+        String ambiguous = "a ACGTA\nB CCCCC\nc GGGGG\nD TTTTT\n";
+
+        testMaster.beginTest("Use the 'S' option in the header");
+        check(
+                testMaster,
+                "2 11 S\n" + ambiguous,
+                new String[] {"a", "c"},
+                new String[] {"ACGTABCCCCC", "GGGGGDTTTTT"});
+
+        testMaster.beginTest("Use the 'I' option in the header");
+        check(
+                testMaster,
+                "2 11 I\n" + ambiguous,
+                new String[] {"a", "B"},
+                new String[] {"ACGTACGGGGG", "CCCCCDTTTTT"});
+
+        testMaster.beginTest("Refuse a file whose sequences are too short, however it's read");
+        String broken = sequential.toString().replaceFirst("AT\n", "\n");
+        try {
+            readFile(write(broken), null);
+            testMaster.failed("I read a file with a sequence which is too short");
+        } catch (FormatException e) {
+            testMaster.succeeded();
+        } catch (Exception e) {
+            testMaster.failed("I got " + e + " instead of a FormatException");
+        }
+
+        testMaster.done();
+    }
+
+    // the sample sequences from the Phylip documentation, in two halves
+    private static final String[] SAMPLE_FIRST_HALVES =
+            new String[] {
+                "AAGCTNGGGC ATTTCAGGGT",
+                "AAGCCTTGGC AGTGCAGGGT",
+                "ACCGGTTGGC CGTTCAGGGT",
+                "AAACCCTTGC CGTTACGCTT",
+                "AAACCCTTGC CGGTACGCTT"
+            };
+    private static final String[] SAMPLE_SECOND_HALVES =
+            new String[] {
+                "GAGCCCGGGC AATACAGGGT AT",
+                "GAGCCGTGGC CGGGCACGGT AT",
+                "ACAGGTTGGC CGTTCAGGGT AT",
+                "AAACCGAGGC CGGGACACTC AT",
+                "AAACCGAGGC CGGGACACTC AT"
+            };
+
+    /** Pads 'name' out to a strict Phylip name. */
+    private static String pad(String name) {
+        StringBuffer buff = new StringBuffer(name);
+        while (buff.length() < STRICT_NAME_LENGTH) buff.append(' ');
+        return buff.toString();
+    }
+
+    /** Writes 'content' into a temporary file. */
+    private static File write(String content) throws IOException {
+        File file = File.createTempFile("phylip", ".phy");
+        file.deleteOnExit();
+
+        Writer writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+
+        return file;
+    }
+
+    /**
+     * Reads 'content' as a Phylip file, and checks that we get exactly 'names' and 'sequences'.
+     * If 'testMaster' isn't null, we tell it whether we did. Returns true if we did.
+     */
+    private boolean check(
+            TestController testMaster, String content, String[] names, String[] sequences) {
+        String error = null;
+        try {
+            SequenceList list = readFile(write(content), null);
+
+            if (list.count() != names.length)
+                error = "I read " + list.count() + " sequences instead of " + names.length;
+
+            for (int x = 0; x < names.length && error == null; x++) {
+                Sequence seq = (Sequence) list.get(x);
+
+                if (!seq.getFullName().equals(names[x])
+                        || !seq.getSequence().equals(sequences[x]))
+                    error =
+                            "Sequence #"
+                                    + x
+                                    + " was '"
+                                    + seq.getFullName()
+                                    + "': "
+                                    + seq.getSequence()
+                                    + " instead of '"
+                                    + names[x]
+                                    + "': "
+                                    + sequences[x];
+            }
+        } catch (Exception e) {
+            error = "I couldn't read the file: " + e;
+        }
+
+        if (testMaster != null) {
+            if (error == null) testMaster.succeeded();
+            else testMaster.failed(error);
+        }
+
+        return (error == null);
+    }
 }
@@ -37,6 +37,7 @@ package com.ggvaidya.TaxonDNA.Common.DNA.formats;
 import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
+import java.nio.*;
 import java.util.*;
 
 public class TNTFile extends BaseFormatHandler {
@@ -127,26 +128,14 @@ public class TNTFile extends BaseFormatHandler {
 
         appendTo.lock();
 
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileFrom));
-
-            // count lines
-            int count_lines = 0;
-            int count_data = 0;
-            long file_length = fileFrom.length();
-            while (reader.ready()) {
-                if (delay != null)
-                    delay.delay((int) ((float) count_data / file_length * 100), 1000);
-                // note that we're really going from 0% to 10%. This will
-                // make the user less confused when we jump from 10% to 0% and
-                // start over.
-                count_data += reader.readLine().length();
-                count_lines++;
-            }
+        // we read the file just once, and tell the user how far
+        // along we are by counting the bytes we've read
+        CountingInputStream in = null;
 
-            // let's go!
-            reader = new BufferedReader(new FileReader(fileFrom));
-            StreamTokenizer tok = new StreamTokenizer(reader);
+        try {
+            in = new CountingInputStream(fileFrom);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            TNTTokenizer tok = new TNTTokenizer(reader);
 
             // okay, here's how it's going to work:
             // 1. 	we will ONLY handle xread for now. i.e. NO other commands will be
@@ -162,16 +151,9 @@ public class TNTFile extends BaseFormatHandler {
             // 	rigid flexibility they allowed. If any of these rules do NOT work
             // 	in TNT, lemme know.
 
-            tok.ordinaryChar(
-                    '/'); // this is the default StringTokenizer comment char, so we need to set it
-            // back to
-            // nothingness
             tok.wordChars('@', '@'); // this is a special command we look out for in the title
 
-            // turn off parseNumbers()
-            tok.ordinaryChar('.');
-            tok.ordinaryChar('-');
-            tok.ordinaryChars('0', '9');
+            // numbers are just words as far as we're concerned
             tok.wordChars('.', '.');
             tok.wordChars('-', '-');
             tok.wordChars('0', '9');
@@ -197,13 +179,13 @@ public class TNTFile extends BaseFormatHandler {
             // 		command (including the ';')
             while (true) {
                 /* Before anything else, do the delay */
-                if (delay != null) delay.delay(tok.lineno(), count_lines);
+                if (delay != null) in.reportProgress(delay);
 
                 /* Now ... to business! */
                 int type = tok.nextToken();
 
                 // break at end of file
-                if (type == StreamTokenizer.TT_EOF) break;
+                if (type == TNTTokenizer.TT_EOF) break;
 
                 // is it a comment?
                 if (type == '\'') {
@@ -224,14 +206,14 @@ public class TNTFile extends BaseFormatHandler {
                 }
 
                 // Words in here are guaranteed to be a 'command'
-                if (newCommand && type == StreamTokenizer.TT_WORD) {
+                if (newCommand && type == TNTTokenizer.TT_WORD) {
                     String str = tok.sval;
 
                     // nstates {we only understand 'nstates tnt'}
                     if (str.equalsIgnoreCase("nstates")) {
                         int token = tok.nextToken();
 
-                        if ((token == StreamTokenizer.TT_WORD)
+                        if ((token == TNTTokenizer.TT_WORD)
                                 && (tok.sval.equalsIgnoreCase("dna"))) {
                             // nstates dna! we can handle this ...
                         } else {
@@ -249,7 +231,7 @@ public class TNTFile extends BaseFormatHandler {
 
                     // xread {okay, we need to actually read the matrix itself}
                     else if (str.equalsIgnoreCase("xread")) {
-                        xreadBlock(appendTo, tok, evt, delay, count_lines);
+                        xreadBlock(appendTo, tok, evt, delay, in);
                         newCommand = true;
                         continue;
                     }
@@ -260,11 +242,11 @@ public class TNTFile extends BaseFormatHandler {
                     // since the format is essentially identical, we'll use the
                     // same function to handle them
                     else if (str.equalsIgnoreCase("xgroup")) {
-                        groupCommand(GROUP_CHARSET, appendTo, tok, evt, delay, count_lines);
+                        groupCommand(GROUP_CHARSET, appendTo, tok, evt, delay, in);
                         newCommand = true;
                         continue;
                     } else if (str.equalsIgnoreCase("agroup")) {
-                        groupCommand(GROUP_TAXONSET, appendTo, tok, evt, delay, count_lines);
+                        groupCommand(GROUP_TAXONSET, appendTo, tok, evt, delay, in);
                         newCommand = true;
                         continue;
                     } else {
@@ -287,13 +269,14 @@ public class TNTFile extends BaseFormatHandler {
         } finally {
             if (delay != null) delay.end();
             appendTo.unlock();
+            if (in != null) in.close();
         }
 
         appendTo.setFile(fileFrom);
         appendTo.setFormatHandler(this);
     }
 
-    public FormatException formatException(StreamTokenizer tok, String message) {
+    public FormatException formatException(TNTTokenizer tok, String message) {
         return new FormatException("Error on line " + tok.lineno() + ": " + message);
     }
 
@@ -307,12 +290,11 @@ public class TNTFile extends BaseFormatHandler {
      */
     public void xreadBlock(
             SequenceList appendTo,
-            StreamTokenizer tok,
+            TNTTokenizer tok,
             FormatHandlerEvent evt,
             DelayCallback delay,
-            int count_lines)
+            CountingInputStream in)
             throws FormatException, DelayAbortedException, IOException {
-        Interleaver interleaver = new Interleaver();
         int seq_names_count = 0;
         int begin_at = tok.lineno(); // which line did this xreadBlock start at
         char missingChar = '?';
@@ -326,8 +308,13 @@ public class TNTFile extends BaseFormatHandler {
         tok.wordChars('[', '['); // for [ACTG] -> N type stuff
         tok.wordChars(']', ']');
 
-        Hashtable hash_names = new Hashtable(); // String name -> Sequence
-        String name = null;
+        // the bases go straight from the file into one StringBuffer per
+        // sequence, so interleaved blocks are stuck together as we go
+        // the bases of each sequence, the line each began on, and the names in the order we
+        // first saw them
+        Hashtable<String, StringBuffer> hash_names = new Hashtable<String, StringBuffer>();
+        Hashtable<String, Integer> hash_linenos = new Hashtable<String, Integer>();
+        Vector<String> seq_names = new Vector<String>();
 
         // '.', '(' and ')' should be read as part of sequence names.
         tok.wordChars('.', '.');
@@ -335,7 +322,7 @@ public class TNTFile extends BaseFormatHandler {
         tok.wordChars(')', ')');
 
         // okay, 'xread' has started.
-        if (tok.ttype == StreamTokenizer.TT_WORD && tok.sval.equalsIgnoreCase("xread"))
+        if (tok.ttype == TNTTokenizer.TT_WORD && tok.sval.equalsIgnoreCase("xread"))
             ; // we've already got xread on the stream, do nothing
         else tok.nextToken(); // this token IS 'xread'
 
@@ -348,20 +335,20 @@ public class TNTFile extends BaseFormatHandler {
             title = new StringBuffer();
 
             while (true) {
-                if (delay != null) delay.delay(tok.lineno(), count_lines);
+                if (delay != null) in.reportProgress(delay);
 
                 int type = tok.nextToken();
 
                 if (type == '\'') break;
 
                 // comment commands (our hacks, basically)
-                if (type == StreamTokenizer.TT_WORD) {
+                if (type == TNTTokenizer.TT_WORD) {
                     if (tok.sval.length() > 0 && tok.sval.charAt(0) == '@') {
                         // special command!
                         if (tok.sval.equalsIgnoreCase("@xgroup")) {
-                            groupCommand(GROUP_CHARSET, appendTo, tok, evt, delay, count_lines);
+                            groupCommand(GROUP_CHARSET, appendTo, tok, evt, delay, in);
                         } else if (tok.sval.equalsIgnoreCase("@agroup")) {
-                            groupCommand(GROUP_TAXONSET, appendTo, tok, evt, delay, count_lines);
+                            groupCommand(GROUP_TAXONSET, appendTo, tok, evt, delay, in);
                         } else {
                             // oops ... not a command! (that we recognize, anyway)
                         }
@@ -370,7 +357,7 @@ public class TNTFile extends BaseFormatHandler {
                     }
                 } else title.append(type);
 
-                if (type == StreamTokenizer.TT_EOF)
+                if (type == TNTTokenizer.TT_EOF)
                     throw formatException(
                             tok,
                             "The title doesn't seem to have been closed properly. Are you sure the"
@@ -387,7 +374,7 @@ public class TNTFile extends BaseFormatHandler {
         // number of characters
         int nChars = 0;
         tok.nextToken();
-        if (tok.ttype != StreamTokenizer.TT_WORD)
+        if (tok.ttype != TNTTokenizer.TT_WORD)
             throw formatException(
                     tok,
                     "Couldn't find the number of characters. I found '"
@@ -406,7 +393,7 @@ public class TNTFile extends BaseFormatHandler {
         // number of taxa
         int nTax = 0;
         tok.nextToken();
-        if (tok.ttype != StreamTokenizer.TT_WORD)
+        if (tok.ttype != TNTTokenizer.TT_WORD)
             throw formatException(
                     tok,
                     "Couldn't find the number of taxa. I found '"
@@ -428,14 +415,12 @@ public class TNTFile extends BaseFormatHandler {
         // In the big loop, '.'s are part of th string.
         tok.wordChars('.', '.');
 
-        int lineno = tok.lineno();
-
         while (true) {
             int type = tok.nextToken();
 
-            if (delay != null) delay.delay(lineno, count_lines);
+            if (delay != null) in.reportProgress(delay);
 
-            if (type == StreamTokenizer.TT_EOF) {
+            if (type == TNTTokenizer.TT_EOF) {
                 // wtf?!
                 throw formatException(
                         tok,
@@ -464,7 +449,7 @@ public class TNTFile extends BaseFormatHandler {
             if(commentLevel > 0)
             	continue;
             */
-            if (type == StreamTokenizer.TT_WORD) {
+            if (type == TNTTokenizer.TT_WORD) {
                 // word!
                 String word = tok.sval;
 
@@ -489,18 +474,24 @@ public class TNTFile extends BaseFormatHandler {
                                 + " indicated by '[cont]').");
                 }
 
-                if (word.matches("^\\[.*\\]$")) {
+                if (word.length() > 1 && word.startsWith("[") && word.endsWith("]")) {
                     throw formatException(tok, "Unrecognized data type: " + word);
                 }
 
                 // get the sequence name
-                String seq_name = new String(word); // otherwise, technically, both word and seq
-                // would point to tok.sval.
-                seq_name = seq_name.replace('_', ' ');
+                String seq_name = word.replace('_', ' ');
+
+                StringBuffer bases = hash_names.get(seq_name);
+                if (bases == null) {
+                    bases = new StringBuffer();
+                    hash_names.put(seq_name, bases);
+                    hash_linenos.put(seq_name, Integer.valueOf(tok.lineno()));
+                    seq_names.add(seq_name);
+                }
 
-                // get the sequence itself
-                int tmp_type = tok.nextToken();
-                if (tmp_type != StreamTokenizer.TT_WORD) {
+                // get the sequence itself, straight onto the end of its bases
+                int tmp_type = tok.nextWord(bases);
+                if (tmp_type != TNTTokenizer.TT_WORD) {
 
                     throw formatException(
                             tok,
@@ -510,23 +501,7 @@ public class TNTFile extends BaseFormatHandler {
                                     + (char) tok.ttype
                                     + "'. What's going on?");
                 }
-                String sequence = tok.sval;
                 seq_names_count++;
-
-                // add the sequence to the interleaver
-                try {
-                    interleaver.appendSequence(seq_name, sequence);
-
-                } catch (SequenceException e) {
-                    throw formatException(
-                            tok,
-                            "Sequence '"
-                                    + name
-                                    + "' contains invalid characters. The exact error encountered"
-                                    + " was: "
-                                    + e);
-                }
-
             } else if (type == '&') {
                 // indicates TNT interleaving
                 // ignore!
@@ -543,17 +518,30 @@ public class TNTFile extends BaseFormatHandler {
         // Okay, done with this. Back to ordinaryChar with you!
         tok.ordinaryChar('.');
 
-        // now, let's 'unwind' the interleaver and
+        // now, let's turn the bases into sequences, and
         // check that the numbers we get match up with
         // the numbers specified in the file itself.
-        Iterator i = interleaver.getSequenceNamesIterator();
+        Iterator i = seq_names.iterator();
         int count = 0;
         while (i.hasNext()) {
             if (delay != null) delay.delay(count, seq_names_count);
             count++;
 
             String seqName = (String) i.next();
-            Sequence seq = interleaver.getSequence(seqName);
+            Sequence seq = null;
+            try {
+                seq = BaseSequence.createSequence(seqName, hash_names.get(seqName).toString());
+            } catch (SequenceException e) {
+                throw new FormatException(
+                        "Error on line "
+                                + hash_linenos.get(seqName)
+                                + ": Sequence '"
+                                + seqName
+                                + "' contains invalid characters. The exact error encountered"
+                                + " was: "
+                                + e);
+            }
+            hash_names.remove(seqName); // we're done with the bases
 
             if (seq.getLength() != nChars) {
                 throw new FormatException(
@@ -598,10 +586,10 @@ public class TNTFile extends BaseFormatHandler {
     public void groupCommand(
             int which_group,
             SequenceList appendTo,
-            StreamTokenizer tok,
+            TNTTokenizer tok,
             FormatHandlerEvent evt,
             DelayCallback delay,
-            int count_lines)
+            CountingInputStream in)
             throws FormatException, DelayAbortedException, IOException {
         int begin_at = tok.lineno(); // which line did this group start at
 
@@ -648,9 +636,9 @@ public class TNTFile extends BaseFormatHandler {
         while (true) {
             int type = tok.nextToken();
 
-            if (delay != null) delay.delay(tok.lineno(), count_lines);
+            if (delay != null) in.reportProgress(delay);
 
-            if (type == StreamTokenizer.TT_EOF) {
+            if (type == TNTTokenizer.TT_EOF) {
                 // wtf?!
                 throw formatException(
                         tok,
@@ -688,7 +676,7 @@ public class TNTFile extends BaseFormatHandler {
 
                 // okay, the next token ought to be a unique group id
                 String group_id;
-                if (tok.nextToken() != StreamTokenizer.TT_WORD) {
+                if (tok.nextToken() != TNTTokenizer.TT_WORD) {
                     tok.pushBack();
 
                     // throw formatException(tok, "Expecting the group id, but found '" +
@@ -714,9 +702,9 @@ public class TNTFile extends BaseFormatHandler {
                 int title_began = tok.lineno();
 
                 while (tok.nextToken() != ')') {
-                    if (delay != null) delay.delay(tok.lineno(), count_lines);
+                    if (delay != null) in.reportProgress(delay);
 
-                    if (tok.ttype == StreamTokenizer.TT_EOF)
+                    if (tok.ttype == TNTTokenizer.TT_EOF)
                         throw formatException(
                                 tok,
                                 "The title which began in "
@@ -725,7 +713,7 @@ public class TNTFile extends BaseFormatHandler {
                                         + title_began
                                         + " is not terminated! (I can't find the ')' which would"
                                         + " end it).");
-                    else if (tok.ttype == StreamTokenizer.TT_WORD) buff_name.append(tok.sval);
+                    else if (tok.ttype == TNTTokenizer.TT_WORD) buff_name.append(tok.sval);
                     else buff_name.append((char) tok.ttype);
                 }
 
@@ -762,7 +750,7 @@ public class TNTFile extends BaseFormatHandler {
 
                 continue;
 
-            } else if (type == StreamTokenizer.TT_WORD) {
+            } else if (type == TNTTokenizer.TT_WORD) {
                 // word!
                 String word = tok.sval;
 
@@ -931,7 +919,7 @@ public class TNTFile extends BaseFormatHandler {
         tok.wordChars(')', ')');
     }
 
-    private int atoi(String word, StreamTokenizer tok) throws FormatException {
+    private int atoi(String word, TNTTokenizer tok) throws FormatException {
         try {
             return Integer.parseInt(word);
         } catch (NumberFormatException e) {
@@ -1253,6 +1241,25 @@ public class TNTFile extends BaseFormatHandler {
         }
     }
 
+    /**
+     * Looks for 'xread' in the head of a file. TNT files have no signature, and the 'xread' might
+     * come after any number of other commands, so if we can't find it in the head, mightBe(File)
+     * will have to look through the rest of the file.
+     */
+    public int mightBe(ByteBuffer head) {
+        String xread = "xread";
+
+        int limit = head.limit() - xread.length();
+        for (int x = 0; x <= limit; x++) {
+            int y = 0;
+            while (y < xread.length() && (head.get(x + y) | 0x20) == xread.charAt(y)) y++;
+
+            if (y == xread.length()) return PROBABLY;
+        }
+
+        return isWholeFile(head) ? DEFINITELY_NOT : UNSURE;
+    }
+
     /**
      * Given a column name, this code will turn it into a valid CODONPOSSET (or filename).
      *
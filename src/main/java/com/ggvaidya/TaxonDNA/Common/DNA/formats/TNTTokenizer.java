@@ -0,0 +1,473 @@
+/**
+ * TNTTokenizer splits TNT files into tokens. It used to be a StreamTokenizer, and it still works
+ * exactly like one (nextToken(), ttype, sval, pushBack(), lineno(), and wordChars() and
+ * ordinaryChar() to change which characters make up words), except that:
+ *
+ * <ul>
+ *   <li>It doesn't know about numbers or comments. Every character is whitespace (up to and
+ *       including ' '), part of a word (letters, and anything you set with wordChars()), a quote
+ *       (' and ") or an ordinary character, which is returned by itself.
+ *   <li>It reads the file a block at a time, and looks for the end of a word a block at a time.
+ *   <li>Since most of a TNT file is sequence data, nextWord() lets you append the next word to a
+ *       StringBuffer of your own, without it ever becoming a String.
+ * </ul>
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2006-07, 2010 Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.DNA.formats;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import java.io.*;
+import java.util.*;
+
+public class TNTTokenizer implements Testable {
+    public static final int TT_EOF = StreamTokenizer.TT_EOF; // end of file
+    public static final int TT_WORD = StreamTokenizer.TT_WORD; // a word (it's in this.sval)
+    private static final int TT_NOTHING = -4; // nothing read yet
+
+    /** The type of the last token read: TT_EOF, TT_WORD, or the character itself. */
+    public int ttype = TT_NOTHING;
+
+    /** The last word (or quoted string) read. */
+    public String sval = null;
+
+    private Reader r = null;
+    private int lineno = 1;
+    private boolean pushedBack = false;
+
+    // the character after the last token, if we've already read it
+    private static final int NEED_CHAR = Integer.MAX_VALUE;
+    private int peekc = NEED_CHAR;
+
+    // we read the file a block at a time
+    private static final int BUFFER_SIZE = 8192;
+    private char[] buff = new char[BUFFER_SIZE];
+    private int buff_pos = 0;
+    private int buff_length = 0;
+
+    // the word we're reading
+    private char[] word = new char[256];
+    private int word_length = 0;
+
+    // character types; anything beyond 255 is part of a word
+    private static final byte CT_WHITESPACE = 1;
+    private static final byte CT_ALPHA = 4;
+    private static final byte CT_QUOTE = 8;
+    private byte[] ctype = new byte[256];
+
+    /** Only used to run test(); you need a Reader to tokenize anything. */
+    public TNTTokenizer() {
+        this(null);
+    }
+
+    public TNTTokenizer(Reader r) {
+        this.r = r;
+
+        for (int x = 0; x <= ' '; x++) ctype[x] = CT_WHITESPACE;
+        wordChars('a', 'z');
+        wordChars('A', 'Z');
+        wordChars(128 + 32, 255);
+        ctype['\''] = CT_QUOTE;
+        ctype['"'] = CT_QUOTE;
+    }
+
+    public int lineno() {
+        return lineno;
+    }
+
+    /** Characters from 'low' to 'hi' (inclusive) will be read as parts of words. */
+    public void wordChars(int low, int hi) {
+        if (low < 0) low = 0;
+        if (hi >= ctype.length) hi = ctype.length - 1;
+
+        while (low <= hi) ctype[low++] |= CT_ALPHA;
+    }
+
+    /** 'ch' will be returned by itself, without any special meaning. */
+    public void ordinaryChar(int ch) {
+        if (ch >= 0 && ch < ctype.length) ctype[ch] = 0;
+    }
+
+    /** Characters from 'low' to 'hi' (inclusive) will be returned by themselves. */
+    public void ordinaryChars(int low, int hi) {
+        if (low < 0) low = 0;
+        if (hi >= ctype.length) hi = ctype.length - 1;
+
+        while (low <= hi) ctype[low++] = 0;
+    }
+
+    /** The next call to nextToken() will return the current token again. */
+    public void pushBack() {
+        if (ttype != TT_NOTHING) pushedBack = true;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return TT_EOF, TT_WORD (the word is in sval), or the character read (if it's a quote, the
+     *     string inside the quotes is in sval).
+     */
+    public int nextToken() throws IOException {
+        return nextToken(null);
+    }
+
+    /**
+     * Reads the next token, just like nextToken(), except that if it's a word, we append it to
+     * 'into' rather than putting it in sval (which will be null). Don't pushBack() a word you
+     * read this way, since we won't have it any more!
+     */
+    public int nextWord(StringBuffer into) throws IOException {
+        return nextToken(into);
+    }
+
+    private int nextToken(StringBuffer into) throws IOException {
+        if (pushedBack) {
+            pushedBack = false;
+            return ttype;
+        }
+
+        sval = null;
+
+        int c = peekc;
+        peekc = NEED_CHAR;
+        if (c == NEED_CHAR) c = read();
+        if (c < 0) return ttype = TT_EOF;
+        ttype = c;
+
+        int ct = (c < 256) ? ctype[c] : CT_ALPHA;
+
+        // skip whitespace, counting lines as we go
+        while ((ct & CT_WHITESPACE) != 0) {
+            if (c == '\r') {
+                lineno++;
+                c = read();
+                if (c == '\n') c = read();
+            } else {
+                if (c == '\n') lineno++;
+                c = read();
+            }
+
+            if (c < 0) return ttype = TT_EOF;
+            ct = (c < 256) ? ctype[c] : CT_ALPHA;
+        }
+
+        // words
+        if ((ct & CT_ALPHA) != 0) {
+            word_length = 0;
+            appendWord(into, (char) c);
+
+            while (true) {
+                // copy as much of the word as we can straight out of the buffer
+                int from = buff_pos;
+                while (buff_pos < buff_length && isWordChar(buff[buff_pos])) buff_pos++;
+                appendWord(into, from, buff_pos - from);
+
+                if (buff_pos < buff_length) {
+                    // the word's over
+                    c = buff[buff_pos++];
+                    break;
+                }
+
+                // we've run out of buffer: maybe the word continues into the next one
+                c = read();
+                if (c < 0 || !isWordChar((char) c)) break;
+                appendWord(into, (char) c);
+            }
+
+            peekc = c;
+            if (into == null) sval = new String(word, 0, word_length);
+            return ttype = TT_WORD;
+        }
+
+        // quoted strings
+        if ((ct & CT_QUOTE) != 0) {
+            ttype = c;
+            word_length = 0;
+
+            int d = read();
+            while (d >= 0 && d != ttype && d != '\n' && d != '\r') {
+                if (d == '\\') {
+                    c = read();
+                    int first = c; // to allow \377, but not \477
+                    if (c >= '0' && c <= '7') {
+                        c = c - '0';
+                        int c2 = read();
+                        if ('0' <= c2 && c2 <= '7') {
+                            c = (c << 3) + (c2 - '0');
+                            c2 = read();
+                            if ('0' <= c2 && c2 <= '7' && first <= '3') {
+                                c = (c << 3) + (c2 - '0');
+                                d = read();
+                            } else d = c2;
+                        } else d = c2;
+                    } else {
+                        switch (c) {
+                            case 'a':
+                                c = 0x7;
+                                break;
+                            case 'b':
+                                c = '\b';
+                                break;
+                            case 'f':
+                                c = 0xC;
+                                break;
+                            case 'n':
+                                c = '\n';
+                                break;
+                            case 'r':
+                                c = '\r';
+                                break;
+                            case 't':
+                                c = '\t';
+                                break;
+                            case 'v':
+                                c = 0xB;
+                                break;
+                        }
+                        d = read();
+                    }
+                } else {
+                    c = d;
+                    d = read();
+                }
+                appendWord(null, (char) c);
+            }
+
+            // the closing quote is part of the string; anything else is the next token
+            peekc = (d == ttype) ? NEED_CHAR : d;
+            sval = new String(word, 0, word_length);
+            return ttype;
+        }
+
+        // ordinary characters
+        return ttype = c;
+    }
+
+    private boolean isWordChar(char ch) {
+        return (ch >= 256) || ((ctype[ch] & CT_ALPHA) != 0);
+    }
+
+    private void appendWord(StringBuffer into, char ch) {
+        if (into != null) {
+            into.append(ch);
+            return;
+        }
+
+        if (word_length == word.length) word = Arrays.copyOf(word, word.length * 2);
+        word[word_length++] = ch;
+    }
+
+    private void appendWord(StringBuffer into, int from, int length) {
+        if (length == 0) return;
+
+        if (into != null) {
+            into.append(buff, from, length);
+            return;
+        }
+
+        if (word_length + length > word.length)
+            word = Arrays.copyOf(word, Math.max(word.length * 2, word_length + length));
+        System.arraycopy(buff, from, word, word_length, length);
+        word_length += length;
+    }
+
+    private int read() throws IOException {
+        if (buff_pos == buff_length) {
+            buff_pos = 0;
+            buff_length = r.read(buff, 0, BUFFER_SIZE);
+            while (buff_length == 0) buff_length = r.read(buff, 0, BUFFER_SIZE);
+
+            if (buff_length < 0) {
+                buff_length = 0;
+                return -1;
+            }
+        }
+
+        return buff[buff_pos++];
+    }
+
+    /**
+     * Tests that we split random text into exactly the same tokens (and line numbers) as a
+     * StreamTokenizer set up the way TNTFile used to set one up, as the word characters change
+     * and tokens are pushed back.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("DNA.formats.TNTTokenizer");
+
+        testMaster.beginTest("Tokenize random text exactly as a StreamTokenizer does");
+        Random random = new Random(2005);
+        String error = null;
+        for (int x = 0; x < 500 && error == null; x++) {
+            String text = randomText(random);
+
+            try {
+                error = compareTokens(text, random);
+            } catch (IOException e) {
+                error = "IOException while reading from a String: " + e;
+            }
+
+            if (error != null) error = "Input #" + x + ": " + error;
+        }
+
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Read a word which runs across several blocks");
+        try {
+            StringBuffer word = new StringBuffer();
+            for (int x = 0; x < BUFFER_SIZE * 3 + 17; x++) word.append("ACGT".charAt(x % 4));
+
+            TNTTokenizer tok = new TNTTokenizer(new StringReader("taxon " + word + "\n;"));
+            StringBuffer into = new StringBuffer();
+            if (tok.nextToken() == TT_WORD
+                    && tok.sval.equals("taxon")
+                    && tok.nextWord(into) == TT_WORD
+                    && tok.sval == null
+                    && into.toString().equals(word.toString())
+                    && tok.nextToken() == ';'
+                    && tok.lineno() == 2
+                    && tok.nextToken() == TT_EOF) testMaster.succeeded();
+            else testMaster.failed("The word came out as " + into.length() + " characters");
+        } catch (IOException e) {
+            testMaster.failed("IOException while reading from a String: " + e);
+        }
+
+        testMaster.done();
+    }
+
+    /**
+     * Reads 'text' with both a TNTTokenizer and a StreamTokenizer, switching '[' and ']' between
+     * word and ordinary characters (as TNTFile does), pushing tokens back and reading words with
+     * nextWord() at random. Returns the first difference, or null if there weren't any.
+     */
+    private static String compareTokens(String text, Random random) throws IOException {
+        TNTTokenizer tok = new TNTTokenizer(new StringReader(text));
+        StreamTokenizer st = new StreamTokenizer(new StringReader(text));
+
+        // this is how TNTFile used to set up its StreamTokenizer
+        st.ordinaryChar('/');
+        st.wordChars('@', '@');
+        st.ordinaryChar('.');
+        st.ordinaryChar('-');
+        st.ordinaryChars('0', '9');
+        st.wordChars('.', '.');
+        st.wordChars('-', '-');
+        st.wordChars('0', '9');
+
+        tok.wordChars('@', '@');
+        tok.wordChars('.', '.');
+        tok.wordChars('-', '-');
+        tok.wordChars('0', '9');
+
+        boolean started = false;
+        boolean can_push_back = false;
+        for (int count = 0; count < 100000; count++) {
+            int choice = random.nextInt(10);
+
+            if (choice == 0) {
+                tok.wordChars('[', ']');
+                st.wordChars('[', ']');
+                continue;
+            } else if (choice == 1) {
+                tok.ordinaryChars('[', ']');
+                st.ordinaryChars('[', ']');
+                continue;
+            } else if (choice == 2 && can_push_back) {
+                tok.pushBack();
+                st.pushBack();
+            }
+
+            int expected = st.nextToken();
+            String expected_sval = st.sval;
+
+            int actual;
+            String actual_sval;
+            can_push_back = true;
+            if (choice == 3 && started) {
+                StringBuffer into = new StringBuffer();
+                actual = tok.nextWord(into);
+
+                if (actual == TT_WORD) {
+                    if (tok.sval != null) return "nextWord() left a word in sval";
+                    actual_sval = into.toString();
+                    can_push_back = false; // we don't have the word any more
+                } else actual_sval = tok.sval;
+            } else {
+                actual = tok.nextToken();
+                actual_sval = tok.sval;
+            }
+            started = true;
+
+            // only words and quoted strings have an sval worth comparing
+            boolean has_sval = (expected == TT_WORD || expected == '\'' || expected == '"');
+
+            if (actual != expected
+                    || (has_sval && !String.valueOf(expected_sval).equals(actual_sval))
+                    || tok.lineno() != st.lineno())
+                return "Token #"
+                        + count
+                        + " was "
+                        + actual
+                        + " '"
+                        + actual_sval
+                        + "' on line "
+                        + tok.lineno()
+                        + ", instead of "
+                        + expected
+                        + " '"
+                        + expected_sval
+                        + "' on line "
+                        + st.lineno();
+
+            if (expected == TT_EOF) return null;
+        }
+
+        return "Too many tokens!";
+    }
+
+    /**
+     * Returns a random bit of text with words, numbers, quoted strings (with escapes), odd line
+     * endings, brackets, non-ASCII characters and the occasional enormous word.
+     */
+    private static String randomText(Random random) {
+        String[] pieces =
+                new String[] {
+                    " ", " ", "\t", "\n", "\r", "\r\n", "xread", "ACGT", "Taxon_name", "12",
+                    "-1.5", "@xgroup", ";", "=", "[", "]", "[ACT]", "(", ")", "/", "'", "\"",
+                    "'a comment'", "\"a \\\"quoted\\\" string\"", "'\\377\\477\\12x'",
+                    "'\\n\\t\\q'", "\\", "\u00e9t\u00e9", "\u03b1\u03b2", "\u0001", "~"
+                };
+
+        StringBuffer text = new StringBuffer();
+        int count = random.nextInt(200);
+        for (int x = 0; x < count; x++) {
+            if (random.nextInt(100) == 0) {
+                // an enormous word, which won't fit into a single block
+                int length = BUFFER_SIZE + random.nextInt(BUFFER_SIZE * 2);
+                for (int y = 0; y < length; y++) text.append("ACGT-".charAt(random.nextInt(5)));
+            } else text.append(pieces[random.nextInt(pieces.length)]);
+        }
+
+        return text.toString();
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * A ParallelLoop runs the body of a loop over 'count' items on every processor we have. Each worker
+ * gets a Body of its own (so it can keep buffers, counts and so on without having to share them),
+ * and takes the next item nobody has started on yet until there aren't any left; once they're all
+ * done, you can put whatever the Bodies worked out together in any order you like.
+ *
+ * <p>While the workers are at it, the calling thread keeps the DelayCallback posted (so only one
+ * thread ever talks to it, and it doesn't need to be thread-safe). If the delay is aborted, or any
+ * Body fails, every worker stops at the end of the item it's working on, and we wait for all of
+ * them to stop before we return: so by the time run() returns or throws, nobody is looking at your
+ * data any more.
+ *
+ * <p>Every loop shares the same pool of threads, so running several loops one after the other
+ * doesn't start a new set of threads each time. If a Body runs a ParallelLoop of its own, that
+ * loop runs in the worker's own thread, since every other worker is busy anyway (and waiting for
+ * them would tie up the pool).
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+ * TaxonDNA
+ * Copyright (C) 2005 Gaurav Vaidya
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package com.ggvaidya.TaxonDNA.Common;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ParallelLoop {
+    /** How often (in milliseconds) we update the DelayCallback while the workers are at it. */
+    private static final int UPDATE_INTERVAL = 100;
+
+    private static ForkJoinPool pool = null;
+
+    /** The body of the loop. Each worker has a Body of its own. */
+    public interface Body {
+        /** Processes item number 'index' (from 0 to count - 1). */
+        void process(int index) throws Exception;
+    }
+
+    /** Returns the pool of threads every ParallelLoop shares, creating it if necessary. */
+    public static synchronized ForkJoinPool getPool() {
+        if (pool == null) pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    /**
+     * How many Bodies should you make for a loop over 'count' items? One per processor, but not
+     * more than there are items (and never less than one).
+     */
+    public static int countWorkers(int count) {
+        int count_workers = Runtime.getRuntime().availableProcessors();
+        if (count_workers > count) count_workers = Math.max(1, count);
+
+        return count_workers;
+    }
+
+    /**
+     * Runs 'bodies' over items 0 to count - 1, telling 'delay' how many of them are done.
+     *
+     * @throws DelayAbortedException if the user aborted the loop.
+     * @throws ExecutionException if a Body failed; getCause() is whatever it threw.
+     */
+    public static void run(int count, Body[] bodies, DelayCallback delay)
+            throws DelayAbortedException, ExecutionException {
+        run(count, null, bodies, delay);
+    }
+
+    /**
+     * Runs 'bodies' over items 0 to count - 1, where item x is 'weights[x]' steps of work (say,
+     * the number of sequences in a genus, or the number of kilobytes in a chunk of a file), and
+     * tells 'delay' how many steps are done.
+     *
+     * @throws DelayAbortedException if the user aborted the loop.
+     * @throws ExecutionException if a Body failed; getCause() is whatever it threw.
+     */
+    public static void run(int count, int[] weights, Body[] bodies, DelayCallback delay)
+            throws DelayAbortedException, ExecutionException {
+        int total = count;
+        if (weights != null) {
+            total = 0;
+            for (int x = 0; x < count; x++) total += weights[x];
+        }
+
+        // are we a Body ourselves? then we'd better do this on our own
+        ForkJoinPool pool = getPool();
+        Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) current).getPool() == pool) {
+            int done = 0;
+            for (int x = 0; x < count; x++) {
+                try {
+                    bodies[0].process(x);
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+
+                done += (weights == null) ? 1 : weights[x];
+                if (delay != null) delay.delay(done, total);
+            }
+            return;
+        }
+
+        Loop loop = new Loop(count, weights, bodies.length);
+
+        DelayAbortedException abort = null;
+        try {
+            for (int x = 0; x < bodies.length; x++) pool.execute(loop.new Worker(bodies[x]));
+
+            // wait for the workers, keeping the user posted all the while
+            boolean done = false;
+            while (!done) {
+                try {
+                    done = loop.finished.await(UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                }
+
+                if (delay != null && !done) delay.delay(loop.done.get(), total);
+            }
+        } catch (DelayAbortedException e) {
+            abort = e;
+        } finally {
+            // if we're leaving early, wait for everybody to stop
+            // before we let anybody else at the data
+            loop.aborted = true;
+            while (loop.finished.getCount() > 0) {
+                try {
+                    loop.finished.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+
+        if (abort != null) throw abort; // get outta here
+        if (loop.failure != null) throw new ExecutionException(loop.failure);
+    }
+
+    /** Everything the workers of one run() share. */
+    private static class Loop {
+        private int count;
+        private int[] weights;
+
+        private AtomicInteger next = new AtomicInteger(0);
+        private AtomicInteger done = new AtomicInteger(0);
+        private CountDownLatch finished;
+        private volatile boolean aborted = false;
+        private volatile Throwable failure = null;
+
+        public Loop(int count, int[] weights, int count_workers) {
+            this.count = count;
+            this.weights = weights;
+
+            finished = new CountDownLatch(count_workers);
+        }
+
+        /** A Worker runs its Body over one item after another, until there aren't any left. */
+        private class Worker implements Runnable {
+            private Body body;
+
+            public Worker(Body body) {
+                this.body = body;
+            }
+
+            public void run() {
+                try {
+                    int index;
+                    while (!aborted && (index = next.getAndIncrement()) < count) {
+                        body.process(index);
+                        done.addAndGet((weights == null) ? 1 : weights[index]);
+                    }
+                } catch (Throwable e) {
+                    synchronized (Loop.this) {
+                        if (failure == null) failure = e;
+                    }
+                    aborted = true; // no point in everybody else carrying on
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * A ProgressCounter keeps track of how much of a job is done, cheaply enough that you can update
+ * it for every single step, from as many threads as you like: nothing is ever locked, and nothing
+ * is displayed. Whoever's displaying the progress (a ProgressDialog, say) looks at the counter
+ * every now and then, and can ask it how quickly the job is going and how long it's likely to take.
+ *
+ * <p>There are two ways of reporting progress: a single thread can set() the number of steps done
+ * so far (which is what DelayCallback.delay() does), or any number of workers can add() steps as
+ * they finish them. Either way, the counter can be abort()ed, which workers can check for with
+ * isAborted() just as cheaply.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+ * TaxonDNA
+ * Copyright (C) 2005 Gaurav Vaidya
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package com.ggvaidya.TaxonDNA.Common;
+
+import java.util.concurrent.atomic.*;
+
+public class ProgressCounter {
+    private volatile long done = 0; // set() by a single thread ...
+    private LongAdder added = new LongAdder(); // ... or add()ed to by many
+    private volatile long total = 0;
+    private volatile boolean aborted = false;
+    private volatile long started = System.nanoTime();
+
+    /** Starts counting all over again, from zero (and not aborted). */
+    public void reset() {
+        done = 0;
+        added.reset();
+        total = 0;
+        aborted = false;
+        started = System.nanoTime();
+    }
+
+    /** Sets the number of steps done so far, and the total number of steps. */
+    public void set(long done, long total) {
+        this.done = done;
+        this.total = total;
+    }
+
+    /** Sets the total number of steps. */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /** Adds 'steps' to the number of steps done. */
+    public void add(long steps) {
+        added.add(steps);
+    }
+
+    /** Adds a single step to the number of steps done. */
+    public void increment() {
+        added.increment();
+    }
+
+    /** Returns the number of steps done so far. */
+    public long getDone() {
+        return done + added.sum();
+    }
+
+    /** Returns the total number of steps. */
+    public long getTotal() {
+        return total;
+    }
+
+    /** Asks everybody working on this job to stop. */
+    public void abort() {
+        aborted = true;
+    }
+
+    /** Has somebody asked us to stop? */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Checks whether somebody has asked us to stop.
+     *
+     * @throws DelayAbortedException if they have
+     */
+    public void checkAborted() throws DelayAbortedException {
+        if (aborted) throw new DelayAbortedException();
+    }
+
+    /** Returns the number of seconds since we started (or were reset). */
+    public double getSecondsElapsed() {
+        return (System.nanoTime() - started) / 1e9;
+    }
+
+    /** Returns the number of steps done per second so far, or 0 if we can't tell yet. */
+    public double getRate() {
+        double elapsed = getSecondsElapsed();
+        if (elapsed <= 0) return 0;
+
+        return getDone() / elapsed;
+    }
+
+    /**
+     * Returns the number of seconds the rest of the job will take if it carries on at the same
+     * rate, or -1 if we can't tell yet.
+     */
+    public double getSecondsLeft() {
+        long done = getDone();
+        long total = this.total;
+        double rate = getRate();
+        if (done <= 0 || total <= 0 || rate <= 0) return -1;
+
+        return Math.max(0, total - done) / rate;
+    }
+
+    /** Returns the percentage of the job done so far (0 if we don't know the total). */
+    public double getPercentage() {
+        long total = this.total;
+        if (total <= 0) return 0;
+
+        return Math.min(100, 100.0 * getDone() / total);
+    }
+
+    /**
+     * Describes how we're doing, along the lines of "42.5% done (1234 of 2900; 350 per second;
+     * about 5 seconds left)".
+     */
+    public String describe() {
+        long done = getDone();
+        long total = this.total;
+
+        StringBuffer buff = new StringBuffer();
+        buff.append(Math.round(getPercentage() * 10) / 10.0).append("% done");
+        buff.append(" (").append(done).append(" of ").append(total);
+
+        double rate = getRate();
+        if (rate > 0) buff.append("; ").append(Math.round(rate)).append(" per second");
+
+        double left = getSecondsLeft();
+        if (left >= 0) buff.append("; about ").append(describeSeconds(left)).append(" left");
+
+        buff.append(")");
+        return buff.toString();
+    }
+
+    /** Describes a number of seconds as something like "5 seconds" or "3 minutes". */
+    public static String describeSeconds(double seconds) {
+        long s = Math.round(seconds);
+
+        if (s < 60) return plural(s, "second");
+        if (s < 3600) return plural((s + 30) / 60, "minute");
+        return Math.round(s / 360.0) / 10.0 + " hours";
+    }
+
+    private static String plural(long n, String unit) {
+        return n + " " + unit + ((n == 1) ? "" : "s");
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * A TaskScheduler runs jobs in the background, a few at a time. Rather than starting a new Thread
+ * every time somebody presses a button (and ending up with five analyses all fighting over the
+ * processors and the pairwise cache), UIExtensions submit() their jobs here, and we run them on a
+ * fixed number of worker threads. Jobs which are waiting their turn are run in order of priority
+ * (INTERACTIVE before BATCH), and then in the order in which they were submitted.
+ *
+ * <p>If the same job (the same name and the same Runnable) is submitted while it's still waiting
+ * its turn, we don't queue it twice: you get the Task which is already waiting. Since the job
+ * hasn't started yet, it'll use whatever settings were in place when it finally does.
+ *
+ * <p>Any Task can be cancel()led. If it's still waiting, it's simply taken off the queue. If it's
+ * running, we abort() every ProgressCounter it has asked us to watch(): the ProgressDialog does
+ * this for you in begin(), so delay() will throw a DelayAbortedException next time it's called,
+ * just as if the user had pressed the 'Abort' button.
+ *
+ * <p>Most of the time, you'll want the shared scheduler (see getShared()).
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+ * TaxonDNA
+ * Copyright (C) 2005 Gaurav Vaidya
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package com.ggvaidya.TaxonDNA.Common;
+
+import java.util.*;
+
+public class TaskScheduler implements Runnable {
+    /** Priority for jobs the user is sitting in front of, waiting for. */
+    public static final int INTERACTIVE = 0;
+
+    /** Priority for jobs which can wait (exports, long batch runs and so on). */
+    public static final int BATCH = 1;
+
+    private static TaskScheduler shared = null;
+
+    // the task each of our worker threads is running
+    private static ThreadLocal<Task> current = new ThreadLocal<Task>();
+
+    private String name;
+    private int count_workers;
+    private int count_started = 0;
+    private long last_id = 0;
+
+    // the Tasks waiting their turn (in the order we'll run them), and the ones being run right now
+    private Vector<Task> pending = new Vector<Task>();
+    private Vector<Task> running = new Vector<Task>();
+
+    /** A job which has been submitted to a TaskScheduler. */
+    public static class Task {
+        /** The Task is waiting its turn. */
+        public static final int PENDING = 0;
+
+        /** The Task is being run. */
+        public static final int RUNNING = 1;
+
+        /** The Task has finished. */
+        public static final int DONE = 2;
+
+        /** The Task was cancelled before it finished. */
+        public static final int CANCELLED = 3;
+
+        private String name;
+        private Runnable job;
+        private int priority;
+        private long id;
+        private volatile int status = PENDING;
+        private volatile boolean cancelled = false;
+        private Vector<ProgressCounter> counters = new Vector<ProgressCounter>();
+
+        private Task(String name, Runnable job, int priority, long id) {
+            this.name = name;
+            this.job = job;
+            this.priority = priority;
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /** Returns PENDING, RUNNING, DONE or CANCELLED. */
+        public int getStatus() {
+            return status;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Returns the ProgressCounter we're watching for this Task, or null if there isn't one. */
+        public synchronized ProgressCounter getCounter() {
+            if (counters.isEmpty()) return null;
+
+            return counters.lastElement();
+        }
+
+        private synchronized void watch(ProgressCounter counter) {
+            if (!counters.contains(counter)) counters.add(counter);
+            if (cancelled) counter.abort();
+        }
+
+        /** Describes this Task, along the lines of "BestMatch (running: 42.5% done ...)". */
+        public String toString() {
+            String state;
+
+            switch (status) {
+                case PENDING:
+                    state = "waiting";
+                    break;
+                case RUNNING:
+                    ProgressCounter counter = getCounter();
+                    if (counter != null && counter.getTotal() > 0)
+                        state = "running: " + counter.describe();
+                    else state = "running";
+                    break;
+                case DONE:
+                    state = "done";
+                    break;
+                default:
+                    state = "cancelled";
+            }
+
+            if (cancelled && status == RUNNING) state = "cancelling";
+            if (priority == BATCH) state = "batch, " + state;
+
+            return name + " (" + state + ")";
+        }
+    }
+
+    /**
+     * Creates a TaskScheduler which runs no more than 'count_workers' jobs at a time. 'name' is
+     * used to name our worker threads.
+     */
+    public TaskScheduler(String name, int count_workers) {
+        this.name = name;
+        this.count_workers = Math.max(1, count_workers);
+    }
+
+    /**
+     * Returns the scheduler shared by the whole program. It only runs one job at a time: the big
+     * analyses already spread themselves over every processor we have (and share a single
+     * ProgressDialog), so running two of them at once only makes both of them slower.
+     */
+    public static synchronized TaskScheduler getShared() {
+        if (shared == null) shared = new TaskScheduler("TaskScheduler", 1);
+        return shared;
+    }
+
+    /**
+     * Submits 'job' to be run as soon as a worker (and the jobs ahead of it) allow. If the same job
+     * (with the same name) is already waiting, we return that Task instead, moving it up to
+     * 'priority' if that's more urgent than it was.
+     */
+    public synchronized Task submit(String name, Runnable job, int priority) {
+        Iterator<Task> i = pending.iterator();
+        while (i.hasNext()) {
+            Task task = i.next();
+
+            if (task.job == job && task.name.equals(name)) {
+                if (priority < task.priority) {
+                    pending.remove(task);
+                    task.priority = priority;
+                    enqueue(task);
+                }
+                return task;
+            }
+        }
+
+        Task task = new Task(name, job, priority, ++last_id);
+        enqueue(task);
+
+        if (count_started < count_workers) {
+            count_started++;
+
+            Thread t = new Thread(this, this.name + " worker " + count_started);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        notifyAll();
+        return task;
+    }
+
+    /** Submits 'job' as an INTERACTIVE job. */
+    public Task submit(String name, Runnable job) {
+        return submit(name, job, INTERACTIVE);
+    }
+
+    // puts 'task' in its place in the queue: after everything as urgent and submitted earlier
+    private void enqueue(Task task) {
+        int x = 0;
+        while (x < pending.size()) {
+            Task t = pending.get(x);
+
+            if (t.priority > task.priority || (t.priority == task.priority && t.id > task.id))
+                break;
+            x++;
+        }
+        pending.add(x, task);
+    }
+
+    /**
+     * Cancels 'task'. If it's still waiting, it'll never be run; if it's running, it'll be stopped
+     * the next time it reports its progress.
+     */
+    public void cancel(Task task) {
+        synchronized (this) {
+            task.cancelled = true;
+
+            if (pending.remove(task)) {
+                task.status = Task.CANCELLED;
+                return;
+            }
+        }
+
+        synchronized (task) {
+            Iterator<ProgressCounter> i = task.counters.iterator();
+            while (i.hasNext()) i.next().abort();
+        }
+    }
+
+    /** Cancels every Task which is waiting or running. */
+    public void cancelAll() {
+        Task[] tasks = getTasks();
+
+        for (int x = 0; x < tasks.length; x++) cancel(tasks[x]);
+    }
+
+    /** Returns every Task which is running, followed by every Task waiting its turn (in order). */
+    public synchronized Task[] getTasks() {
+        Task[] tasks = new Task[running.size() + pending.size()];
+
+        int x = 0;
+        Iterator<Task> i = running.iterator();
+        while (i.hasNext()) tasks[x++] = i.next();
+
+        i = pending.iterator();
+        while (i.hasNext()) tasks[x++] = i.next();
+
+        return tasks;
+    }
+
+    /** Returns the number of Tasks which are waiting their turn. */
+    public synchronized int countPending() {
+        return pending.size();
+    }
+
+    /** Returns the Task the current thread is running, or null if it isn't running one. */
+    public static Task getCurrentTask() {
+        return current.get();
+    }
+
+    /**
+     * Asks us to abort 'counter' if the Task the current thread is running gets cancelled. If the
+     * current thread isn't running a Task, this does nothing.
+     */
+    public static void watch(ProgressCounter counter) {
+        Task task = getCurrentTask();
+
+        if (task != null) task.watch(counter);
+    }
+
+    /** Our worker threads: run the next Task, forever. */
+    public void run() {
+        while (true) {
+            Task task;
+
+            synchronized (this) {
+                while (pending.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // go back to waiting
+                    }
+                }
+
+                task = pending.remove(0);
+                task.status = Task.RUNNING;
+                running.add(task);
+            }
+
+            current.set(task);
+            try {
+                task.job.run();
+            } catch (Throwable e) {
+                // just as if it had been running in a thread of its own
+                System.err.println("Exception in task '" + task.name + "':");
+                e.printStackTrace();
+            } finally {
+                current.set(null);
+
+                synchronized (this) {
+                    running.remove(task);
+                    task.status = (task.cancelled) ? Task.CANCELLED : Task.DONE;
+                }
+            }
+        }
+    }
+}
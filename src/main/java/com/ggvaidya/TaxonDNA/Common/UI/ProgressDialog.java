@@ -17,6 +17,12 @@
  * work is already done, etc. Also, it propagates the idea of the DelayCallback as a pretty throw
  * away sort of thing.
  *
+ * <p>delay() itself is very cheap (it just notes down how far along we are in a ProgressCounter),
+ * so you can call it as often as you like, from whichever thread you like. A timer looks at the
+ * counter ten times a second, and updates the dialog (including how quickly things are going and
+ * how long they're likely to take) on the event dispatch thread, where AWT likes it done. If
+ * several workers are sharing out a job, they can each add to getCounter() directly.
+ *
  * @author Gaurav Vaidya, 2005
  */
 
@@ -44,6 +50,7 @@ package com.ggvaidya.TaxonDNA.Common.UI;
 import com.ggvaidya.TaxonDNA.Common.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
 
 public class ProgressDialog extends Dialog
         implements DelayCallback, ActionListener, Runnable, WindowListener {
@@ -57,7 +64,12 @@ public class ProgressDialog extends Dialog
     private Frame frame = null;
     private String title = null;
 
-    private boolean abort = false;
+    private ProgressCounter counter = new ProgressCounter();
+    private java.util.Timer timer = null; // updates the display while we're running
+    private String last_text = null;
+
+    /** How often (in milliseconds) we update the display. */
+    private static final int UPDATE_INTERVAL = 100;
 
     private ProgressBar pi;
 
@@ -122,6 +134,12 @@ public class ProgressDialog extends Dialog
         	south.add(btnAbort, BorderLayout.EAST);
         }*/
 
+        // we're modal, so this is the only way to get at the task queue while we're up
+        Button btnTasks = new Button("Tasks ...");
+        btnTasks.setActionCommand("Tasks");
+        btnTasks.addActionListener(this);
+        south.add(btnTasks, BorderLayout.EAST);
+
         addWindowListener(this);
 
         add(south, BorderLayout.SOUTH);
@@ -141,7 +159,16 @@ public class ProgressDialog extends Dialog
 
     public void reset() {
         pi.changeIndicator(0, 0);
-        lastPercentage = 0;
+        counter.reset();
+        last_text = null;
+    }
+
+    /**
+     * Returns the ProgressCounter behind this dialog. Workers can add() their steps to it directly
+     * (and check isAborted() on it), rather than going through delay().
+     */
+    public ProgressCounter getCounter() {
+        return counter;
     }
 
     /** Add a warning. All warnings are concatenated and displayed just after end(). */
@@ -153,9 +180,50 @@ public class ProgressDialog extends Dialog
     /** Our begin() creates a new thread for the ProgressDialog to run in. */
     public void begin() {
         // System.err.println("begin() called");
+        counter.reset();
+        last_text = null;
+
+        // if we're running as a TaskScheduler task, cancelling the task aborts us
+        TaskScheduler.watch(counter);
+
+        synchronized (this) {
+            if (timer != null) timer.cancel();
+            timer = new java.util.Timer("Progress Dialog timer", true);
+            timer.schedule(
+                    new TimerTask() {
+                        public void run() {
+                            EventQueue.invokeLater(
+                                    new Runnable() {
+                                        public void run() {
+                                            updateDisplay();
+                                        }
+                                    });
+                        }
+                    },
+                    UPDATE_INTERVAL,
+                    UPDATE_INTERVAL);
+        }
+
         new Thread(this, "Progress Dialog").start();
     }
 
+    /** Updates the dialog from the counter. Only call this on the event dispatch thread! */
+    private void updateDisplay() {
+        if (!isVisible()) return;
+
+        long done = counter.getDone();
+        long total = counter.getTotal();
+
+        String text = message + "\n\n" + counter.describe();
+        if (!text.equals(last_text)) {
+            textarea.setText(text);
+            last_text = text;
+        }
+
+        // the progress bar only takes ints, so we count in tenths of a percent
+        if (total > 0) pi.changeIndicator((int) Math.min(1000, done * 1000 / total), 1000);
+    }
+
     /**
      * Our run() is in a new thread; this allows setVisible to happily block us and the program will
      * continue to run, while still being modal (and blocking input to the mainFrame).
@@ -173,6 +241,11 @@ public class ProgressDialog extends Dialog
      * program.
      */
     public void end() {
+        synchronized (this) {
+            if (timer != null) timer.cancel();
+            timer = null;
+        }
+
         while (!isVisible())
             ;
         setVisible(false);
@@ -192,29 +265,15 @@ public class ProgressDialog extends Dialog
         }
     }
 
-    private float lastPercentage = 0;
-
     /**
-     * The delay function. Right now, we just change our text to report the percentage done, and
-     * inform our ProgressBar about the change.
-     *
-     * <p>Big change: now, WE will handle the reporting, i.e. unless the new fraction is
-     * significantly (0.1%) larger than the last one, we will ignore it. This means EVERYBODY -
-     * effective immediately - must use delay.delay() without going through that interval shit.
+     * The delay function. We only note down how far along we are; the timer started by begin()
+     * takes care of showing it to the user. This means EVERYBODY can call delay.delay() as often
+     * as they like, without going through that interval shit.
      */
     public void delay(int done, int total) throws DelayAbortedException {
-        if (!isVisible()) return;
-
-        // System.err.println("delay(" + done + ", " + total + " called");
-
-        float percentage = (float) done / total * 100;
-        if (percentage == 0 || Math.abs(percentage - lastPercentage) > 0.5) {
-            textarea.setText(message + "\n\nPercentage done: " + percentage + "%");
-            pi.changeIndicator(done, total);
-            lastPercentage = percentage;
-        }
+        counter.set(done, total);
 
-        if (abort) {
+        if (counter.isAborted()) {
             end();
             throw new DelayAbortedException();
         }
@@ -222,14 +281,20 @@ public class ProgressDialog extends Dialog
 
     /**
      * actionPerformed, used to set up a "Cancel" button. Once we actually have a cancel button,
-     * it'll be really cool. We promise.
+     * it'll be really cool. We promise. In the meantime, the "Tasks" button shows the task queue,
+     * from which the running task can be cancelled.
      */
     public void actionPerformed(ActionEvent e) {
-        abort = true;
+        if (e.getActionCommand().equals("Tasks")) {
+            TaskQueueDialog.showQueue(frame);
+            return;
+        }
+
+        counter.abort();
     }
 
     public void windowClosing(WindowEvent e) {
-        abort = true;
+        counter.abort();
     }
 
     public void windowActivated(WindowEvent e) {}
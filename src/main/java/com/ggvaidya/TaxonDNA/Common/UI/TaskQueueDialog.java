@@ -0,0 +1,163 @@
+/**
+ * A (non-modal) dialog which shows what the shared TaskScheduler is up to: which task is running,
+ * how far along it is, and which tasks are waiting their turn. Any of them can be cancelled from
+ * here. The list is updated twice a second for as long as the dialog is visible.
+ *
+ * <p>We're excluded from modality, so that we can still be used while a (modal) ProgressDialog
+ * is up: its "Tasks" button brings us up.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005	Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.Common.UI;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import java.awt.*;
+import java.awt.event.*;
+
+public class TaskQueueDialog extends Dialog implements ActionListener, WindowListener {
+    private static TaskQueueDialog singleton = null;
+
+    private TaskScheduler scheduler;
+    private TaskScheduler.Task[] tasks = new TaskScheduler.Task[0]; // as displayed in list_tasks
+    private java.util.Timer timer = null;
+
+    private java.awt.List list_tasks = new java.awt.List(10, false);
+    private Button btn_Cancel = new Button("Cancel task");
+    private Button btn_CancelAll = new Button("Cancel all");
+    private Button btn_Close = new Button("Close");
+
+    /** How often (in milliseconds) we update the list. */
+    private static final int UPDATE_INTERVAL = 500;
+
+    /** Shows the queue of the shared TaskScheduler, creating the dialog if necessary. */
+    public static void showQueue(Frame f) {
+        if (singleton == null) singleton = new TaskQueueDialog(f, TaskScheduler.getShared());
+
+        singleton.start();
+        singleton.setVisible(true);
+        singleton.toFront();
+    }
+
+    private TaskQueueDialog(Frame f, TaskScheduler scheduler) {
+        super(f, "Background tasks", false);
+        this.scheduler = scheduler;
+
+        // the ProgressDialog is modal, but we still need to be usable while it's up
+        setModalExclusionType(Dialog.ModalExclusionType.APPLICATION_EXCLUDE);
+
+        setLayout(new BorderLayout());
+        add(list_tasks);
+
+        Panel buttons = new Panel();
+        buttons.setLayout(new FlowLayout(FlowLayout.RIGHT));
+
+        btn_Cancel.addActionListener(this);
+        buttons.add(btn_Cancel);
+        btn_CancelAll.addActionListener(this);
+        buttons.add(btn_CancelAll);
+        btn_Close.addActionListener(this);
+        buttons.add(btn_Close);
+
+        add(buttons, BorderLayout.SOUTH);
+
+        addWindowListener(this);
+        pack();
+    }
+
+    /** Starts updating the list. */
+    private synchronized void start() {
+        if (timer != null) return;
+
+        updateList();
+        timer = new java.util.Timer("Task queue timer", true);
+        timer.schedule(
+                new java.util.TimerTask() {
+                    public void run() {
+                        EventQueue.invokeLater(
+                                new Runnable() {
+                                    public void run() {
+                                        updateList();
+                                    }
+                                });
+                    }
+                },
+                UPDATE_INTERVAL,
+                UPDATE_INTERVAL);
+    }
+
+    /** Stops updating the list, and hides the dialog. */
+    private synchronized void stop() {
+        if (timer != null) timer.cancel();
+        timer = null;
+
+        setVisible(false);
+    }
+
+    /** Updates the list from the scheduler. Only call this on the event dispatch thread! */
+    private void updateList() {
+        TaskScheduler.Task selected = null;
+        int index = list_tasks.getSelectedIndex();
+        if (index >= 0 && index < tasks.length) selected = tasks[index];
+
+        tasks = scheduler.getTasks();
+
+        list_tasks.removeAll();
+        if (tasks.length == 0) list_tasks.add("(Nothing is running in the background)");
+
+        for (int x = 0; x < tasks.length; x++) {
+            list_tasks.add(tasks[x].toString());
+            if (tasks[x] == selected) list_tasks.select(x);
+        }
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        if (e.getSource().equals(btn_Cancel)) {
+            int index = list_tasks.getSelectedIndex();
+            if (index >= 0 && index < tasks.length) scheduler.cancel(tasks[index]);
+            updateList();
+        }
+
+        if (e.getSource().equals(btn_CancelAll)) {
+            scheduler.cancelAll();
+            updateList();
+        }
+
+        if (e.getSource().equals(btn_Close)) stop();
+    }
+
+    public void windowActivated(WindowEvent e) {}
+
+    public void windowClosed(WindowEvent e) {}
+
+    public void windowClosing(WindowEvent e) {
+        stop();
+    }
+
+    public void windowDeactivated(WindowEvent e) {}
+
+    public void windowDeiconified(WindowEvent e) {}
+
+    public void windowIconified(WindowEvent e) {}
+
+    public void windowOpened(WindowEvent e) {}
+}
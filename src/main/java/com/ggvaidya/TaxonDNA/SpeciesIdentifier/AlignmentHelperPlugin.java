@@ -63,6 +63,9 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
     Button btn_Export = new Button("Export now!");
     Button btn_Import_Here = new Button("Import into this dataset");
 
+    private static final Pattern p_uniqueid = Pattern.compile("\\[uniqueid:(.*)\\]");
+    private static final Pattern p_uniqueid_all = Pattern.compile("\\[uniqueid:([^\\]]*)\\]");
+
     /** No, no commands to add, thank you very much. */
     public boolean addCommandsToMenu(Menu menu) {
         return false;
@@ -200,15 +203,10 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
      */
     public SequenceList importSequenceSet(SequenceList set_initial, File inputFile) {
         SequenceList set_final = null;
-        SequenceList set_map = new SequenceList(set_initial);
-        // we need to work on set_map,
-        // but can't rewrite the original
-        // (particularly not iMap.remove!)
-        // so cloning it for future use
 
-        // what if we have NO set_map? (i.e. no files loaded into SpeciesIdentifier)
+        // what if we have NO set_initial? (i.e. no files loaded into SpeciesIdentifier)
         // go with nothing at all :) [or an empty list, to be fractionally less poetic]
-        if (set_map == null) set_map = new SequenceList();
+        if (set_initial == null) set_initial = new SequenceList();
 
         FastaFile ff = new com.ggvaidya.TaxonDNA.Common.DNA.formats.FastaFile();
         String error_occured_in = "";
@@ -247,15 +245,23 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
         // a SequenceListException
 
         // the following is a three-step process:
-        // 1.	Go through set_map, fixing the names as you go.
-        // 		i.e. 	see if $no exists in set and fix
-        // 			set a Vector based on what's done
-        // 2.	Go through vector, adding the missing into set_missing
-        // 		(from set_map)
+        // 1.	Index set_initial by GI and by uniqueid, so we can find the
+        // 		original of any sequence without searching through all of them.
+        // 2.	Go through set_final, fixing the names as you go.
+        // 		i.e. 	see if $no exists in the indexes and fix
+        // 			remembering which originals have been used up
+        // 3.	Go through set_initial, adding the missing into set_map
         // Note that this:
         // 1.	Leaves unfixed sequence names as is in set. Which is fine.
         // 2.	? Can't think of any other problems. Let's see.
         //
+        Hashtable<String, Vector<Sequence>> by_gi = new Hashtable<String, Vector<Sequence>>();
+        Hashtable<String, Vector<Sequence>> by_uniqueid = new Hashtable<String, Vector<Sequence>>();
+        indexSequences(set_initial, by_gi, by_uniqueid);
+
+        // UUIDs of the originals we've already mapped
+        Hashtable<UUID, Sequence> used = new Hashtable<UUID, Sequence>();
+
         Pattern pSequenceDDD = Pattern.compile("^seq(.*)$");
         Iterator i = set_final.iterator();
         while (i.hasNext()) {
@@ -272,44 +278,30 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
                 if (!no.isEmpty()) {
                     // it's valid; so let's change.
 
-                    Iterator iMap = set_map.iterator();
-
-                    while (iMap.hasNext()) {
-                        Sequence seq2 = (Sequence) iMap.next();
-
-                        // gi number?
-                        String compareTo = "gi|" + no + "|";
-                        if (seq2.getFullName().indexOf(compareTo) != -1) {
-                            //							System.err.println("Match!: " + seq + ", " + seq2);
-                            seq.changeName(seq2.getFullName());
-                            iMap.remove(); // get rid of this particular map
-                            break;
-                        }
-
-                        // gi number, now with '_'?
-                        compareTo = "gi|" + no + ":";
-                        if (seq2.getFullName().indexOf(compareTo) != -1) {
-                            //							System.err.println("Match!: " + seq + ", " + seq2);
-                            seq.changeName(seq2.getFullName());
-                            iMap.remove(); // get rid of this particular map
-                            break;
-                        }
-
-                        // uniqueid
-                        if (no.length() > 0 && no.charAt(0) == 'U') {
-                            //							System.err.println("Match!: " + seq + ", " + seq2);
-                            compareTo = "[uniqueid:" + no.substring(1) + "]";
-                            if (seq2.getFullName().indexOf(compareTo) != -1) {
-                                seq.changeName(seq2.getFullName());
-                                iMap.remove(); // get rid of this particular map
-                                break;
-                            }
-                        }
+                    // gi number? (with or without the '|' or ':' after it)
+                    Sequence seq2 = findUnused(by_gi.get(no), used);
+
+                    // uniqueid
+                    if (seq2 == null && no.charAt(0) == 'U')
+                        seq2 = findUnused(by_uniqueid.get(no.substring(1)), used);
+
+                    if (seq2 != null) {
+                        seq.changeName(seq2.getFullName());
+                        used.put(seq2.getId(), seq2); // get rid of this particular map
                     }
                 }
             }
         }
 
+        // whatever we didn't use goes into set_map
+        SequenceList set_map = new SequenceList();
+        i = set_initial.iterator();
+        while (i.hasNext()) {
+            Sequence seq = (Sequence) i.next();
+
+            if (used.get(seq.getId()) == null) set_map.add(seq);
+        }
+
         // chuck in set_map
         // wait, no.
         // i'm assuming it's stupid and kinda foolhardy to quash these two together like this:
@@ -329,6 +321,63 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
         return set_final;
     }
 
+    /**
+     * Indexes every sequence in 'list' under every GI ("gi|no|" or "gi|no:") and every uniqueid
+     * ("[uniqueid:no]") in its full name. Each index maps the number to a Vector of Sequences, in
+     * the order in which they appear in 'list'.
+     */
+    private static void indexSequences(
+            SequenceList list,
+            Hashtable<String, Vector<Sequence>> by_gi,
+            Hashtable<String, Vector<Sequence>> by_uniqueid) {
+        Iterator i = list.iterator();
+        while (i.hasNext()) {
+            Sequence seq = (Sequence) i.next();
+            String name = seq.getFullName();
+
+            int from = name.indexOf("gi|");
+            while (from != -1) {
+                int start = from + 3;
+                int end = start;
+                while (end < name.length() && name.charAt(end) != '|' && name.charAt(end) != ':')
+                    end++;
+
+                if (end < name.length()) addToIndex(by_gi, name.substring(start, end), seq);
+
+                from = name.indexOf("gi|", from + 1);
+            }
+
+            Matcher m = p_uniqueid_all.matcher(name);
+            while (m.find()) addToIndex(by_uniqueid, m.group(1), seq);
+        }
+    }
+
+    private static void addToIndex(
+            Hashtable<String, Vector<Sequence>> index, String key, Sequence seq) {
+        Vector<Sequence> v = index.get(key);
+        if (v == null) {
+            v = new Vector<Sequence>();
+            index.put(key, v);
+        }
+
+        if (!v.contains(seq)) v.add(seq);
+    }
+
+    /** Returns the first Sequence in 'candidates' which hasn't been used, or null if none. */
+    private static Sequence findUnused(
+            Vector<Sequence> candidates, Hashtable<UUID, Sequence> used) {
+        if (candidates == null) return null;
+
+        Iterator<Sequence> i = candidates.iterator();
+        while (i.hasNext()) {
+            Sequence seq = i.next();
+
+            if (used.get(seq.getId()) == null) return seq;
+        }
+
+        return null;
+    }
+
     /**
      * This method checks to see if every sequence in the specified SequenceList has a (hopefully
      * unique, and we DO test this) identifier. We assume that GIs are completely unique. We also
@@ -352,8 +401,7 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
             if (id == null || id.isEmpty()) {
                 // no id? no problem! we 'get' the id from the seq
                 // assuming we've given it a uniqueId before ...
-                Pattern p = Pattern.compile("\\[uniqueid:(.*)\\]");
-                Matcher m = p.matcher(seq.getFullName());
+                Matcher m = p_uniqueid.matcher(seq.getFullName());
                 if (m.find()) id = m.group(1);
             }
 
@@ -456,7 +504,7 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
         }
 
         try {
-            output = new PrintWriter(new FileWriter(outputFile));
+            output = new PrintWriter(new BufferedWriter(new FileWriter(outputFile)));
 
             Iterator i = set.iterator();
             int no = 0;
@@ -466,8 +514,7 @@ public class AlignmentHelperPlugin extends Panel implements UIExtension, ActionL
 
                 if (id == null || id.isEmpty()) {
                     // since we've run it thru createUniqueIds(), this is guaranteed to work ...
-                    Pattern p = Pattern.compile("\\[uniqueid:(.*)\\]");
-                    Matcher m = p.matcher(seq.getFullName());
+                    Matcher m = p_uniqueid.matcher(seq.getFullName());
                     if (m.find()) id = "U" + m.group(1);
                     else {
                         System.err.println("Sequence: " + seq.getFullName());
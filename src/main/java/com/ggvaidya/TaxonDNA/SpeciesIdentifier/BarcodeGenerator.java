@@ -110,7 +110,7 @@ public class BarcodeGenerator extends Panel
 
     public void actionPerformed(ActionEvent e) {
         if (e.getSource().equals(calc)) {
-            new Thread(this, "BarcodeGenerator").start();
+            TaskScheduler.getShared().submit("BarcodeGenerator", this);
         }
     }
 
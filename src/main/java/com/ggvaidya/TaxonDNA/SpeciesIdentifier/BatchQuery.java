@@ -0,0 +1,605 @@
+/**
+ * BatchQuery identifies a whole file of unknown sequences against a reference library: for every
+ * query, it finds the best match (and the block of equally close sequences around it), decides
+ * what that makes of the query under "best match" and "best close match", and lists its nearest
+ * neighbours in the library.
+ *
+ * <p>QuerySequence does this for one sequence at a time by sorting the entire library against it,
+ * which is far more work than we need: here, each query is a single pass over the library, keeping
+ * only the closest few matches. Everything we need to know about the library (the sequences
+ * themselves, which species each of them belongs to, and which of their positions count towards an
+ * overlap) is worked out once, when the BatchQuery is created, and shared by all the queries. The
+ * queries are shared out between one worker per processor, and the results are written out, in the
+ * same order as the queries, as soon as each of them is done.
+ *
+ * <p>Ties are broken the way a SortedSequenceList breaks them: sequences conspecific with the query
+ * come first, then sequences in the order they appear in the library. (A SortedSequenceList leaves
+ * sequences without a species name wherever its sort happens to put them; we put them after the
+ * conspecifics, like everything else.) If the query has a species name, we also tell you whether
+ * it was identified correctly, just like BestMatch does.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005 Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.SpeciesIdentifier;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BatchQuery implements Testable {
+    /** The best match is the only sequence (or species) that close to the query. */
+    public static final String UNAMBIGUOUS = "unambiguous";
+
+    /** The best match is in a block of equally close sequences from several species. */
+    public static final String AMBIGUOUS = "ambiguous";
+
+    /** There was nothing to match (or, for best close match, nothing within the threshold). */
+    public static final String NO_MATCH = "no match";
+
+    // the library
+    private Sequence[] references;
+    private OverlapProfile[] profiles;
+    private int[] species_of; // the species number of each reference, or -1 if it has none
+    private Hashtable<String, Integer> species = new Hashtable<String, Integer>();
+
+    private double threshold;
+    private int count_neighbours;
+
+    // the rows which are done, but which can't be written out until the ones before them are
+    private Object[][] pending = null;
+    private int next_to_write = 0;
+    private PrintWriter writer = null;
+
+    /** Only used to run test(); the library is empty. */
+    public BatchQuery() {
+        references = new Sequence[0];
+        profiles = new OverlapProfile[0];
+        species_of = new int[0];
+    }
+
+    /**
+     * Sets up a batch query against the reference library 'library'. We take a copy of the
+     * library, so you can unlock (and change) it once we're done here.
+     *
+     * @param threshold the threshold for best close match, as a fraction (i.e. 0.03 for 3%)
+     * @param count_neighbours the number of nearest neighbours to list for each query
+     */
+    public BatchQuery(SequenceList library, double threshold, int count_neighbours) {
+        if (count_neighbours < 0)
+            throw new IllegalArgumentException(
+                    "Can't list " + count_neighbours + " neighbours of each query!");
+
+        this.threshold = threshold;
+        this.count_neighbours = count_neighbours;
+
+        library.lock();
+        try {
+            references = (Sequence[]) library.toArray(new Sequence[library.count()]);
+        } finally {
+            library.unlock();
+        }
+
+        profiles = new OverlapProfile[references.length];
+        species_of = new int[references.length];
+        for (int x = 0; x < references.length; x++) {
+            profiles[x] = new OverlapProfile(references[x]);
+            species_of[x] = getSpeciesNumber(references[x].getSpeciesName(), true);
+        }
+    }
+
+    /**
+     * Returns the number of species 'name', or -1 if it doesn't have one (or isn't in the
+     * library, and 'add' isn't set).
+     */
+    private int getSpeciesNumber(String name, boolean add) {
+        if (name == null) return -1;
+
+        Integer number = species.get(name);
+        if (number == null) {
+            if (!add) return -1;
+
+            number = Integer.valueOf(species.size());
+            species.put(name, number);
+        }
+
+        return number.intValue();
+    }
+
+    /** Returns the number of sequences in the library. */
+    public int countReferences() {
+        return references.length;
+    }
+
+    /** Returns the number of species in the library. */
+    public int countSpecies() {
+        return species.size();
+    }
+
+    /** Returns the number of nearest neighbours we list for each query. */
+    public int countNeighbours() {
+        return count_neighbours;
+    }
+
+    /** Returns the names of the columns in each row of results. */
+    public String[] getColumns() {
+        Vector<String> columns = new Vector<String>();
+
+        columns.add("query");
+        columns.add("query_species");
+        columns.add("best_match");
+        columns.add("best_match_species");
+        columns.add("distance");
+        columns.add("other_matches_at_distance");
+        columns.add("species_at_distance");
+        columns.add("best_match_identification");
+        columns.add("best_close_match_identification");
+        columns.add("best_match_result");
+        columns.add("best_close_match_result");
+
+        for (int x = 1; x <= count_neighbours; x++) {
+            columns.add("neighbour_" + x);
+            columns.add("neighbour_" + x + "_species");
+            columns.add("neighbour_" + x + "_distance");
+        }
+
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Identifies every sequence in 'queries' against the library. If 'writer' isn't null, the
+     * columns and then the results are written out to it as tab-separated values, in the order of
+     * the queries, as soon as each of them is done.
+     *
+     * @return the results, one row (see getColumns()) per query, in the order of the queries.
+     * @throws DelayAbortedException if the user aborted the queries
+     */
+    public Object[][] run(SequenceList queries, PrintWriter writer, DelayCallback delay)
+            throws DelayAbortedException {
+        Sequence[] sequences;
+
+        queries.lock();
+        try {
+            sequences = (Sequence[]) queries.toArray(new Sequence[queries.count()]);
+        } finally {
+            queries.unlock();
+        }
+
+        return run(sequences, writer, delay);
+    }
+
+    /** Identifies every sequence in 'queries' against the library; see run(SequenceList ...). */
+    public Object[][] run(Sequence[] queries, PrintWriter writer, DelayCallback delay)
+            throws DelayAbortedException {
+        Object[][] rows = new Object[queries.length][];
+
+        pending = rows;
+        next_to_write = 0;
+        this.writer = writer;
+
+        if (writer != null) {
+            writer.println(BatchResults.join(getColumns()));
+            writer.flush();
+        }
+
+        if (delay != null) delay.begin();
+
+        QueryWorker[] workers = new QueryWorker[ParallelLoop.countWorkers(queries.length)];
+        for (int x = 0; x < workers.length; x++) workers[x] = new QueryWorker(queries);
+
+        try {
+            ParallelLoop.run(queries.length, workers, delay);
+        } catch (ExecutionException e) {
+            if (delay != null) delay.end();
+            throw new RuntimeException(
+                    "Error while identifying the queries: " + e.getCause(), e.getCause());
+        }
+
+        if (delay != null) delay.end();
+
+        return rows;
+    }
+
+    /**
+     * Files away the results for query number 'index', and writes out every row we can (i.e. all
+     * the finished rows up to the first one which isn't finished yet).
+     */
+    private synchronized void done(int index, Object[] row) {
+        pending[index] = row;
+
+        if (writer == null) return;
+
+        boolean wrote = false;
+        while (next_to_write < pending.length && pending[next_to_write] != null) {
+            writer.println(BatchResults.join(pending[next_to_write]));
+            next_to_write++;
+            wrote = true;
+        }
+
+        if (wrote) writer.flush();
+    }
+
+    /**
+     * Tests BatchQuery against the old way of identifying a query: sorting the whole library
+     * against it with a SortedSequenceList, and asking Identification what it makes of that.
+     */
+    public void test(TestController testMaster, DelayCallback delay) throws DelayAbortedException {
+        testMaster.begin("SpeciesIdentifier.BatchQuery");
+
+        int old_min_overlap = Sequence.getMinOverlap();
+        Sequence.setMinOverlap(50);
+
+        // a library of a few species, each of which is a handful of mutants of an ancestor of its
+        // own (so there are plenty of ties); some of them are copied under other names (so there
+        // are mixed blocks to find), some are unnamed and some are too short to compare. The
+        // queries are mutants of the library sequences: mostly of the same species, but some
+        // misidentified, some of species not in the library, and some with no name at all.
+        SequenceList library = new SequenceList();
+        Vector<Sequence> queries = new Vector<Sequence>();
+        Random random = new Random(2005);
+        String bases = "ACGT";
+        try {
+            char[] ancestor = new char[120];
+            for (int x = 0; x < ancestor.length; x++) ancestor[x] = bases.charAt(random.nextInt(4));
+
+            for (int species = 0; species < 10; species++) {
+                char[] species_ancestor = (char[]) ancestor.clone();
+                for (int y = 0; y < 8; y++)
+                    species_ancestor[random.nextInt(ancestor.length)] =
+                            bases.charAt(random.nextInt(4));
+
+                for (int x = 0; x < 8; x++) {
+                    char[] seq = (char[]) species_ancestor.clone();
+                    int mutations = random.nextInt(3);
+                    for (int y = 0; y < mutations; y++)
+                        seq[random.nextInt(seq.length)] = bases.charAt(random.nextInt(4));
+                    if (random.nextInt(15) == 0) Arrays.fill(seq, 0, 90, '-');
+
+                    String name = "Testus species" + (char) ('a' + species) + " " + x;
+                    if (random.nextInt(6) == 0) name = "unnamed_" + species + "_" + x;
+                    library.add(new Sequence(name, new String(seq)));
+
+                    if (random.nextInt(10) == 0) {
+                        name = "Testus species" + (char) ('a' + random.nextInt(10)) + " copy";
+                        library.add(new Sequence(name, new String(seq)));
+                    }
+                }
+            }
+
+            while (queries.size() < 40) {
+                Sequence ref = (Sequence) library.get(random.nextInt(library.count()));
+                char[] seq = ref.getSequence().toCharArray();
+                int mutations = 1 + random.nextInt(3);
+                for (int y = 0; y < mutations; y++) {
+                    int at = random.nextInt(seq.length);
+                    if (bases.indexOf(seq[at]) != -1)
+                        seq[at] = bases.charAt((bases.indexOf(seq[at]) + 1) % 4);
+                }
+
+                String name = ref.getFullName() + " query";
+                if (random.nextInt(5) == 0)
+                    name = "Testus species" + (char) ('a' + random.nextInt(12)) + " query";
+                if (random.nextInt(8) == 0) name = "unnamed_query";
+                Sequence query = new Sequence(name, new String(seq));
+
+                // the old way needs the query to come first; so nothing can be identical to it
+                boolean identical = false;
+                for (int x = 0; x < library.count(); x++) {
+                    if (query.getPairwise((Sequence) library.get(x)) == 0) identical = true;
+                }
+                if (!identical) queries.add(query);
+            }
+        } catch (SequenceException e) {
+            testMaster.failed("Could not create the test sequences: " + e);
+            Sequence.setMinOverlap(old_min_overlap);
+            testMaster.done();
+            return;
+        }
+
+        double threshold = 0.015;
+        BatchQuery batch = new BatchQuery(library, threshold, 3);
+        Sequence[] sequences = queries.toArray(new Sequence[queries.size()]);
+
+        StringWriter written = new StringWriter();
+        PrintWriter writer = new PrintWriter(written);
+        Object[][] rows = batch.run(sequences, writer, delay);
+        writer.close();
+
+        // which of several equally close sequences is the best match is checked along with the
+        // other neighbours below; here, we check what the old way made of the match.
+        testMaster.beginTest("Identify queries the same way as the old way");
+        String error = null;
+        for (int x = 0; x < sequences.length && error == null; x++) {
+            Sequence query = sequences[x];
+            Object[] row = rows[x];
+
+            SequenceList with_query = new SequenceList(library);
+            with_query.add(0, query);
+            SortedSequenceList sset = new SortedSequenceList(with_query);
+
+            Identification id = Identification.identify(query, sset, threshold);
+            if (id == null) continue; // no species name, so nothing to identify
+
+            Object[] expected =
+                    new Object[] {
+                        CommandLine.distanceAsPercentage(id.getDistance()),
+                        id.hasMatch() ? Integer.valueOf(id.countOtherMatches()) : null,
+                        Identification.getResultName(id.getBestMatchResult()),
+                        Identification.getResultName(id.getBestCloseMatchResult())
+                    };
+            Object[] actual = new Object[] {row[4], row[5], row[9], row[10]};
+
+            if (!Arrays.equals(expected, actual))
+                error =
+                        "Query "
+                                + x
+                                + " came out as "
+                                + Arrays.asList(actual)
+                                + " instead of "
+                                + Arrays.asList(expected);
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        // a SortedSequenceList's order isn't quite settled when sequences without a species name
+        // are tied with conspecifics, so we check the neighbours against a plain sort instead
+        testMaster.beginTest("Find the nearest neighbours in order, conspecifics first in ties");
+        error = null;
+        for (int x = 0; x < sequences.length && error == null; x++) {
+            final Sequence query = sequences[x];
+            final Vector<Sequence> valid = new Vector<Sequence>();
+            for (int y = 0; y < library.count(); y++) {
+                Sequence seq = (Sequence) library.get(y);
+                if (query.getPairwise(seq) >= 0) valid.add(seq);
+            }
+
+            Vector<Sequence> sorted = new Vector<Sequence>(valid);
+            Collections.sort(
+                    sorted,
+                    new Comparator<Sequence>() {
+                        public int compare(Sequence o1, Sequence o2) {
+                            long diff =
+                                    Settings.makeLongFromDouble(
+                                            query.getPairwise(o1) - query.getPairwise(o2));
+                            if (diff != 0) return (diff < 0) ? -1 : 1;
+
+                            boolean con1 = isConspecific(query, o1);
+                            boolean con2 = isConspecific(query, o2);
+                            if (con1 != con2) return con1 ? -1 : 1;
+
+                            return valid.indexOf(o1) - valid.indexOf(o2);
+                        }
+                    });
+
+            Object best = (sorted.size() > 0) ? sorted.get(0).getFullName() : null;
+            if ((best == null) ? (rows[x][2] != null) : !best.equals(rows[x][2]))
+                error = "The best match for query " + x + " is " + rows[x][2] + ", not " + best;
+
+            for (int y = 0; y < 3 && error == null; y++) {
+                Object expected = null;
+                if (y < sorted.size()) expected = sorted.get(y).getFullName();
+
+                Object actual = rows[x][11 + 3 * y];
+                if ((expected == null) ? (actual != null) : !expected.equals(actual))
+                    error =
+                            "Neighbour "
+                                    + (y + 1)
+                                    + " of query "
+                                    + x
+                                    + " is "
+                                    + actual
+                                    + " instead of "
+                                    + expected;
+            }
+        }
+        if (error == null) testMaster.succeeded();
+        else testMaster.failed(error);
+
+        testMaster.beginTest("Write out every row, in the order of the queries");
+        StringBuffer expected = new StringBuffer();
+        expected.append(BatchResults.join(batch.getColumns()) + "\n");
+        for (int x = 0; x < rows.length; x++) expected.append(BatchResults.join(rows[x]) + "\n");
+        if (expected.toString().equals(written.toString().replaceAll("\r\n", "\n")))
+            testMaster.succeeded();
+        else testMaster.failed("The rows written out aren't the rows returned");
+
+        Sequence.setMinOverlap(old_min_overlap);
+        testMaster.done();
+    }
+
+    /** Do 'query' and 'seq' have the same (non-null) species name? */
+    private static boolean isConspecific(Sequence query, Sequence seq) {
+        String name = query.getSpeciesName();
+        return name != null && name.equals(seq.getSpeciesName());
+    }
+
+    /**
+     * A QueryWorker identifies one query at a time, keeping a few buffers of its own so that it
+     * doesn't need to allocate any for each query.
+     */
+    private class QueryWorker implements ParallelLoop.Body {
+        private Sequence[] queries;
+
+        private double[] distances = new double[references.length];
+
+        // the closest matches so far, closest first
+        private int[] closest = new int[Math.max(1, count_neighbours)];
+        private int count_closest = 0;
+
+        public QueryWorker(Sequence[] queries) {
+            this.queries = queries;
+        }
+
+        /** Identifies query number 'index', and files away its results. */
+        public void process(int index) {
+            done(index, identify(queries[index]));
+        }
+
+        /** Identifies 'query', and returns its row of results. */
+        private Object[] identify(Sequence query) {
+            OverlapProfile profile = new OverlapProfile(query);
+            int query_species = getSpeciesNumber(query.getSpeciesName(), false);
+            int min_overlap = Sequence.getMinOverlap();
+
+            // one pass over the library, keeping the closest matches as we go
+            count_closest = 0;
+            for (int x = 0; x < references.length; x++) {
+                // don't bother with sequences which don't overlap enough
+                if (profile.getOverlap(profiles[x]) < min_overlap) {
+                    distances[x] = -1;
+                    continue;
+                }
+
+                distances[x] = query.getPairwiseNoBuffer(references[x]);
+                if (distances[x] >= 0) consider(x, query_species);
+            }
+
+            Vector<Object> row = new Vector<Object>();
+            row.add(query.getFullName());
+            row.add(query.getSpeciesName());
+
+            if (count_closest == 0) {
+                // nothing to match at all
+                for (int x = 0; x < 5; x++) row.add(null);
+                row.add(NO_MATCH);
+                row.add(NO_MATCH);
+            } else {
+                int best = closest[0];
+                double best_distance = distances[best];
+
+                // which other sequences are exactly as close, and which species are they?
+                int count_others = 0;
+                HashSet<Object> block = new HashSet<Object>();
+                block.add(getSpeciesKey(best));
+                for (int x = 0; x < references.length; x++) {
+                    if (x == best || distances[x] < 0) continue;
+                    if (!Settings.identical(distances[x], best_distance)) continue;
+
+                    count_others++;
+                    block.add(getSpeciesKey(x));
+                }
+
+                String identification = (block.size() > 1) ? AMBIGUOUS : UNAMBIGUOUS;
+
+                row.add(references[best].getFullName());
+                row.add(references[best].getSpeciesName());
+                row.add(CommandLine.distanceAsPercentage(best_distance));
+                row.add(Integer.valueOf(count_others));
+                row.add(Integer.valueOf(block.size()));
+                row.add(identification);
+                row.add((best_distance <= threshold) ? identification : NO_MATCH);
+            }
+
+            // and if we know what the query is, were we right?
+            if (query.getSpeciesName() == null) {
+                row.add(null);
+                row.add(null);
+            } else {
+                int result = getResult(query_species);
+                boolean within = (count_closest > 0 && distances[closest[0]] <= threshold);
+
+                row.add(Identification.getResultName(result));
+                row.add(Identification.getResultName(within ? result : Identification.NO_MATCH));
+            }
+
+            for (int x = 0; x < count_neighbours; x++) {
+                if (x < count_closest) {
+                    Sequence neighbour = references[closest[x]];
+
+                    row.add(neighbour.getFullName());
+                    row.add(neighbour.getSpeciesName());
+                    row.add(CommandLine.distanceAsPercentage(distances[closest[x]]));
+                } else {
+                    row.add(null);
+                    row.add(null);
+                    row.add(null);
+                }
+            }
+
+            return row.toArray();
+        }
+
+        /**
+         * Slots reference 'x' into the list of the closest matches, if it belongs there. Since we
+         * look at the references in order, a reference goes after any which are equally close,
+         * unless it's conspecific with the query and they aren't.
+         */
+        private void consider(int x, int query_species) {
+            int place = count_closest;
+            while (place > 0 && before(x, closest[place - 1], query_species)) place--;
+
+            if (place >= closest.length) return;
+
+            int last = Math.min(count_closest, closest.length - 1);
+            System.arraycopy(closest, place, closest, place + 1, last - place);
+            closest[place] = x;
+
+            if (count_closest < closest.length) count_closest++;
+        }
+
+        /** Should reference 'x' come before reference 'y' (which came before it in the library)? */
+        private boolean before(int x, int y, int query_species) {
+            long diff = Settings.makeLongFromDouble(distances[x] - distances[y]);
+            if (diff != 0) return (diff < 0);
+
+            // prefer conspecifics (over anything else, including sequences without a species
+            // name; otherwise the order would depend on the order we saw them in)
+            return (query_species != -1
+                    && species_of[x] == query_species
+                    && species_of[y] != query_species);
+        }
+
+        /**
+         * Returns something which is the same for two references if and only if they're the same
+         * species; sequences without a species name count as a species of their own.
+         */
+        private Object getSpeciesKey(int x) {
+            if (species_of[x] == -1) return references[x];
+            return Integer.valueOf(species_of[x]);
+        }
+
+        /**
+         * Returns what "best match" makes of a query of species 'query_species', given the
+         * closest matches we've found (see Identification for the rules).
+         */
+        private int getResult(int query_species) {
+            if (count_closest == 0) return Identification.NO_MATCH;
+
+            int best = closest[0];
+
+            // is there anything of another species as close as the best match?
+            for (int x = 0; x < references.length; x++) {
+                if (x == best || distances[x] < 0) continue;
+                if (!Settings.identical(distances[x], distances[best])) continue;
+
+                if (species_of[best] == -1 || species_of[x] != species_of[best])
+                    return Identification.AMBIGUOUS;
+            }
+
+            if (query_species != -1 && species_of[best] == query_species)
+                return Identification.CORRECT;
+            return Identification.INCORRECT;
+        }
+    }
+}
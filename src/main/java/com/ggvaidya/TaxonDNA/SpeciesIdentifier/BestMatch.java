@@ -119,7 +119,7 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
             }
         }
 
-        // Calculate the BestMatch (via new Thread->run(this))
+        // Calculate the BestMatch (via the TaskScheduler->run(this))
         if (e.getSource().equals(btn_recalculate)) {
             // Recalculate!
             btn_recalculate.setLabel("Recalculate!");
@@ -140,7 +140,7 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
             if (threshold == 0) {
                 text_threshold.setText("0.0");
             }
-            new Thread(this, "BestMatch").start();
+            TaskScheduler.getShared().submit("BestMatch", this);
         }
     }
 
@@ -165,6 +165,64 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
         // clear the flag
         processingDone = false;
 
+        // get the new threshold
+        double threshold = Double.parseDouble(text_threshold.getText());
+        text_threshold.setText(String.valueOf(threshold));
+        threshold /= 100;
+
+        // get the sequence set
+        SequenceList set = seqId.lockSequenceList();
+        if (set == null) {
+            text_main.setText("No sequences loaded!");
+            seqId.unlockSequenceList();
+            return;
+        }
+
+        // set up us the ProgressDialog
+        ProgressDialog pd =
+                ProgressDialog.create(
+                        seqId.getFrame(),
+                        "Please wait, doing best match analysis ...",
+                        "The best match analysis is being performed. Sorry for the wait!",
+                        0);
+
+        try {
+            // if nothing has changed since we last did this, we already know the answer
+            String parameters = "threshold=" + threshold;
+            String report =
+                    (String)
+                            ResultCache.getShared()
+                                    .get(ResultCache.getKey("BestMatch", set, parameters));
+
+            if (report == null) {
+                report = getReport(set, threshold, pd);
+                ResultCache.getShared()
+                        .put(
+                                ResultCache.getKey("BestMatch", set, parameters),
+                                report,
+                                ResultCache.getCost(report));
+            }
+
+            text_main.setText(report);
+        } catch (DelayAbortedException e) {
+            dataChanged();
+            seqId.unlockSequenceList();
+            return;
+        }
+
+        seqId.unlockSequenceList();
+        processingDone = true;
+    }
+
+    /**
+     * Carries out a best match/best close match analysis on every sequence in 'set', and returns
+     * the results as a human-readable report. 'threshold' is the threshold for best close match,
+     * as a fraction (i.e. 0.03 for 3%).
+     *
+     * @throws DelayAbortedException if the user aborted the analysis
+     */
+    static String getReport(SequenceList set, double threshold, DelayCallback delay)
+            throws DelayAbortedException {
         // counters
         int x = 0;
 
@@ -192,179 +250,53 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
         // sequence listing
         StringBuffer str_listings = new StringBuffer("Query\tMatch\tIdentification\n");
 
-        // get the new threshold
-        double threshold = Double.parseDouble(text_threshold.getText());
-        text_threshold.setText(String.valueOf(threshold));
-        threshold /= 100;
-
-        // get the sequence set, and figure out its stats
-        SequenceList set = seqId.lockSequenceList();
-        if (set == null) {
-            text_main.setText("No sequences loaded!");
-            seqId.unlockSequenceList();
-            return;
-        }
         SortedSequenceList sset = new SortedSequenceList(set);
-
         total_count_sequences = set.count();
 
-        /*
-        // We need to know what the species summary is.
-        SpeciesDetails sd = null;
-        try {
-        	sd = set.getSpeciesDetails(
-        			ProgressDialog.create(
-        				seqId.getFrame(),
-        				"Please wait, calculating the species details ...",
-        				"I'm calculating the species details for this sequence set. This might take a while. Sorry!"
-        				)
-        			);
-        } catch(DelayAbortedException e) {
-        	seqId.unlockSequenceList();
-        	return;
-        }
-        */
-
-        // set up us the ProgressDialog
-        ProgressDialog pd =
-                ProgressDialog.create(
-                        seqId.getFrame(),
-                        "Please wait, doing best match analysis ...",
-                        "The best match analysis is being performed. Sorry for the wait!",
-                        0);
-
-        pd.begin();
+        if (delay != null) delay.begin();
 
         Iterator i = set.iterator();
-
         while (i.hasNext()) {
             Sequence query = (Sequence) i.next();
-            Sequence first_con = null;
-            Sequence first_allo = null;
 
             // notify user
-            try {
-                pd.delay(x, total_count_sequences);
-            } catch (DelayAbortedException e) {
-                dataChanged();
-                seqId.unlockSequenceList();
-                return;
-            }
+            if (delay != null) delay.delay(x, total_count_sequences);
 
             // increment counter
             x++;
 
-            // but does it have a species name? an analysis is
-            // pretty pointless without a species name!
-            if (query.getSpeciesName() == null) {
+            Identification id = Identification.identify(query, sset, threshold);
+            if (id == null) {
                 count_sequences_without_species_names++;
                 continue;
             }
 
-            // for each query, we run a SortedSequenceSet.
-            try {
-                sset.sortAgainst(query, null);
-            } catch (DelayAbortedException e) {
-                // no DelayCallback
-            }
-
-            // begin processing
-            int count_sequences = sset.count();
-            Sequence bestMatch = sset.get(1);
-
             // add ourselves to the listings
             str_listings.append(query.getDisplayName());
 
-            // is 'bestMatch' valid? If not, we have no_match at all!
-            if (bestMatch == null || bestMatch.getPairwise(query) == -1) {
+            if (!id.hasMatch()) {
                 str_listings.append("\t\tNo match.\n");
                 count_no_matches++;
 
                 continue;
             }
 
-            double bestMatchDistance = bestMatch.getPairwise(query);
-
+            double bestMatchDistance = id.getDistance();
             if (identical(bestMatchDistance, 0)) {
                 count_zero_percent_matches++;
-            }
 
-            // look for a block after the 'best match'
-            boolean clean_block = false;
-            boolean mixed_block = false;
-            int count_bestMatches = 0;
-            for (int y = 2; y < count_sequences; y++) {
-                Sequence match = sset.get(y);
-
-                if (match == null) {
-                    // wtf? shouldn't happen, but say it does.
-                    throw new RuntimeException(
-                            "I ran out of Sequences when looking up "
-                                    + query
-                                    + "! This is a programming error.");
-                }
-
-                if (!identical(match.getPairwise(query), bestMatchDistance)) {
-                    // NOT identical
-                    // we're now out of the block!
-                    break;
-                }
-
-                count_bestMatches++;
-
-                // now, in the block, check whether we're still clean ... or mixed
-                // please note that here (and ONLY here), conspecific and allospecific
-                // refer to whether the sequences in the block are con and allospecific
-                // to the bestMatch, NOT to the query!
-                if (match.getSpeciesName().equals(bestMatch.getSpeciesName())) {
-                    // conspecific
-                    clean_block = true;
-                } else {
-                    // allospecific
-                    mixed_block = true;
-                }
-            }
-
-            // completely independently: check for allo and conspecific matches
-            for (int y = 1; y < count_sequences; y++) {
-                Sequence match = sset.get(y);
-
-                if (match == null) {
-                    // shouldn't happen; say it does.
-                    throw new RuntimeException(
-                            "I ran out of Sequences when looking up "
-                                    + query
-                                    + "! This is a programming error.");
-                }
-
-                // if the match has no species name, we should report this to the Authorities.
-                if (match.getSpeciesName() == null) {
-                    // if the match has no species name, no worries - we'll catch it in the query
-                    // check above
-                    // we ignore it and move on.
-                    continue;
-                }
-
-                if (match.getPairwise(query) >= 0) {
-                    if (first_con == null
-                            && match.getSpeciesName().equals(query.getSpeciesName())) {
-                        // conspecific
-                        first_con = match;
-                        count_seqs_with_valid_conspecific_matches++;
-                    } else if (first_allo == null
-                            && !match.getSpeciesName().equals(query.getSpeciesName())) {
-                        // allospecific
-                        first_allo = match;
-                    }
-
-                    if (first_con != null && first_allo != null) break;
-                }
+                if (id.getBestMatchResult() != Identification.CORRECT) count_allo_at_zero++;
             }
 
             // write down first_con and first_allo into the listings.
+            Sequence first_con = id.getFirstConspecific();
+            Sequence first_allo = id.getFirstAllospecific();
+
             if (first_con == null) {
                 str_listings.append("\tNo conspecific in database\t---\t0");
             } else {
+                count_seqs_with_valid_conspecific_matches++;
+
                 str_listings.append(
                         "\t"
                                 + first_con.getDisplayName()
@@ -386,123 +318,63 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
                                 + query.getSharedLength(first_allo));
             }
 
-            // is it conspecific or allospecific?
-            boolean conspecific = false;
-
-            if (bestMatch.getSpeciesName() != null
-                    && bestMatch.getSpeciesName().equals(query.getSpeciesName()))
-                conspecific = true;
-
             // so: what's the block situation?
-            if (!clean_block && !mixed_block) {
-                // there is NO block. the sequence is decided on its own merit.
-                str_listings.append("\t" + bestMatch.getDisplayName());
-                if (conspecific) {
-                    str_listings.append(
-                            "\tSuccessful match at " + percentage(bestMatchDistance, 1) + "%");
-                    best_match_correct++;
-
-                    if (bestMatchDistance <= threshold) {
-                        best_close_match_correct++;
-                        str_listings.append(" (within threshold)\n");
-                    } else {
-                        best_close_match_nomatch++;
-                        str_listings.append(" (outside threshold)\n");
-                    }
-                } else {
-                    if (identical(bestMatchDistance, 0)) {
-                        count_allo_at_zero++;
-                    }
-
-                    str_listings.append(
-                            "\tIncorrect match at " + percentage(bestMatchDistance, 1) + "%");
-                    best_match_incorrect++;
-
-                    if (bestMatchDistance <= threshold) {
-                        best_close_match_incorrect++;
-                        str_listings.append(" (within threshold)\n");
-                    } else {
-                        best_close_match_nomatch++;
-                        str_listings.append(" (outside threshold)\n");
-                    }
-                }
-            } else if (clean_block && !mixed_block) {
-                // now, bear in mind that you can't actually have BOTH
-                // clean_block and mixed_block. If mixed_block is ON, it's
-                // a mixed_block, and there ain't much you can do about it.
-                //
-                // this is the only other alternative: clean_block WITHOUT mixed_block
-
+            Sequence bestMatch = id.getBestMatch();
+            if (id.isMixedBlock()) {
                 str_listings.append(
                         "\t"
                                 + bestMatch.getDisplayName()
                                 + " and "
-                                + count_bestMatches
-                                + " others");
-                if (conspecific) {
+                                + id.countOtherMatches()
+                                + " others from different species\tMultiple species found at "
+                                + percentage(bestMatchDistance, 1)
+                                + "%, identification with certainty is impossible");
+            } else {
+                if (id.isBlock())
+                    str_listings.append(
+                            "\t"
+                                    + bestMatch.getDisplayName()
+                                    + " and "
+                                    + id.countOtherMatches()
+                                    + " others");
+                else str_listings.append("\t" + bestMatch.getDisplayName());
+
+                if (id.isConspecific())
                     str_listings.append(
                             "\tSuccessful match at " + percentage(bestMatchDistance, 1) + "%");
-                    best_match_correct++;
-
-                    if (bestMatchDistance <= threshold) {
-                        best_close_match_correct++;
-
-                        str_listings.append(" (within threshold)\n");
-                    } else {
-                        best_close_match_nomatch++;
-
-                        str_listings.append(" (outside threshold)\n");
-                    }
-                } else {
-                    if (identical(bestMatchDistance, 0)) {
-                        count_allo_at_zero++;
-                    }
-
+                else
                     str_listings.append(
                             "\tIncorrect match at " + percentage(bestMatchDistance, 1) + "%");
-                    best_match_incorrect++;
-
-                    if (bestMatchDistance <= threshold) {
-                        best_close_match_incorrect++;
-
-                        str_listings.append(" (within threshold)\n");
-                    } else {
-                        best_close_match_nomatch++;
-
-                        str_listings.append(" (outside threshold)\n");
-                    }
-                }
-            } else if (mixed_block) {
-                // mixed blocks
-                // by definition, this is ambiguous all over :).
-                if (identical(bestMatchDistance, 0)) {
-                    count_allo_at_zero++;
-                }
+            }
 
-                str_listings.append(
-                        "\t"
-                                + bestMatch.getDisplayName()
-                                + " and "
-                                + count_bestMatches
-                                + " others from different species\tMultiple species found at "
-                                + percentage(bestMatchDistance, 1)
-                                + "%, identification with certainty is impossible");
-                best_match_ambiguous++;
+            switch (id.getBestMatchResult()) {
+                case Identification.CORRECT:
+                    best_match_correct++;
+                    break;
+                case Identification.AMBIGUOUS:
+                    best_match_ambiguous++;
+                    break;
+                case Identification.INCORRECT:
+                    best_match_incorrect++;
+                    break;
+            }
 
-                if (bestMatchDistance <= threshold) {
+            switch (id.getBestCloseMatchResult()) {
+                case Identification.CORRECT:
+                    best_close_match_correct++;
+                    break;
+                case Identification.AMBIGUOUS:
                     best_close_match_ambiguous++;
-
-                    str_listings.append(" (within threshold)\n");
-                } else {
+                    break;
+                case Identification.INCORRECT:
+                    best_close_match_incorrect++;
+                    break;
+                default:
                     best_close_match_nomatch++;
-
-                    str_listings.append(" (outside threshold)\n");
-                }
-            } else {
-                throw new RuntimeException(
-                        "Programming error: the program is now somewhere where it really shouldn't"
-                                + " be. Please contact the programmer!");
             }
+
+            if (id.isWithinThreshold()) str_listings.append(" (within threshold)\n");
+            else str_listings.append(" (outside threshold)\n");
         }
 
         // Now, since we are NOT counting sequences which matched against NOTHING
@@ -511,7 +383,7 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
         int count_sequences_with_valid_matches =
                 total_count_sequences - count_no_matches - count_sequences_without_species_names;
 
-        text_main.setText(
+        String report =
                 "Sequences:\t"
                         + total_count_sequences
                         + "\n"
@@ -573,19 +445,17 @@ public class BestMatch extends Panel implements UIExtension, ActionListener, Run
                         + percentage(best_close_match_nomatch, count_sequences_with_valid_matches)
                         + "%)"
                         + "\n\n"
-                        + str_listings.toString());
+                        + str_listings.toString();
 
-        pd.end();
+        if (delay != null) delay.end();
 
-        seqId.unlockSequenceList();
-        processingDone = true;
+        return report;
     }
-
-    private double percentage(double x, double y) {
+    private static double percentage(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.percentage(x, y);
     }
 
-    private boolean identical(double x, double y) {
+    private static boolean identical(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.identical(x, y);
     }
 
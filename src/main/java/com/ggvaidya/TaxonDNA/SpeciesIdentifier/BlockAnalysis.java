@@ -156,7 +156,7 @@ public class BlockAnalysis extends Panel
             if (threshold == 0) {
                 text_threshold.setText("0.0");
             }
-            new Thread(this, "BlockAnalysis").start();
+            TaskScheduler.getShared().submit("BlockAnalysis", this);
         }
     }
 
@@ -28,7 +28,7 @@ import java.awt.datatransfer.*; // for clipboard
 import java.awt.event.*;
 import java.util.*;
 
-public class Cluster extends Panel implements UIExtension, ActionListener, ItemListener, Runnable {
+public class Cluster extends Panel implements UIExtension, ActionListener, ItemListener {
     private boolean flag_skipIndivEntries = false;
     private Checkbox check_skipIndivEntries =
             new Checkbox("Generate individual information on every cluster");
@@ -38,11 +38,14 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
 
     private Button btn_MakeClusters = new Button(" Make clusters now! ");
     private TextField text_threshold = new TextField("03.000");
+    private Button btn_Sweep = new Button(" Sweep thresholds ");
+    private TextField text_sweep = new TextField("1-10");
     private java.awt.List list_clusters = new java.awt.List();
     private TextArea text_main = new TextArea();
 
     private double max_pairwise = 0.03;
 
+    private SingleLinkage linkage;
     private Vector clusters;
 
     private Button btn_Copy = new Button("Copy to Clipboard");
@@ -54,6 +57,8 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
     private static final int CHAR_LIMIT_ON_CLUSTER_NAMES =
             30; // err ... hard to explain. go look it up :p
 
+    private static final int SWEEP_CURVE_WIDTH = 50; // characters in a bar of 100%
+
     // helper function
     private double percentage(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.percentage(x, y);
@@ -79,6 +84,14 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
 
         btn_MakeClusters.addActionListener(this);
         rl.add(btn_MakeClusters, RightLayout.BESIDE);
+
+        rl.add(
+                new Label("Or try several thresholds at once (e.g. '1, 2, 5' or '1-10'):"),
+                RightLayout.NEXTLINE);
+        rl.add(text_sweep, RightLayout.BESIDE);
+        rl.add(new Label("%"), RightLayout.BESIDE);
+        btn_Sweep.addActionListener(this);
+        rl.add(btn_Sweep, RightLayout.BESIDE);
         add(settings, BorderLayout.NORTH);
 
         Panel main = new Panel();
@@ -157,22 +170,9 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
         int no_clusters_with_one_species = 0;
         int largest_no_of_species_in_a_cluster = 0;
         double largest_pairwise_distance_observed = 0;
-        SpeciesSummary speciesSummary = null;
         int no_of_clusters_with_all_sequences_for_a_species = 0;
 
-        SpeciesDetails sd = null;
-        try {
-            sd =
-                    set.getSpeciesDetails(
-                            ProgressDialog.create(
-                                    seqId.getFrame(),
-                                    "Please wait, calculating the species details ...",
-                                    "I'm calculating the species details for this sequence set."
-                                            + " This might take a while. Sorry!"));
-        } catch (DelayAbortedException e) {
-            seqId.unlockSequenceList();
-            return;
-        }
+        int[] cluster_types = linkage.getClusterTypes();
 
         System.err.println("1-I");
 
@@ -192,9 +192,7 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             double largest_pairwise = 0;
             int valid_comparisons = 0;
             int valid_comparisons_over = 0;
-            HashMap<String, Integer> hash_species_counts_in_this_cluster =
-                    new HashMap<String, Integer>();
-            boolean bool_containsAllSequencesOfOneSpecies = false;
+            HashSet<String> species_in_this_cluster = new HashSet<String>();
 
             str.append((x + 1) + "\t");
 
@@ -213,26 +211,16 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
                 String spName = seq.getSpeciesName();
                 if (spName == null) spName = "{" + seq.getFullName() + "}";
 
-                if (hash_species_counts_in_this_cluster.get(spName) == null) {
-                    hash_species_counts_in_this_cluster.put(spName, new Integer(1));
-
+                // count the number of clusters each species is found in
+                if (species_in_this_cluster.add(spName)) {
                     if (hash_species.get(spName) == null) {
                         hash_species.put(spName, new Integer(1));
                     } else {
                         hash_species.put(
                                 spName,
-                                new Integer(
-                                        ((Integer) hash_species.get(seq.getSpeciesName()))
-                                                        .intValue()
-                                                + 1));
+                                Integer.valueOf(
+                                        ((Integer) hash_species.get(spName)).intValue() + 1));
                     }
-
-                } else {
-                    hash_species_counts_in_this_cluster.put(
-                            spName,
-                            new Integer(
-                                    ((Integer) hash_species.get(seq.getSpeciesName())).intValue()
-                                            + 1));
                 }
 
                 Iterator i2 = bin.iterator();
@@ -269,107 +257,56 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             if (largest_pairwise > largest_pairwise_distance_observed)
                 largest_pairwise_distance_observed = largest_pairwise;
 
-            if (hash_species_counts_in_this_cluster.keySet().size() == 1) {
-                no_clusters_with_one_species++;
-
-                // now, compare no of seq found for
-                // this one species with the no of
-                // seq available for this species
-                // in the database.
-
-                String speciesName =
-                        ((String) (hash_species_counts_in_this_cluster.keySet().toArray())[0]);
-                // obviously, we can't do this for unknown species
-                if (sd.getSpeciesDetailsByName(speciesName) != null
-                        && sd.getSpeciesDetailsByName(speciesName).getSequencesCount() == bin.size()
-                // Used to be:
-                // sd.getSpeciesDetailsByName(speciesName).getSequencesWithValidConspecificsCount()
-                // ==
-                // bin.size()
-                // but obviously makes no sense at all. Thanks, Michael!
-                ) {
-                    bool_containsAllSequencesOfOneSpecies = true;
-                    no_of_clusters_with_all_sequences_for_a_species++;
-                }
-            }
+            int count_species_in_this_cluster = species_in_this_cluster.size();
+            if (count_species_in_this_cluster == 1) no_clusters_with_one_species++;
 
-            if (hash_species_counts_in_this_cluster.keySet().size()
-                    > largest_no_of_species_in_a_cluster)
-                largest_no_of_species_in_a_cluster =
-                        hash_species_counts_in_this_cluster.keySet().size();
+            if (count_species_in_this_cluster > largest_no_of_species_in_a_cluster)
+                largest_no_of_species_in_a_cluster = count_species_in_this_cluster;
 
             String cluster_status = "";
             SequenceList list_of_consensus = null;
             String cluster_type = null;
             String species_name = null;
 
-            if (hash_species_counts_in_this_cluster.keySet().size() == 1) {
-                // A single species in this cluster!
-
-                // it's either:
-                // 1.	'perfect': all seqs of 1 sp, and EVERY seq of that sp
-                // 2.	'technically split': all seqs of 1 sp, some seqs of that
-                //	species in another cluster, overlap between clusters is
-                //	< min_overlap
-                // 3.	'biologically split': all seqs of 1 sp, some seqs of that
-                //	species in another cluster, overlap between clusters is
-                //	>= min_overlap
-                // 4. 	'technically AND biologically split' all seqs of 1 sp, some
-                //	seqs of that species in another cluster with < min_overlap
-                // 	to this cluster, some in another cluster with >= min_overlap.
-                // 5.	'no species names': none of the sequences in this cluster
-                //	have a species name.
-                //
-                if (bool_containsAllSequencesOfOneSpecies) {
+            // The cluster is either:
+            // 1.	'perfect': all seqs of 1 sp, and EVERY seq of that sp
+            // 2.	'split': all seqs of 1 sp, some seqs of that species in
+            //	another cluster (or, since we can't tell, a sequence without
+            //	a species name).
+            // 3.	'lumped': several species, and EVERY seq of each of them
+            // 4.	'lumped/split': several species, atleast one sequence for
+            //	atleast one of them outside this cluster.
+            //
+            // SingleLinkage has already figured out which is which.
+            switch (cluster_types[x]) {
+                case SingleLinkage.CLUSTER_PERFECT:
+                    no_of_clusters_with_all_sequences_for_a_species++;
+
                     cluster_status = "Perfect\t(contains all sequences of one species)";
                     list_of_consensus = list_consensuses_perfect;
                     cluster_type = "Perfect cluster single species";
+                    species_name = (String) species_in_this_cluster.iterator().next();
+                    break;
 
-                    species_name =
-                            ((String) (hash_species_counts_in_this_cluster.keySet().toArray())[0]);
-                } else {
-                    species_name =
-                            ((String) (hash_species_counts_in_this_cluster.keySet().toArray())[0]);
-                    // so ... now we need to find other clusters containing sp_Name.
-                    // which is pretty hard, considering. sigh.
+                case SingleLinkage.CLUSTER_SPLIT:
                     cluster_status = "Split only"; // One way or another
                     list_of_consensus = list_consensuses_split;
                     cluster_type = "Split cluster single species";
-                }
-            } else {
-                // More than one species in this cluster.
-
-                boolean any_species_has_sequences_missing = false;
-
-                for (String speciesName : hash_species_counts_in_this_cluster.keySet()) {
-                    SpeciesDetail sdet = sd.getSpeciesDetailsByName(speciesName);
+                    species_name = (String) species_in_this_cluster.iterator().next();
+                    break;
 
-                    int count_speciesName_sequences_in_this_cluster =
-                            hash_species_counts_in_this_cluster.get(speciesName).intValue();
-                    int count_speciesName_sequences_in_total = sdet.getSequencesCount();
-
-                    if (count_speciesName_sequences_in_this_cluster
-                            != count_speciesName_sequences_in_total) {
-                        any_species_has_sequences_missing = true;
-                        break;
-                    }
-                }
-
-                if (!any_species_has_sequences_missing) {
-                    // All the sequences for all the species in this cluster
-                    // are in this cluster.
+                case SingleLinkage.CLUSTER_LUMPED:
                     cluster_status = "Lumped only\t(contains multiple species)";
                     list_of_consensus = list_consensuses_lumped;
                     cluster_type = "Lumped cluster multiple species";
                     species_name = "Multiple species";
-                } else {
-                    // Atleast one sequence for atleast one species in this
-                    // cluster is outside this cluster.
+                    break;
+
+                default:
                     cluster_status = "Lumped/Split\t(contains multiple species)";
                     list_of_consensus = list_consensuses_lumped;
                     cluster_type = "Lumped cluster multiple species";
                     species_name = "Multiple species";
-                }
             }
 
             System.err.println("1-N");
@@ -402,7 +339,7 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             str.append(
                     bin.size()
                             + "\t"
-                            + hash_species_counts_in_this_cluster.keySet().size()
+                            + count_species_in_this_cluster
                             + "\t"
                             + percentage(largest_pairwise, 1)
                             + "%\t"
@@ -686,12 +623,13 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             btn_Copy.setLabel("Copy to Clipboard");
         }
 
+        // every press gets a job of its own, with the settings as they were when it was pressed
         if (evt.getSource().equals(btn_MakeClusters)) {
-            flag_skipIndivEntries = !check_skipIndivEntries.getState();
+            final boolean skip_entries = !check_skipIndivEntries.getState();
+            final double threshold;
 
             try {
-                Double d = new Double(text_threshold.getText());
-                max_pairwise = d.doubleValue() / 100;
+                threshold = Double.parseDouble(text_threshold.getText()) / 100;
             } catch (NumberFormatException e) {
                 list_clusters.removeAll();
                 list_clusters.add("Could not process");
@@ -699,8 +637,206 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
                 return;
             }
 
-            new Thread(this, "Cluster").start();
+            TaskScheduler.getShared()
+                    .submit(
+                            "Cluster",
+                            new Runnable() {
+                                public void run() {
+                                    cluster(threshold, skip_entries);
+                                }
+                            });
+        }
+
+        if (evt.getSource().equals(btn_Sweep)) {
+            final double[] thresholds;
+
+            try {
+                thresholds = parseThresholds(text_sweep.getText());
+            } catch (NumberFormatException e) {
+                list_clusters.removeAll();
+                list_clusters.add("Could not process");
+                text_main.setText(
+                        "Please enter the thresholds as a list of numbers (such as '1, 2, 5') or"
+                                + " ranges (such as '1-10', or '1-3:0.5' to go up by 0.5%)");
+                return;
+            }
+
+            TaskScheduler.getShared()
+                    .submit(
+                            "Sweep",
+                            new Runnable() {
+                                public void run() {
+                                    sweep(thresholds);
+                                }
+                            });
+        }
+    }
+
+    /**
+     * Reads a list of thresholds (in percent) from a string, and returns them as fractions. The
+     * thresholds are separated by commas or spaces; 'a-b' means every threshold from 'a' to 'b' in
+     * steps of 1%, and 'a-b:c' in steps of c%. Numbers may have exponents ('1e-3-5e-2:1e-3' is
+     * every threshold from 0.001% to 0.05% in steps of 0.001%).
+     *
+     * @throws NumberFormatException if there's anything in there we don't understand, or no
+     *     thresholds at all.
+     */
+    static double[] parseThresholds(String str) {
+        Vector<Double> thresholds = new Vector<Double>();
+
+        StringTokenizer tok = new StringTokenizer(str, ", \t");
+        while (tok.hasMoreTokens()) {
+            String token = tok.nextToken();
+
+            int dash = findRangeDash(token);
+            if (dash == -1) {
+                thresholds.add(Double.valueOf(Double.parseDouble(token) / 100));
+                continue;
+            }
+
+            double step = 1;
+            int colon = token.indexOf(':', dash);
+            if (colon != -1) {
+                step = Double.parseDouble(token.substring(colon + 1));
+                token = token.substring(0, colon);
+            }
+
+            double from = Double.parseDouble(token.substring(0, dash));
+            double to = Double.parseDouble(token.substring(dash + 1));
+            if (!(step > 0) || from > to)
+                throw new NumberFormatException("Invalid range of thresholds: '" + token + "'");
+
+            // count the steps, so that rounding errors don't lose us the last one
+            long steps = Math.round(Math.floor((to - from) / step + 1e-9));
+            for (long x = 0; x <= steps; x++)
+                thresholds.add(Double.valueOf((from + x * step) / 100));
+        }
+
+        if (thresholds.size() == 0) throw new NumberFormatException("No thresholds specified");
+
+        double[] results = new double[thresholds.size()];
+        for (int x = 0; x < results.length; x++) {
+            results[x] = thresholds.get(x).doubleValue();
+            if (results[x] < 0)
+                throw new NumberFormatException("Invalid threshold: " + results[x] * 100 + "%");
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the index of the '-' separating the two ends of a range in 'token', or -1 if it isn't
+     * a range. A '-' at the very beginning is a minus sign, and one right after an 'e' or 'E' is
+     * part of an exponent, so neither of them count.
+     */
+    private static int findRangeDash(String token) {
+        for (int x = 1; x < token.length(); x++) {
+            if (token.charAt(x) != '-') continue;
+
+            char prev = token.charAt(x - 1);
+            if (prev != 'e' && prev != 'E') return x;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the percentage of species which ended up in a perfect cluster of their own, which is
+     * as good a measure as any of how well the clusters agree with the species names.
+     */
+    static double getSweepAccuracy(SingleLinkage linkage) {
+        if (linkage.countSpecies() == 0) return 0;
+
+        return Settings.percentage(
+                linkage.countClusterTypes()[SingleLinkage.CLUSTER_PERFECT],
+                linkage.countSpecies());
+    }
+
+    /**
+     * Clusters the sequences at each of 'thresholds', and reports on how the clusters compare
+     * with the species names at each threshold: first as a table, then as a rough graph of accuracy
+     * against threshold.
+     */
+    private void sweep(double[] thresholds) {
+        SequenceList set = seqId.lockSequenceList();
+
+        if (set == null) {
+            seqId.unlockSequenceList();
+            text_main.setText("No sequences loaded!");
+            return;
+        }
+
+        text_main.setText("");
+
+        ProgressDialog pb =
+                ProgressDialog.create(
+                        seqId.getFrame(),
+                        "Clustering sequences at " + thresholds.length + " thresholds ...",
+                        "All your sequences are being clustered, please wait ...",
+                        0);
+
+        int count_sequences = set.count();
+        SingleLinkage[] results;
+        try {
+            results = SingleLinkage.sweep(set, thresholds, pb);
+        } catch (DelayAbortedException e) {
+            return;
+        } finally {
+            seqId.unlockSequenceList();
+        }
+
+        StringBuffer str = new StringBuffer("Summary of results\n\n");
+        str.append("Sequences:\t" + count_sequences + "\n");
+        str.append("Species:\t" + results[0].countSpecies() + "\n\n");
+
+        str.append(
+                "Threshold\tClusters\tSingletons\tPerfect\tSplit\tLumped\tLumped/Split"
+                        + "\tAccuracy\n");
+        for (int x = 0; x < results.length; x++) {
+            int[] types = results[x].countClusterTypes();
+
+            str.append(
+                    percentage(results[x].getThreshold(), 1)
+                            + "%\t"
+                            + results[x].count()
+                            + "\t"
+                            + results[x].countSingletons()
+                            + "\t"
+                            + types[SingleLinkage.CLUSTER_PERFECT]
+                            + "\t"
+                            + types[SingleLinkage.CLUSTER_SPLIT]
+                            + "\t"
+                            + types[SingleLinkage.CLUSTER_LUMPED]
+                            + "\t"
+                            + types[SingleLinkage.CLUSTER_LUMPED_SPLIT]
+                            + "\t"
+                            + getSweepAccuracy(results[x])
+                            + "%\n");
+        }
+
+        str.append(
+                "\n\nAccuracy (percentage of species in a perfect cluster) against threshold\n\n");
+        for (int x = 0; x < results.length; x++) {
+            double accuracy = getSweepAccuracy(results[x]);
+
+            StringBuffer bar = new StringBuffer();
+            int length = (int) Math.round(accuracy * SWEEP_CURVE_WIDTH / 100);
+            for (int y = 0; y < length; y++) bar.append('#');
+
+            str.append(
+                    percentage(results[x].getThreshold(), 1)
+                            + "%\t|"
+                            + bar
+                            + " "
+                            + accuracy
+                            + "%\n");
         }
+
+        item_strings = new String[] {str.toString()};
+
+        list_clusters.removeAll();
+        list_clusters.add("Threshold sweep");
+        selectItem(0);
     }
 
     /**
@@ -708,37 +844,12 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
      * PURELY based on the pairwise distance between sequences -- it is NOT in any way hierarchical
      * or representative of phylogenetic relationships.
      *
-     * <p>The algorithm we use can be simplified to a maximum pairwise threshold of `max_pairwise`:
-     * 1. Start with an empty vector of clusters, `clusters`. 2. For every sequence `seq` loaded
-     * into SpeciesIdentifier, assign it to the first cluster that includes a sequence `compare`
-     * that has a valid pairwise distance less than or equal to the threshold `max_pairwise`. - If
-     * there are multiple clusters that meet this property, merge all of them into the first
-     * matching cluster.
-     *
-     * <p>A more detailed description of the algorithm for a maximum pairwise threshold of
-     * `max_pairwise`: 1. Make an empty list of clusters called `clusters`. 2. For every sequence
-     * `seq` loaded into SpeciesIdentifier: 1. Create an uninitialized vector called
-     * `accumulating_cluster`. 2. For every vector `current_cluster`, which is a cluster inside
-     * `clusters` at index `cluster_index`: 1. For every sequence `compare` inside cluster
-     * `current_cluster`: 1. If sequence `seq` and `compare` do not have a valid pairwise distance
-     * (e.g. if they have insufficient overlap, or if one of the sequences in invalid), then
-     * continue on to the next sequence. 2. If sequence `seq` and `compare` have a pairwise distance
-     * less than or equal to `max_pairwise`: 1. If `accumulating_cluster` has not yet been set: 1.
-     * Add `seq` to `current_cluster`. 2. Set `accumulating_cluster` to `current_cluster`. 3. Skip
-     * the remaining sequences in this cluster (by setting `current_sequence` to 0) and continue on
-     * to the next cluster as `current_cluster`. 2. Else if `accumulating_cluster` has been set: 1.
-     * Add every sequence in `current_cluster` into `accumulating_cluster`. 2. Delete
-     * `current_cluster` from the vector `clusters`. 3. Skip the remaining sequences in this cluster
-     * (by setting `current_sequence` to 0) and continue on to the next cluster as
-     * `current_cluster`. 3. If by this point the vector `accumulating_cluster` has not been set,
-     * that means that none of the clusters in `clusters` is within the pairwise distance threshold
-     * of `seq`. 1. Create a new cluster for this sequence and add it to the end of `clusters`. 2.
-     * Continue on to the next sequence as `seq`.
-     *
-     * <p>This is not a very elegant algorithm, but I was only an undergraduate biology student at
-     * the time.
+     * <p>Two sequences are in the same cluster if there's a chain of sequences between them, each
+     * within `threshold` of the next (i.e. single linkage clustering). SingleLinkage does the
+     * actual work; see there for the details. If 'skip_entries' is set, we don't list the
+     * individual clusters.
      */
-    public void run() {
+    private void cluster(double threshold, boolean skip_entries) {
         set = seqId.lockSequenceList();
 
         if (set == null) {
@@ -749,6 +860,10 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             return;
         }
 
+        // the report is written up from these, so only set them once we've got the list
+        max_pairwise = threshold;
+        flag_skipIndivEntries = skip_entries;
+
         System.err.println("1-A");
 
         ProgressDialog pb =
@@ -758,8 +873,6 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
                         "All your sequences are being clustered, please wait ...",
                         0);
 
-        pb.begin();
-
         text_main.setText("");
 
         clusters = new Vector();
@@ -768,102 +881,13 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
         list_consensuses_split = new SequenceList();
 
         if (set != null) {
-            Iterator iter = set.iterator();
-            int c = 0;
-            while (iter.hasNext()) {
-                // Go to the next sequence in our sequence list.
-                Sequence seq = (Sequence) iter.next();
-
-                // As we go through the clusters, we'll designate the first one within the
-                // max_pairwise threshold as
-                // `accumulating_cluster` -- if we find others, we'll merge them into this cluster
-                // by (1) adding all
-                // their sequences to `accumulating_cluster`, and then (2) deleting them from
-                // `clusters`.
-                Vector accumulating_cluster = null;
-
-                // Let the ProgressDialog know about our progress.
-                try {
-                    pb.delay(c, set.count());
-                } catch (DelayAbortedException e) {
-                    seqId.unlockSequenceList();
-                    return;
-                }
-
-                c++; // only used to drive the pb.delay
-
-                // Iterate through all the clusters in `clusters`.
-                int cluster_index = clusters.size();
-                while (cluster_index > 0) {
-                    cluster_index--;
-
-                    // This is the current cluster in `clusters` that we're iterating through.
-                    Vector current_cluster = (Vector) clusters.get(cluster_index);
-
-                    // Go through every sequence in `current_cluster`. Note that we iterate
-                    // backwards through
-                    // this list. This allows us to break out of it very easily by setting
-                    // current_sequence = 0.
-                    // Why not just use `break`? You'll have to ask 2005 me if you can find me, but
-                    // probably there
-                    // was another loop in here at some point.
-                    int current_sequence = current_cluster.size();
-                    while (current_sequence > 0) {
-                        current_sequence--;
-
-                        Sequence compare = (Sequence) current_cluster.get(current_sequence);
-
-                        // Ignore this comparison if there isn't a valid pairwise difference (e.g.
-                        // if there is insufficient
-                        // overlap, or one of the sequences is invalid).
-                        if (seq.getPairwise(compare) < 0) continue;
-
-                        // If `compare` is within the max_pairwise threshold of `seq`:
-                        if (seq.getPairwise(compare) <= max_pairwise) {
-                            if (accumulating_cluster == null) {
-                                // This is the first cluster we have come across that is within the
-                                // pairwise distance
-                                // threshold. We therefore designate it as the accumulating_cluster
-                                // and add the current
-                                // sequence to it.
-                                current_cluster.add(seq);
-                                accumulating_cluster = current_cluster;
-
-                                // Break to the next cluster.
-                                current_sequence = 0;
-                            } else {
-                                // We have already found an accumulating cluster for this sequence,
-                                // but now we've
-                                // found another that is within the threshold! Since this sequence
-                                // connects these
-                                // two clusters together, we will copy all of its sequences into the
-                                // accumulating_cluster
-                                // and then delete the `current_cluster` from `clusters`.
-                                Iterator i = current_cluster.iterator();
-
-                                while (i.hasNext()) {
-                                    accumulating_cluster.add(i.next());
-                                }
-
-                                clusters.remove(current_cluster);
-
-                                // Break to the next cluster.
-                                current_sequence = 0; // i.e. break out of inner loop
-                            }
-                        }
-                    }
-                }
-
-                if (accumulating_cluster == null) {
-                    // If we've reached here, then `seq` was not within the pairwise distance
-                    // threshold of any of the
-                    // clusters we have at present. We therefore create a new cluster just for it,
-                    // and add it to the
-                    // end of `clusters`.
-                    Vector vec = new Vector();
-                    vec.add(seq);
-                    clusters.add(vec);
-                }
+            // SingleLinkage will begin() and end() the ProgressDialog itself
+            try {
+                linkage = new SingleLinkage(set, max_pairwise, pb);
+                clusters = linkage.getClusters();
+            } catch (DelayAbortedException e) {
+                seqId.unlockSequenceList();
+                return;
             }
 
             // now all the sequences have been clustered
@@ -875,13 +899,6 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             Iterator i = clusters.iterator();
             int x = 0;
             while (i.hasNext()) {
-                try {
-                    pb.delay(x, clusters.size());
-                } catch (DelayAbortedException e) {
-                    seqId.unlockSequenceList();
-                    return;
-                }
-
                 Vector v = (Vector) i.next();
 
                 StringBuffer name = new StringBuffer("Cluster " + (++x) + " (");
@@ -918,8 +935,6 @@ public class Cluster extends Panel implements UIExtension, ActionListener, ItemL
             }
         }
 
-        pb.end();
-
         System.err.println("1-C");
 
         pb =
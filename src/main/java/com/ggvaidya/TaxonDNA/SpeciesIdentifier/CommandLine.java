@@ -9,6 +9,11 @@
  * SpeciesIdentifier to set up a normal SpeciesIdentifier object, create multiple SpeciesIdentifier
  * objects, or directly interface with the SpeciesIdentifier.* objects to carry out the analyses.
  *
+ * <p>If an analysis is specified (with '--analysis'), we run in 'batch mode' instead: the input
+ * file is analysed without ever opening a window (or even initialising AWT, so this works on
+ * machines without a display), progress is reported on stderr, and the results are written out as
+ * tab-separated values or JSON. Run with '--help' for the details.
+ *
  * <p>When eventually I get to finishing up this module, it might help to look up Java's guidelines
  * on POSIX-compliant command line arguments at:
  * http://java.sun.com/docs/books/tutorial/essential/attributes/_posix.html They're short and
@@ -38,12 +43,33 @@
 
 package com.ggvaidya.TaxonDNA.SpeciesIdentifier;
 
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.*;
 import java.io.*;
 import java.util.*;
 
 public class CommandLine {
-    LinkedList files = new LinkedList(); // files specified to be opened (List of Files)
-    LinkedList unknown = new LinkedList(); // unknown arguments (List of Strings)
+    LinkedList<File> files = new LinkedList<File>(); // files specified to be opened
+    LinkedList<String> unknown = new LinkedList<String>(); // unknown arguments
+    Hashtable<String, String> options = new Hashtable<String, String>(); // '--option value' pairs
+
+    /** Options which take a value (as '--option value' or '--option=value'). */
+    private static final String[] OPTIONS_WITH_VALUES = {
+        "analysis", "threshold", "thresholds", "input", "output", "format", "queries", "top",
+        "port"
+    };
+
+    /** Options which don't take a value. */
+    private static final String[] FLAGS = {"sketch", "quiet", "help"};
+
+    /** The threshold we use when nobody tells us otherwise (same as the user interface). */
+    private static final double DEFAULT_THRESHOLD = 3.0;
+
+    /** The number of nearest neighbours we list for each query when nobody tells us otherwise. */
+    private static final int DEFAULT_TOP = 5;
+
+    /** The port the identification server listens on when nobody tells us otherwise. */
+    private static final int DEFAULT_PORT = 8470;
 
     /**
      * Creates a CommandLine object, by parsing the command line. The execute function then 'makes
@@ -53,6 +79,36 @@ public class CommandLine {
         for (int x = 0; x < args.length; x++) {
             String arg = args[x];
 
+            // is it an option?
+            if (arg.startsWith("--")) {
+                String name = arg.substring(2);
+                String value = null;
+
+                int index = name.indexOf('=');
+                if (index != -1) {
+                    value = name.substring(index + 1);
+                    name = name.substring(0, index);
+                }
+
+                if (Arrays.asList(FLAGS).contains(name) && value == null) {
+                    options.put(name, "yes");
+                    continue;
+                }
+
+                if (Arrays.asList(OPTIONS_WITH_VALUES).contains(name)) {
+                    if (value == null && x + 1 < args.length) value = args[++x];
+
+                    if (value != null) {
+                        options.put(name, value);
+                        continue;
+                    }
+                }
+
+                // no? then it's unknown!
+                unknown.add(arg);
+                continue;
+            }
+
             // if we don't know what it is, assume it's a file
             File f = new File(arg);
             if (f.exists()) {
@@ -67,10 +123,9 @@ public class CommandLine {
 
     /** Uses the information gathered from parsing the command line to do stuff. */
     public void execute() {
-        boolean inGuiMode = true;
-
         // Are we in 'command line' mode or 'GUI' mode?
-        // For now, there's only GUI mode
+        // If somebody asked for an analysis (or for help), it's command line mode.
+        boolean inGuiMode = !options.containsKey("analysis") && !options.containsKey("help");
 
         if (inGuiMode) {
             // warn the user about unknown options
@@ -85,6 +140,8 @@ public class CommandLine {
                     td.loadFile((File) i.next(), null);
                 }
             }
+        } else {
+            System.exit(executeBatch());
         }
     }
 
@@ -92,4 +149,799 @@ public class CommandLine {
         CommandLine cl = new CommandLine(args);
         cl.execute();
     }
+
+    //
+    //	BATCH MODE. Runs a single analysis on a single file, and writes the results out in a
+    //	format another program can read. Nothing in here may touch a window, a dialog or anything
+    //	else from AWT: we need to work on machines without a display.
+    //
+
+    /** Prints out the usage information. */
+    private static void printUsage(PrintStream out) {
+        out.println(
+                "Usage: SpeciesIdentifier [files ...]\n"
+                        + "       SpeciesIdentifier --analysis <analysis> --input <file>"
+                        + " [options]\n"
+                        + "\n"
+                        + "Without an --analysis, the files are opened in SpeciesIdentifier.\n"
+                        + "With one, the analysis is run without opening any windows, and the\n"
+                        + "results are written out.\n"
+                        + "\n"
+                        + "Analyses:\n"
+                        + "  bestmatch       Best match and best close match for every sequence\n"
+                        + "                  (also available as 'bestclosematch')\n"
+                        + "  cluster         Clusters the sequences at the threshold\n"
+                        + "  sweep           Clusters the sequences at each of the --thresholds,"
+                        + " and\n"
+                        + "                  compares the clusters with the species names\n"
+                        + "  pairwise        Pairwise summary of intra- and interspecific"
+                        + " distances\n"
+                        + "  query           Identifies every sequence in the --queries file"
+                        + " against\n"
+                        + "                  the input file (best match, best close match and"
+                        + " the\n"
+                        + "                  --top nearest neighbours)\n"
+                        + "  serve           Keeps the input file loaded as a reference library,"
+                        + " and\n"
+                        + "                  identifies sequences POSTed to"
+                        + " http://127.0.0.1:<port>/identify\n"
+                        + "                  (see also /reload and /stats) until stopped\n"
+                        + "\n"
+                        + "Options:\n"
+                        + "  --input <file>      the file to analyse (in any format"
+                        + " SpeciesIdentifier can read)\n"
+                        + "  --output <file>     where to write the results (default: standard"
+                        + " output)\n"
+                        + "  --format tsv|json   output format (default: json if the output file"
+                        + " ends\n"
+                        + "                      in '.json', tsv otherwise)\n"
+                        + "  --threshold <n>     threshold in percent for best close match and"
+                        + " cluster\n"
+                        + "                      (default: "
+                        + DEFAULT_THRESHOLD
+                        + "); 'auto' uses the five percent\n"
+                        + "                      intraspecific cutoff from the pairwise summary\n"
+                        + "  --thresholds <list> thresholds in percent for sweep, such as '1,2,5'"
+                        + " or\n"
+                        + "                      '1-10' or '1-3:0.5' (default: 1-10)\n"
+                        + "  --queries <file>    the sequences to identify in a query analysis\n"
+                        + "  --top <n>           the number of nearest neighbours to list for each"
+                        + "\n"
+                        + "                      query (default: "
+                        + DEFAULT_TOP
+                        + ")\n"
+                        + "  --port <n>          the port to serve on (default: "
+                        + DEFAULT_PORT
+                        + ")\n"
+                        + "  --sketch            approximate pairwise distances to save memory\n"
+                        + "  --quiet             don't report progress on standard error\n"
+                        + "  --help              print this message\n"
+                        + "\n"
+                        + "Exits with 0 on success, 1 if the analysis failed and 2 if the command"
+                        + " line\nwas wrong.");
+    }
+
+    /** Returns the value of option 'name', or 'def' if it wasn't specified. */
+    private String getOption(String name, String def) {
+        String value = options.get(name);
+        if (value == null) return def;
+        return value;
+    }
+
+    /** Returns a DelayCallback to report on 'title', or null if we've been asked to be quiet. */
+    private DelayCallback getDelay(String title) {
+        if (options.containsKey("quiet")) return null;
+        return new ConsoleDelayCallback(title);
+    }
+
+    /** Complains about the command line, and returns the exit status to use. */
+    private static int usageError(String message) {
+        System.err.println("Error: " + message);
+        System.err.println("Try '--help' for more information.");
+        return 2;
+    }
+
+    /**
+     * Runs the analysis specified on the command line.
+     *
+     * @return the exit status: 0 if everything went well, 1 if the analysis failed, 2 if we
+     *     couldn't make sense of the command line.
+     */
+    private int executeBatch() {
+        // make sure nothing we call tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        if (options.containsKey("help")) {
+            printUsage(System.out);
+            return 0;
+        }
+
+        if (!unknown.isEmpty())
+            return usageError("I don't understand the argument(s): " + unknown);
+
+        // what are we analysing?
+        if (options.containsKey("input")) files.add(new File(options.get("input")));
+
+        if (files.isEmpty()) return usageError("No input file specified.");
+        if (files.size() > 1)
+            return usageError(
+                    "Only one input file can be analysed at a time, but "
+                            + files.size()
+                            + " were specified.");
+
+        File input = (File) files.getFirst();
+        if (!input.canRead()) return usageError("Can't read input file '" + input + "'.");
+
+        // how?
+        String analysis = getOption("analysis", "").toLowerCase();
+        if (analysis.equals("bestclosematch")) analysis = "bestmatch";
+        if (analysis.equals("pairwisesummary")) analysis = "pairwise";
+
+        if (!analysis.equals("bestmatch")
+                && !analysis.equals("cluster")
+                && !analysis.equals("sweep")
+                && !analysis.equals("pairwise")
+                && !analysis.equals("query")
+                && !analysis.equals("serve"))
+            return usageError("Unknown analysis '" + getOption("analysis", "") + "'.");
+
+        String output = getOption("output", "-");
+        String format = getOption("format", output.endsWith(".json") ? "json" : "tsv");
+        format = format.toLowerCase();
+        if (!format.equals("tsv") && !format.equals("json"))
+            return usageError("Unknown output format '" + format + "'.");
+
+        String str_threshold = getOption("threshold", String.valueOf(DEFAULT_THRESHOLD));
+        double threshold = -1;
+        if (!str_threshold.equalsIgnoreCase("auto")) {
+            try {
+                threshold = Double.parseDouble(str_threshold);
+            } catch (NumberFormatException e) {
+                threshold = -1;
+            }
+
+            if (!(threshold >= 0))
+                return usageError(
+                        "The threshold must be 'auto' or a percentage, not '"
+                                + str_threshold
+                                + "'.");
+        }
+
+        double[] thresholds = null;
+        if (analysis.equals("sweep")) {
+            try {
+                thresholds = Cluster.parseThresholds(getOption("thresholds", "1-10"));
+            } catch (NumberFormatException e) {
+                return usageError(
+                        "The thresholds must be a list of percentages or ranges, not '"
+                                + getOption("thresholds", "")
+                                + "'.");
+            }
+        }
+
+        File queries_file = null;
+        if (analysis.equals("query")) {
+            if (!options.containsKey("queries")) return usageError("No queries file specified.");
+
+            queries_file = new File(getOption("queries", ""));
+            if (!queries_file.canRead())
+                return usageError("Can't read queries file '" + queries_file + "'.");
+        }
+
+        int top = DEFAULT_TOP;
+        if (analysis.equals("query") || analysis.equals("serve")) {
+            try {
+                top = Integer.parseInt(getOption("top", String.valueOf(DEFAULT_TOP)));
+            } catch (NumberFormatException e) {
+                top = -1;
+            }
+
+            if (top < 0)
+                return usageError(
+                        "The number of neighbours must be a number, not '"
+                                + getOption("top", "")
+                                + "'.");
+        }
+
+        int port = DEFAULT_PORT;
+        if (analysis.equals("serve")) {
+            try {
+                port = Integer.parseInt(getOption("port", String.valueOf(DEFAULT_PORT)));
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+
+            if (port < 0 || port > 65535)
+                return usageError(
+                        "The port must be a number, not '" + getOption("port", "") + "'.");
+        }
+
+        int mode = PairwiseDistribution.PD_EXACT;
+        if (options.containsKey("sketch")) mode = PairwiseDistribution.PD_SKETCH;
+
+        // now we're ready to begin
+        BatchResults results = new BatchResults();
+        results.addSummary("input", input.getPath());
+        results.addSummary("analysis", analysis);
+
+        try {
+            SequenceList set = SequenceList.readFile(input, getDelay("Reading " + input.getName()));
+            results.addSummary("sequences", Integer.valueOf(set.count()));
+
+            // we need the pairwise distributions for the pairwise summary, or to figure out
+            // the threshold for ourselves.
+            PairwiseDistribution intra = null;
+            PairwiseDistribution inter = null;
+            if (analysis.equals("pairwise") || threshold < 0) {
+                intra =
+                        new PairwiseDistribution(
+                                set,
+                                PairwiseDistribution.PD_INTRA,
+                                mode,
+                                getDelay("Calculating intraspecific distances"));
+                inter =
+                        new PairwiseDistribution(
+                                set,
+                                PairwiseDistribution.PD_INTER,
+                                mode,
+                                getDelay("Calculating interspecific, congeneric distances"));
+            }
+
+            if (threshold < 0) {
+                // go through a String, just like the user interface does, so that we use
+                // (and report) exactly the cutoff the pairwise summary shows
+                float cutoff = PairwiseSummary.calculateFivePercentCutoff(intra, inter);
+                threshold = Double.parseDouble(String.valueOf(cutoff));
+
+                if (threshold < 0) {
+                    System.err.println(
+                            "Warning: there aren't enough intra- and interspecific distances to"
+                                    + " work out a threshold; using the default of "
+                                    + DEFAULT_THRESHOLD
+                                    + "% instead.");
+                    threshold = DEFAULT_THRESHOLD;
+                }
+            }
+
+            if (analysis.equals("bestmatch")) {
+                results.addSummary("threshold", Double.valueOf(threshold));
+                batchBestMatch(results, set, threshold / 100);
+            } else if (analysis.equals("cluster")) {
+                results.addSummary("threshold", Double.valueOf(threshold));
+                batchCluster(results, set, threshold / 100);
+            } else if (analysis.equals("sweep")) {
+                batchSweep(results, set, thresholds);
+            } else if (analysis.equals("query")) {
+                results.addSummary("threshold", Double.valueOf(threshold));
+                results.addSummary("neighbours", Integer.valueOf(top));
+
+                SequenceList queries;
+                try {
+                    queries =
+                            SequenceList.readFile(
+                                    queries_file, getDelay("Reading " + queries_file.getName()));
+                } catch (SequenceListException e) {
+                    System.err.println(
+                            "Error: could not read '" + queries_file + "': " + e.getMessage());
+                    return 1;
+                }
+                results.addSummary("queries", Integer.valueOf(queries.count()));
+
+                BatchQuery batch = new BatchQuery(set, threshold / 100, top);
+                if (format.equals("tsv")) {
+                    // write each query out as soon as it's done, rather than all at the end
+                    return batchQuery(results, batch, queries, output);
+                }
+
+                results.setColumns(batch.getColumns());
+                Object[][] rows = batch.run(queries, null, getDelay("Identifying queries"));
+                for (int x = 0; x < rows.length; x++) results.addRow(rows[x]);
+            } else if (analysis.equals("serve")) {
+                return batchServe(input, set, threshold, top, port);
+            } else {
+                batchPairwiseSummary(results, set, intra, inter);
+            }
+        } catch (SequenceListException e) {
+            System.err.println("Error: could not read '" + input + "': " + e.getMessage());
+            return 1;
+        } catch (DelayAbortedException e) {
+            // shouldn't happen, since nobody can press 'Cancel'; but say it does.
+            System.err.println("Error: the analysis was aborted.");
+            return 1;
+        }
+
+        // write it all out
+        try {
+            PrintWriter pw = openOutput(output);
+
+            if (format.equals("json")) results.writeJSON(pw);
+            else results.writeTSV(pw);
+
+            closeOutput(pw, output);
+        } catch (IOException e) {
+            System.err.println("Error: could not write the results: " + e.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /** Opens 'output' for writing, or standard output if it's '-'. */
+    private static PrintWriter openOutput(String output) throws IOException {
+        if (output.equals("-"))
+            return new PrintWriter(
+                    new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+
+        return new PrintWriter(
+                new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(output), "UTF-8")));
+    }
+
+    /** Flushes (and, unless it's standard output, closes) 'pw', checking for errors. */
+    private static void closeOutput(PrintWriter pw, String output) throws IOException {
+        pw.flush();
+        if (pw.checkError()) throw new IOException("could not write to '" + output + "'");
+        if (!output.equals("-")) pw.close();
+    }
+
+    /** Formats a distance (as a fraction) as a percentage, or null if it's invalid. */
+    static Object distanceAsPercentage(double distance) {
+        if (distance < 0) return null;
+        return Double.valueOf(Settings.percentage(distance, 1));
+    }
+
+    /** Runs a best match/best close match analysis on every sequence in 'set'. */
+    private void batchBestMatch(BatchResults results, SequenceList set, double threshold)
+            throws DelayAbortedException {
+        int count_without_species_names = 0;
+        int count_no_matches = 0;
+        int[] best_match = new int[4];
+        int[] best_close_match = new int[4];
+
+        results.setColumns(
+                new String[] {
+                    "query",
+                    "species",
+                    "best_match",
+                    "best_match_species",
+                    "distance",
+                    "other_matches_at_distance",
+                    "best_match_result",
+                    "best_close_match_result",
+                    "closest_conspecific",
+                    "conspecific_distance",
+                    "closest_allospecific",
+                    "allospecific_distance"
+                });
+
+        SortedSequenceList sset = new SortedSequenceList(set);
+        DelayCallback delay = getDelay("Best match");
+        if (delay != null) delay.begin();
+
+        int x = 0;
+        Iterator i = set.iterator();
+        while (i.hasNext()) {
+            Sequence query = (Sequence) i.next();
+
+            if (delay != null) delay.delay(x, set.count());
+            x++;
+
+            Identification id = Identification.identify(query, sset, threshold);
+            if (id == null) {
+                count_without_species_names++;
+                continue;
+            }
+
+            if (!id.hasMatch()) {
+                count_no_matches++;
+            } else {
+                best_match[id.getBestMatchResult()]++;
+                best_close_match[id.getBestCloseMatchResult()]++;
+            }
+
+            Sequence match = id.getBestMatch();
+            Sequence con = id.getFirstConspecific();
+            Sequence allo = id.getFirstAllospecific();
+
+            results.addRow(
+                    new Object[] {
+                        query.getFullName(),
+                        query.getSpeciesName(),
+                        (match == null) ? null : match.getFullName(),
+                        (match == null) ? null : match.getSpeciesName(),
+                        distanceAsPercentage(id.getDistance()),
+                        Integer.valueOf(id.countOtherMatches()),
+                        Identification.getResultName(id.getBestMatchResult()),
+                        Identification.getResultName(id.getBestCloseMatchResult()),
+                        (con == null) ? null : con.getFullName(),
+                        (con == null) ? null : distanceAsPercentage(query.getPairwise(con)),
+                        (allo == null) ? null : allo.getFullName(),
+                        (allo == null) ? null : distanceAsPercentage(query.getPairwise(allo))
+                    });
+        }
+
+        if (delay != null) delay.end();
+
+        results.addSummary(
+                "sequences_without_species_names", Integer.valueOf(count_without_species_names));
+        results.addSummary(
+                "sequences_with_matches",
+                Integer.valueOf(set.count() - count_without_species_names - count_no_matches));
+
+        for (int result = Identification.CORRECT; result <= Identification.INCORRECT; result++) {
+            String name = Identification.getResultName(result);
+            results.addSummary("best_match_" + name, Integer.valueOf(best_match[result]));
+        }
+
+        for (int result = Identification.NO_MATCH; result <= Identification.INCORRECT; result++) {
+            String name = Identification.getResultName(result).replace(' ', '_');
+            results.addSummary(
+                    "best_close_match_" + name, Integer.valueOf(best_close_match[result]));
+        }
+    }
+
+    /**
+     * Identifies every sequence in 'queries' with 'batch', and writes the results straight out to
+     * 'output' as tab-separated values, each as soon as it's done (after the summary so far).
+     *
+     * @return the exit status.
+     */
+    private int batchQuery(
+            BatchResults results, BatchQuery batch, SequenceList queries, String output)
+            throws DelayAbortedException {
+        try {
+            PrintWriter pw = openOutput(output);
+
+            results.writeTSV(pw); // no columns yet, so this is just the summary
+            batch.run(queries, pw, getDelay("Identifying queries"));
+
+            closeOutput(pw, output);
+        } catch (IOException e) {
+            System.err.println("Error: could not write the results: " + e.getMessage());
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Keeps 'set' (read from 'input') loaded as a reference library, and identifies sequences sent
+     * to us on 'port' until we're stopped. 'threshold' is in percent.
+     *
+     * @return the exit status (but only if we couldn't start the server at all).
+     */
+    private int batchServe(File input, SequenceList set, double threshold, int top, int port) {
+        IdentificationServer server = new IdentificationServer(input, set, threshold / 100, top);
+
+        try {
+            server.start(port);
+        } catch (IOException e) {
+            System.err.println("Error: could not listen on port " + port + ": " + e.getMessage());
+            return 1;
+        }
+
+        System.err.println(
+                "Identifying sequences against "
+                        + set.count()
+                        + " sequences from '"
+                        + input
+                        + "' at http://127.0.0.1:"
+                        + server.getPort()
+                        + "/identify (threshold "
+                        + threshold
+                        + "%). Press Ctrl-C to stop.");
+
+        try {
+            server.waitUntilStopped();
+        } catch (InterruptedException e) {
+        }
+
+        return 0;
+    }
+
+    /** Clusters the sequences in 'set' at 'threshold', and lists the members of every cluster. */
+    private void batchCluster(BatchResults results, SequenceList set, double threshold)
+            throws DelayAbortedException {
+        SingleLinkage linkage = new SingleLinkage(set, threshold, getDelay("Clustering"));
+        Vector<Vector<Sequence>> clusters = linkage.getClusters();
+        int[] types = linkage.getClusterTypes();
+
+        results.setColumns(
+                new String[] {
+                    "cluster",
+                    "sequence",
+                    "species",
+                    "cluster_size",
+                    "cluster_species",
+                    "cluster_type"
+                });
+
+        int count_single_species = 0;
+        int largest_cluster = 0;
+        int[] count_types = new int[4];
+        for (int x = 0; x < clusters.size(); x++) {
+            Vector<Sequence> bin = clusters.get(x);
+
+            // sequences without a species name count as a species of their own
+            HashSet<String> species = new HashSet<String>();
+            Iterator<Sequence> i = bin.iterator();
+            while (i.hasNext()) {
+                Sequence seq = i.next();
+
+                if (seq.getSpeciesName() == null) species.add("{" + seq.getFullName() + "}");
+                else species.add(seq.getSpeciesName());
+            }
+
+            if (species.size() == 1) count_single_species++;
+            if (bin.size() > largest_cluster) largest_cluster = bin.size();
+            count_types[types[x]]++;
+
+            i = bin.iterator();
+            while (i.hasNext()) {
+                Sequence seq = i.next();
+
+                results.addRow(
+                        new Object[] {
+                            Integer.valueOf(x + 1),
+                            seq.getFullName(),
+                            seq.getSpeciesName(),
+                            Integer.valueOf(bin.size()),
+                            Integer.valueOf(species.size()),
+                            SingleLinkage.getClusterTypeName(types[x])
+                        });
+            }
+        }
+
+        results.addSummary("clusters", Integer.valueOf(clusters.size()));
+        results.addSummary("clusters_with_one_species", Integer.valueOf(count_single_species));
+        results.addSummary("largest_cluster", Integer.valueOf(largest_cluster));
+
+        for (int type = 0; type < count_types.length; type++) {
+            String name = SingleLinkage.getClusterTypeName(type).replace('/', '_');
+            results.addSummary("clusters_" + name, Integer.valueOf(count_types[type]));
+        }
+    }
+
+    /**
+     * Clusters the sequences in 'set' at each of 'thresholds', and tells you how well the clusters
+     * at each threshold agree with the species names.
+     */
+    private void batchSweep(BatchResults results, SequenceList set, double[] thresholds)
+            throws DelayAbortedException {
+        SingleLinkage[] sweep = SingleLinkage.sweep(set, thresholds, getDelay("Clustering"));
+
+        results.setColumns(
+                new String[] {
+                    "threshold",
+                    "clusters",
+                    "singletons",
+                    "perfect",
+                    "split",
+                    "lumped",
+                    "lumped_split",
+                    "accuracy"
+                });
+
+        for (int x = 0; x < sweep.length; x++) {
+            int[] types = sweep[x].countClusterTypes();
+
+            results.addRow(
+                    new Object[] {
+                        distanceAsPercentage(sweep[x].getThreshold()),
+                        Integer.valueOf(sweep[x].count()),
+                        Integer.valueOf(sweep[x].countSingletons()),
+                        Integer.valueOf(types[SingleLinkage.CLUSTER_PERFECT]),
+                        Integer.valueOf(types[SingleLinkage.CLUSTER_SPLIT]),
+                        Integer.valueOf(types[SingleLinkage.CLUSTER_LUMPED]),
+                        Integer.valueOf(types[SingleLinkage.CLUSTER_LUMPED_SPLIT]),
+                        Double.valueOf(Cluster.getSweepAccuracy(sweep[x]))
+                    });
+        }
+
+        results.addSummary("thresholds", Integer.valueOf(thresholds.length));
+        if (sweep.length > 0)
+            results.addSummary("species", Integer.valueOf(sweep[0].countSpecies()));
+    }
+
+    /** Summarises the intra- and interspecific pairwise distances in 'set'. */
+    private void batchPairwiseSummary(
+            BatchResults results,
+            SequenceList set,
+            PairwiseDistribution intra,
+            PairwiseDistribution inter) {
+        HashSet<String> species = new HashSet<String>();
+        Iterator i = set.iterator();
+        while (i.hasNext()) {
+            Sequence seq = (Sequence) i.next();
+            if (seq.getSpeciesName() != null) species.add(seq.getSpeciesName());
+        }
+
+        results.addSummary("species", Integer.valueOf(species.size()));
+        results.addSummary("minimum_overlap", Integer.valueOf(Sequence.getMinOverlap()));
+        results.addSummary("sketch", Boolean.valueOf(intra.isSketch()));
+
+        float cutoff = PairwiseSummary.calculateFivePercentCutoff(intra, inter);
+        results.addSummary("five_percent_cutoff", (cutoff < 0) ? null : Float.valueOf(cutoff));
+
+        results.setColumns(new String[] {"statistic", "intraspecific", "interspecific"});
+
+        boolean has_intra = (intra.getBetweenIncl(0, 1) > 0);
+        boolean has_inter = (inter.getBetweenIncl(0, 1) > 0);
+
+        results.addRow(
+                new Object[] {
+                    "comparisons",
+                    Long.valueOf(intra.countValidComparisons()),
+                    Long.valueOf(inter.countValidComparisons())
+                });
+        results.addRow(
+                new Object[] {
+                    "minimum",
+                    has_intra ? distanceAsPercentage(intra.getMinimumDistance()) : null,
+                    has_inter ? distanceAsPercentage(inter.getMinimumDistance()) : null
+                });
+        results.addRow(
+                new Object[] {
+                    "maximum",
+                    has_intra ? distanceAsPercentage(intra.getMaximumDistance()) : null,
+                    has_inter ? distanceAsPercentage(inter.getMaximumDistance()) : null
+                });
+
+        // the largest and smallest distances once 5% has been chopped off the appropriate end
+        Object[] largest = new Object[] {"largest_after_five_percent", null, null};
+        Object[] smallest = new Object[] {"smallest_after_five_percent", null, null};
+        if (has_intra) {
+            largest[1] = distanceAsPercentage(PairwiseSummary.getLargestAfterFivePercent(intra));
+            smallest[1] = distanceAsPercentage(PairwiseSummary.getSmallestAfterFivePercent(intra));
+        }
+        if (has_inter) {
+            largest[2] = distanceAsPercentage(PairwiseSummary.getLargestAfterFivePercent(inter));
+            smallest[2] = distanceAsPercentage(PairwiseSummary.getSmallestAfterFivePercent(inter));
+        }
+        results.addRow(largest);
+        results.addRow(smallest);
+    }
+}
+
+/**
+ * The results of a batch mode analysis: a summary (a list of names and values), and a table (a row
+ * of column names, and any number of rows of values). Values are Strings, Numbers, Booleans or
+ * null. These can then be written out as tab-separated values or as JSON.
+ */
+class BatchResults {
+    private Vector<String> summary_names = new Vector<String>();
+    private Vector<Object> summary_values = new Vector<Object>();
+    private String[] columns = new String[0];
+    private Vector<Object[]> rows = new Vector<Object[]>();
+
+    public void addSummary(String name, Object value) {
+        summary_names.add(name);
+        summary_values.add(value);
+    }
+
+    public void setColumns(String[] columns) {
+        this.columns = columns;
+    }
+
+    public void addRow(Object[] row) {
+        if (row.length != columns.length)
+            throw new RuntimeException(
+                    "Programmer Error: a row of "
+                            + row.length
+                            + " values was added to a table of "
+                            + columns.length
+                            + " columns. Please inform the programmer!");
+
+        rows.add(row);
+    }
+
+    /**
+     * Writes the results out as tab-separated values: the summary comes first as '#'-prefixed
+     * comment lines, followed by the table (with a header row).
+     */
+    public void writeTSV(PrintWriter pw) {
+        for (int x = 0; x < summary_names.size(); x++)
+            pw.println("# " + summary_names.get(x) + "\t" + tsv(summary_values.get(x)));
+
+        if (columns.length == 0) return;
+
+        pw.println(join(columns));
+
+        Iterator<Object[]> i = rows.iterator();
+        while (i.hasNext()) pw.println(join(i.next()));
+    }
+
+    /**
+     * Writes the results out as a single JSON object, with a "summary" object and a "results" array
+     * of objects, one per row.
+     */
+    public void writeJSON(PrintWriter pw) {
+        pw.println("{");
+
+        pw.println("  \"summary\": {");
+        for (int x = 0; x < summary_names.size(); x++) {
+            pw.print(
+                    "    "
+                            + json(summary_names.get(x))
+                            + ": "
+                            + json(summary_values.get(x)));
+            pw.println((x + 1 < summary_names.size()) ? "," : "");
+        }
+        pw.println("  },");
+
+        pw.println("  \"results\": [");
+        for (int x = 0; x < rows.size(); x++) {
+            Object[] row = rows.get(x);
+
+            StringBuffer buff = new StringBuffer("    {");
+            for (int y = 0; y < columns.length; y++) {
+                if (y > 0) buff.append(", ");
+                buff.append(json(columns[y]) + ": " + json(row[y]));
+            }
+            buff.append("}");
+            if (x + 1 < rows.size()) buff.append(",");
+
+            pw.println(buff);
+        }
+        pw.println("  ]");
+
+        pw.println("}");
+    }
+
+    static String join(Object[] values) {
+        StringBuffer buff = new StringBuffer();
+
+        for (int x = 0; x < values.length; x++) {
+            if (x > 0) buff.append('\t');
+            buff.append(tsv(values[x]));
+        }
+
+        return buff.toString();
+    }
+
+    /** Tabs and newlines would break the table, so we turn them into spaces. */
+    private static String tsv(Object value) {
+        if (value == null) return "";
+        return value.toString().replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String json(Object value) {
+        if (value == null) return "null";
+        if (value instanceof Boolean) return value.toString();
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+            return value.toString();
+        }
+
+        String str = value.toString();
+        StringBuffer buff = new StringBuffer("\"");
+        for (int x = 0; x < str.length(); x++) {
+            char ch = str.charAt(x);
+
+            switch (ch) {
+                case '"':
+                    buff.append("\\\"");
+                    break;
+                case '\\':
+                    buff.append("\\\\");
+                    break;
+                case '\n':
+                    buff.append("\\n");
+                    break;
+                case '\r':
+                    buff.append("\\r");
+                    break;
+                case '\t':
+                    buff.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) buff.append(String.format("\\u%04x", (int) ch));
+                    else buff.append(ch);
+            }
+        }
+        buff.append('"');
+
+        return buff.toString();
+    }
 }
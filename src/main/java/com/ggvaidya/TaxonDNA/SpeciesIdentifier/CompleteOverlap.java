@@ -2,6 +2,9 @@
  * Determines the largest "complete block" in your dataset. A "complete block" is one where every
  * single sequence in the dataset has no gaps whatsoever.
  *
+ * <p>We also list every block of a particular width, along with the number of sequences and species
+ * which are complete across it. CompleteBlocks does the actual counting.
+ *
  * @author Gaurav Vaidya, gaurav@ggvaidya.com
  */
 
@@ -49,6 +52,8 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
 
     private Button btn_Calculate = new Button("Calculate!");
 
+    private Label label_summary = new Label();
+
     private Button btn_Export_Results = new Button("Export all results");
     private Button btn_Export_Fasta = new Button("Export this block as FASTA");
 
@@ -92,6 +97,7 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
         center.setLayout(new BorderLayout());
 
         center.add(list_results);
+        center.add(label_summary, BorderLayout.SOUTH);
 
         add(center);
 
@@ -218,6 +224,7 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
 
                 // clear results
                 list_results.removeAll();
+                label_summary.setText("");
 
                 // restore button
                 btn.setLabel("Calculate!");
@@ -228,7 +235,7 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
                 tf_ambiguousLimit.setEnabled(false);
 
                 btn.setLabel("Clear results");
-                new Thread(this, "LargestCompleteBlock").start();
+                TaskScheduler.getShared().submit("LargestCompleteBlock", this);
             }
             return;
         }
@@ -381,121 +388,7 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
 
     public void dataChanged() {
         list_results.removeAll();
-    }
-
-    /**
-     * @param ambiguous_allowed the NUMBER of ambiguous base pairs allowed in any sequence for it be
-     *     'defined'
-     */
-    private int[] sequencesInBlock(SequenceList sl, int from, int to, int ambiguous_allowed) {
-        // technicalities:
-        // 1.	not all sequences will HAVE content between 'from' and 'to'.
-        // 	Sequences are allowed to Be Different etc
-        //
-        int results[] = new int[4]; // we have to return three things:
-        //	- no of sequences completely in this block
-        //	- no of species completely in this block
-        //	- no of non-singleton species completely in this block
-        int no_sequences = 0;
-        int no_species = 0;
-        int no_singletons = 0;
-        int no_sequences_defined = 0;
-
-        sl.lock();
-
-        try {
-            Hashtable ht = new Hashtable();
-
-            Iterator i = sl.iterator();
-            while (i.hasNext()) {
-                int no_ambiguous_bases = 0;
-                Sequence seq = (Sequence) i.next();
-                String str_seq = seq.getSequenceWithExternalGaps();
-
-                // now: is seq LONG enough?
-                if (str_seq.length() < to) { // we need to atleast be able to reach 'to'
-                    // if one of the sequence 'ends' in this area,
-                    // it's an implicit gap, and thus, an exit.
-                    continue;
-                }
-
-                char[] array = new char[to - from + 1];
-                str_seq.getChars(from, to, array, 0);
-
-                // ugh, the kludges, the kludges!
-                // basically: if we hit a '_', we break
-                // out of the for look and set
-                // everything_okay to false. If
-                // everything_okay is FALSE, we
-                // continue the outer while loop.
-                boolean sequence_failed = false;
-                for (int x = 0; x < to - from; x++) {
-                    char ch = array[x];
-
-                    // we are NOT testing for validity
-                    // as any Sequence must be valid.
-                    if (ch == '_') {
-                        sequence_failed = true;
-                        break;
-                    }
-
-                    // is this character ambiguous?
-                    if (Sequence.isAmbiguous(ch)) no_ambiguous_bases++;
-                }
-
-                if (sequence_failed) continue;
-
-                // if we're here, 'seq' is valid!
-                if (check_wellDefinedOnly.getState()) {
-                    // skip undefineds!
-                    if (no_ambiguous_bases > ambiguous_allowed) {
-                        continue;
-                    }
-                }
-
-                // if we're here, we need to add this sequences to the statistics
-                no_sequences++;
-
-                if (no_ambiguous_bases <= ambiguous_allowed) no_sequences_defined++;
-
-                // KLUDGE, dead ahead!
-                //
-                // 	first time around (ht.get() == null), we count it
-                // 	as a new species, and a singleton, and ht.put(new Integer)
-                //
-                //	the SECOND time around, we ht.put(new Object()), and
-                //	DECREMENT the singleton count. very hairy, but as a
-                //	five line hack, I'll leave it in (atleast until tomorrow :p)
-                //
-                //	only for sequences with species names, obviously. Non-species name
-                //	sequences are not counted.
-                //
-                if (seq.getSpeciesName() != null) {
-                    if (ht.get(seq.getSpeciesName()) == null) {
-                        // not already in list
-                        no_species++;
-                        ht.put(seq.getSpeciesName(), new Integer(0));
-                        no_singletons++;
-                    } else {
-                        // already in list
-                        if (ht.get(seq.getSpeciesName()).getClass().equals(Integer.class)) {
-                            no_singletons--;
-                            ht.put(seq.getSpeciesName(), new Object());
-                        }
-                    }
-                }
-            }
-
-            results[0] = no_sequences;
-            results[1] = no_species;
-            results[2] = no_species - no_singletons;
-            results[3] = no_sequences_defined;
-
-            return results;
-
-        } finally {
-            sl.unlock();
-        }
+        label_summary.setText("");
     }
 
     public void run() {
@@ -508,26 +401,6 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
             return;
         }
 
-        // the rules:
-        // 1.	minimal memory. really. please.
-        // 2.	as fast as possible, GIVEN ONE.
-        //
-        // the algo:
-        // 1.	create an array of the 'score' for each 'position'.
-        // 	The 'score' is either zero (if atleast one of the
-        // 	sequences in this area 'failed'), or 1 (if
-        // 	everybody is happy here).
-        //
-        // 	score will be O(N) for size
-        // 2.	Loop through the score matrix. Push run pairs onto
-        // 	a results stack.
-        //
-        // 	results stack will be between O(N-1) and O(1) in size.
-        //
-        // 3.	Loop thorugh the results stack. the largest total distance
-        // 	wins!
-        //
-
         step_width = 300;
         ambiguous_percent = 0.01;
 
@@ -548,14 +421,24 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
                         "Please wait, determining largest complete block ...",
                         "I am attempting to determine the largest complete block right now. Sorry"
                                 + " for the inconvenience!");
-        pd.begin();
 
         // the number of ambiguous bases allowed is ('ambiguous_percent' x 'step_width')
         int ambiguous_allowed = (int) ((double) ambiguous_percent * step_width);
-        int no_of_entries = sl.getMaxLength() - step_width + 1;
 
-        int interval = (no_of_entries) / 100;
-        if (interval == 0) interval = 1;
+        // CompleteBlocks does all the counting (and begin()s and end()s the ProgressDialog)
+        CompleteBlocks blocks;
+        try {
+            blocks =
+                    new CompleteBlocks(
+                            sl,
+                            step_width,
+                            ambiguous_allowed,
+                            check_wellDefinedOnly.getState(),
+                            pd);
+        } catch (DelayAbortedException e) {
+            seqId.unlockSequenceList();
+            return;
+        }
 
         list_results.removeAll();
         String defined = "";
@@ -564,12 +447,11 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
             defined = " defined";
         }
 
-        for (int x = 0; x < no_of_entries; x++) {
-            int results[] = sequencesInBlock(sl, x, x + step_width, ambiguous_allowed);
-            int sequences = results[0];
-            int species = results[1];
-            int non_singletons = results[2];
-            int sequences_defined = results[3];
+        for (int x = 0; x < blocks.count(); x++) {
+            int sequences = blocks.getSequences(x);
+            int species = blocks.getSpecies(x);
+            int non_singletons = blocks.getNonSingletons(x);
+            int sequences_defined = blocks.getSequencesDefined(x);
 
             if (!check_wellDefinedOnly.getState()) {
                 // if we're NOT in 'defined only' mode
@@ -593,17 +475,40 @@ public class CompleteOverlap extends Panel implements UIExtension, Runnable, Act
                             + " species (with "
                             + non_singletons
                             + " non-singleton sequences)");
-
-            // do the delay
-            try {
-                pd.delay(x, sl.getMaxLength() - step_width);
-            } catch (DelayAbortedException e) {
-                seqId.unlockSequenceList();
-                return;
-            }
         }
 
-        pd.end();
+        // summarise, and point out the best block
+        int[] largest = blocks.getLargestCompleteBlock();
+        String str_largest = "No complete block at all";
+        if (largest[1] > largest[0])
+            str_largest =
+                    "Largest complete block: "
+                            + (largest[0] + 1)
+                            + " to "
+                            + largest[1]
+                            + " ("
+                            + (largest[1] - largest[0])
+                            + " bp)";
+
+        int best = blocks.getBestBlock();
+        if (best != -1) {
+            label_summary.setText(
+                    str_largest
+                            + "; best "
+                            + step_width
+                            + " bp block: "
+                            + (best + 1)
+                            + " to "
+                            + (best + step_width)
+                            + " ("
+                            + blocks.getSequences(best)
+                            + " sequences)");
+
+            list_results.select(best);
+            list_results.makeVisible(best);
+        } else {
+            label_summary.setText(str_largest + "; no blocks of " + step_width + " bp");
+        }
 
         seqId.unlockSequenceList();
     }
@@ -45,6 +45,7 @@ import java.awt.*;
 import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class DistanceAnalysis extends Panel
         implements UIExtension, ActionListener, ItemListener, Runnable {
@@ -116,7 +117,7 @@ public class DistanceAnalysis extends Panel
         }
 
         if (e.getSource().equals(btn_Calculate)) {
-            new Thread(this, "BlockAnalysis").start();
+            TaskScheduler.getShared().submit("BlockAnalysis", this);
         }
     }
 
@@ -133,40 +134,15 @@ public class DistanceAnalysis extends Panel
         seqId.unlockSequenceList();
     }
 
-    private double average(Vector v) {
-        double sum = 0.0;
-        int count = 0;
-
-        Iterator i = v.iterator();
-        while (i.hasNext()) {
-            Double d = (Double) i.next();
-            double val = d.doubleValue();
-            if (val > -1) {
-                sum += d.doubleValue();
-                count++;
-            }
-        }
-
-        return (sum / count);
-    }
-
-    private void append_to_hash_table(Hashtable ht, Object key, Object value) {
-        if (ht.get(key) == null) {
-            Vector v = new Vector();
-            v.add(value);
-            ht.put(key, v);
-        } else ((Vector) ht.get(key)).add(value);
-    }
-
     public void run() {
-        // Okay we need to figure out a lot of Vectors to keep track of numbers as we go, and then
-        // average them out.
-
-        // Init!
         SequenceList list = seqId.lockSequenceList();
 
-        // First off, we need SSLs. Lots of SSLs.
-        // That means PairwiseDistances
+        if (list == null) {
+            seqId.unlockSequenceList();
+            text_main.setText("No sequences loaded.");
+            return;
+        }
+
         ProgressDialog delay =
                 ProgressDialog.create(
                         seqId.getFrame(),
@@ -174,153 +150,221 @@ public class DistanceAnalysis extends Panel
                         "Distances for this dataset are being calculated. Sorry for the delay!");
 
         try {
-            // for each sequence in the dataset, we need:
-            // 1.	a smallest inter/congen distance
-            // 2.	an average inter/congen distance
-            delay.begin();
-
-            // data structures
-            SortedSequenceList ssl = new SortedSequenceList(list);
-            Hashtable ht_species = new Hashtable();
-            Hashtable ht_species_all = new Hashtable();
-            Hashtable ht_species_smallest = new Hashtable();
-            Hashtable ht_genera_all = new Hashtable(); // ha! perl thinking!
-            Hashtable ht_genera_smallest = new Hashtable(); // ha! perl thinking!
-
-            int current_seq = 0;
+            text_main.setText(getReport(list, delay));
+        } catch (DelayAbortedException e) {
+            return;
+        } finally {
+            seqId.unlockSequenceList();
+        }
+    }
+
+    /**
+     * Works out the average smallest and average mean interspecific, congeneric distance for every
+     * genus in 'list', and returns them as a human-readable report. Sequences without a species
+     * name are left out.
+     *
+     * <p>Since only congeneric sequences ever get compared, every genus is a job of its own: we
+     * share the genera out between one worker per processor (biggest first, so nobody gets stuck
+     * with a big genus right at the end), and each worker only compares the sequences within the
+     * genera it's been given. This takes the sum of the squares of the sizes of the genera, rather
+     * than the square of the size of the whole list.
+     *
+     * @throws DelayAbortedException if the user aborted the analysis
+     */
+    static String getReport(SequenceList list, DelayCallback delay) throws DelayAbortedException {
+        list.lock();
+
+        if (delay != null) delay.begin();
+
+        Genus[] genera;
+        int count_sequences = 0;
+        try {
+            // sort the sequences into genera, and the genera into species
+            Hashtable<String, Genus> ht_genera = new Hashtable<String, Genus>();
             Iterator i = list.iterator();
             while (i.hasNext()) {
-                delay.delay(current_seq, list.count());
-                current_seq++;
+                Sequence seq = (Sequence) i.next();
+                if (seq.getSpeciesName() == null) continue;
 
-                Sequence query = (Sequence) i.next();
-                ht_species.put(query.getSpeciesName(), new Object());
+                Genus genus = ht_genera.get(seq.getGenusName());
+                if (genus == null) {
+                    genus = new Genus(seq.getGenusName());
+                    ht_genera.put(seq.getGenusName(), genus);
+                }
+                genus.add(seq);
+                count_sequences++;
+            }
 
-                ssl.sortAgainst(query, null);
+            genera = ht_genera.values().toArray(new Genus[ht_genera.size()]);
+            Arrays.sort(
+                    genera,
+                    new Comparator<Genus>() {
+                        public int compare(Genus o1, Genus o2) {
+                            return o2.sequences.size() - o1.sequences.size();
+                        }
+                    });
 
-                double closest = -1;
-                Vector vec_inters = new Vector();
-                for (int x = 0; x < ssl.count(); x++) {
-                    Sequence compare = ssl.get(x);
+            runWorkers(genera, count_sequences, delay);
+        } finally {
+            list.unlock();
+        }
 
-                    if (compare.getSpeciesName().equals(query.getSpeciesName())) {
-                        // conspecific, ignore!
-                        continue;
+        // and now, the report, genus by genus
+        Arrays.sort(
+                genera,
+                new Comparator<Genus>() {
+                    public int compare(Genus o1, Genus o2) {
+                        return o1.name.compareTo(o2.name);
                     }
+                });
 
-                    if (compare.getGenusName().equals(query.getGenusName())) {
-                        // congeneric, but NOT conspecific
-                        // (i.e. congeneric interspecific)
-                        // (i hate mondays)
-                        //
-                        double dist = compare.getPairwise(query);
-                        if (closest < 0) closest = dist;
-                        vec_inters.add(new Double(dist));
-                    }
-                }
+        StringBuffer buff = new StringBuffer();
 
-                // now, sequence 'query' has (we hope) a closest (or -1, indicating NO
-                // congen/intersp)
-                // as well as a Vector of interspecific distances.
-                if (closest != -1) {
-                    if (ht_species_all.get(query) == null) {
-                        query = new Sequence(query); // make an exact copy of the query
-                        // so we can distinquish between the two
-                        // for the purposes of this analysis
-                    }
-                    ht_species_all.put(query, new Double(average(vec_inters)));
-                    ht_species_smallest.put(query, new Double(closest));
-                }
-            }
+        buff.append("Genus\t\t\tAvg. Avg. Smallest Inter\t\tAvg. Avg. Avg. Inter\n");
 
-            // so now we've got per-sequence numbers.
-            // we need to change this to the following format:
-            // $ht_sequence{Genus_name} = \@distances_for_this_sequence.
-            i = ht_species.keySet().iterator();
-            while (i.hasNext()) {
-                String spName = (String) i.next();
-                String genusName = null;
+        for (int x = 0; x < genera.length; x++) {
+            Genus genus = genera[x];
 
-                Vector distances_all = new Vector();
-                Vector distances_smallest = new Vector();
+            if (genus.avg_inter < 0)
+                buff.append(genus.name + "\t\t\tNo comparisions\t\tNo comparisions\n");
+            else
+                buff.append(
+                        genus.name
+                                + "\t\t\t"
+                                + percentage(genus.avg_smallest, 1)
+                                + "\t\t"
+                                + percentage(genus.avg_inter, 1)
+                                + "\n");
+        }
 
-                Iterator i_seqs = ht_species_all.keySet().iterator();
-                while (i_seqs.hasNext()) {
-                    Sequence seq = (Sequence) i_seqs.next();
+        if (delay != null) delay.end();
 
-                    if (seq.getSpeciesName().equals(spName)) {
-                        // it's the avg distance for one particular thing!
-                        genusName = seq.getGenusName();
-                        distances_all.add(ht_species_all.get(seq));
-                        distances_smallest.add(ht_species_smallest.get(seq));
-                    }
-                }
+        return buff.toString();
+    }
 
-                if (genusName == null) {
-                    // make one up
-                    int indexOf = spName.indexOf(' ');
-                    genusName = spName.substring(0, indexOf);
-                }
+    /**
+     * Runs one GenusWorker per processor over 'genera', until every genus is done or the user
+     * aborts. Progress is counted in sequences, so a big genus counts for more than a small one.
+     */
+    private static void runWorkers(Genus[] genera, int count_sequences, DelayCallback delay)
+            throws DelayAbortedException {
+        int[] sizes = new int[genera.length];
+        for (int x = 0; x < genera.length; x++) sizes[x] = genera[x].sequences.size();
 
-                if (distances_all.size() > 0) {
-                    append_to_hash_table(
-                            ht_genera_all, genusName, new Double(average(distances_all)));
-                    append_to_hash_table(
-                            ht_genera_smallest, genusName, new Double(average(distances_smallest)));
-                } else {
-                    append_to_hash_table(ht_genera_all, genusName, new Double(-1));
-                    append_to_hash_table(ht_genera_smallest, genusName, new Double(-1));
-                }
+        GenusWorker[] workers = new GenusWorker[ParallelLoop.countWorkers(genera.length)];
+        for (int x = 0; x < workers.length; x++) workers[x] = new GenusWorker(genera);
+
+        try {
+            ParallelLoop.run(genera.length, sizes, workers, delay);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(
+                    "Error while analysing distances: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * A Genus is a list of all the (named) sequences of one genus, along with the species each of
+     * them belongs to. Once a GenusWorker is done with it, it also knows its average smallest and
+     * average mean interspecific distances (or -1 if none of its sequences had a valid distance to
+     * another species in the genus).
+     */
+    private static class Genus {
+        private String name;
+        private Vector<Sequence> sequences = new Vector<Sequence>();
+        private Vector<Integer> species_of = new Vector<Integer>(); // each sequence's species
+        private Hashtable<String, Integer> species = new Hashtable<String, Integer>();
+
+        private double avg_smallest = -1;
+        private double avg_inter = -1;
+
+        public Genus(String name) {
+            this.name = name;
+        }
+
+        public void add(Sequence seq) {
+            Integer number = species.get(seq.getSpeciesName());
+            if (number == null) {
+                number = Integer.valueOf(species.size());
+                species.put(seq.getSpeciesName(), number);
             }
 
-            // so now we've got per-species numbers.
-            // so let's go and generate real genus numbers.
-            // arrrrrgh
-            StringBuffer buff = new StringBuffer();
+            sequences.add(seq);
+            species_of.add(number);
+        }
+    }
+
+    /** A GenusWorker works out the distances within one genus at a time. */
+    private static class GenusWorker implements ParallelLoop.Body {
+        private Genus[] genera;
 
-            buff.append("Genus\t\t\tAvg. Avg. Smallest Inter\t\tAvg. Avg. Avg. Inter\n");
+        public GenusWorker(Genus[] genera) {
+            this.genera = genera;
+        }
 
-            Vector v_genera = new Vector(ht_genera_all.keySet());
-            Collections.sort(v_genera);
-            i = v_genera.iterator();
+        /** Works out the distances within genus number 'index'. */
+        public void process(int index) {
+            process(genera[index]);
+        }
 
-            while (i.hasNext()) {
-                String genus = (String) i.next();
-
-                Vector distances_all = (Vector) ht_genera_all.get(genus);
-                double avg_inter = average(distances_all);
-
-                Vector distances_smallest = (Vector) ht_genera_smallest.get(genus);
-                double avg_smallest = average(distances_smallest);
-
-                if (avg_inter < 0)
-                    buff.append(genus + "\t\t\tNo comparisions\t\tNo comparisions\n");
-                else
-                    buff.append(
-                            genus
-                                    + "\t\t\t"
-                                    + percentage(avg_smallest, 1)
-                                    + "\t\t"
-                                    + percentage(avg_inter, 1)
-                                    + "\n");
+        /**
+         * For each sequence in 'genus', finds the smallest and the mean of its valid distances to
+         * sequences of other species in the genus. These are then averaged over each species, and
+         * the species averages are averaged over the genus.
+         */
+        private void process(Genus genus) {
+            int n = genus.sequences.size();
+            Sequence[] sequences = genus.sequences.toArray(new Sequence[n]);
+            int[] species_of = new int[n];
+            for (int x = 0; x < n; x++) species_of[x] = genus.species_of.get(x).intValue();
+
+            int count_species = genus.species.size();
+            double[] species_smallest = new double[count_species];
+            double[] species_mean = new double[count_species];
+            int[] species_count = new int[count_species];
+
+            for (int x = 0; x < n; x++) {
+                double smallest = -1;
+                double sum = 0;
+                int count = 0;
+                for (int y = 0; y < n; y++) {
+                    // conspecific, ignore!
+                    if (species_of[y] == species_of[x]) continue;
+
+                    double dist = sequences[y].getPairwiseNoBuffer(sequences[x]);
+                    if (dist < 0) continue;
+
+                    if (smallest < 0 || dist < smallest) smallest = dist;
+                    sum += dist;
+                    count++;
+                }
+
+                // does this sequence have any valid congeneric, interspecific distances at all?
+                if (count > 0) {
+                    species_smallest[species_of[x]] += smallest;
+                    species_mean[species_of[x]] += sum / count;
+                    species_count[species_of[x]]++;
+                }
             }
 
-            text_main.setText(buff.toString());
+            double sum_smallest = 0;
+            double sum_mean = 0;
+            int count = 0;
+            for (int x = 0; x < count_species; x++) {
+                if (species_count[x] == 0) continue;
 
-            delay.end();
-            delay = null;
-        } catch (DelayAbortedException e) {
-            return;
-        } finally {
-            seqId.unlockSequenceList();
-            if (delay != null) // this will actually work! trust me.
-            delay.end();
-        }
+                sum_smallest += species_smallest[x] / species_count[x];
+                sum_mean += species_mean[x] / species_count[x];
+                count++;
+            }
 
-        return;
+            if (count > 0) {
+                genus.avg_smallest = sum_smallest / count;
+                genus.avg_inter = sum_mean / count;
+            }
+        }
     }
 
-    private double percentage(double x, double y) {
+    private static double percentage(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.percentage(x, y);
     }
 
@@ -2,6 +2,10 @@
  * Allows you provide a list of species names, and all sequences with that species name is exported
  * into a separate file.
  *
+ * <p>You can also export them straight out of a FASTA file, without loading it: we index the file
+ * (see FastaIndex) and only read the sequences we need, which is a lot quicker (and needs a lot
+ * less memory) if the file is huge and you only want a few species out of it.
+ *
  * @author Gaurav Vaidya, gaurav@ggvaidya.com
  */
 
@@ -26,7 +30,9 @@
 
 package com.ggvaidya.TaxonDNA.SpeciesIdentifier;
 
+import com.ggvaidya.TaxonDNA.Common.*;
 import com.ggvaidya.TaxonDNA.Common.DNA.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.formats.*;
 import com.ggvaidya.TaxonDNA.Common.UI.*;
 import java.awt.*;
 import java.awt.datatransfer.*;
@@ -34,13 +40,16 @@ import java.awt.event.*;
 import java.io.*; // For the BufferedReader, mostly
 import java.util.*;
 
-public class ExportBySpeciesName extends Panel implements UIExtension, ActionListener {
+public class ExportBySpeciesName extends Panel
+        implements UIExtension, ActionListener, Runnable {
     private SpeciesIdentifier seqId = null;
 
     // This is where we'll get our species list.
     private TextArea text_main = new TextArea();
 
     private Button btn_Calculate = new Button("Export sequences with the following species names");
+    private Button btn_FromFile =
+            new Button("Export them from a FASTA file instead, without loading it ...");
     private Button btn_Copy;
 
     public ExportBySpeciesName(SpeciesIdentifier seqId) {
@@ -55,6 +64,9 @@ public class ExportBySpeciesName extends Panel implements UIExtension, ActionLis
         btn_Calculate.addActionListener(this);
         rl.add(btn_Calculate, RightLayout.NEXTLINE | RightLayout.FILL_4);
 
+        btn_FromFile.addActionListener(this);
+        rl.add(btn_FromFile, RightLayout.NEXTLINE | RightLayout.FILL_4);
+
         add(top, BorderLayout.NORTH);
 
         add(text_main);
@@ -89,25 +101,138 @@ public class ExportBySpeciesName extends Panel implements UIExtension, ActionLis
         if (e.getSource().equals(btn_Calculate)) {
             exportSequences();
         }
+
+        if (e.getSource().equals(btn_FromFile)) {
+            TaskScheduler.getShared().submit("ExportBySpeciesName", this);
+        }
+    }
+
+    /** Returns the species names listed in text_main, one per line. */
+    private Vector<String> getSpeciesNames() throws IOException {
+        String line;
+        Vector<String> vec_species_names = new Vector<String>();
+
+        // Read the names off text_main
+        BufferedReader reader = new BufferedReader(new StringReader(text_main.getText()));
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                // blank line, ignore
+            } else {
+                vec_species_names.add(line);
+            }
+        }
+
+        return vec_species_names;
+    }
+
+    /** Asks the user for a file; returns null if they cancel. */
+    private File getFile(String title, int mode) {
+        FileDialog fd = new FileDialog(seqId.getFrame(), title, mode);
+        fd.setVisible(true);
+
+        if (fd.getFile() == null) return null;
+
+        if (fd.getDirectory() != null) return new File(fd.getDirectory(), fd.getFile());
+        return new File(fd.getFile());
+    }
+
+    /**
+     * Exports the sequences with the listed species names straight out of a FASTA file, without
+     * loading it. We index the file (or use the index we made last time), look the species up in
+     * the index, and read only the sequences we need, writing each one out as soon as we have it.
+     */
+    public void run() {
+        File f_input = getFile("Which FASTA file would you like to export from?", FileDialog.LOAD);
+        if (f_input == null) return;
+
+        File f_output = getFile("Where would you like to export them to?", FileDialog.SAVE);
+        if (f_output == null) return;
+
+        ProgressDialog pd =
+                ProgressDialog.create(
+                        seqId.getFrame(),
+                        "Please wait, indexing '" + f_input + "' ...",
+                        "I'm indexing '"
+                                + f_input
+                                + "', so I can find the sequences you want. I only need to do"
+                                + " this the first time you export from this file.");
+
+        FastaIndex index = null;
+        PrintWriter writer = null;
+        try {
+            Vector<String> vec_species_names = getSpeciesNames();
+            int[] sequence_counts = new int[vec_species_names.size()];
+
+            index = FastaIndex.open(f_input, pd);
+
+            // which sequences do we want?
+            boolean[] wanted = new boolean[index.count()];
+            int count = 0;
+            for (int x = 0; x < vec_species_names.size(); x++) {
+                int[] found = index.findBySpeciesName(vec_species_names.get(x));
+
+                for (int y = 0; y < found.length; y++) {
+                    if (!wanted[found[y]]) count++;
+                    wanted[found[y]] = true;
+                }
+                sequence_counts[x] = found.length;
+            }
+
+            // export them, in the order they're in the file
+            writer = new PrintWriter(new BufferedWriter(new FileWriter(f_output)));
+            for (int x = 0; x < wanted.length; x++) {
+                if (wanted[x]) FastaFile.writeSequence(writer, index.getSequence(x));
+            }
+            writer.close();
+            writer = null;
+
+            // yay done!
+            // write out stuff to tell the user what happened, etc.
+            StringBuilder results = new StringBuilder();
+            results.append(
+                    "Export successful! "
+                            + count
+                            + " sequences (out of "
+                            + index.count()
+                            + " in '"
+                            + f_input
+                            + "') were exported.\n\n");
+
+            for (int x = 0; x < vec_species_names.size(); x++) {
+                String name = vec_species_names.get(x);
+
+                results.append("\t" + name + "\t" + sequence_counts[x] + "\tsequences exported.\n");
+            }
+
+            text_main.setText(results.toString());
+        } catch (DelayAbortedException e) {
+            return;
+        } catch (Exception e) {
+            new MessageBox(
+                            seqId.getFrame(),
+                            "Error: could not export sequences!",
+                            "There was a problem exporting sequences from '"
+                                    + f_input
+                                    + "'. The technical description is: "
+                                    + e.getMessage())
+                    .go();
+        } finally {
+            if (writer != null) writer.close();
+
+            try {
+                if (index != null) index.close();
+            } catch (IOException e) {
+                // we're done with it anyway
+            }
+        }
     }
 
     public void exportSequences() {
         // Step 1. Make a list of 'chosen' species
         SequenceList list = seqId.lockSequenceList();
         try {
-            String line;
-            Vector vec_species_names = new Vector();
-
-            // Read the names off text_main
-            BufferedReader reader = new BufferedReader(new StringReader(text_main.getText()));
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    // blank line, ignore
-                } else {
-                    vec_species_names.add(line);
-                }
-            }
+            Vector<String> vec_species_names = getSpeciesNames();
 
             int[] sequence_counts = new int[vec_species_names.size()];
 
@@ -684,8 +684,9 @@ public class Exporter extends Panel implements Runnable, UIExtension, ActionList
     public void actionPerformed(ActionEvent evt) {
         if (evt.getActionCommand().equals("Custom export")) {
             seqId.goToExtension(getShortName());
-        } else if (evt.getSource().equals(btn_Go)) new Thread(this).start();
-        else if (evt.getSource().equals(btn_Copy)) {
+        } else if (evt.getSource().equals(btn_Go)) {
+            TaskScheduler.getShared().submit("Exporter", this, TaskScheduler.BATCH);
+        } else if (evt.getSource().equals(btn_Copy)) {
             try {
                 Clipboard clip = Toolkit.getDefaultToolkit().getSystemClipboard();
                 StringSelection selection = new StringSelection(text_main.getText());
@@ -29,6 +29,7 @@ import com.ggvaidya.TaxonDNA.Common.UI.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class ExtremePairwise extends Panel implements UIExtension, ActionListener, Runnable {
     private SpeciesIdentifier identifier;
@@ -71,7 +72,6 @@ public class ExtremePairwise extends Panel implements UIExtension, ActionListene
 
     public void run() {
         SequenceList list = identifier.lockSequenceList();
-        PairwiseDistances current = null;
 
         // is there a 'list'?
         if (list == null) {
@@ -83,135 +83,159 @@ public class ExtremePairwise extends Panel implements UIExtension, ActionListene
         // Tell the user we're working
         text_matches.setText("Please wait, processing data ...");
 
-        // set up the PairwiseDistancess
+        ProgressDialog pd =
+                ProgressDialog.create(
+                        identifier.getFrame(),
+                        "Please wait, calculating extreme pairwise distances ...",
+                        "I am calculating extreme pairwise distances. Please bear with me.");
+
+        try {
+            text_matches.setText(getReport(list, pd));
+        } catch (DelayAbortedException e) {
+            text_matches.setText("Pairwise calculation cancelled.");
+        } finally {
+            identifier.unlockSequenceList();
+        }
+    }
+
+    /**
+     * Finds the largest conspecific and smallest congeneric, interspecific distance for every
+     * sequence in 'list', and returns them as a human-readable report (one line per sequence, in
+     * the order of the list).
+     *
+     * <p>Each sequence only needs the two extremes of its own row of distances, so rather than
+     * sorting the whole list against it, we scan its row once and keep track of both. The rows are
+     * shared out between one worker per processor. Ties are broken the way sorting the list would
+     * have: the first of several equally close interspecific sequences, and the last of several
+     * equally distant conspecific ones.
+     *
+     * @throws DelayAbortedException if the user aborted the calculation
+     */
+    static String getReport(SequenceList list, DelayCallback delay) throws DelayAbortedException {
+        list.lock();
+
+        Sequence[] sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+        String[] rows = new String[sequences.length];
+
+        if (delay != null) delay.begin();
+
+        RowWorker[] workers = new RowWorker[ParallelLoop.countWorkers(sequences.length)];
+        for (int x = 0; x < workers.length; x++) workers[x] = new RowWorker(sequences, rows);
+
+        try {
+            ParallelLoop.run(sequences.length, workers, delay);
+        } catch (ExecutionException e) {
+            if (delay != null) delay.end();
+            throw new RuntimeException(
+                    "Error while calculating extreme pairwise distances: " + e.getCause(),
+                    e.getCause());
+        } finally {
+            list.unlock();
+        }
+
+        if (delay != null) delay.end();
+
         StringBuffer results = new StringBuffer();
         results.append(
                 "Sequence name\tLargest conspecific match\tDistance\tOverlap\tClosest congeneric,"
                         + " interspecific match\tDistance\tOverlap\n");
-        try {
-            ProgressDialog pd =
-                    ProgressDialog.create(
-                            identifier.getFrame(),
-                            "Please wait, calculating extreme pairwise distances ...",
-                            "I am calculating extreme pairwise distances. Please bear with me.");
-            pd.begin();
-
-            SortedSequenceList sorted = new SortedSequenceList(list);
-            Iterator i = list.iterator();
-            int total_sequences = list.count();
-            int count = 0;
-            while (i.hasNext()) {
-                pd.delay(count, total_sequences);
-                count++;
-
-                Sequence seq = (Sequence) i.next();
-
-                if (seq.getSpeciesName() == null) {
-                    results.append(seq.getFullName() + "\tUnable to identify species name\n");
-                    continue;
-                }
+        for (int x = 0; x < rows.length; x++) results.append(rows[x]);
 
-                sorted.sortAgainst(seq, null);
-
-                Sequence seq_largestIntra = null;
-                double distance_largestIntra = -1;
-                Sequence seq_smallestInter = null;
-                double distance_smallestInter = -1;
-                for (int x = 0; x < sorted.count(); x++) {
-                    Sequence seq2 = sorted.get(x);
-
-                    // ignore the nameless ones
-                    if (seq2.getSpeciesName() == null) continue;
-
-                    String genus1 = seq.getGenusName();
-                    String genus2 = seq2.getGenusName();
-
-                    if (genus1 != null
-                            && genus1.length() > 0
-                            && genus2 != null
-                            && genus2.length() > 0
-                            && genus1.equals(genus2)
-                            && // congeneric!
-                            !seq.getSpeciesName().equals(seq2.getSpeciesName())
-                    // but allospecific!
-                    ) {
-                        if (seq_smallestInter == null) {
-                            if (seq2.getPairwise(seq) != -1) {
-                                // the first inter will also (by definition) be the SMALLEST
-                                seq_smallestInter = seq2;
-                                break;
-                            }
-                        }
-                    }
-                }
+        return results.toString();
+    }
 
-                // we can't go until (x >= 0), since get(0) will get the query!
-                for (int x = sorted.count() - 1; x >= 1; x--) {
-                    Sequence seq2 = sorted.get(x);
+    /** A RowWorker works out the extremes of one row of distances at a time. */
+    private static class RowWorker implements ParallelLoop.Body {
+        private Sequence[] sequences;
+        private String[] rows;
 
-                    // ignore the nameless ones
-                    if (seq2.getSpeciesName() == null) continue;
+        public RowWorker(Sequence[] sequences, String[] rows) {
+            this.sequences = sequences;
+            this.rows = rows;
+        }
 
-                    if (seq.getSpeciesName().equals(seq2.getSpeciesName())) {
-                        // conspecific!
-                        if (seq2.getPairwise(seq) != -1) {
-                            // the last valid intra by definition is the largestIntra
-                            seq_largestIntra = seq2;
-                            break;
-                        }
-                    }
-                }
+        /** Works out the row of sequence number 'query'. */
+        public void process(int query) {
+            rows[query] = getRow(sequences[query]);
+        }
 
-                results.append(seq.getDisplayName() + "\t");
-
-                if (seq_largestIntra == null) {
-                    results.append("No matching conspecific sequence\tN/A\tN/A\t");
-                } else {
-                    results.append(
-                            seq_largestIntra.getDisplayName()
-                                    + "\t"
-                                    + percentage(seq_largestIntra.getPairwise(seq), 1)
-                                    + "\t"
-                                    + seq_largestIntra.getOverlap(seq)
-                                    + "\t");
-                    //					System.err.println(seq + "\tINTRA\t" + seq_largestIntra.getDisplayName()
-                    // + "\t" +
-                    // percentage(seq_largestIntra.getPairwise(seq), 1) + "\t" +
-                    // seq_largestIntra.getOverlap(seq) + "\n");
+        /** Scans the row of distances from 'seq', and returns its line of the report. */
+        private String getRow(Sequence seq) {
+            if (seq.getSpeciesName() == null)
+                return seq.getFullName() + "\tUnable to identify species name\n";
+
+            String genus1 = seq.getGenusName();
+            boolean has_genus = (genus1 != null && genus1.length() > 0);
+
+            Sequence seq_largestIntra = null;
+            double distance_largestIntra = -1;
+            Sequence seq_smallestInter = null;
+            double distance_smallestInter = -1;
+            for (int x = 0; x < sequences.length; x++) {
+                Sequence seq2 = sequences[x];
+
+                // ignore the query, and the nameless ones
+                if (seq2 == seq || seq2.getSpeciesName() == null) continue;
+
+                if (seq.getSpeciesName().equals(seq2.getSpeciesName())) {
+                    // conspecific! a later one wins a tie.
+                    double distance = seq2.getPairwiseNoBuffer(seq);
+                    if (distance < 0) continue;
+
+                    if (seq_largestIntra == null
+                            || Settings.makeLongFromDouble(distance - distance_largestIntra)
+                                    >= 0) {
+                        seq_largestIntra = seq2;
+                        distance_largestIntra = distance;
+                    }
+                } else if (has_genus && genus1.equals(seq2.getGenusName())) {
+                    // congeneric, but allospecific! an earlier one wins a tie.
+                    double distance = seq2.getPairwiseNoBuffer(seq);
+                    if (distance < 0) continue;
+
+                    if (seq_smallestInter == null
+                            || Settings.makeLongFromDouble(distance - distance_smallestInter)
+                                    < 0) {
+                        seq_smallestInter = seq2;
+                        distance_smallestInter = distance;
+                    }
                 }
+            }
 
-                if (seq_smallestInter == null) {
-                    results.append("No matching congeneric, interspecific sequence\tN/A\tN/A\t");
-                } else {
-                    results.append(
-                            seq_smallestInter.getDisplayName()
-                                    + "\t"
-                                    + percentage(seq_smallestInter.getPairwise(seq), 1)
-                                    + "\t"
-                                    + seq_smallestInter.getOverlap(seq)
-                                    + "\t");
-                    //					System.err.println(seq + "\tINTER\t" + seq_smallestInter.getDisplayName()
-                    // + "\t" +
-                    // seq_smallestInter.getPairwise(seq) + "\t" + seq_smallestInter.getOverlap(seq)
-                    // + "\n");
-                }
+            StringBuffer results = new StringBuffer();
+            results.append(seq.getDisplayName() + "\t");
+
+            if (seq_largestIntra == null) {
+                results.append("No matching conspecific sequence\tN/A\tN/A\t");
+            } else {
+                results.append(
+                        seq_largestIntra.getDisplayName()
+                                + "\t"
+                                + percentage(distance_largestIntra, 1)
+                                + "\t"
+                                + seq_largestIntra.getOverlap(seq)
+                                + "\t");
+            }
 
-                results.append('\n');
+            if (seq_smallestInter == null) {
+                results.append("No matching congeneric, interspecific sequence\tN/A\tN/A\t");
+            } else {
+                results.append(
+                        seq_smallestInter.getDisplayName()
+                                + "\t"
+                                + percentage(distance_smallestInter, 1)
+                                + "\t"
+                                + seq_smallestInter.getOverlap(seq)
+                                + "\t");
             }
 
-            pd.end();
+            results.append('\n');
 
-        } catch (DelayAbortedException e) {
-            identifier.unlockSequenceList();
-            text_matches.setText("Pairwise calculation cancelled.");
-            return;
+            return results.toString();
         }
-
-        text_matches.setText(results.toString());
-        identifier.unlockSequenceList();
     }
 
-    private double percentage(double x, double y) {
+    private static double percentage(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.percentage(x, y);
     }
 
@@ -227,7 +251,7 @@ public class ExtremePairwise extends Panel implements UIExtension, ActionListene
     // action listener
     public void actionPerformed(ActionEvent evt) {
         if (evt.getSource().equals(btn_Calculate)) {
-            new Thread(this, "ExtremePairwise").start();
+            TaskScheduler.getShared().submit("ExtremePairwise", this);
             return;
         }
     }
@@ -0,0 +1,273 @@
+/**
+ * An Identification is what the "best match" and "best close match" criteria make of a single
+ * query sequence: which sequence (or block of equally distant sequences) it matched best, how far
+ * away that was, whether that makes the identification correct, ambiguous or incorrect, and what
+ * the closest conspecific and allospecific sequences were.
+ *
+ * <p>This used to live inside BestMatch.run(), but it has no need for a user interface, so it now
+ * lives here where the command line can get at it as well.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005 Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.SpeciesIdentifier;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.*;
+
+public class Identification {
+    /** The query had no valid match at all (or, for best close match, none within threshold). */
+    public static final int NO_MATCH = 0;
+
+    /** The query was identified correctly. */
+    public static final int CORRECT = 1;
+
+    /** The query matched several species equally well. */
+    public static final int AMBIGUOUS = 2;
+
+    /** The query was identified as the wrong species. */
+    public static final int INCORRECT = 3;
+
+    private Sequence query;
+    private Sequence bestMatch = null;
+    private double distance = -1;
+    private int countOthers = 0; // sequences as close to the query as 'bestMatch'
+    private boolean block = false; // is 'bestMatch' part of a block of equally close sequences?
+    private boolean mixedBlock = false; // ... and does that block contain several species?
+    private boolean conspecific = false;
+    private Sequence firstConspecific = null;
+    private Sequence firstAllospecific = null;
+    private int result = NO_MATCH;
+    private boolean withinThreshold = false;
+
+    private Identification(Sequence query) {
+        this.query = query;
+    }
+
+    /**
+     * Identifies a query sequence. 'sset' should be a SortedSequenceList of all the sequences the
+     * query could be identified as, and contain the query itself (which, being zero distance away
+     * from itself, is ignored). 'threshold' is the threshold for best close match, as a fraction
+     * (i.e. 0.03 for 3%).
+     *
+     * @return the identification, or null if the query doesn't have a species name (and therefore
+     *     can't be identified as anything at all).
+     */
+    public static Identification identify(
+            Sequence query, SortedSequenceList sset, double threshold) {
+        // but does it have a species name? an analysis is
+        // pretty pointless without a species name!
+        if (query.getSpeciesName() == null) return null;
+
+        // for each query, we run a SortedSequenceSet.
+        try {
+            sset.sortAgainst(query, null);
+        } catch (DelayAbortedException e) {
+            // no DelayCallback
+        }
+
+        Identification id = new Identification(query);
+
+        // begin processing
+        int count_sequences = sset.count();
+        Sequence bestMatch = sset.get(1);
+
+        // is 'bestMatch' valid? If not, we have no_match at all!
+        if (bestMatch == null || bestMatch.getPairwise(query) == -1) return id;
+
+        double bestMatchDistance = bestMatch.getPairwise(query);
+        id.bestMatch = bestMatch;
+        id.distance = bestMatchDistance;
+
+        // look for a block after the 'best match'
+        boolean clean_block = false;
+        boolean mixed_block = false;
+        for (int y = 2; y < count_sequences; y++) {
+            Sequence match = sset.get(y);
+
+            if (match == null) {
+                // wtf? shouldn't happen, but say it does.
+                throw new RuntimeException(
+                        "I ran out of Sequences when looking up "
+                                + query
+                                + "! This is a programming error.");
+            }
+
+            if (!Settings.identical(match.getPairwise(query), bestMatchDistance)) {
+                // NOT identical
+                // we're now out of the block!
+                break;
+            }
+
+            id.countOthers++;
+
+            // now, in the block, check whether we're still clean ... or mixed
+            // please note that here (and ONLY here), conspecific and allospecific
+            // refer to whether the sequences in the block are con and allospecific
+            // to the bestMatch, NOT to the query!
+            if (sameSpecies(match, bestMatch)) {
+                // conspecific
+                clean_block = true;
+            } else {
+                // allospecific
+                mixed_block = true;
+            }
+        }
+
+        id.block = clean_block || mixed_block;
+        id.mixedBlock = mixed_block;
+
+        // completely independently: check for allo and conspecific matches
+        for (int y = 1; y < count_sequences; y++) {
+            Sequence match = sset.get(y);
+
+            if (match == null) {
+                // shouldn't happen; say it does.
+                throw new RuntimeException(
+                        "I ran out of Sequences when looking up "
+                                + query
+                                + "! This is a programming error.");
+            }
+
+            // if the match has no species name, no worries - we ignore it and move on.
+            if (match.getSpeciesName() == null) continue;
+
+            if (match.getPairwise(query) >= 0) {
+                if (id.firstConspecific == null
+                        && match.getSpeciesName().equals(query.getSpeciesName())) {
+                    // conspecific
+                    id.firstConspecific = match;
+                } else if (id.firstAllospecific == null
+                        && !match.getSpeciesName().equals(query.getSpeciesName())) {
+                    // allospecific
+                    id.firstAllospecific = match;
+                }
+
+                if (id.firstConspecific != null && id.firstAllospecific != null) break;
+            }
+        }
+
+        // is it conspecific or allospecific?
+        id.conspecific = sameSpecies(bestMatch, query);
+
+        // so: what's the block situation?
+        // a mixed block is, by definition, ambiguous all over; otherwise (no block, or
+        // a block of sequences from a single species) the match decides on its own merit.
+        if (mixed_block) id.result = AMBIGUOUS;
+        else if (id.conspecific) id.result = CORRECT;
+        else id.result = INCORRECT;
+
+        id.withinThreshold = (bestMatchDistance <= threshold);
+
+        return id;
+    }
+
+    /** Do these two sequences have the same (non-null) species name? */
+    private static boolean sameSpecies(Sequence a, Sequence b) {
+        return a.getSpeciesName() != null && a.getSpeciesName().equals(b.getSpeciesName());
+    }
+
+    /** Returns the query sequence. */
+    public Sequence getQuery() {
+        return query;
+    }
+
+    /** Did the query match anything at all? */
+    public boolean hasMatch() {
+        return bestMatch != null;
+    }
+
+    /** Returns the closest match to the query, or null if there isn't one. */
+    public Sequence getBestMatch() {
+        return bestMatch;
+    }
+
+    /** Returns the distance to the best match, or -1 if there isn't one. */
+    public double getDistance() {
+        return distance;
+    }
+
+    /** Returns the number of other sequences exactly as close to the query as the best match. */
+    public int countOtherMatches() {
+        return countOthers;
+    }
+
+    /** Is the best match one of a block of sequences, all equally close to the query? */
+    public boolean isBlock() {
+        return block;
+    }
+
+    /** Is the best match one of a block of sequences from several different species? */
+    public boolean isMixedBlock() {
+        return mixedBlock;
+    }
+
+    /** Is the best match conspecific with the query? */
+    public boolean isConspecific() {
+        return conspecific;
+    }
+
+    /** Returns the closest conspecific sequence with a valid distance, or null. */
+    public Sequence getFirstConspecific() {
+        return firstConspecific;
+    }
+
+    /** Returns the closest allospecific sequence with a valid distance, or null. */
+    public Sequence getFirstAllospecific() {
+        return firstAllospecific;
+    }
+
+    /** Is the best match within the best close match threshold? */
+    public boolean isWithinThreshold() {
+        return withinThreshold;
+    }
+
+    /** Returns the result according to "best match" (CORRECT, AMBIGUOUS, INCORRECT or NO_MATCH). */
+    public int getBestMatchResult() {
+        return result;
+    }
+
+    /**
+     * Returns the result according to "best close match": the same as best match, but NO_MATCH if
+     * the best match is outside the threshold.
+     */
+    public int getBestCloseMatchResult() {
+        if (!withinThreshold) return NO_MATCH;
+        return result;
+    }
+
+    /** Returns a short description of one of the results (CORRECT, AMBIGUOUS, etc.). */
+    public static String getResultName(int result) {
+        switch (result) {
+            case NO_MATCH:
+                return "no match";
+            case CORRECT:
+                return "correct";
+            case AMBIGUOUS:
+                return "ambiguous";
+            case INCORRECT:
+                return "incorrect";
+            default:
+                throw new IllegalArgumentException("Unknown identification result: " + result);
+        }
+    }
+}
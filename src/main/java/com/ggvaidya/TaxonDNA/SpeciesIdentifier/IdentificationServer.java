@@ -0,0 +1,418 @@
+/**
+ * IdentificationServer keeps a reference library loaded, and identifies sequences sent to it over
+ * HTTP. This saves every identification from having to start up Java and read in the whole library
+ * all over again. We only ever listen on the loopback interface, so only programs running on this
+ * very computer can get at us. Start it with:
+ *
+ * <pre>
+ *   SpeciesIdentifier --analysis serve --input library.fas --port 8470
+ * </pre>
+ *
+ * and talk to it with something like curl:
+ *
+ * <pre>
+ *   curl --data-binary @queries.fas http://127.0.0.1:8470/identify   (identify some sequences)
+ *   curl -X POST http://127.0.0.1:8470/reload                        (read the library in again)
+ *   curl http://127.0.0.1:8470/stats                                 (how are we doing?)
+ * </pre>
+ *
+ * <p>/identify takes FASTA-formatted sequences (read exactly as a FASTA file would be), and
+ * returns one row of tab-separated values for each of them, exactly as BatchQuery (and the 'query'
+ * analysis) would.
+ * Requests which come in at about the same time are put together into a single batch, which is
+ * then shared out between one worker per processor; this means a lot of small requests cost about
+ * as much as a single big one.
+ *
+ * <p>/reload reads the library file in again. Requests carry on being answered from the old
+ * library while the new one is being read, and every batch is identified against one library or
+ * the other, never a mixture.
+ *
+ * <p>/stats returns counters (as 'name [tab] value' lines): how many requests and queries we've
+ * answered, how long they took, how big the batches were, and so on.
+ *
+ * @author Gaurav Vaidya, gaurav@ggvaidya.com
+ */
+
+/*
+    TaxonDNA
+    Copyright (C) 2005 Gaurav Vaidya
+
+    This program is free software; you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation; either version 2 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program; if not, write to the Free Software
+    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+
+package com.ggvaidya.TaxonDNA.SpeciesIdentifier;
+
+import com.ggvaidya.TaxonDNA.Common.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.*;
+import com.ggvaidya.TaxonDNA.Common.DNA.formats.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class IdentificationServer implements HttpHandler, Runnable {
+    /** How long (in milliseconds) we wait for more requests to turn up before starting a batch. */
+    private static final int BATCH_WAIT = 5;
+
+    /** We stop adding requests to a batch once it has this many queries in it. */
+    private static final int MAX_BATCH = 2000;
+
+    private File file;
+    private double threshold;
+    private int count_neighbours;
+
+    private HttpServer server;
+    private Thread batcher;
+    private volatile boolean stopped = false;
+
+    private volatile BatchQuery library;
+    private volatile long loaded_at;
+    private Object reloading = new Object(); // only one reload at a time, please
+
+    // requests waiting to be put into a batch
+    private LinkedBlockingQueue<Job> waiting = new LinkedBlockingQueue<Job>();
+
+    // counters
+    private long started_at = System.currentTimeMillis();
+    private AtomicLong count_requests = new AtomicLong();
+    private AtomicLong count_failed = new AtomicLong();
+    private AtomicLong count_queries = new AtomicLong();
+    private AtomicLong count_batches = new AtomicLong();
+    private AtomicLong count_reloads = new AtomicLong();
+    private AtomicLong total_latency = new AtomicLong(); // in nanoseconds
+    private AtomicLong max_latency = new AtomicLong(); // in nanoseconds
+    private AtomicLong total_batch_time = new AtomicLong(); // in nanoseconds
+
+    /**
+     * Sets up a server which identifies sequences against the library in 'file', with the best
+     * close match 'threshold' (as a fraction) and listing 'count_neighbours' nearest neighbours.
+     * 'list' is the library, already read in from 'file'. Call start() to start listening.
+     */
+    public IdentificationServer(
+            File file, SequenceList list, double threshold, int count_neighbours) {
+        this.file = file;
+        this.threshold = threshold;
+        this.count_neighbours = count_neighbours;
+
+        library = new BatchQuery(list, threshold, count_neighbours);
+        loaded_at = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts listening on 'port' on the loopback interface (use 0 to pick any free port).
+     *
+     * @throws IOException if we couldn't listen on that port
+     */
+    public void start(int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        server = HttpServer.create(address, 0);
+        server.createContext("/", this);
+
+        // the request threads spend most of their time waiting for their batch, so we can
+        // have quite a few of them
+        server.setExecutor(Executors.newCachedThreadPool());
+
+        batcher = new Thread(this, "IdentificationServer");
+        batcher.setDaemon(true);
+        batcher.start();
+
+        server.start();
+    }
+
+    /** Returns the port we're listening on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops listening, waiting up to 'delay' seconds for requests which are being answered. Any
+     * requests which are still waiting after that fail, rather than waiting forever.
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+
+        // nobody gets onto the queue after this, so once the batcher
+        // has emptied it, nobody's left waiting
+        synchronized (waiting) {
+            stopped = true;
+        }
+        batcher.interrupt();
+    }
+
+    /** Waits until we've been stopped. */
+    public void waitUntilStopped() throws InterruptedException {
+        batcher.join();
+    }
+
+    /**
+     * Reads the library in again from its file. Until we're done, requests are answered from the
+     * old library.
+     *
+     * @throws SequenceListException if the file couldn't be read (the old library stays put)
+     */
+    public void reload() throws SequenceListException {
+        synchronized (reloading) {
+            SequenceList list;
+            try {
+                list = SequenceList.readFile(file, null);
+            } catch (DelayAbortedException e) {
+                // no DelayCallback
+                return;
+            }
+
+            library = new BatchQuery(list, threshold, count_neighbours);
+            loaded_at = System.currentTimeMillis();
+            count_reloads.incrementAndGet();
+        }
+    }
+
+    //
+    //	BATCHES. Requests are put onto the 'waiting' queue, from where the batcher thread picks
+    //	them up a batch at a time.
+    //
+
+    /** A request for some sequences to be identified. */
+    private static class Job {
+        private Sequence[] queries;
+        private Object[][] rows = null;
+        private String[] columns = null;
+        private Throwable failure = null;
+        private CountDownLatch done = new CountDownLatch(1);
+
+        public Job(Sequence[] queries) {
+            this.queries = queries;
+        }
+    }
+
+    /** The batcher thread: takes requests off the queue, and identifies them in batches. */
+    public void run() {
+        try {
+            while (!stopped) {
+                // wait for a request, then for any others which turn up soon after
+                Vector<Job> batch = new Vector<Job>();
+                Job job = waiting.take();
+                int count = job.queries.length;
+                batch.add(job);
+
+                long until = System.nanoTime() + BATCH_WAIT * 1000000L;
+                while (count < MAX_BATCH) {
+                    long left = until - System.nanoTime();
+                    if (left <= 0) break;
+
+                    job = waiting.poll(left, TimeUnit.NANOSECONDS);
+                    if (job == null) break;
+
+                    count += job.queries.length;
+                    batch.add(job);
+                }
+
+                identify(batch, count);
+            }
+        } catch (InterruptedException e) {
+            // time to stop
+        }
+
+        // anybody who's still waiting isn't going to get an answer
+        Job job;
+        while ((job = waiting.poll()) != null) {
+            job.failure =
+                    new IllegalStateException(
+                            "The server was stopped before the queries could be identified");
+            job.done.countDown();
+        }
+    }
+
+    /** Identifies all the queries in 'batch' (of 'count' queries) in one go. */
+    private void identify(Vector<Job> batch, int count) {
+        BatchQuery current = library; // the same library for the whole batch
+
+        Sequence[] queries = new Sequence[count];
+        int x = 0;
+        for (int y = 0; y < batch.size(); y++) {
+            Job job = batch.get(y);
+
+            System.arraycopy(job.queries, 0, queries, x, job.queries.length);
+            x += job.queries.length;
+        }
+
+        long start = System.nanoTime();
+        Object[][] rows = null;
+        Throwable failure = null;
+        try {
+            rows = current.run(queries, null, null);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        total_batch_time.addAndGet(System.nanoTime() - start);
+        count_batches.incrementAndGet();
+
+        // hand the results back
+        x = 0;
+        for (int y = 0; y < batch.size(); y++) {
+            Job job = batch.get(y);
+
+            if (failure != null) {
+                job.failure = failure;
+            } else {
+                job.columns = current.getColumns();
+                job.rows = new Object[job.queries.length][];
+                System.arraycopy(rows, x, job.rows, 0, job.queries.length);
+            }
+            x += job.queries.length;
+
+            job.done.countDown();
+        }
+    }
+
+    //
+    //	HTTP.
+    //
+
+    /** Answers a single HTTP request. */
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        count_requests.incrementAndGet();
+
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+
+        int status = 200;
+        String response;
+        try {
+            if (path.equals("/identify")) {
+                if (!method.equals("POST")) {
+                    status = 405;
+                    response = "Please POST the sequences to identify to /identify.\n";
+                } else {
+                    response = identify(exchange.getRequestBody());
+                }
+            } else if (path.equals("/reload")) {
+                if (!method.equals("POST")) {
+                    status = 405;
+                    response = "Please POST to /reload to read the library in again.\n";
+                } else {
+                    reload();
+                    response = getStats();
+                }
+            } else if (path.equals("/stats")) {
+                response = getStats();
+            } else {
+                status = 404;
+                response = "Unknown path '" + path + "': try /identify, /reload or /stats.\n";
+            }
+        } catch (SequenceException e) {
+            status = 400;
+            response = "Could not read the query sequences: " + e.getMessage() + "\n";
+        } catch (SequenceListException e) {
+            status = 500;
+            response = "Could not read the library from '" + file + "': " + e.getMessage() + "\n";
+        } catch (Throwable e) {
+            status = 500;
+            response = "Error while answering the request: " + e + "\n";
+        }
+
+        if (status != 200) count_failed.incrementAndGet();
+
+        byte[] bytes = response.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+
+        long latency = System.nanoTime() - start;
+        total_latency.addAndGet(latency);
+
+        long max = max_latency.get();
+        while (latency > max && !max_latency.compareAndSet(max, latency)) max = max_latency.get();
+    }
+
+    /**
+     * Reads the sequences out of 'body', waits for them to be identified, and returns the results
+     * as tab-separated values.
+     */
+    private String identify(InputStream body) throws Exception {
+        SequenceList list = new SequenceList();
+        FastaFile.appendFromStream(list, body);
+
+        Job job = new Job((Sequence[]) list.toArray(new Sequence[list.count()]));
+        count_queries.addAndGet(job.queries.length);
+
+        if (job.queries.length > 0) {
+            synchronized (waiting) {
+                if (stopped) throw new IllegalStateException("The server is being stopped");
+                waiting.put(job);
+            }
+            job.done.await();
+        } else {
+            job.columns = library.getColumns();
+            job.rows = new Object[0][];
+        }
+
+        if (job.failure instanceof Exception) throw (Exception) job.failure;
+        if (job.failure != null)
+            throw new RuntimeException(
+                    "Error while identifying the queries: " + job.failure, job.failure);
+
+        StringBuffer buff = new StringBuffer();
+        buff.append(BatchResults.join(job.columns)).append('\n');
+        for (int x = 0; x < job.rows.length; x++)
+            buff.append(BatchResults.join(job.rows[x])).append('\n');
+
+        return buff.toString();
+    }
+
+    /** Returns our counters, as 'name [tab] value' lines. */
+    public String getStats() {
+        long now = System.currentTimeMillis();
+        long requests = count_requests.get();
+        long queries = count_queries.get();
+        long batches = count_batches.get();
+        double seconds = (now - started_at) / 1000.0;
+
+        StringBuffer buff = new StringBuffer();
+        stat(buff, "library", file.getPath());
+        stat(buff, "library_sequences", Integer.valueOf(library.countReferences()));
+        stat(buff, "library_species", Integer.valueOf(library.countSpecies()));
+        stat(buff, "library_loaded_seconds_ago", Long.valueOf((now - loaded_at) / 1000));
+        stat(buff, "reloads", Long.valueOf(count_reloads.get()));
+        stat(buff, "threshold", Double.valueOf(Settings.percentage(threshold, 1)));
+        stat(buff, "neighbours", Integer.valueOf(count_neighbours));
+        stat(buff, "uptime_seconds", Double.valueOf(Math.round(seconds * 10) / 10.0));
+        stat(buff, "requests", Long.valueOf(requests));
+        stat(buff, "failed_requests", Long.valueOf(count_failed.get()));
+        stat(buff, "queries", Long.valueOf(queries));
+        stat(buff, "batches", Long.valueOf(batches));
+        stat(buff, "mean_batch_size", ratio(queries, batches));
+        stat(buff, "mean_batch_ms", ratio(total_batch_time.get() / 1e6, batches));
+        stat(buff, "mean_latency_ms", ratio(total_latency.get() / 1e6, requests));
+        stat(buff, "max_latency_ms", ratio(max_latency.get() / 1e6, 1));
+        stat(buff, "queries_per_second", ratio(queries, seconds));
+
+        return buff.toString();
+    }
+
+    private static void stat(StringBuffer buff, String name, Object value) {
+        buff.append(BatchResults.join(new Object[] {name, value})).append('\n');
+    }
+
+    /** Returns x/y to two decimal places, or null if y is zero. */
+    private static Double ratio(double x, double y) {
+        if (y == 0) return null;
+        return Double.valueOf(Math.round(x / y * 100) / 100.0);
+    }
+}
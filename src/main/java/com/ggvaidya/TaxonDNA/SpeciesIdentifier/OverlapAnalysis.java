@@ -6,6 +6,9 @@
  *
  * <p>Mind you, we only need intraspecific overlaps for Michael's fix.
  *
+ * <p>The overlaps themselves come from OverlapProfiles, which work them out from the runs of
+ * informative bases in each sequence instead of comparing the sequences base by base.
+ *
  * @author Gaurav Vaidya, gaurav@ggvaidya.com
  */
 
@@ -37,6 +40,7 @@ import java.awt.*;
 import java.awt.datatransfer.*;
 import java.awt.event.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class OverlapAnalysis extends Panel
         implements UIExtension, ActionListener, ItemListener, Runnable {
@@ -107,7 +111,7 @@ public class OverlapAnalysis extends Panel
         }
 
         if (e.getSource().equals(btn_Calculate)) {
-            new Thread(this, "OverlapAnalysis").start();
+            TaskScheduler.getShared().submit("OverlapAnalysis", this);
         }
     }
 
@@ -150,14 +154,14 @@ public class OverlapAnalysis extends Panel
     }
 
     public void run() {
-        // Okay we need to figure out a lot of Vectors to keep track of numbers as we go, and then
-        // average them out.
-
-        // Init!
         SequenceList list = seqId.lockSequenceList();
 
-        // First off, we need SSLs. Lots of SSLs.
-        // That means PairwiseDistances
+        if (list == null) {
+            seqId.unlockSequenceList();
+            text_main.setText("No sequences loaded.");
+            return;
+        }
+
         ProgressDialog delay =
                 ProgressDialog.create(
                         seqId.getFrame(),
@@ -165,55 +169,114 @@ public class OverlapAnalysis extends Panel
                         "Overlaps for this dataset are being calculated. Sorry for the delay!");
 
         try {
-            // for each sequence in the dataset, we need:
-            // 1.	a smallest inter/congen distance
-            // 2.	an average inter/congen distance
-            delay.begin();
-
-            // To store the results
-            StringBuffer buff = new StringBuffer();
-            buff.append("Name\tName\tOverlap (bp)\n");
-
-            // data structures
-            for (int y = 0; y < list.count(); y++) {
-                delay.delay(y, list.count());
-
-                Sequence seq = (Sequence) list.get(y);
-
-                // Only do the half-table: each sequence is compared against the sequence
-                // in front of it.
-                for (int x = y; x < list.count(); x++) {
-                    Sequence seq2 = (Sequence) list.get(x);
-
-                    if (seq2 == seq) continue; // Don't compare with itself
-
-                    if (seq2.getSpeciesName().equals(seq.getSpeciesName())) {
-                        // Conspecifics only!
-                        buff.append(
-                                seq.getFullName()
-                                        + "\t"
-                                        + seq2.getFullName()
-                                        + "\t"
-                                        + seq.getOverlap(seq2)
-                                        + "\n");
-                    }
-                }
-            }
-
-            // Done!
-            text_main.setText(buff.toString());
-
-            delay.end();
-            delay = null;
+            text_main.setText(getReport(list, delay));
         } catch (DelayAbortedException e) {
             return;
         } finally {
             seqId.unlockSequenceList();
-            if (delay != null) // this will actually work! trust me.
-            delay.end();
+        }
+    }
+
+    /**
+     * Works out the overlap between every pair of conspecific sequences in 'list', and returns them
+     * as a human-readable report: one line per pair, with each sequence compared against the
+     * sequences after it in the list. Sequences without a species name are left out.
+     *
+     * <p>We make an OverlapProfile of every sequence first, so each overlap only takes a few
+     * comparisons rather than a walk down both sequences. The sequences are then shared out
+     * between one worker per processor, each of which writes up the lines for the sequences it's
+     * been given.
+     *
+     * @throws DelayAbortedException if the user aborted the calculation
+     */
+    static String getReport(SequenceList list, DelayCallback delay) throws DelayAbortedException {
+        list.lock();
+
+        Sequence[] sequences = (Sequence[]) list.toArray(new Sequence[list.count()]);
+        OverlapProfile[] profiles = new OverlapProfile[sequences.length];
+        String[] rows = new String[sequences.length];
+
+        // for every sequence, the next sequence of the same species (or -1)
+        int[] next_conspecific = new int[sequences.length];
+        Hashtable<String, Integer> last_seen = new Hashtable<String, Integer>();
+        for (int x = sequences.length - 1; x >= 0; x--) {
+            next_conspecific[x] = -1;
+
+            String name = sequences[x].getSpeciesName();
+            if (name == null) continue;
+
+            Integer next = last_seen.get(name);
+            if (next != null) next_conspecific[x] = next.intValue();
+            last_seen.put(name, Integer.valueOf(x));
         }
 
-        return;
+        if (delay != null) delay.begin();
+
+        try {
+            // the profiles are quick, and every worker will need them all
+            for (int x = 0; x < sequences.length; x++)
+                profiles[x] = new OverlapProfile(sequences[x]);
+
+            OverlapWorker[] workers =
+                    new OverlapWorker[ParallelLoop.countWorkers(sequences.length)];
+            for (int x = 0; x < workers.length; x++)
+                workers[x] = new OverlapWorker(profiles, next_conspecific, rows);
+
+            ParallelLoop.run(sequences.length, workers, delay);
+        } catch (ExecutionException e) {
+            if (delay != null) delay.end();
+            throw new RuntimeException(
+                    "Error while calculating overlaps: " + e.getCause(), e.getCause());
+        } finally {
+            list.unlock();
+        }
+
+        if (delay != null) delay.end();
+
+        // To store the results
+        StringBuffer buff = new StringBuffer();
+        buff.append("Name\tName\tOverlap (bp)\n");
+        for (int x = 0; x < rows.length; x++) buff.append(rows[x]);
+
+        return buff.toString();
+    }
+
+    /**
+     * An OverlapWorker writes up the overlaps between one sequence and all the conspecific
+     * sequences after it in the list, one sequence at a time.
+     */
+    private static class OverlapWorker implements ParallelLoop.Body {
+        private OverlapProfile[] profiles;
+        private int[] next_conspecific;
+        private String[] rows;
+
+        public OverlapWorker(OverlapProfile[] profiles, int[] next_conspecific, String[] rows) {
+            this.profiles = profiles;
+            this.next_conspecific = next_conspecific;
+            this.rows = rows;
+        }
+
+        /** Writes up the overlaps of sequence number 'query'. */
+        public void process(int query) {
+            StringBuffer buff = new StringBuffer();
+            Sequence seq = profiles[query].getSequence();
+
+            // Only do the half-table: each sequence is compared against the
+            // (conspecific) sequences after it.
+            for (int x = next_conspecific[query]; x != -1; x = next_conspecific[x]) {
+                Sequence seq2 = profiles[x].getSequence();
+
+                buff.append(
+                        seq.getFullName()
+                                + "\t"
+                                + seq2.getFullName()
+                                + "\t"
+                                + profiles[query].getOverlap(profiles[x])
+                                + "\n");
+            }
+
+            rows[query] = buff.toString();
+        }
     }
 
     private double percentage(double x, double y) {
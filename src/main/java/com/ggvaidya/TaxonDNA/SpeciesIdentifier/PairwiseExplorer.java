@@ -121,8 +121,12 @@ public class PairwiseExplorer extends Panel
         // set up the PairwiseDistancess
         try {
 
-            // now: are we intra or inter? it's all in the threadname!
-            if (Thread.currentThread().getName().equals("IntraPairwiseExplorer")) {
+            // now: are we intra or inter? it's all in the name of the task we're running as!
+            TaskScheduler.Task task = TaskScheduler.getCurrentTask();
+            if (task != null && task.getName().equals("InterPairwiseExplorer")) mode = 1;
+            else mode = 0;
+
+            if (mode == 0) {
                 if (intra == null) {
                     intra =
                             new PairwiseDistances(
@@ -363,13 +367,11 @@ public class PairwiseExplorer extends Panel
     // action listener
     public void actionPerformed(ActionEvent evt) {
         if (evt.getSource().equals(btn_Intra)) {
-            new Thread(this, "IntraPairwiseExplorer").start();
-            mode = 0;
+            TaskScheduler.getShared().submit("IntraPairwiseExplorer", this);
             return;
         }
         if (evt.getSource().equals(btn_Inter)) {
-            new Thread(this, "InterPairwiseExplorer").start();
-            mode = 1;
+            TaskScheduler.getShared().submit("InterPairwiseExplorer", this);
             return;
         }
     }
@@ -45,6 +45,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
     private TextArea text_main = new TextArea();
 
     private Button btn_Calculate = new Button("Calculate now!");
+    private Checkbox check_sketch = new Checkbox(getSketchLabel());
     private Button btn_Copy = new Button("Copy to Clipboard");
 
     private Button btn_dumpIntra = new Button("Export intraspecific distances");
@@ -54,6 +55,23 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         return fivePercentCutoff;
     }
 
+    /** Returns the label for check_sketch, which depends on how accurate we're being. */
+    private static String getSketchLabel() {
+        // the accuracy as a percentage, e.g. 0.001 (we don't want 1.0E-5 here!)
+        double accuracy = 100.0 / Math.round(1 / Settings.getAccurateTo());
+
+        return "Save memory by approximating distances to the nearest "
+                + new java.text.DecimalFormat("0.##########").format(accuracy)
+                + "%";
+    }
+
+    /** Returns (roughly) how many bytes of memory 'pd' takes up, for the ResultCache. */
+    private static long getCost(PairwiseDistribution pd) {
+        // a histogram has two longs for every bucket, however many distances there are
+        if (pd.isSketch()) return 16 * Math.round(1 / Settings.getAccurateTo());
+        return 4 * pd.countValidComparisons(); // a float for each distance
+    }
+
     public PairwiseDistribution getPD_intra() {
         return intra;
     }
@@ -74,8 +92,14 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         // create the panel
         setLayout(new BorderLayout());
 
+        Panel top = new Panel();
+        top.setLayout(new BorderLayout());
+
         btn_Calculate.addActionListener(this);
-        add(btn_Calculate, BorderLayout.NORTH);
+        top.add(btn_Calculate);
+        top.add(check_sketch, BorderLayout.SOUTH);
+
+        add(top, BorderLayout.NORTH);
 
         text_main.setEditable(false);
         text_main.setFont(new Font("Monospaced", Font.PLAIN, 12));
@@ -104,6 +128,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         fivePercentCutoff = 0;
 
         text_main.setText("");
+        check_sketch.setLabel(getSketchLabel()); // in case the accuracy has changed
     }
 
     public void run() {
@@ -128,32 +153,56 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         text_main.setText("Please wait, processing data ...");
 
         // set up the PairwiseDistributions
-        try {
-            intra =
-                    new PairwiseDistribution(
-                            set,
-                            PairwiseDistribution.PD_INTRA,
-                            ProgressDialog.create(
-                                    seqId.getFrame(),
-                                    "Calculating pairwise distances",
-                                    "All intraspecific pairwise distances are being calculated."
-                                            + " Sorry for the delay!",
-                                    0));
-            inter =
-                    new PairwiseDistribution(
-                            set,
-                            PairwiseDistribution.PD_INTER,
-                            ProgressDialog.create(
-                                    seqId.getFrame(),
-                                    "Calculating pairwise distances",
-                                    "All interspecific, congeneric pairwise distances are being"
-                                            + " calculated. Sorry for the delay!",
-                                    0));
-        } catch (DelayAbortedException e) {
-            seqId.unlockSequenceList();
-            this.set = null;
-            text_main.setText("Pairwise summary cancelled.");
-            return;
+        int mode = PairwiseDistribution.PD_EXACT;
+        if (check_sketch.getState()) mode = PairwiseDistribution.PD_SKETCH;
+
+        // if nothing has changed since we last did this, we already have the distributions
+        String parameters = "mode=" + mode;
+        PairwiseDistribution[] cached =
+                (PairwiseDistribution[])
+                        ResultCache.getShared()
+                                .get(ResultCache.getKey("PairwiseSummary", set, parameters));
+
+        if (cached != null) {
+            intra = cached[0];
+            inter = cached[1];
+        } else {
+            try {
+                intra =
+                        new PairwiseDistribution(
+                                set,
+                                PairwiseDistribution.PD_INTRA,
+                                mode,
+                                ProgressDialog.create(
+                                        seqId.getFrame(),
+                                        "Calculating pairwise distances",
+                                        "All intraspecific pairwise distances are being"
+                                                + " calculated. Sorry for the delay!",
+                                        0));
+                inter =
+                        new PairwiseDistribution(
+                                set,
+                                PairwiseDistribution.PD_INTER,
+                                mode,
+                                ProgressDialog.create(
+                                        seqId.getFrame(),
+                                        "Calculating pairwise distances",
+                                        "All interspecific, congeneric pairwise distances are"
+                                                + " being calculated. Sorry for the delay!",
+                                        0));
+            } catch (DelayAbortedException e) {
+                seqId.unlockSequenceList();
+                this.set = null;
+                text_main.setText("Pairwise summary cancelled.");
+                return;
+            }
+
+            // (calculating them might have resorted the list, giving it a new version)
+            ResultCache.getShared()
+                    .put(
+                            ResultCache.getKey("PairwiseSummary", set, parameters),
+                            new PairwiseDistribution[] {intra, inter},
+                            getCost(intra) + getCost(inter));
         }
 
         // a slow, hacky way of checking the number of species
@@ -207,20 +256,8 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         } else {
             // remove the 5% biggest intraspecific pairwise distances
             //
-            int x = 1;
-            Vector distances_intra = intra.getDistancesBetween(0, 1);
-
             // Note: "max_intra_distance" really means "95pc_intra_distance".
-            float max_intra_distance =
-                    ((Float) distances_intra.get(distances_intra.size() - 1)).floatValue();
-
-            while (x < distances_intra.size()) {
-                Float dist = (Float) distances_intra.get(distances_intra.size() - x);
-                if ((float) x / distances_intra.size() > 0.05) break;
-
-                max_intra_distance = dist.floatValue();
-                x++;
-            }
+            float max_intra_distance = getLargestAfterFivePercent(intra);
 
             // Total range.
             println(
@@ -261,20 +298,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
 
         } else {
             // Note: "min_inter_distance" really means "95pc_inter_distance".
-            Vector distances_inter = inter.getDistancesBetween(0, 1);
-            float min_inter_distance = inter.getMinimumDistance();
-
-            i = distances_inter.iterator();
-            int x = 0;
-            while (i.hasNext()) {
-                Float dist = (Float) i.next();
-
-                if ((float) x / distances_inter.size() > 0.05) break;
-
-                min_inter_distance = dist.floatValue();
-
-                x++;
-            }
+            float min_inter_distance = getSmallestAfterFivePercent(inter);
 
             // Total range.
             println(
@@ -319,7 +343,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         println(str, "\nPERCENTAGES");
         float min_inter_distance = inter.getMinimumDistance();
         float max_intra_distance = intra.getMaximumDistance();
-        int count_comparisons = inter.countValidComparisons() + intra.countValidComparisons();
+        long count_comparisons = inter.countValidComparisons() + intra.countValidComparisons();
         float overlap = Math.abs(max_intra_distance - min_inter_distance);
 
         if (inter.countValidComparisons() == 0) {
@@ -337,28 +361,23 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
 
         } else {
             // If there ARE interspecific comparisons
-            int within =
+            long within =
                     intra.getBetweenIncl(min_inter_distance, max_intra_distance)
                             + inter.getBetweenIncl(min_inter_distance, max_intra_distance);
 
-            Vector distances_intra = intra.getDistancesBetween(0, 1);
-            Vector distances_inter = inter.getDistancesBetween(0, 1);
-
-            if (distances_intra.isEmpty()) { // no distances for intra
+            if (intra.getBetweenIncl(0, 1) == 0) { // no distances for intra
                 println(str, "Total overlap:\t No intraspecific distances present.");
                 println(
                         str,
                         "Overlap with 5% error margs on both ends:\t No intraspecific distances"
                                 + " present.");
-            } else if (distances_inter.isEmpty()) { // no distance for inter
+            } else if (inter.getBetweenIncl(0, 1) == 0) { // no distance for inter
                 println(str, "Total overlap:\t No interspecific distances present.");
                 println(
                         str,
                         "Overlap with 5% error margs on both ends:\t No interspecific distances"
                                 + " present.");
             } else {
-                int x = 0;
-
                 println(
                         str,
                         "Total overlap:\t"
@@ -373,30 +392,11 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
 
                 // remove the 5% smallest interspecific pairwise distances
                 //
-                i = distances_inter.iterator();
-                x = 0;
-                while (i.hasNext()) {
-                    Float dist = (Float) i.next();
-
-                    if ((float) x / distances_inter.size() > 0.05) break;
-
-                    min_inter_distance = dist.floatValue();
-
-                    x++;
-                }
+                min_inter_distance = getSmallestAfterFivePercent(inter);
 
                 // remove the 5% biggest intraspecific pairwise distances
                 //
-                x = 1;
-                while (x < distances_intra.size()) {
-                    Float dist = (Float) distances_intra.get(distances_intra.size() - x);
-
-                    if ((float) x / distances_intra.size() > 0.05) break;
-
-                    max_intra_distance = dist.floatValue();
-
-                    x++;
-                }
+                max_intra_distance = getLargestAfterFivePercent(intra);
 
                 // calculate the usual suspects
                 //
@@ -415,7 +415,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
                  *
                  */
 
-                fivePercentCutoff = (float) percentage(max_intra_distance, 1);
+                fivePercentCutoff = calculateFivePercentCutoff(intra, inter);
 
                 println(
                         str,
@@ -484,10 +484,63 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
         seqId.unlockSequenceList();
     }
 
-    private double percentage(double x, double y) {
+    private static double percentage(double x, double y) {
         return com.ggvaidya.TaxonDNA.Common.DNA.Settings.percentage(x, y);
     }
 
+    /**
+     * Returns the number of distances (out of 'total') which make up the 5% we chop off either end
+     * of a distribution; i.e. the smallest x for which x/total is more than 5%.
+     */
+    private static long fivePercentOf(long total) {
+        long x = (long) (total * 0.05);
+
+        while (x > 0 && (float) (x - 1) / total > 0.05) x--;
+        while ((float) x / total <= 0.05) x++;
+
+        return x;
+    }
+
+    /**
+     * Returns the largest distance between 0 and 1 in 'pd', once the largest 5% of those distances
+     * have been removed.
+     */
+    static float getLargestAfterFivePercent(PairwiseDistribution pd) {
+        long total = pd.getBetweenIncl(0, 1);
+        if (total == 0) return pd.getMaximumDistance();
+
+        long chop = Math.max(1, Math.min(fivePercentOf(total) - 1, total - 1));
+
+        return pd.getDistanceAt(total - chop);
+    }
+
+    /**
+     * Returns the smallest distance between 0 and 1 in 'pd', once the smallest 5% of those
+     * distances have been removed.
+     */
+    static float getSmallestAfterFivePercent(PairwiseDistribution pd) {
+        long total = pd.getBetweenIncl(0, 1);
+        if (total == 0) return pd.getMinimumDistance();
+
+        long chop = Math.min(fivePercentOf(total), total);
+
+        return pd.getDistanceAt(chop - 1);
+    }
+
+    /**
+     * Works out the "five percent intraspecific cutoff" (as a percentage, i.e. 3.0 for 3%): the
+     * largest intraspecific distance once the largest 5% of them have been removed. This is the
+     * threshold we suggest for best close match.
+     *
+     * @return the cutoff, or -1 if either distribution has no distances between 0 and 1 in it.
+     */
+    static float calculateFivePercentCutoff(
+            PairwiseDistribution intra, PairwiseDistribution inter) {
+        if (intra.getBetweenIncl(0, 1) == 0 || inter.getBetweenIncl(0, 1) == 0) return -1;
+
+        return (float) percentage(getLargestAfterFivePercent(intra), 1);
+    }
+
     /* Pad a string to a size */
     private void println(StringBuffer main, String x) {
         StringBuffer buff = new StringBuffer();
@@ -527,19 +580,13 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
 
         if (delay != null) delay.begin();
 
-        Vector v = pd.getDistancesBetween(0.0, 1.0);
-        Iterator i = v.iterator();
-
-        int count = 0;
-        int total = v.size();
-        while (i.hasNext()) {
-            Float f = (Float) i.next();
-            pw.println(f);
+        long total = pd.getBetweenIncl(0, 1);
+        for (long count = 0; count < total; count++) {
+            pw.println(pd.getDistanceAt(count));
 
             if (delay != null) {
-                delay.delay(count, total);
+                delay.delay((int) (count * 100 / total), 100);
             }
-            count++;
         }
 
         if (delay != null) delay.end();
@@ -548,7 +595,7 @@ public class PairwiseSummary extends Panel implements UIExtension, ActionListene
     // action listener
     public void actionPerformed(ActionEvent evt) {
         if (evt.getSource().equals(btn_Calculate)) {
-            new Thread(this, "PairwiseSummary").start();
+            TaskScheduler.getShared().submit("PairwiseSummary", this);
             return;
         }
 
@@ -8,6 +8,10 @@
  * Click on "Query", and everything will make sense again.
  *
  * <p>I am not locking our local SSL. PLEASE NOBODY TOUCH THIS EVER PLEASE OH PLEASE.
+ *
+ * <p>You can also identify a whole file of sequences at once: they're run through a BatchQuery
+ * against the loaded sequences, and the results are written out to a tab-separated file as they
+ * come in.
  */
 /*
     TaxonDNA
@@ -36,10 +40,12 @@ import com.ggvaidya.TaxonDNA.Common.UI.*;
 import java.awt.*;
 import java.awt.datatransfer.*; // for clipboard
 import java.awt.event.*;
+import java.io.*;
 import java.text.*; // for MessageFormat
 import java.util.*;
 
-public class QuerySequence extends Panel implements UIExtension, ActionListener, ItemListener {
+public class QuerySequence extends Panel
+        implements UIExtension, ActionListener, ItemListener, Runnable {
     private SpeciesIdentifier seqId;
 
     private SortedSequenceList sset;
@@ -54,6 +60,16 @@ public class QuerySequence extends Panel implements UIExtension, ActionListener,
     private Button btn_Query = new Button("Query");
     private Button btn_Copy = new Button("Copy to Clipboard");
 
+    // batch queries
+    private TextField text_threshold = new TextField("3.0", 5);
+    private TextField text_top = new TextField("5", 3);
+    private Button btn_Batch = new Button("Query a file of sequences ...");
+
+    private File batch_queries = null; // the file of queries ...
+    private File batch_output = null; // ... and where the results go
+    private double batch_threshold = 0.03;
+    private int batch_top = 5;
+
     public QuerySequence(SpeciesIdentifier view) {
         super();
 
@@ -71,7 +87,23 @@ public class QuerySequence extends Panel implements UIExtension, ActionListener,
         text_sequence.setFont(new Font("Monospaced", Font.PLAIN, 12));
         enterSeqHere.add(text_sequence);
         btn_Query.addActionListener(this);
-        enterSeqHere.add(btn_Query, BorderLayout.SOUTH);
+
+        Panel queryButtons = new Panel();
+        queryButtons.setLayout(new BorderLayout());
+        queryButtons.add(btn_Query);
+
+        Panel batch = new Panel();
+        batch.setLayout(new FlowLayout(FlowLayout.LEFT));
+        batch.add(new Label("Or identify a file of sequences, at a threshold of"));
+        batch.add(text_threshold);
+        batch.add(new Label("% and listing"));
+        batch.add(text_top);
+        batch.add(new Label("neighbours each:"));
+        btn_Batch.addActionListener(this);
+        batch.add(btn_Batch);
+        queryButtons.add(batch, BorderLayout.SOUTH);
+
+        enterSeqHere.add(queryButtons, BorderLayout.SOUTH);
         add(enterSeqHere, BorderLayout.NORTH);
 
         Panel resultsAndScores = new Panel();
@@ -209,6 +241,128 @@ public class QuerySequence extends Panel implements UIExtension, ActionListener,
         if (cmd.equals("Query")) {
             query(text_sequence.getText());
         }
+
+        if (evt.getSource().equals(btn_Batch)) {
+            try {
+                batch_threshold = Double.parseDouble(text_threshold.getText().trim()) / 100;
+                batch_top = Integer.parseInt(text_top.getText().trim());
+            } catch (NumberFormatException e) {
+                batch_top = -1;
+            }
+
+            if (!(batch_threshold >= 0) || batch_top < 0) {
+                new MessageBox(
+                                seqId.getFrame(),
+                                "Invalid settings!",
+                                "The threshold must be a percentage, and the number of neighbours"
+                                        + " must be a whole number (use 0 for none).")
+                        .go();
+                return;
+            }
+
+            batch_queries = getFile("Which sequences would you like to identify?", FileDialog.LOAD);
+            if (batch_queries == null) return;
+
+            batch_output = getFile("Save the identifications as ...", FileDialog.SAVE);
+            if (batch_output == null) return;
+
+            TaskScheduler.getShared().submit("QuerySequence", this);
+        }
+    }
+
+    /** Asks the user for a file, returning null if they cancel. */
+    private File getFile(String title, int mode) {
+        FileDialog fd = new FileDialog(seqId.getFrame(), title, mode);
+        fd.setVisible(true);
+
+        if (fd.getFile() == null) return null;
+        if (fd.getDirectory() != null) return new File(fd.getDirectory(), fd.getFile());
+        return new File(fd.getFile());
+    }
+
+    /** Identifies the sequences in 'batch_queries', writing the results into 'batch_output'. */
+    public void run() {
+        SequenceList queries;
+        try {
+            queries =
+                    SequenceList.readFile(
+                            batch_queries,
+                            ProgressDialog.create(
+                                    seqId.getFrame(),
+                                    "Please wait, reading queries ...",
+                                    "The query sequences are being read from "
+                                            + batch_queries
+                                            + ". Please wait."));
+        } catch (SequenceListException e) {
+            new MessageBox(
+                            seqId.getFrame(),
+                            "Could not read queries!",
+                            "The query sequences could not be read from "
+                                    + batch_queries
+                                    + ". The technical description of the error is: "
+                                    + e.getMessage())
+                    .go();
+            return;
+        } catch (DelayAbortedException e) {
+            return;
+        }
+
+        SequenceList set = seqId.lockSequenceList();
+        if (set == null) {
+            seqId.unlockSequenceList();
+            return; // we have nothing
+        }
+
+        BatchQuery batch;
+        try {
+            batch = new BatchQuery(set, batch_threshold, batch_top);
+        } finally {
+            seqId.unlockSequenceList();
+        }
+
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(batch_output)));
+
+            try {
+                batch.run(
+                        queries,
+                        writer,
+                        ProgressDialog.create(
+                                seqId.getFrame(),
+                                "Please wait, identifying queries ...",
+                                "Each of the "
+                                        + queries.count()
+                                        + " query sequences is being compared against the "
+                                        + batch.countReferences()
+                                        + " sequences in this dataset. Please wait."));
+            } finally {
+                writer.close();
+            }
+
+            if (writer.checkError())
+                throw new IOException("Could not write to '" + batch_output + "'");
+        } catch (IOException e) {
+            new MessageBox(
+                            seqId.getFrame(),
+                            "Could not write results!",
+                            "The identifications could not be written to "
+                                    + batch_output
+                                    + ". The technical description of the error is: "
+                                    + e.getMessage())
+                    .go();
+            return;
+        } catch (DelayAbortedException e) {
+            return;
+        }
+
+        new MessageBox(
+                        seqId.getFrame(),
+                        "Queries identified!",
+                        queries.count()
+                                + " query sequences were identified, and the results written to "
+                                + batch_output
+                                + ".")
+                .go();
     }
 
     // what to display in the text_main
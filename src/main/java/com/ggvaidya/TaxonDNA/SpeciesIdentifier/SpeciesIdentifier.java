@@ -97,8 +97,9 @@ public class SpeciesIdentifier
     //		by using 'new SpeciesIdentifier(file)'.
     //
     /**
-     * SpeciesIdentifier's main entrypoint. We check for command line arguments (in this case, all
-     * of which must be files) and we start them using a call to 'new SpeciesIdentifier(file)'.
+     * SpeciesIdentifier's main entrypoint. We check for command line arguments (files, which we
+     * start using a call to 'new SpeciesIdentifier(file)', or options asking for an analysis to be
+     * run without a user interface; see CommandLine for details).
      */
     public static void main(String[] args) {
         if (args.length == 0) new SpeciesIdentifier();
@@ -204,6 +205,12 @@ public class SpeciesIdentifier
         //
         if (cmd.equals("Exit")) exitTaxonDNA();
 
+        //
+        // Commands -> Background tasks. Shows what's running
+        // (or waiting to run) in the background.
+        //
+        if (cmd.equals("Tasks")) TaskQueueDialog.showQueue(mainFrame);
+
         // Modules -> *
         //
         if ((cmd.length() > 7) && (cmd.substring(0, 7).equals("Module_"))) {
@@ -1037,6 +1044,11 @@ public class SpeciesIdentifier
             ext.addCommandsToMenu(commands);
             // implement the add-separator thing in another way ... or not at all ...
         }
+        commands.addSeparator();
+        MenuItem tasks = new MenuItem("Background tasks ...");
+        tasks.setActionCommand("Tasks");
+        tasks.addActionListener(this);
+        commands.add(tasks);
         menubar.add(commands);
 
         // Help menu
@@ -122,7 +122,7 @@ public class SpeciesSummary extends Panel
             exportRandomly();
             return;
         } else if (e.getSource().equals(btn_Calculate)) {
-            new Thread(this, "SpeciesSummary").start();
+            TaskScheduler.getShared().submit("SpeciesSummary", this);
             return;
         }
         if (e.getSource().equals(btn_export_with_cons)) {
@@ -449,20 +449,32 @@ public class SpeciesSummary extends Panel
             seqId.unlockSequenceList();
             return;
         }
-        SpeciesDetails species = null;
+        // if nothing has changed since we last did this, we already know the answer
+        SpeciesDetails species =
+                (SpeciesDetails)
+                        ResultCache.getShared().get(ResultCache.getKey("SpeciesSummary", list, ""));
 
-        try {
-            species =
-                    list.getSpeciesDetails(
-                            ProgressDialog.create(
-                                    seqId.getFrame(),
-                                    "Please wait, calculating species information ...",
-                                    "Species summary information is being calculated. Sorry for the"
-                                            + " wait.",
-                                    0));
-        } catch (DelayAbortedException e) {
-            seqId.unlockSequenceList();
-            return;
+        if (species == null) {
+            try {
+                species =
+                        list.getSpeciesDetails(
+                                ProgressDialog.create(
+                                        seqId.getFrame(),
+                                        "Please wait, calculating species information ...",
+                                        "Species summary information is being calculated. Sorry"
+                                                + " for the wait.",
+                                        0));
+            } catch (DelayAbortedException e) {
+                seqId.unlockSequenceList();
+                return;
+            }
+
+            // (a few hundred bytes for every sequence and species should be plenty)
+            ResultCache.getShared()
+                    .put(
+                            ResultCache.getKey("SpeciesSummary", list, ""),
+                            species,
+                            200L * (list.count() + species.count()));
         }
 
         vec_Species = new Vector();
@@ -602,6 +614,11 @@ public class SpeciesSummary extends Panel
         TextField tf_rands = new TextField();
         rl.add(tf_rands, RightLayout.BESIDE);
 
+        rl.add(new Label("Random seed (leave blank for a new one):"), RightLayout.NEXTLINE);
+
+        TextField tf_seed = new TextField();
+        rl.add(tf_seed, RightLayout.BESIDE);
+
         DefaultButton btn_go = new DefaultButton(w, "OK");
         DefaultButton btn_cancel = new DefaultButton(w, "Cancel");
 
@@ -623,6 +640,16 @@ public class SpeciesSummary extends Panel
                 rands = 10;
             }
 
+            // the same seed gets you the same subsets, so tell the user
+            // which one we used, in case they didn't pick one
+            long seed = new Random().nextLong();
+            try {
+                if (!tf_seed.getText().trim().equals(""))
+                    seed = Long.parseLong(tf_seed.getText().trim());
+            } catch (NumberFormatException e) {
+                seed = tf_seed.getText().trim().hashCode();
+            }
+
             species = ch_no_of_species.getSelectedIndex() + 1;
             specimens = ch_no_of_specimens.getSelectedIndex() + 1;
 
@@ -642,6 +669,7 @@ public class SpeciesSummary extends Panel
                             dir,
                             species,
                             rands,
+                            seed,
                             ProgressDialog.create(
                                     seqId.getFrame(),
                                     "Please wait, exporting species ...",
@@ -653,7 +681,10 @@ public class SpeciesSummary extends Panel
                                             + " randomizations of "
                                             + species
                                             + " species each were exported to "
-                                            + dir)
+                                            + dir
+                                            + " (random seed: "
+                                            + seed
+                                            + ")")
                             .go();
 
                 } else {
@@ -661,6 +692,7 @@ public class SpeciesSummary extends Panel
                             dir,
                             specimens,
                             rands,
+                            seed,
                             ProgressDialog.create(
                                     seqId.getFrame(),
                                     "Please wait, exporting specimens ...",
@@ -674,128 +706,53 @@ public class SpeciesSummary extends Panel
                                             + " randomizations of "
                                             + specimens
                                             + " specimens each were exported to "
-                                            + dir)
+                                            + dir
+                                            + " (random seed: "
+                                            + seed
+                                            + ")")
                             .go();
                 }
 
             } catch (IOException e) {
-
+                new MessageBox(
+                                seqId.getFrame(),
+                                "Error while exporting random subsets",
+                                seqId.getMessage(Messages.IOEXCEPTION_WRITING, dir, e))
+                        .go();
             } catch (DelayAbortedException e) {
 
             }
         }
     }
 
-    public void exportSpeciesRandomly(File dir, int species, int rands, ProgressDialog pd)
+    /**
+     * Exports 'rands' random subsets of 'species' species each into 'dir'. The subsets depend only
+     * on the sequences and 'seed', so the same seed will always give you the same subsets.
+     */
+    public void exportSpeciesRandomly(
+            File dir, int species, int rands, long seed, ProgressDialog pd)
             throws IOException, DelayAbortedException {
         if (vec_Species == null) return;
 
-        if (pd != null) pd.begin();
-
-        for (int x = 1; x <= rands; x++) {
-            //	System.err.println("x = " + x);
-
-            if (pd != null) pd.delay(x, rands);
-
-            File f = null;
-            f = new File(dir, species + "_species_randomization_" + x + ".txt");
-
-            Vector v_from = new Vector();
-            Vector v_to = new Vector();
-
-            v_from.addAll(vec_Species);
-            Random r = new Random();
-
-            for (int c = 0; c < species; c++) {
-                int index = r.nextInt(v_from.size());
-
-                Object o = v_from.get(index);
-                v_to.add(o);
-                v_from.remove(o);
-            }
-
-            SequenceList sl_exp = new SequenceList();
-
-            Iterator i_to = v_to.iterator();
-            SequenceList sl = seqId.lockSequenceList();
-            int tmp_count = 0;
-            while (i_to.hasNext()) {
-                tmp_count++;
-                //	System.err.println("tmp_count = " + tmp_count);
-
-                String spName = (String) i_to.next();
-
-                // export spName to a file
-                Iterator i_sp = sl.conspecificIterator(spName);
-
-                System.err.println("cons found");
-
-                while (i_sp.hasNext()) {
-                    Sequence seq = (Sequence) i_sp.next();
-                    sl_exp.add(seq);
-                }
-
-                //	System.err.println("sec copied");
-            }
-            seqId.unlockSequenceList();
-
-            FastaFile ff = new FastaFile();
-
-            try {
-                ff.writeFile(f, sl_exp, null);
-            } catch (IOException e) {
-                if (pd != null) pd.end();
-                throw e;
-            }
-        }
+        SequenceList sl = seqId.lockSequenceList();
+        RandomSubsets subsets = new RandomSubsets(sl, seed);
+        seqId.unlockSequenceList();
 
-        if (pd != null) pd.end();
+        subsets.exportSpecies(dir, species, rands, pd);
     }
 
-    public void exportSpecimensRandomly(File dir, int specimens, int rands, ProgressDialog pd)
+    /**
+     * Exports 'rands' random subsets of 'specimens' sequences each into 'dir'. The subsets depend
+     * only on the sequences and 'seed', so the same seed will always give you the same subsets.
+     */
+    public void exportSpecimensRandomly(
+            File dir, int specimens, int rands, long seed, ProgressDialog pd)
             throws IOException, DelayAbortedException {
-        if (pd != null) pd.begin();
-
-        for (int x = 1; x <= rands; x++) {
-            //	System.err.println("x = " + x);
-
-            if (pd != null) pd.delay(x, rands);
-
-            File f = null;
-            f = new File(dir, specimens + "_specimens_randomization_" + x + ".txt");
-
-            Vector v_from = new Vector();
-            Vector v_to = new Vector();
-
-            SequenceList sl = seqId.lockSequenceList();
-
-            v_from.addAll(sl);
-            Random r = new Random();
-
-            seqId.unlockSequenceList();
-
-            for (int c = 0; c < specimens; c++) {
-                int index = r.nextInt(v_from.size());
-
-                Object o = v_from.get(index);
-                v_to.add(o);
-                v_from.remove(o);
-            }
-
-            SequenceList sl_exp = new SequenceList();
-            sl_exp.addAll(v_to);
-
-            FastaFile ff = new FastaFile();
-
-            try {
-                ff.writeFile(f, sl_exp, null);
-            } catch (IOException e) {
-                if (pd != null) pd.end();
-                throw e;
-            }
-        }
+        SequenceList sl = seqId.lockSequenceList();
+        RandomSubsets subsets = new RandomSubsets(sl, seed);
+        seqId.unlockSequenceList();
 
-        if (pd != null) pd.end();
+        subsets.exportSpecimens(dir, specimens, rands, pd);
     }
 
     public double percentage(double x, double y) {